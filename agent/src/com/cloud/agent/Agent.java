@@ -114,6 +114,8 @@ public class Agent implements HandlerFactory, IAgentControl {
     long _sequence = 0;
     long _lastPingResponseTime = 0;
     long _pingInterval = 0;
+    // Whether the management server accepted the binary wire format (Request.Version.v4) for this connection.
+    volatile boolean _binaryWireFormat = false;
     AtomicInteger _inProgress = new AtomicInteger();
 
     StartupTask _startup = null;
@@ -303,9 +305,11 @@ public class Agent implements HandlerFactory, IAgentControl {
     public void sendStartup(Link link) {
         final StartupCommand[] startup = _resource.initialize();
         if (startup != null) {
+            _binaryWireFormat = false;
             final Command[] commands = new Command[startup.length];
             for (int i = 0; i < startup.length; i++) {
                 setupStartupCommand(startup[i]);
+                startup[i].setBinaryWireFormat(true);
                 commands[i] = startup[i];
             }
             final Request request = new Request(_id != null ? _id : -1, -1, commands, false, false);
@@ -427,6 +431,7 @@ public class Agent implements HandlerFactory, IAgentControl {
 
         setId(startup.getHostId());
         _pingInterval = (long)startup.getPingInterval() * 1000; // change to ms.
+        _binaryWireFormat = startup.isBinaryWireFormat();
 
         setLastPingResponseTime();
         scheduleWatch(link, response, _pingInterval, _pingInterval);
@@ -585,6 +590,9 @@ public class Agent implements HandlerFactory, IAgentControl {
             final PingCommand ping = _resource.getCurrentStatus(getId());
             final Request request = new Request(_id, -1, ping, false);
             request.setSequence(getNextSequence());
+            if (_binaryWireFormat) {
+                request.setVersion(Request.Version.v4);
+            }
             if (s_logger.isDebugEnabled()) {
                 s_logger.debug("Sending ping: " + request.toString());
             }
@@ -37,6 +37,7 @@ import org.apache.cloudstack.api.command.admin.resource.ArchiveAlertsCmd;
 import org.apache.cloudstack.api.command.admin.resource.DeleteAlertsCmd;
 import org.apache.cloudstack.api.command.admin.resource.ListAlertsCmd;
 import org.apache.cloudstack.api.command.admin.resource.ListCapacityCmd;
+import org.apache.cloudstack.api.command.admin.resource.ListStatsHistoryCmd;
 import org.apache.cloudstack.api.command.admin.resource.UploadCustomCertificateCmd;
 import org.apache.cloudstack.api.command.admin.systemvm.DestroySystemVmCmd;
 import org.apache.cloudstack.api.command.admin.systemvm.ListSystemVMsCmd;
@@ -280,6 +281,14 @@ public interface ManagementService {
      */
     List<? extends Capacity> listCapacities(ListCapacityCmd cmd);
 
+    /**
+     * list the stats history kept in memory for a host or a vm
+     *
+     * @param cmd
+     * @return List of samples, oldest first
+     */
+    List<? extends StatsSample> listStatsHistory(ListStatsHistoryCmd cmd);
+
     /**
      * List system VMs by the given search criteria
      *
@@ -0,0 +1,43 @@
+// Licensed to the Apache Software Foundation (ASF) under one
+// or more contributor license agreements.  See the NOTICE file
+// distributed with this work for additional information
+// regarding copyright ownership.  The ASF licenses this file
+// to you under the Apache License, Version 2.0 (the
+// "License"); you may not use this file except in compliance
+// with the License.  You may obtain a copy of the License at
+//
+//   http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing,
+// software distributed under the License is distributed on an
+// "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+// KIND, either express or implied.  See the License for the
+// specific language governing permissions and limitations
+// under the License.
+package com.cloud.server;
+
+import java.util.Date;
+
+/**
+ * One point of the stats history the management server keeps for a host or a vm.
+ * Metrics that are not collected for the entity are null.
+ */
+public interface StatsSample {
+    Date getTimestamp();
+
+    Double getCpuUtilization();
+
+    Double getMemoryUsedKBs();
+
+    Double getNetworkReadKBs();
+
+    Double getNetworkWriteKBs();
+
+    Double getDiskReadKBs();
+
+    Double getDiskWriteKBs();
+
+    Double getDiskReadIOs();
+
+    Double getDiskWriteIOs();
+}
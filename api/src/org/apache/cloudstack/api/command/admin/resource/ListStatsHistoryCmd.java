@@ -0,0 +1,112 @@
+// Licensed to the Apache Software Foundation (ASF) under one
+// or more contributor license agreements.  See the NOTICE file
+// distributed with this work for additional information
+// regarding copyright ownership.  The ASF licenses this file
+// to you under the Apache License, Version 2.0 (the
+// "License"); you may not use this file except in compliance
+// with the License.  You may obtain a copy of the License at
+//
+//   http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing,
+// software distributed under the License is distributed on an
+// "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+// KIND, either express or implied.  See the License for the
+// specific language governing permissions and limitations
+// under the License.
+package org.apache.cloudstack.api.command.admin.resource;
+
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+
+import org.apache.log4j.Logger;
+
+import org.apache.cloudstack.api.APICommand;
+import org.apache.cloudstack.api.ApiConstants;
+import org.apache.cloudstack.api.BaseListCmd;
+import org.apache.cloudstack.api.Parameter;
+import org.apache.cloudstack.api.response.HostResponse;
+import org.apache.cloudstack.api.response.ListResponse;
+import org.apache.cloudstack.api.response.StatsSampleResponse;
+import org.apache.cloudstack.api.response.UserVmResponse;
+
+import com.cloud.server.StatsSample;
+import com.cloud.utils.StringUtils;
+
+@APICommand(name = "listStatsHistory", description = "Lists the stats history the management server keeps in memory for a host or a virtual machine.",
+        responseObject = StatsSampleResponse.class, since = "4.5.2", requestHasSensitiveInfo = false, responseHasSensitiveInfo = false)
+public class ListStatsHistoryCmd extends BaseListCmd {
+    public static final Logger s_logger = Logger.getLogger(ListStatsHistoryCmd.class.getName());
+
+    private static final String s_name = "liststatshistoryresponse";
+
+    /////////////////////////////////////////////////////
+    //////////////// API parameters /////////////////////
+    /////////////////////////////////////////////////////
+
+    @Parameter(name = ApiConstants.HOST_ID, type = CommandType.UUID, entityType = HostResponse.class, description = "the ID of the host")
+    private Long hostId;
+
+    @Parameter(name = ApiConstants.VIRTUAL_MACHINE_ID, type = CommandType.UUID, entityType = UserVmResponse.class, description = "the ID of the virtual machine")
+    private Long virtualMachineId;
+
+    @Parameter(name = ApiConstants.START_DATE,
+               type = CommandType.DATE,
+               description = "only list samples taken at or after this date (use format \"yyyy-MM-dd HH:mm:ss\")")
+    private Date startDate;
+
+    @Parameter(name = ApiConstants.ROLLUP,
+               type = CommandType.BOOLEAN,
+               description = "list the downsampled averages, which cover a longer period, instead of the samples")
+    private Boolean rollup;
+
+    /////////////////////////////////////////////////////
+    /////////////////// Accessors ///////////////////////
+    /////////////////////////////////////////////////////
+
+    public Long getHostId() {
+        return hostId;
+    }
+
+    public Long getVirtualMachineId() {
+        return virtualMachineId;
+    }
+
+    public Date getStartDate() {
+        return startDate;
+    }
+
+    public boolean isRollup() {
+        return rollup != null && rollup;
+    }
+
+    /////////////////////////////////////////////////////
+    /////////////// API Implementation///////////////////
+    /////////////////////////////////////////////////////
+
+    @Override
+    public String getCommandName() {
+        return s_name;
+    }
+
+    @Override
+    public void execute() {
+        List<? extends StatsSample> samples = _mgr.listStatsHistory(this);
+        List<? extends StatsSample> page = StringUtils.applyPagination(samples, getStartIndex(), getPageSizeVal());
+        if (page == null) {
+            page = samples;
+        }
+
+        ListResponse<StatsSampleResponse> response = new ListResponse<StatsSampleResponse>();
+        List<StatsSampleResponse> sampleResponses = new ArrayList<StatsSampleResponse>();
+        for (StatsSample sample : page) {
+            StatsSampleResponse sampleResponse = new StatsSampleResponse(sample);
+            sampleResponse.setObjectName("statssample");
+            sampleResponses.add(sampleResponse);
+        }
+        response.setResponses(sampleResponses, samples.size());
+        response.setResponseName(getCommandName());
+        setResponseObject(response);
+    }
+}
@@ -0,0 +1,76 @@
+// Licensed to the Apache Software Foundation (ASF) under one
+// or more contributor license agreements.  See the NOTICE file
+// distributed with this work for additional information
+// regarding copyright ownership.  The ASF licenses this file
+// to you under the Apache License, Version 2.0 (the
+// "License"); you may not use this file except in compliance
+// with the License.  You may obtain a copy of the License at
+//
+//   http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing,
+// software distributed under the License is distributed on an
+// "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+// KIND, either express or implied.  See the License for the
+// specific language governing permissions and limitations
+// under the License.
+package org.apache.cloudstack.api.response;
+
+import java.util.Date;
+
+import com.google.gson.annotations.SerializedName;
+
+import org.apache.cloudstack.api.BaseResponse;
+
+import com.cloud.serializer.Param;
+import com.cloud.server.StatsSample;
+
+public class StatsSampleResponse extends BaseResponse {
+    @SerializedName("timestamp")
+    @Param(description = "the time the sample was taken, or the start of the period of a rollup")
+    private Date timestamp;
+
+    @SerializedName("cpuused")
+    @Param(description = "the CPU utilization in percent")
+    private Double cpuUsed;
+
+    @SerializedName("memoryused")
+    @Param(description = "the memory used in KB, for hosts")
+    private Double memoryUsed;
+
+    @SerializedName("networkkbsread")
+    @Param(description = "the incoming network traffic in KB")
+    private Double networkKbsRead;
+
+    @SerializedName("networkkbswrite")
+    @Param(description = "the outgoing network traffic in KB")
+    private Double networkKbsWrite;
+
+    @SerializedName("diskkbsread")
+    @Param(description = "the disk reads in KB, for virtual machines")
+    private Double diskKbsRead;
+
+    @SerializedName("diskkbswrite")
+    @Param(description = "the disk writes in KB, for virtual machines")
+    private Double diskKbsWrite;
+
+    @SerializedName("diskioread")
+    @Param(description = "the disk read IOs, for virtual machines")
+    private Double diskIORead;
+
+    @SerializedName("diskiowrite")
+    @Param(description = "the disk write IOs, for virtual machines")
+    private Double diskIOWrite;
+
+    public StatsSampleResponse(StatsSample sample) {
+        timestamp = sample.getTimestamp();
+        cpuUsed = sample.getCpuUtilization();
+        memoryUsed = sample.getMemoryUsedKBs();
+        networkKbsRead = sample.getNetworkReadKBs();
+        networkKbsWrite = sample.getNetworkWriteKBs();
+        diskKbsRead = sample.getDiskReadKBs();
+        diskKbsWrite = sample.getDiskWriteKBs();
+        diskIORead = sample.getDiskReadIOs();
+        diskIOWrite = sample.getDiskWriteIOs();
+    }
+}
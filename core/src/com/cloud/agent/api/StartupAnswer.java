@@ -22,6 +22,7 @@ package com.cloud.agent.api;
 public class StartupAnswer extends Answer {
     long hostId;
     int pingInterval;
+    boolean binaryWireFormat;
 
     protected StartupAnswer() {
     }
@@ -30,6 +31,7 @@ public class StartupAnswer extends Answer {
         super(cmd);
         this.hostId = hostId;
         this.pingInterval = pingInterval;
+        this.binaryWireFormat = cmd.isBinaryWireFormat();
     }
 
     public StartupAnswer(StartupCommand cmd, String details) {
@@ -43,4 +45,11 @@ public class StartupAnswer extends Answer {
     public int getPingInterval() {
         return pingInterval;
     }
+
+    /**
+     * @return true if the management server accepted Request.Version.v4 on this link.
+     */
+    public boolean isBinaryWireFormat() {
+        return binaryWireFormat;
+    }
 }
@@ -46,6 +46,7 @@ public class StartupCommand extends Command {
     String agentTag;
     String resourceName;
     String gatewayIpAddress;
+    boolean binaryWireFormat;
 
     public StartupCommand(Host.Type type) {
         this.type = type;
@@ -281,6 +282,17 @@ public class StartupCommand extends Command {
         this.gatewayIpAddress = gatewayIpAddress;
     }
 
+    /**
+     * @return true if the agent can handle Request.Version.v4 on this link.
+     */
+    public boolean isBinaryWireFormat() {
+        return binaryWireFormat;
+    }
+
+    public void setBinaryWireFormat(boolean binaryWireFormat) {
+        this.binaryWireFormat = binaryWireFormat;
+    }
+
     @Override
     public boolean executeInSequence() {
         return false;
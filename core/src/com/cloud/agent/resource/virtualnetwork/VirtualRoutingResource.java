@@ -73,6 +73,7 @@ public class VirtualRoutingResource {
     private int _retry;
     private int _port;
     private int _eachTimeout;
+    private int _batchThreshold;
 
     private String _cfgVersion = "1.0";
 
@@ -172,10 +173,40 @@ public class VirtualRoutingResource {
             return new Answer(cmd, true, "Nothing to do");
         }
 
+        long startTick = System.currentTimeMillis();
         List<ExecutionResult> results = new ArrayList<ExecutionResult>();
         List<String> details = new ArrayList<String>();
         boolean finalResult = false;
-        for (ConfigItem configItem : cfg) {
+        int index = 0;
+        boolean batched = isBatchable(cfg);
+        if (batched) {
+            // Ship all the items in one cfg file and one vr_cfg.sh run instead of one session per item
+            ExecutionResult result = applyConfigBatchToVR(cmd.getRouterAccessIp(), cfg);
+            int failedIndex = result.isSuccess() ? cfg.size() : findFailedConfigItem(cfg, result.getDetails());
+            if (failedIndex < 0) {
+                // Some items may have been applied already and retrying them could apply them twice, so fail them all
+                for (; index < cfg.size(); index++) {
+                    results.add(result);
+                    details.add(cfg.get(index).getInfo() + " - failed: " + result.getDetails());
+                }
+                failedIndex = cfg.size();
+            }
+            for (; index < failedIndex; index++) {
+                results.add(new ExecutionResult(true, null));
+                details.add(cfg.get(index).getInfo() + " - success: batched");
+                finalResult = true;
+            }
+            if (index < cfg.size()) {
+                // vr_cfg.sh stops on the first failure, the remaining items are applied one by one as before
+                results.add(result);
+                details.add(cfg.get(index).getInfo() + " - failed: " + result.getDetails());
+                finalResult = false;
+                index++;
+            }
+        }
+
+        for (; index < cfg.size(); index++) {
+            ConfigItem configItem = cfg.get(index);
             ExecutionResult result = applyConfigToVR(cmd.getRouterAccessIp(), configItem);
             if (result == null) {
                 result = new ExecutionResult(false, "null execution result");
@@ -185,6 +216,12 @@ public class VirtualRoutingResource {
             finalResult = result.isSuccess();
         }
 
+        if (s_logger.isDebugEnabled()) {
+            s_logger.debug("Applied " + cfg.size() + " config items of " + cmd.getClass().getSimpleName() + " to router " +
+                    cmd.getAccessDetail(NetworkElementCommand.ROUTER_NAME) + (batched ? " in one batch" : "") + " in " +
+                    (System.currentTimeMillis() - startTick) + " ms");
+        }
+
         // Not sure why this matters, but log it anyway
         if (cmd.getAnswersCount() != results.size()) {
             s_logger.warn("Expected " + cmd.getAnswersCount() + " answers while executing " + cmd.getClass().getSimpleName() + " but received " + results.size());
@@ -197,6 +234,72 @@ public class VirtualRoutingResource {
         }
     }
 
+    private boolean isBatchable(List<ConfigItem> cfg) {
+        if (_batchThreshold <= 1 || cfg.size() < _batchThreshold) {
+            return false;
+        }
+        // vr_cfg.sh reads files line by line and trims them, so only scripts are safe to batch
+        for (ConfigItem c : cfg) {
+            if (!(c instanceof ScriptConfigItem)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private String buildAggregateConfig(List<ConfigItem> cfg) {
+        StringBuilder sb = new StringBuilder();
+        sb.append("#Apache CloudStack Virtual Router Config File\n");
+        sb.append("<version>\n" + _cfgVersion + "\n</version>\n");
+        for (ConfigItem c : cfg) {
+            sb.append(c.getAggregateCommand());
+        }
+        return sb.toString();
+    }
+
+    private ExecutionResult applyAggregateConfigToVR(String routerAccessIp, String config, int answerCounts) {
+        String cfgFileName = "VR-" + UUID.randomUUID().toString() + ".cfg";
+        FileConfigItem fileConfigItem = new FileConfigItem(VRScripts.CONFIG_CACHE_LOCATION, cfgFileName, config);
+        ScriptConfigItem scriptConfigItem = new ScriptConfigItem(VRScripts.VR_CFG, "-c " + VRScripts.CONFIG_CACHE_LOCATION + cfgFileName);
+        // 120s is the minimal timeout
+        int timeout = answerCounts * _eachTimeout;
+        if (timeout < 120) {
+            timeout = 120;
+        }
+
+        ExecutionResult result = applyConfigToVR(routerAccessIp, fileConfigItem);
+        if (!result.isSuccess()) {
+            return result;
+        }
+        return applyConfigToVR(routerAccessIp, scriptConfigItem, timeout);
+    }
+
+    private ExecutionResult applyConfigBatchToVR(String routerAccessIp, List<ConfigItem> cfg) {
+        ExecutionResult result = applyAggregateConfigToVR(routerAccessIp, buildAggregateConfig(cfg), cfg.size());
+        if (result == null) {
+            result = new ExecutionResult(false, "null execution result");
+        }
+        return result;
+    }
+
+    /**
+     * vr_cfg.sh reports the script line it failed on, use it to tell which items of the batch were applied.
+     * Returns -1 when the failing item cannot be identified, in which case the whole command fails.
+     */
+    protected int findFailedConfigItem(List<ConfigItem> cfg, String details) {
+        if (details == null) {
+            return -1;
+        }
+        for (int i = 0; i < cfg.size(); i++) {
+            ScriptConfigItem item = (ScriptConfigItem)cfg.get(i);
+            String line = ("/opt/cloud/bin/" + item.getScript() + " " + item.getArgs()).trim();
+            if (details.contains("\"" + line + "\"")) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
     private CheckS2SVpnConnectionsAnswer execute(CheckS2SVpnConnectionsCommand cmd) {
 
         StringBuffer buff = new StringBuffer();
@@ -264,6 +367,9 @@ public class VirtualRoutingResource {
         value = (String)params.get("router.aggregation.command.each.timeout");
         _eachTimeout = NumbersUtil.parseInt(value, 3);
 
+        value = (String)params.get("router.batch.command.threshold");
+        _batchThreshold = NumbersUtil.parseInt(value, 2);
+
         if (_vrDeployer == null) {
             throw new ConfigurationException("Unable to find the resource for VirtualRouterDeployer!");
         }
@@ -336,9 +442,7 @@ public class VirtualRoutingResource {
             Queue<NetworkElementCommand> queue = _vrAggregateCommandsSet.get(routerName);
             int answerCounts = 0;
             try {
-                StringBuilder sb = new StringBuilder();
-                sb.append("#Apache CloudStack Virtual Router Config File\n");
-                sb.append("<version>\n" + _cfgVersion + "\n</version>\n");
+                List<ConfigItem> aggregated = new ArrayList<ConfigItem>();
                 for (NetworkElementCommand command : queue) {
                     answerCounts += command.getAnswersCount();
                     List<ConfigItem> cfg = generateCommandCfg(command);
@@ -346,28 +450,10 @@ public class VirtualRoutingResource {
                         s_logger.warn("Unknown commands for VirtualRoutingResource, but continue: " + cmd.toString());
                         continue;
                     }
-
-                    for (ConfigItem c : cfg) {
-                        sb.append(c.getAggregateCommand());
-                    }
-                }
-
-                // TODO replace with applyConfig with a stop on fail
-                String cfgFileName = "VR-"+ UUID.randomUUID().toString() + ".cfg";
-                FileConfigItem fileConfigItem = new FileConfigItem(VRScripts.CONFIG_CACHE_LOCATION, cfgFileName, sb.toString());
-                ScriptConfigItem scriptConfigItem = new ScriptConfigItem(VRScripts.VR_CFG, "-c " + VRScripts.CONFIG_CACHE_LOCATION + cfgFileName);
-                // 120s is the minimal timeout
-                int timeout = answerCounts * _eachTimeout;
-                if (timeout < 120) {
-                    timeout = 120;
-                }
-
-                ExecutionResult result = applyConfigToVR(cmd.getRouterAccessIp(), fileConfigItem);
-                if (!result.isSuccess()) {
-                    return new Answer(cmd, false, result.getDetails());
+                    aggregated.addAll(cfg);
                 }
 
-                result = applyConfigToVR(cmd.getRouterAccessIp(), scriptConfigItem, timeout);
+                ExecutionResult result = applyAggregateConfigToVR(cmd.getRouterAccessIp(), buildAggregateConfig(aggregated), answerCounts);
                 if (!result.isSuccess()) {
                     return new Answer(cmd, false, result.getDetails());
                 }
@@ -0,0 +1,595 @@
+//
+// Licensed to the Apache Software Foundation (ASF) under one
+// or more contributor license agreements.  See the NOTICE file
+// distributed with this work for additional information
+// regarding copyright ownership.  The ASF licenses this file
+// to you under the Apache License, Version 2.0 (the
+// "License"); you may not use this file except in compliance
+// with the License.  You may obtain a copy of the License at
+//
+//   http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing,
+// software distributed under the License is distributed on an
+// "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+// KIND, either express or implied.  See the License for the
+// specific language governing permissions and limitations
+// under the License.
+//
+
+package com.cloud.agent.transport;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import com.cloud.agent.api.Answer;
+import com.cloud.agent.api.Command;
+import com.cloud.agent.api.GetVmStatsAnswer;
+import com.cloud.agent.api.GetVmStatsCommand;
+import com.cloud.agent.api.HostVmStateReportEntry;
+import com.cloud.agent.api.PingAnswer;
+import com.cloud.agent.api.PingCommand;
+import com.cloud.agent.api.PingRoutingCommand;
+import com.cloud.agent.api.VmStatsEntry;
+import com.cloud.host.Host;
+import com.cloud.vm.VirtualMachine.PowerState;
+
+/**
+ * Compact binary encoding of the commands and answers that make up most of
+ * the agent traffic (pings and vm stats).  It's used by Request.Version.v4.
+ *
+ * Each command type is registered with a fixed type id and a hand written
+ * serializer, so there's no reflection involved.  Only the exact classes
+ * registered here are encoded, anything else, including subclasses, makes
+ * the whole request fall back to gson.  Type ids are part of the wire format
+ * and must never be reused.
+ *
+ * The data package looks as follows:
+ * 1. Number of commands - 2 bytes;
+ * 2. For each command, type id - 2 bytes, followed by the fields of the command.
+ */
+public class BinaryCommandCodec {
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+
+    private static final Map<Class<? extends Command>, Serializer<? extends Command>> s_byClass = new HashMap<Class<? extends Command>, Serializer<? extends Command>>();
+    private static final Serializer<?>[] s_byTypeId = new Serializer<?>[16];
+
+    static {
+        register(new PingCommandSerializer());
+        register(new PingRoutingCommandSerializer());
+        register(new PingAnswerSerializer());
+        register(new GetVmStatsCommandSerializer());
+        register(new GetVmStatsAnswerSerializer());
+        register(new AnswerSerializer());
+    }
+
+    private static void register(Serializer<? extends Command> serializer) {
+        assert s_byTypeId[serializer.getTypeId()] == null : "Type id " + serializer.getTypeId() + " is used twice";
+        s_byTypeId[serializer.getTypeId()] = serializer;
+        s_byClass.put(serializer.getType(), serializer);
+    }
+
+    @SuppressWarnings("unchecked")
+    private static <T extends Command> Serializer<T> getSerializer(T cmd) {
+        return cmd == null ? null : (Serializer<T>)s_byClass.get(cmd.getClass());
+    }
+
+    /**
+     * @return true if all of the commands can be binary encoded.
+     */
+    public static boolean canEncode(Command[] cmds) {
+        if (cmds == null) {
+            return false;
+        }
+        for (Command cmd : cmds) {
+            Serializer<Command> serializer = getSerializer(cmd);
+            if (serializer == null || !serializer.canEncode(cmd)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * @return the encoded commands or null if one of them can't be binary encoded.
+     */
+    public static ByteBuffer encode(Command[] cmds) {
+        if (!canEncode(cmds)) {
+            return null;
+        }
+
+        Output out = new Output(256);
+        out.writeShort((short)cmds.length);
+        for (Command cmd : cmds) {
+            writeCommand(out, cmd);
+        }
+        return out.toByteBuffer();
+    }
+
+    /**
+     * @param answers whether the commands are answers, in which case the returned array is an Answer[].
+     */
+    public static Command[] decode(ByteBuffer buffer, boolean answers) {
+        Input in = new Input(buffer);
+        int count = in.readShort();
+        Command[] cmds = answers ? new Answer[count] : new Command[count];
+        for (int i = 0; i < count; i++) {
+            cmds[i] = readCommand(in);
+        }
+        return cmds;
+    }
+
+    protected static void writeCommand(Output out, Command cmd) {
+        Serializer<Command> serializer = getSerializer(cmd);
+        out.writeShort(serializer.getTypeId());
+        serializer.write(out, cmd);
+        out.writeInt(cmd.getWait());
+        out.writeStringMap(cmd.getContextMap());
+    }
+
+    protected static Command readCommand(Input in) {
+        short typeId = in.readShort();
+        Serializer<?> serializer = typeId >= 0 && typeId < s_byTypeId.length ? s_byTypeId[typeId] : null;
+        if (serializer == null) {
+            throw new IllegalArgumentException("Unknown command type id " + typeId);
+        }
+        Command cmd = serializer.read(in);
+        cmd.setWait(in.readInt());
+        Map<String, String> context = in.readStringMap();
+        if (context != null) {
+            for (Map.Entry<String, String> entry : context.entrySet()) {
+                cmd.setContextParam(entry.getKey(), entry.getValue());
+            }
+        }
+        return cmd;
+    }
+
+    public interface Serializer<T extends Command> {
+        short getTypeId();
+
+        Class<T> getType();
+
+        /**
+         * @return false if the command is in a state that can't be rebuilt by read().
+         */
+        boolean canEncode(T cmd);
+
+        void write(Output out, T cmd);
+
+        T read(Input in);
+    }
+
+    /**
+     * Answers built through the public constructors can only carry a successful result.
+     */
+    protected static boolean isPlainSuccess(Answer answer) {
+        return answer.getResult() && answer.getDetails() == null && answer.getTypeError() == null;
+    }
+
+    protected static class PingCommandSerializer implements Serializer<PingCommand> {
+        @Override
+        public short getTypeId() {
+            return 1;
+        }
+
+        @Override
+        public Class<PingCommand> getType() {
+            return PingCommand.class;
+        }
+
+        @Override
+        public boolean canEncode(PingCommand cmd) {
+            return true;
+        }
+
+        @Override
+        public void write(Output out, PingCommand cmd) {
+            out.writeEnum(cmd.getHostType());
+            out.writeLong(cmd.getHostId());
+        }
+
+        @Override
+        public PingCommand read(Input in) {
+            Host.Type type = in.readEnum(Host.Type.values());
+            return new PingCommand(type, in.readLong());
+        }
+    }
+
+    protected static class PingRoutingCommandSerializer implements Serializer<PingRoutingCommand> {
+        private static final PowerState[] s_states = PowerState.values();
+
+        @Override
+        public short getTypeId() {
+            return 2;
+        }
+
+        @Override
+        public Class<PingRoutingCommand> getType() {
+            return PingRoutingCommand.class;
+        }
+
+        @Override
+        public boolean canEncode(PingRoutingCommand cmd) {
+            return true;
+        }
+
+        @Override
+        public void write(Output out, PingRoutingCommand cmd) {
+            out.writeEnum(cmd.getHostType());
+            out.writeLong(cmd.getHostId());
+            Map<String, HostVmStateReportEntry> report = cmd.getHostVmStateReport();
+            if (report == null) {
+                out.writeInt(-1);
+            } else {
+                out.writeInt(report.size());
+                for (Map.Entry<String, HostVmStateReportEntry> entry : report.entrySet()) {
+                    out.writeString(entry.getKey());
+                    HostVmStateReportEntry value = entry.getValue();
+                    out.writeBoolean(value != null);
+                    if (value != null) {
+                        out.writeEnum(value.getState());
+                        out.writeString(value.getHost());
+                    }
+                }
+            }
+            out.writeBoolean(cmd.isGatewayAccessible());
+            out.writeBoolean(cmd.isVnetAccessible());
+        }
+
+        @Override
+        public PingRoutingCommand read(Input in) {
+            Host.Type type = in.readEnum(Host.Type.values());
+            long hostId = in.readLong();
+            int size = in.readInt();
+            Map<String, HostVmStateReportEntry> report = null;
+            if (size >= 0) {
+                report = new HashMap<String, HostVmStateReportEntry>(size * 2);
+                for (int i = 0; i < size; i++) {
+                    String name = in.readString();
+                    HostVmStateReportEntry value = null;
+                    if (in.readBoolean()) {
+                        PowerState state = in.readEnum(s_states);
+                        value = new HostVmStateReportEntry(state, in.readString());
+                    }
+                    report.put(name, value);
+                }
+            }
+            PingRoutingCommand cmd = new PingRoutingCommand(type, hostId, report);
+            cmd.setGatewayAccessible(in.readBoolean());
+            cmd.setVnetAccessible(in.readBoolean());
+            return cmd;
+        }
+    }
+
+    protected static class PingAnswerSerializer implements Serializer<PingAnswer> {
+        @Override
+        public short getTypeId() {
+            return 3;
+        }
+
+        @Override
+        public Class<PingAnswer> getType() {
+            return PingAnswer.class;
+        }
+
+        @Override
+        public boolean canEncode(PingAnswer answer) {
+            if (!isPlainSuccess(answer)) {
+                return false;
+            }
+            Serializer<PingCommand> serializer = getSerializer(answer.getCommand());
+            return serializer != null && serializer.canEncode(answer.getCommand());
+        }
+
+        @Override
+        public void write(Output out, PingAnswer answer) {
+            writeCommand(out, answer.getCommand());
+        }
+
+        @Override
+        public PingAnswer read(Input in) {
+            return new PingAnswer((PingCommand)readCommand(in));
+        }
+    }
+
+    protected static class GetVmStatsCommandSerializer implements Serializer<GetVmStatsCommand> {
+        @Override
+        public short getTypeId() {
+            return 4;
+        }
+
+        @Override
+        public Class<GetVmStatsCommand> getType() {
+            return GetVmStatsCommand.class;
+        }
+
+        @Override
+        public boolean canEncode(GetVmStatsCommand cmd) {
+            return true;
+        }
+
+        @Override
+        public void write(Output out, GetVmStatsCommand cmd) {
+            List<String> names = cmd.getVmNames();
+            if (names == null) {
+                out.writeInt(-1);
+            } else {
+                out.writeInt(names.size());
+                for (String name : names) {
+                    out.writeString(name);
+                }
+            }
+            out.writeString(cmd.getHostGuid());
+            out.writeString(cmd.getHostName());
+        }
+
+        @Override
+        public GetVmStatsCommand read(Input in) {
+            int size = in.readInt();
+            List<String> names = null;
+            if (size >= 0) {
+                names = new ArrayList<String>(size);
+                for (int i = 0; i < size; i++) {
+                    names.add(in.readString());
+                }
+            }
+            String hostGuid = in.readString();
+            return new GetVmStatsCommand(names, hostGuid, in.readString());
+        }
+    }
+
+    protected static class GetVmStatsAnswerSerializer implements Serializer<GetVmStatsAnswer> {
+        @Override
+        public short getTypeId() {
+            return 5;
+        }
+
+        @Override
+        public Class<GetVmStatsAnswer> getType() {
+            return GetVmStatsAnswer.class;
+        }
+
+        @Override
+        public boolean canEncode(GetVmStatsAnswer answer) {
+            return isPlainSuccess(answer);
+        }
+
+        @Override
+        public void write(Output out, GetVmStatsAnswer answer) {
+            Map<String, VmStatsEntry> stats = answer.getVmStatsMap();
+            if (stats == null) {
+                out.writeInt(-1);
+                return;
+            }
+            out.writeInt(stats.size());
+            for (Map.Entry<String, VmStatsEntry> entry : stats.entrySet()) {
+                out.writeString(entry.getKey());
+                VmStatsEntry value = entry.getValue();
+                out.writeBoolean(value != null);
+                if (value != null) {
+                    out.writeDouble(value.getCPUUtilization());
+                    out.writeDouble(value.getNetworkReadKBs());
+                    out.writeDouble(value.getNetworkWriteKBs());
+                    out.writeDouble(value.getDiskReadIOs());
+                    out.writeDouble(value.getDiskWriteIOs());
+                    out.writeDouble(value.getDiskReadKBs());
+                    out.writeDouble(value.getDiskWriteKBs());
+                    out.writeInt(value.getNumCPUs());
+                    out.writeString(value.getEntityType());
+                }
+            }
+        }
+
+        @Override
+        public GetVmStatsAnswer read(Input in) {
+            int size = in.readInt();
+            HashMap<String, VmStatsEntry> stats = null;
+            if (size >= 0) {
+                stats = new HashMap<String, VmStatsEntry>(size * 2);
+                for (int i = 0; i < size; i++) {
+                    String name = in.readString();
+                    VmStatsEntry value = null;
+                    if (in.readBoolean()) {
+                        value = new VmStatsEntry();
+                        value.setCPUUtilization(in.readDouble());
+                        value.setNetworkReadKBs(in.readDouble());
+                        value.setNetworkWriteKBs(in.readDouble());
+                        value.setDiskReadIOs(in.readDouble());
+                        value.setDiskWriteIOs(in.readDouble());
+                        value.setDiskReadKBs(in.readDouble());
+                        value.setDiskWriteKBs(in.readDouble());
+                        value.setNumCPUs(in.readInt());
+                        value.setEntityType(in.readString());
+                    }
+                    stats.put(name, value);
+                }
+            }
+            return new GetVmStatsAnswer(null, stats);
+        }
+    }
+
+    protected static class AnswerSerializer implements Serializer<Answer> {
+        private static final Answer.AnswerTypeError[] s_errors = Answer.AnswerTypeError.values();
+
+        @Override
+        public short getTypeId() {
+            return 6;
+        }
+
+        @Override
+        public Class<Answer> getType() {
+            return Answer.class;
+        }
+
+        @Override
+        public boolean canEncode(Answer answer) {
+            return true;
+        }
+
+        @Override
+        public void write(Output out, Answer answer) {
+            out.writeBoolean(answer.getResult());
+            out.writeString(answer.getDetails());
+            out.writeEnum(answer.getTypeError());
+        }
+
+        @Override
+        public Answer read(Input in) {
+            boolean result = in.readBoolean();
+            String details = in.readString();
+            return new Answer(null, result, details, in.readEnum(s_errors));
+        }
+    }
+
+    /**
+     * Growable big endian output buffer.
+     */
+    public static class Output {
+        private byte[] _buf;
+        private int _pos;
+
+        public Output(int initialSize) {
+            _buf = new byte[initialSize];
+        }
+
+        private void ensure(int more) {
+            if (_pos + more > _buf.length) {
+                byte[] buf = new byte[Math.max(_buf.length * 2, _pos + more)];
+                System.arraycopy(_buf, 0, buf, 0, _pos);
+                _buf = buf;
+            }
+        }
+
+        public void writeBoolean(boolean value) {
+            ensure(1);
+            _buf[_pos++] = (byte)(value ? 1 : 0);
+        }
+
+        public void writeShort(short value) {
+            ensure(2);
+            _buf[_pos++] = (byte)(value >> 8);
+            _buf[_pos++] = (byte)value;
+        }
+
+        public void writeInt(int value) {
+            ensure(4);
+            _buf[_pos++] = (byte)(value >> 24);
+            _buf[_pos++] = (byte)(value >> 16);
+            _buf[_pos++] = (byte)(value >> 8);
+            _buf[_pos++] = (byte)value;
+        }
+
+        public void writeLong(long value) {
+            writeInt((int)(value >> 32));
+            writeInt((int)value);
+        }
+
+        public void writeDouble(double value) {
+            writeLong(Double.doubleToLongBits(value));
+        }
+
+        public void writeEnum(Enum<?> value) {
+            writeShort((short)(value == null ? -1 : value.ordinal()));
+        }
+
+        public void writeString(String value) {
+            if (value == null) {
+                writeInt(-1);
+                return;
+            }
+            byte[] bytes = value.getBytes(UTF8);
+            writeInt(bytes.length);
+            ensure(bytes.length);
+            System.arraycopy(bytes, 0, _buf, _pos, bytes.length);
+            _pos += bytes.length;
+        }
+
+        public void writeStringMap(Map<String, String> map) {
+            if (map == null) {
+                writeInt(-1);
+                return;
+            }
+            writeInt(map.size());
+            for (Map.Entry<String, String> entry : map.entrySet()) {
+                writeString(entry.getKey());
+                writeString(entry.getValue());
+            }
+        }
+
+        /**
+         * The returned buffer is backed by an array of exactly the encoded size,
+         * Request.doCompress() relies on that.
+         */
+        public ByteBuffer toByteBuffer() {
+            return ByteBuffer.wrap(_pos == _buf.length ? _buf : Arrays.copyOf(_buf, _pos));
+        }
+    }
+
+    public static class Input {
+        private final ByteBuffer _buf;
+
+        public Input(ByteBuffer buf) {
+            _buf = buf;
+        }
+
+        public boolean readBoolean() {
+            return _buf.get() != 0;
+        }
+
+        public short readShort() {
+            return _buf.getShort();
+        }
+
+        public int readInt() {
+            return _buf.getInt();
+        }
+
+        public long readLong() {
+            return _buf.getLong();
+        }
+
+        public double readDouble() {
+            return _buf.getDouble();
+        }
+
+        public <E extends Enum<E>> E readEnum(E[] values) {
+            short ordinal = _buf.getShort();
+            return ordinal < 0 ? null : values[ordinal];
+        }
+
+        public String readString() {
+            int length = _buf.getInt();
+            if (length < 0) {
+                return null;
+            }
+            String value;
+            if (_buf.hasArray()) {
+                value = new String(_buf.array(), _buf.arrayOffset() + _buf.position(), length, UTF8);
+                _buf.position(_buf.position() + length);
+            } else {
+                byte[] bytes = new byte[length];
+                _buf.get(bytes);
+                value = new String(bytes, UTF8);
+            }
+            return value;
+        }
+
+        public Map<String, String> readStringMap() {
+            int size = _buf.getInt();
+            if (size < 0) {
+                return null;
+            }
+            Map<String, String> map = new HashMap<String, String>(size * 2);
+            for (int i = 0; i < size; i++) {
+                String key = readString();
+                map.put(key, readString());
+            }
+            return map;
+        }
+    }
+}
@@ -72,6 +72,11 @@ import com.cloud.utils.exception.CloudRuntimeException;
  * 6. AgentId - 8 bytes;
  * 7. Data Package.
  *
+ * With v4 the data package is encoded by BinaryCommandCodec instead of gson.
+ * v4 is only used on links where both ends negotiated it at startup and only
+ * if every command in the request can be binary encoded, otherwise the
+ * request goes out as v1.
+ *
  */
 public class Request {
     private static final Logger s_logger = Logger.getLogger(Request.class);
@@ -83,7 +88,8 @@ public class Request {
     public enum Version {
         v1, // using gson to marshall
         v2, // now using gson as marshalled.
-        v3; // Adding routing information into the Request data structure.
+        v3, // Adding routing information into the Request data structure.
+        v4; // Binary encoding of the hot commands, see BinaryCommandCodec.
 
         public static Version get(final byte ver) throws UnsupportedVersionException {
             for (final Version version : Version.values()) {
@@ -216,6 +222,10 @@ public class Request {
         return _ver;
     }
 
+    public void setVersion(Version ver) {
+        _ver = ver;
+    }
+
     public void setAgentId(long agentId) {
         _agentId = agentId;
     }
@@ -323,12 +333,22 @@ public class Request {
 
     public ByteBuffer[] toBytes() {
         final ByteBuffer[] buffers = new ByteBuffer[2];
-        ByteBuffer tmp;
+        ByteBuffer tmp = null;
 
-        if (_content == null) {
-            _content = s_gson.toJson(_cmds, _cmds.getClass());
+        if (_ver == Version.v4) {
+            if (_content == null) {
+                tmp = BinaryCommandCodec.encode(_cmds);
+            }
+            if (tmp == null) {
+                _ver = Version.v1;
+            }
+        }
+        if (tmp == null) {
+            if (_content == null) {
+                _content = s_gson.toJson(_cmds, _cmds.getClass());
+            }
+            tmp = ByteBuffer.wrap(_content.getBytes());
         }
-        tmp = ByteBuffer.wrap(_content.getBytes());
         int capacity = tmp.capacity();
         /* Check if we need to compress the data */
         if (capacity >= 8192) {
@@ -485,7 +505,7 @@ public class Request {
         ByteBuffer buff = ByteBuffer.wrap(bytes);
         final byte ver = buff.get();
         final Version version = Version.get(ver);
-        if (version.ordinal() != Version.v1.ordinal() && version.ordinal() != Version.v3.ordinal()) {
+        if (version.ordinal() != Version.v1.ordinal() && version.ordinal() != Version.v3.ordinal() && version.ordinal() != Version.v4.ordinal()) {
             throw new UnsupportedVersionException("This version is no longer supported: " + version.toString(), UnsupportedVersionException.IncompatibleVersion);
         }
         buff.get();
@@ -499,7 +519,7 @@ public class Request {
         final long agentId = buff.getLong();
 
         long via;
-        if (version.ordinal() == Version.v1.ordinal()) {
+        if (version.ordinal() == Version.v1.ordinal() || version.ordinal() == Version.v4.ordinal()) {
             via = buff.getLong();
         } else {
             via = agentId;
@@ -509,6 +529,15 @@ public class Request {
             buff = doDecompress(buff, size);
         }
 
+        if (version == Version.v4) {
+            final Command[] cmds = BinaryCommandCodec.decode(buff, !isRequest);
+            if (isRequest) {
+                return new Request(version, seq, agentId, mgmtId, via, flags, cmds);
+            } else {
+                return new Response(version, seq, agentId, mgmtId, via, flags, (Answer[])cmds);
+            }
+        }
+
         byte[] command = null;
         int offset = 0;
         if (buff.hasArray()) {
@@ -20,6 +20,7 @@
 package com.cloud.agent.resource.virtualnetwork;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertTrue;
 import static org.junit.Assert.fail;
 
@@ -27,6 +28,7 @@ import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.LinkedList;
 import java.util.List;
+import java.util.Map;
 import java.util.UUID;
 
 import javax.naming.ConfigurationException;
@@ -139,7 +141,10 @@ public class VirtualRoutingResourceTest implements VirtualRouterDeployer {
     public void setup() {
         _resource = new VirtualRoutingResource(this);
         try {
-            _resource.configure("VRResource", new HashMap<String, Object>());
+            // Apply config items one by one so every script invocation can be verified
+            Map<String, Object> params = new HashMap<String, Object>();
+            params.put("router.batch.command.threshold", "0");
+            _resource.configure("VRResource", params);
         } catch (ConfigurationException e) {
             e.printStackTrace();
         }
@@ -277,6 +282,114 @@ public class VirtualRoutingResourceTest implements VirtualRouterDeployer {
         assertTrue(answer.getResult());
     }
 
+    @Test
+    public void testBatchedSetPortForwardingRulesCommand() throws ConfigurationException {
+        final List<String> scripts = new ArrayList<>();
+        final List<String> files = new ArrayList<>();
+        VirtualRoutingResource resource = new VirtualRoutingResource(new BatchRecordingDeployer(scripts, files, null));
+        resource.configure("VRResource", new HashMap<String, Object>());
+
+        Answer answer = resource.executeRequest(generateSetPortForwardingRulesCommand());
+        assertTrue(answer instanceof GroupAnswer);
+        assertEquals(((GroupAnswer) answer).getResults().length, 2);
+        assertTrue(answer.getResult());
+
+        // Both rules go to the router in one cfg file and one vr_cfg.sh run
+        assertEquals(files.size(), 1);
+        assertTrue(files.get(0).contains("/opt/cloud/bin/firewall_nat.sh -A -P tcp -l 64.1.1.10 -p 22:80 -r 10.10.1.10 -d 22:80\n"));
+        assertTrue(files.get(0).contains("/opt/cloud/bin/firewall_nat.sh -D -P udp -l 64.1.1.11 -p 8080:8080 -r 10.10.1.11 -d 8080:8080\n"));
+        assertEquals(scripts.size(), 1);
+        assertEquals(scripts.get(0), VRScripts.VR_CFG);
+    }
+
+    @Test
+    public void testBatchedSetPortForwardingRulesCommandFailure() throws ConfigurationException {
+        final List<String> scripts = new ArrayList<>();
+        final List<String> files = new ArrayList<>();
+        String failedLine = "/opt/cloud/bin/firewall_nat.sh -A -P tcp -l 64.1.1.10 -p 22:80 -r 10.10.1.10 -d 22:80";
+        VirtualRoutingResource resource = new VirtualRoutingResource(new BatchRecordingDeployer(scripts, files,
+                "VR config: execution failed: \"" + failedLine + "\", check /var/log/cloud.log in VR for details "));
+        resource.configure("VRResource", new HashMap<String, Object>());
+
+        Answer answer = resource.executeRequest(generateSetPortForwardingRulesCommand());
+        assertTrue(answer instanceof GroupAnswer);
+        String[] results = ((GroupAnswer) answer).getResults();
+        assertEquals(results.length, 2);
+        assertTrue(results[0].contains("failed"));
+        assertTrue(results[1].contains("success"));
+        assertTrue(answer.getResult());
+
+        // The batch stopped on the first rule, the second one is applied on its own
+        assertEquals(scripts.size(), 2);
+        assertEquals(scripts.get(0), VRScripts.VR_CFG);
+        assertEquals(scripts.get(1), VRScripts.FIREWALL_NAT);
+    }
+
+    @Test
+    public void testBatchedSetPortForwardingRulesCommandUnidentifiedFailure() throws ConfigurationException {
+        final List<String> scripts = new ArrayList<>();
+        final List<String> files = new ArrayList<>();
+        VirtualRoutingResource resource = new VirtualRoutingResource(new BatchRecordingDeployer(scripts, files, "Timeout"));
+        resource.configure("VRResource", new HashMap<String, Object>());
+
+        Answer answer = resource.executeRequest(generateSetPortForwardingRulesCommand());
+        assertTrue(answer instanceof GroupAnswer);
+        String[] results = ((GroupAnswer) answer).getResults();
+        assertEquals(results.length, 2);
+        assertTrue(results[0].contains("failed"));
+        assertTrue(results[1].contains("failed"));
+        assertFalse(answer.getResult());
+
+        // Unknown how far the batch got, so no rule is applied again on its own
+        assertEquals(scripts.size(), 1);
+        assertEquals(scripts.get(0), VRScripts.VR_CFG);
+    }
+
+    private class BatchRecordingDeployer implements VirtualRouterDeployer {
+        private final List<String> _scripts;
+        private final List<String> _files;
+        private final String _batchFailure;
+
+        BatchRecordingDeployer(List<String> scripts, List<String> files, String batchFailure) {
+            _scripts = scripts;
+            _files = files;
+            _batchFailure = batchFailure;
+        }
+
+        @Override
+        public ExecutionResult executeInVR(String routerIp, String script, String args) {
+            return executeInVR(routerIp, script, args, 60);
+        }
+
+        @Override
+        public ExecutionResult executeInVR(String routerIp, String script, String args, int timeout) {
+            assertEquals(routerIp, ROUTERIP);
+            _scripts.add(script);
+            if (script.equals(VRScripts.VR_CFG) && _batchFailure != null) {
+                return new ExecutionResult(false, _batchFailure);
+            }
+            return new ExecutionResult(true, null);
+        }
+
+        @Override
+        public ExecutionResult createFileInVR(String routerIp, String path, String filename, String content) {
+            assertEquals(routerIp, ROUTERIP);
+            _files.add(content);
+            return new ExecutionResult(true, null);
+        }
+
+        @Override
+        public ExecutionResult prepareCommand(NetworkElementCommand cmd) {
+            cmd.setRouterAccessIp(ROUTERIP);
+            return new ExecutionResult(true, null);
+        }
+
+        @Override
+        public ExecutionResult cleanupCommand(NetworkElementCommand cmd) {
+            return new ExecutionResult(true, null);
+        }
+    }
+
     protected SetPortForwardingRulesCommand generateSetPortForwardingRulesCommand() {
         List<PortForwardingRuleTO> pfRules = new ArrayList<>();
         pfRules.add(new PortForwardingRuleTO(1, "64.1.1.10", 22, 80, "10.10.1.10", 22, 80, "TCP", false, false));
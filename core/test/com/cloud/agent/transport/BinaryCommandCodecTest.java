@@ -0,0 +1,195 @@
+//
+// Licensed to the Apache Software Foundation (ASF) under one
+// or more contributor license agreements.  See the NOTICE file
+// distributed with this work for additional information
+// regarding copyright ownership.  The ASF licenses this file
+// to you under the Apache License, Version 2.0 (the
+// "License"); you may not use this file except in compliance
+// with the License.  You may obtain a copy of the License at
+//
+//   http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing,
+// software distributed under the License is distributed on an
+// "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+// KIND, either express or implied.  See the License for the
+// specific language governing permissions and limitations
+// under the License.
+//
+
+package com.cloud.agent.transport;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import junit.framework.TestCase;
+
+import org.apache.log4j.Logger;
+
+import com.cloud.agent.api.Answer;
+import com.cloud.agent.api.Command;
+import com.cloud.agent.api.GetHostStatsCommand;
+import com.cloud.agent.api.GetVmStatsAnswer;
+import com.cloud.agent.api.GetVmStatsCommand;
+import com.cloud.agent.api.HostVmStateReportEntry;
+import com.cloud.agent.api.PingAnswer;
+import com.cloud.agent.api.PingCommand;
+import com.cloud.agent.api.PingRoutingCommand;
+import com.cloud.agent.api.VmStatsEntry;
+import com.cloud.exception.UnsupportedVersionException;
+import com.cloud.host.Host;
+import com.cloud.vm.VirtualMachine.PowerState;
+
+public class BinaryCommandCodecTest extends TestCase {
+    private static final Logger s_logger = Logger.getLogger(BinaryCommandCodecTest.class);
+
+    private PingRoutingCommand createPing(int vms) {
+        Map<String, HostVmStateReportEntry> report = new HashMap<String, HostVmStateReportEntry>();
+        for (int i = 0; i < vms; i++) {
+            report.put("i-2-" + i + "-VM", new HostVmStateReportEntry(i % 2 == 0 ? PowerState.PowerOn : PowerState.PowerOff, "host1"));
+        }
+        PingRoutingCommand ping = new PingRoutingCommand(Host.Type.Routing, 12, report);
+        ping.setGatewayAccessible(false);
+        ping.setVnetAccessible(true);
+        return ping;
+    }
+
+    public void testPingRoutingCommand() throws ClassNotFoundException, UnsupportedVersionException {
+        PingRoutingCommand ping = createPing(5);
+        ping.setWait(30);
+        ping.setContextParam("job", "abc");
+
+        Request sreq = new Request(12, 3, ping, false);
+        sreq.setSequence(892403717);
+        sreq.setVersion(Request.Version.v4);
+
+        Request creq = Request.parse(sreq.getBytes());
+        assertEquals(Request.Version.v4, creq.getVersion());
+        assertEquals(sreq.getSequence(), creq.getSequence());
+        assertEquals(sreq.getAgentId(), creq.getAgentId());
+        assertEquals(sreq.getManagementServerId(), creq.getManagementServerId());
+        assertEquals(sreq.executeInSequence(), creq.executeInSequence());
+        assertFalse(creq instanceof Response);
+
+        PingRoutingCommand cping = (PingRoutingCommand)creq.getCommand();
+        assertEquals(Host.Type.Routing, cping.getHostType());
+        assertEquals(12, cping.getHostId());
+        assertFalse(cping.isGatewayAccessible());
+        assertTrue(cping.isVnetAccessible());
+        assertEquals(30, cping.getWait());
+        assertEquals("abc", cping.getContextParam("job"));
+        assertEquals(5, cping.getHostVmStateReport().size());
+        for (Map.Entry<String, HostVmStateReportEntry> entry : ping.getHostVmStateReport().entrySet()) {
+            HostVmStateReportEntry centry = cping.getHostVmStateReport().get(entry.getKey());
+            assertEquals(entry.getValue().getState(), centry.getState());
+            assertEquals(entry.getValue().getHost(), centry.getHost());
+        }
+    }
+
+    public void testPingAnswer() throws ClassNotFoundException, UnsupportedVersionException {
+        PingCommand ping = new PingCommand(Host.Type.Storage, 7);
+        Request sreq = new Request(7, 3, ping, false);
+        sreq.setVersion(Request.Version.v4);
+
+        Response sresp = new Response(sreq, new PingAnswer(ping));
+        Response cresp = (Response)Request.parse(sresp.getBytes());
+        assertEquals(Request.Version.v4, cresp.getVersion());
+
+        PingAnswer answer = (PingAnswer)cresp.getAnswer();
+        assertTrue(answer.getResult());
+        assertNull(answer.getDetails());
+        assertEquals(Host.Type.Storage, answer.getCommand().getHostType());
+        assertEquals(7, answer.getCommand().getHostId());
+    }
+
+    public void testVmStats() throws ClassNotFoundException, UnsupportedVersionException {
+        List<String> names = new ArrayList<String>();
+        names.add("i-2-3-VM");
+        names.add("r-4-VM");
+        GetVmStatsCommand cmd = new GetVmStatsCommand(names, "guid", "host1");
+        Request sreq = new Request(12, 3, cmd, true);
+        sreq.setVersion(Request.Version.v4);
+
+        Request creq = Request.parse(sreq.getBytes());
+        GetVmStatsCommand ccmd = (GetVmStatsCommand)creq.getCommand();
+        assertEquals(names, ccmd.getVmNames());
+        assertEquals("guid", ccmd.getHostGuid());
+        assertEquals("host1", ccmd.getHostName());
+
+        HashMap<String, VmStatsEntry> stats = new HashMap<String, VmStatsEntry>();
+        VmStatsEntry entry = new VmStatsEntry(12.5, 100.25, 200.75, 10.0, 20.0, 2, "vm");
+        entry.setDiskReadIOs(3);
+        entry.setDiskWriteIOs(4);
+        stats.put("i-2-3-VM", entry);
+        stats.put("r-4-VM", null);
+
+        Response sresp = new Response(creq, new GetVmStatsAnswer(ccmd, stats));
+        Response cresp = (Response)Request.parse(sresp.getBytes());
+        assertEquals(Request.Version.v4, cresp.getVersion());
+        GetVmStatsAnswer answer = (GetVmStatsAnswer)cresp.getAnswer();
+        assertTrue(answer.getResult());
+        assertEquals(2, answer.getVmStatsMap().size());
+        assertNull(answer.getVmStatsMap().get("r-4-VM"));
+        VmStatsEntry centry = answer.getVmStatsMap().get("i-2-3-VM");
+        assertEquals(12.5, centry.getCPUUtilization());
+        assertEquals(100.25, centry.getNetworkReadKBs());
+        assertEquals(200.75, centry.getNetworkWriteKBs());
+        assertEquals(10.0, centry.getDiskReadKBs());
+        assertEquals(20.0, centry.getDiskWriteKBs());
+        assertEquals(3.0, centry.getDiskReadIOs());
+        assertEquals(4.0, centry.getDiskWriteIOs());
+        assertEquals(2, centry.getNumCPUs());
+        assertEquals("vm", centry.getEntityType());
+    }
+
+    public void testFailedAnswer() throws ClassNotFoundException, UnsupportedVersionException {
+        PingCommand ping = new PingCommand(Host.Type.Routing, 7);
+        Request sreq = new Request(7, 3, ping, false);
+        sreq.setVersion(Request.Version.v4);
+
+        Response sresp = new Response(sreq, new Answer(ping, false, "Failed to ping"));
+        Response cresp = (Response)Request.parse(sresp.getBytes());
+        assertEquals(Request.Version.v4, cresp.getVersion());
+        assertFalse(cresp.getAnswer().getResult());
+        assertEquals("Failed to ping", cresp.getAnswer().getDetails());
+    }
+
+    public void testFallbackToGson() throws ClassNotFoundException, UnsupportedVersionException {
+        PingCommand ping = new PingCommand(Host.Type.Routing, 7);
+        GetHostStatsCommand stats = new GetHostStatsCommand("guid", "host1", 7);
+        Request sreq = new Request(7, 3, new Command[] {ping, stats}, false, false);
+        sreq.setVersion(Request.Version.v4);
+        assertFalse(BinaryCommandCodec.canEncode(sreq.getCommands()));
+
+        Request creq = Request.parse(sreq.getBytes());
+        assertEquals(Request.Version.v1, creq.getVersion());
+        assertEquals(2, creq.getCommands().length);
+        assertTrue(creq.getCommands()[1] instanceof GetHostStatsCommand);
+
+        // Answers with a failure can only be rebuilt through gson.
+        Response sresp = new Response(sreq, new Answer[] {new GetVmStatsAnswer(null, null)});
+        sresp.getAnswer().typeError = Answer.AnswerTypeError.DNS_IO_ERROR;
+        assertFalse(BinaryCommandCodec.canEncode(sresp.getAnswers()));
+    }
+
+    public void testCompressed() throws ClassNotFoundException, UnsupportedVersionException {
+        Request sreq = new Request(12, 3, createPing(2000), false);
+        sreq.setVersion(Request.Version.v4);
+
+        Request creq = Request.parse(sreq.getBytes());
+        assertEquals(Request.Version.v4, creq.getVersion());
+        assertEquals(2000, ((PingRoutingCommand)creq.getCommand()).getHostVmStateReport().size());
+    }
+
+    public void testSize() {
+        Request sreq = new Request(12, 3, createPing(50), false);
+        int gsonSize = sreq.getBytes().length;
+        sreq = new Request(12, 3, createPing(50), false);
+        sreq.setVersion(Request.Version.v4);
+        int binarySize = sreq.getBytes().length;
+        s_logger.info("Ping with 50 vms, gson: " + gsonSize + " bytes, binary: " + binarySize + " bytes");
+        assertTrue(binarySize < gsonSize);
+    }
+}
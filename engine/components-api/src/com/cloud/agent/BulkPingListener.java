@@ -0,0 +1,35 @@
+// Licensed to the Apache Software Foundation (ASF) under one
+// or more contributor license agreements.  See the NOTICE file
+// distributed with this work for additional information
+// regarding copyright ownership.  The ASF licenses this file
+// to you under the Apache License, Version 2.0 (the
+// "License"); you may not use this file except in compliance
+// with the License.  You may obtain a copy of the License at
+//
+//   http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing,
+// software distributed under the License is distributed on an
+// "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+// KIND, either express or implied.  See the License for the
+// specific language governing permissions and limitations
+// under the License.
+package com.cloud.agent;
+
+import java.util.Map;
+
+import com.cloud.agent.api.PingCommand;
+
+/**
+ * A Listener registered for host commands that handles agent pings in
+ * batches. The AgentManager coalesces the pings it receives from agents
+ * and hands them to processPingCommands on a fixed cadence, instead of
+ * calling processCommands once for every ping.
+ */
+public interface BulkPingListener extends Listener {
+
+    /**
+     * @param pings latest ping received from each agent since the previous batch, keyed by agent id.
+     */
+    void processPingCommands(Map<Long, PingCommand> pings);
+}
@@ -16,11 +16,15 @@
 // under the License.
 package com.cloud.capacity;
 
+import java.util.List;
+import java.util.Map;
+
 import org.apache.cloudstack.framework.config.ConfigKey;
 import org.apache.cloudstack.storage.datastore.db.StoragePoolVO;
 
 import com.cloud.host.Host;
 import com.cloud.storage.VMTemplateVO;
+import com.cloud.utils.Pair;
 import com.cloud.vm.VirtualMachine;
 
 /**
@@ -35,6 +39,7 @@ public interface CapacityManager {
     static final String StorageCapacityDisableThresholdCK = "pool.storage.capacity.disablethreshold";
     static final String StorageOverprovisioningFactorCK = "storage.overprovisioning.factor";
     static final String StorageAllocatedCapacityDisableThresholdCK = "pool.storage.allocated.capacity.disablethreshold";
+    static final String CapacityIndexRefreshIntervalCK = "capacity.index.refresh.interval";
 
     static final ConfigKey<Float> CpuOverprovisioningFactor = new ConfigKey<Float>(Float.class, CpuOverprovisioningFactorCK, "Advanced", "1.0",
         "Used for CPU overprovisioning calculation; available CPU will be (actualCpuCapacity * cpu.overprovisioning.factor)", true, ConfigKey.Scope.Cluster, null);
@@ -53,6 +58,9 @@ public interface CapacityManager {
             "0.85",
             "Percentage (as a value between 0 and 1) of allocated storage utilization above which allocators will disable using the pool for low allocated storage available.",
             true, ConfigKey.Scope.Zone);
+    static final ConfigKey<Integer> CapacityIndexRefreshInterval = new ConfigKey<Integer>("Advanced", Integer.class, CapacityIndexRefreshIntervalCK, "60",
+        "Interval (in seconds) at which the in-memory host capacity index used to order pods and clusters during deployment is reconciled with the database; "
+            + "0 disables the index and the planners query the database directly", false);
 
     public boolean releaseVmCapacity(VirtualMachine vm, boolean moveFromReserved, boolean moveToReservered, Long hostId);
 
@@ -106,4 +114,17 @@ public interface CapacityManager {
     long getUsedBytes(StoragePoolVO pool);
 
     long getUsedIops(StoragePoolVO pool);
+
+    /**
+     * Lists the clusters of a zone or pod having at least one host with enough CPU and at least one
+     * host with enough RAM, ordered by aggregate utilization, from the in-memory capacity index.
+     * @return the ordered clusters and the utilization of every cluster in the zone or pod, or null
+     *         if the capacity index is not available and the caller has to query the database
+     */
+    Pair<List<Long>, Map<Long, Double>> orderClustersByHostCapacity(long id, int requiredCpu, long requiredRam, short capacityTypeForOrdering, boolean isZone);
+
+    /**
+     * Pod counterpart of {@link #orderClustersByHostCapacity(long, int, long, short, boolean)}.
+     */
+    Pair<List<Long>, Map<Long, Double>> orderPodsByHostCapacity(long zoneId, int requiredCpu, long requiredRam, short capacityTypeForOrdering);
 }
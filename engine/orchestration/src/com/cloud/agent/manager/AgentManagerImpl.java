@@ -49,6 +49,7 @@ import org.apache.cloudstack.managed.context.ManagedContextRunnable;
 import org.apache.cloudstack.utils.identity.ManagementServerNode;
 
 import com.cloud.agent.AgentManager;
+import com.cloud.agent.BulkPingListener;
 import com.cloud.agent.Listener;
 import com.cloud.agent.StartupCommandProcessor;
 import com.cloud.agent.api.AgentControlAnswer;
@@ -166,11 +167,16 @@ public class AgentManagerImpl extends ManagerBase implements AgentManager, Handl
     protected ScheduledExecutorService _directAgentExecutor;
     protected ScheduledExecutorService _cronJobExecutor;
     protected ScheduledExecutorService _monitorExecutor;
+    protected ScheduledExecutorService _pingBatchExecutor;
 
     private int _directAgentThreadCap;
 
     protected StateMachine2<Status, Status.Event, Host> _statusStateMachine = Status.getStateMachine();
     private final ConcurrentHashMap<Long, Long> _pingMap = new ConcurrentHashMap<Long, Long>(10007);
+    // latest ping of each agent waiting for the next ping batch
+    private final ConcurrentHashMap<Long, PendingPing> _pendingPings = new ConcurrentHashMap<Long, PendingPing>(10007);
+    // last reported gateway state of each host, alerts are only raised or cleared when it changes
+    private final ConcurrentHashMap<Long, Boolean> _gatewayStates = new ConcurrentHashMap<Long, Boolean>(10007);
 
     @Inject
     ResourceManager _resourceMgr;
@@ -178,8 +184,14 @@ public class AgentManagerImpl extends ManagerBase implements AgentManager, Handl
     protected final ConfigKey<Integer> Workers = new ConfigKey<Integer>("Advanced", Integer.class, "workers", "5",
             "Number of worker threads handling remote agent connections.", false);
     protected final ConfigKey<Integer> Port = new ConfigKey<Integer>("Advanced", Integer.class, "port", "8250", "Port to listen on for remote agent connections.", false);
+    protected final ConfigKey<Integer> Selectors = new ConfigKey<Integer>("Advanced", Integer.class, "agent.selector.threads", "0",
+            "Number of selector threads serving remote agent connections, 0 for one per core.", false);
+    protected final ConfigKey<Integer> HandlerQueueSize = new ConfigKey<Integer>("Advanced", Integer.class, "agent.handler.queue.size", "10000",
+            "Number of agent requests waiting for a handler at which the selector threads stop reading from their connections until the handlers catch up, 0 for no limit.", false);
     protected final ConfigKey<Integer> PingInterval = new ConfigKey<Integer>("Advanced", Integer.class, "ping.interval", "60",
             "Interval to send application level pings to make sure the connection is still working", false);
+    protected final ConfigKey<Integer> PingBatchInterval = new ConfigKey<Integer>("Advanced", Integer.class, "ping.batch.interval", "1000",
+            "Interval (in milliseconds) at which pings received from agents are handed to listeners in batches, 0 to process each ping as it arrives", false);
     protected final ConfigKey<Float> PingTimeout = new ConfigKey<Float>("Advanced", Float.class, "ping.timeout", "2.5",
             "Multiplier to ping.interval before announcing an agent has timed out", true);
     protected final ConfigKey<Integer> AlertWait = new ConfigKey<Integer>("Advanced", Integer.class, "alert.wait", "1800",
@@ -219,8 +231,8 @@ public class AgentManagerImpl extends ManagerBase implements AgentManager, Handl
         //allow core threads to time out even when there are no items in the queue
         _connectExecutor.allowCoreThreadTimeOut(true);
 
-        _connection = new NioServer("AgentManager", Port.value(), Workers.value() + 10, this);
-        s_logger.info("Listening on " + Port.value() + " with " + Workers.value() + " workers");
+        _connection = new NioServer("AgentManager", Port.value(), Workers.value() + 10, this, Selectors.value(), HandlerQueueSize.value());
+        s_logger.info("Listening on " + Port.value() + " with " + Workers.value() + " workers and " + _connection.getSelectors().size() + " selectors");
 
         // executes all agent commands other than cron and ping
         _directAgentExecutor = new ScheduledThreadPoolExecutor(DirectAgentPoolSize.value(), new NamedThreadFactory("DirectAgent"));
@@ -231,6 +243,10 @@ public class AgentManagerImpl extends ManagerBase implements AgentManager, Handl
 
         _monitorExecutor = new ScheduledThreadPoolExecutor(1, new NamedThreadFactory("AgentMonitor"));
 
+        if (PingBatchInterval.value() > 0) {
+            _pingBatchExecutor = new ScheduledThreadPoolExecutor(1, new NamedThreadFactory("AgentPingBatch"));
+        }
+
         return true;
     }
 
@@ -311,6 +327,50 @@ public class AgentManagerImpl extends ManagerBase implements AgentManager, Handl
         }
     }
 
+    protected void queuePing(AgentAttache attache, long sequence, PingCommand cmd) {
+        if (_pingBatchExecutor == null) {
+            handleCommands(attache, sequence, new Command[] {cmd});
+            if (cmd instanceof PingRoutingCommand) {
+                checkGatewayAccess((PingRoutingCommand)cmd);
+            }
+            return;
+        }
+
+        // a newer ping from the same agent supersedes the one still waiting for the batch
+        _pendingPings.put(attache.getId(), new PendingPing(attache, sequence, cmd));
+    }
+
+    protected void checkGatewayAccess(PingRoutingCommand cmd) {
+        long cmdHostId = cmd.getHostId();
+        boolean gatewayAccessible = cmd.isGatewayAccessible();
+
+        Boolean lastGatewayAccessible = _gatewayStates.put(cmdHostId, gatewayAccessible);
+        if (lastGatewayAccessible != null && lastGatewayAccessible == gatewayAccessible) {
+            return;
+        }
+
+        // if the router is sending a ping, verify the
+        // gateway was pingable
+        HostVO host = _hostDao.findById(Long.valueOf(cmdHostId));
+        if (host != null) {
+            if (!gatewayAccessible) {
+                // alert that host lost connection to
+                // gateway (cannot ping the default route)
+                DataCenterVO dcVO = _dcDao.findById(host.getDataCenterId());
+                HostPodVO podVO = _podDao.findById(host.getPodId());
+                String hostDesc = "name: " + host.getName() + " (id:" + host.getId() + "), availability zone: " + dcVO.getName() + ", pod: " + podVO.getName();
+
+                _alertMgr.sendAlert(AlertManager.AlertType.ALERT_TYPE_ROUTING, host.getDataCenterId(), host.getPodId(), "Host lost connection to gateway, " + hostDesc,
+                        "Host [" + hostDesc + "] lost connection to gateway (default route) and is possibly having network connection issues.");
+            } else {
+                _alertMgr.clearAlert(AlertManager.AlertType.ALERT_TYPE_ROUTING, host.getDataCenterId(), host.getPodId());
+            }
+        } else {
+            _gatewayStates.remove(cmdHostId);
+            s_logger.debug("Not processing " + PingRoutingCommand.class.getSimpleName() + " for agent id=" + cmdHostId + "; can't find the host in the DB");
+        }
+    }
+
     public void notifyAnswersToMonitors(long agentId, long seq, Answer[] answers) {
         for (Pair<Integer, Listener> listener : _cmdMonitors) {
             listener.second().processAnswers(agentId, seq, answers);
@@ -518,6 +578,7 @@ public class AgentManagerImpl extends ManagerBase implements AgentManager, Handl
         if (removed != null) {
             removed.disconnect(nextState);
         }
+        _gatewayStates.remove(hostId);
 
         for (Pair<Integer, Listener> monitor : _hostMonitors) {
             if (s_logger.isDebugEnabled()) {
@@ -588,6 +649,9 @@ public class AgentManagerImpl extends ManagerBase implements AgentManager, Handl
         }
 
         _monitorExecutor.scheduleWithFixedDelay(new MonitorTask(), PingInterval.value(), PingInterval.value(), TimeUnit.SECONDS);
+        if (_pingBatchExecutor != null) {
+            _pingBatchExecutor.scheduleWithFixedDelay(new PingBatchTask(), PingBatchInterval.value(), PingBatchInterval.value(), TimeUnit.MILLISECONDS);
+        }
 
         return true;
     }
@@ -748,6 +812,9 @@ public class AgentManagerImpl extends ManagerBase implements AgentManager, Handl
 
         _connectExecutor.shutdownNow();
         _monitorExecutor.shutdownNow();
+        if (_pingBatchExecutor != null) {
+            _pingBatchExecutor.shutdownNow();
+        }
         return true;
     }
 
@@ -1027,6 +1094,9 @@ public class AgentManagerImpl extends ManagerBase implements AgentManager, Handl
             if (host != null) {
                 ready = new ReadyCommand(host.getDataCenterId(), host.getId());
                 attache = createAttacheForConnect(host, link);
+                if (attache instanceof ConnectedAgentAttache) {
+                    ((ConnectedAgentAttache)attache).setBinaryWireFormat(startup[0].isBinaryWireFormat());
+                }
                 attache = notifyMonitorsOfConnection(attache, startup, false);
             }
         } catch (Exception e) {
@@ -1209,39 +1279,13 @@ public class AgentManagerImpl extends ManagerBase implements AgentManager, Handl
                         return;
                     } else if (cmd instanceof AgentControlCommand) {
                         answer = handleControlCommand(attache, (AgentControlCommand)cmd);
+                    } else if (cmd instanceof PingCommand) {
+                        // pings are acknowledged right away, listeners get them through the ping batch
+                        queuePing(attache, request.getSequence(), (PingCommand)cmd);
+                        answer = new PingAnswer((PingCommand)cmd);
                     } else {
                         handleCommands(attache, request.getSequence(), new Command[] {cmd});
-                        if (cmd instanceof PingCommand) {
-                            long cmdHostId = ((PingCommand)cmd).getHostId();
-
-                            // if the router is sending a ping, verify the
-                            // gateway was pingable
-                            if (cmd instanceof PingRoutingCommand) {
-                                boolean gatewayAccessible = ((PingRoutingCommand)cmd).isGatewayAccessible();
-                                HostVO host = _hostDao.findById(Long.valueOf(cmdHostId));
-
-                                if (host != null) {
-                                    if (!gatewayAccessible) {
-                                        // alert that host lost connection to
-                                        // gateway (cannot ping the default route)
-                                        DataCenterVO dcVO = _dcDao.findById(host.getDataCenterId());
-                                        HostPodVO podVO = _podDao.findById(host.getPodId());
-                                        String hostDesc =
-                                                "name: " + host.getName() + " (id:" + host.getId() + "), availability zone: " + dcVO.getName() + ", pod: " + podVO.getName();
-
-                                        _alertMgr.sendAlert(AlertManager.AlertType.ALERT_TYPE_ROUTING, host.getDataCenterId(), host.getPodId(),
-                                                "Host lost connection to gateway, " + hostDesc, "Host [" + hostDesc +
-                                                "] lost connection to gateway (default route) and is possibly having network connection issues.");
-                                    } else {
-                                        _alertMgr.clearAlert(AlertManager.AlertType.ALERT_TYPE_ROUTING, host.getDataCenterId(), host.getPodId());
-                                    }
-                                } else {
-                                    s_logger.debug("Not processing " + PingRoutingCommand.class.getSimpleName() + " for agent id=" + cmdHostId +
-                                            "; can't find the host in the DB");
-                                }
-                            }
-                            answer = new PingAnswer((PingCommand)cmd);
-                        } else if (cmd instanceof ReadyAnswer) {
+                        if (cmd instanceof ReadyAnswer) {
                             HostVO host = _hostDao.findById(attache.getId());
                             if (host == null) {
                                 if (s_logger.isDebugEnabled()) {
@@ -1563,7 +1607,96 @@ public class AgentManagerImpl extends ManagerBase implements AgentManager, Handl
         }
     }
 
-    protected class BehindOnPingListener implements Listener {
+    protected static class PendingPing {
+        final AgentAttache attache;
+        final long sequence;
+        final PingCommand cmd;
+
+        PendingPing(AgentAttache attache, long sequence, PingCommand cmd) {
+            this.attache = attache;
+            this.sequence = sequence;
+            this.cmd = cmd;
+        }
+    }
+
+    protected class PingBatchTask extends ManagedContextRunnable {
+        @Override
+        protected void runInContext() {
+            if (_pendingPings.isEmpty()) {
+                return;
+            }
+
+            final List<PendingPing> pings = new ArrayList<PendingPing>(_pendingPings.size());
+            for (Map.Entry<Long, PendingPing> entry : _pendingPings.entrySet()) {
+                // drop pings of agents that disconnected or reconnected since
+                if (_pendingPings.remove(entry.getKey(), entry.getValue()) && findAttache(entry.getKey()) == entry.getValue().attache) {
+                    pings.add(entry.getValue());
+                }
+            }
+
+            if (s_logger.isTraceEnabled()) {
+                s_logger.trace("Processing a batch of " + pings.size() + " pings");
+            }
+
+            final List<Listener> pingListeners = new ArrayList<Listener>();
+            TransactionLegacy txn = TransactionLegacy.open(TransactionLegacy.CLOUD_DB);
+            try {
+                final Map<Long, PingCommand> pingCmds = new HashMap<Long, PingCommand>(pings.size());
+                for (PendingPing ping : pings) {
+                    pingCmds.put(ping.attache.getId(), ping.cmd);
+                    if (ping.cmd instanceof PingRoutingCommand) {
+                        try {
+                            checkGatewayAccess((PingRoutingCommand)ping.cmd);
+                        } catch (Throwable th) {
+                            s_logger.warn("Unable to check gateway access of host " + ping.attache.getId(), th);
+                        }
+                    }
+                }
+
+                for (Pair<Integer, Listener> listener : _cmdMonitors) {
+                    if (listener.second() instanceof BulkPingListener) {
+                        try {
+                            ((BulkPingListener)listener.second()).processPingCommands(pingCmds);
+                        } catch (Throwable th) {
+                            s_logger.warn("Caught exception from " + listener.second().getClass() + " while processing a batch of pings", th);
+                        }
+                    } else {
+                        pingListeners.add(listener.second());
+                    }
+                }
+            } finally {
+                txn.close();
+            }
+
+            // listeners without bulk support still get one ping at a time, spread over the agent task pool
+            if (!pingListeners.isEmpty()) {
+                for (final PendingPing ping : pings) {
+                    _executor.execute(new ManagedContextRunnable() {
+                        @Override
+                        protected void runInContext() {
+                            TransactionLegacy txn = TransactionLegacy.open(TransactionLegacy.CLOUD_DB);
+                            try {
+                                Command[] cmds = new Command[] {ping.cmd};
+                                for (Listener listener : pingListeners) {
+                                    boolean processed = listener.processCommands(ping.attache.getId(), ping.sequence, cmds);
+                                    if (s_logger.isTraceEnabled()) {
+                                        s_logger.trace("SeqA " + ping.attache.getId() + "-" + ping.sequence + ": " + (processed ? "processed" : "not processed") + " by " +
+                                                listener.getClass());
+                                    }
+                                }
+                            } catch (Throwable th) {
+                                s_logger.warn("Caught exception while processing ping from host " + ping.attache.getId(), th);
+                            } finally {
+                                txn.close();
+                            }
+                        }
+                    });
+                }
+            }
+        }
+    }
+
+    protected class BehindOnPingListener implements BulkPingListener {
         @Override
         public boolean isRecurring() {
             return true;
@@ -1585,6 +1718,13 @@ public class AgentManagerImpl extends ManagerBase implements AgentManager, Handl
             return processed;
         }
 
+        @Override
+        public void processPingCommands(Map<Long, PingCommand> pings) {
+            for (Long agentId : pings.keySet()) {
+                pingBy(agentId);
+            }
+        }
+
         @Override
         public AgentControlAnswer processControlCommand(long agentId, AgentControlCommand cmd) {
             return null;
@@ -1625,7 +1765,7 @@ public class AgentManagerImpl extends ManagerBase implements AgentManager, Handl
 
     @Override
     public ConfigKey<?>[] getConfigKeys() {
-        return new ConfigKey<?>[] {CheckTxnBeforeSending, Workers, Port, PingInterval, PingTimeout, Wait, AlertWait, DirectAgentLoadSize, DirectAgentPoolSize, DirectAgentThreadCap};
+        return new ConfigKey<?>[] {CheckTxnBeforeSending, Workers, Port, Selectors, HandlerQueueSize, PingInterval, PingBatchInterval, PingTimeout, Wait, AlertWait, DirectAgentLoadSize, DirectAgentPoolSize, DirectAgentThreadCap};
     }
 
 }
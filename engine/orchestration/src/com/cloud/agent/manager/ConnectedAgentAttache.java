@@ -21,6 +21,7 @@ import java.nio.channels.ClosedChannelException;
 import org.apache.log4j.Logger;
 
 import com.cloud.agent.transport.Request;
+import com.cloud.agent.transport.Request.Version;
 import com.cloud.exception.AgentUnavailableException;
 import com.cloud.host.Status;
 import com.cloud.utils.nio.Link;
@@ -32,15 +33,26 @@ public class ConnectedAgentAttache extends AgentAttache {
     private static final Logger s_logger = Logger.getLogger(ConnectedAgentAttache.class);
 
     protected Link _link;
+    protected volatile boolean _binaryWireFormat;
 
     public ConnectedAgentAttache(final AgentManagerImpl agentMgr, final long id, final String name, final Link link, final boolean maintenance) {
         super(agentMgr, id, name, maintenance);
         _link = link;
     }
 
+    /**
+     * @param binaryWireFormat whether the agent negotiated Request.Version.v4 at startup.
+     */
+    public void setBinaryWireFormat(final boolean binaryWireFormat) {
+        _binaryWireFormat = binaryWireFormat;
+    }
+
     @Override
     public synchronized void send(final Request req) throws AgentUnavailableException {
         try {
+            if (_binaryWireFormat && req.getVersion() == Version.v1) {
+                req.setVersion(Version.v4);
+            }
             _link.send(req.toBytes());
         } catch (ClosedChannelException e) {
             throw new AgentUnavailableException("Channel is closed", _id);
@@ -3598,8 +3598,20 @@ public class VirtualMachineManagerImpl extends ManagerBase implements VirtualMac
     @MessageHandler(topic = Topics.VM_POWER_STATE)
     private void HandlePowerStateReport(String subject, String senderAddress, Object args) {
         assert (args != null);
-        Long vmId = (Long)args;
 
+        // power state changes are published as one message per host report
+        @SuppressWarnings("unchecked")
+        List<Long> vmIds = (List<Long>)args;
+        for (Long vmId : vmIds) {
+            try {
+                handlePowerStateReport(vmId);
+            } catch (Throwable e) {
+                s_logger.warn("Unexpected exception when processing power state report of VM " + vmId, e);
+            }
+        }
+    }
+
+    private void handlePowerStateReport(long vmId) {
         List<VmWorkJobVO> pendingWorkJobs = _workJobDao.listPendingWorkJobs(
                 VirtualMachine.Type.Instance, vmId);
         if (pendingWorkJobs.size() == 0 && !_haMgr.hasPendingHaWork(vmId)) {
@@ -16,10 +16,12 @@
 // under the License.
 package com.cloud.vm;
 
+import java.util.ArrayList;
 import java.util.Date;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 
 import javax.inject.Inject;
 
@@ -43,12 +45,16 @@ public class VirtualMachinePowerStateSyncImpl implements VirtualMachinePowerStat
     protected final ConfigKey<Integer> PingInterval = new ConfigKey<Integer>(Integer.class, "ping.interval", "Advanced", "60",
             "Interval to send application level pings to make sure the connection is still working", false);
 
+    // VM instance names last reported by each host and the VM ids they resolved to
+    private final Map<Long, Map<String, Long>> _hostVmNames = new ConcurrentHashMap<Long, Map<String, Long>>();
+
     public VirtualMachinePowerStateSyncImpl() {
     }
 
     @Override
     public void resetHostSyncState(long hostId) {
         s_logger.info("Reset VM power state sync for host: " + hostId);
+        _hostVmNames.remove(hostId);
         _instanceDao.resetHostPowerStateTracking(hostId);
     }
 
@@ -57,7 +63,7 @@ public class VirtualMachinePowerStateSyncImpl implements VirtualMachinePowerStat
         if (s_logger.isDebugEnabled())
             s_logger.debug("Process host VM state report from ping process. host: " + hostId);
 
-        Map<Long, VirtualMachine.PowerState> translatedInfo = convertVmStateReport(report);
+        Map<Long, VirtualMachine.PowerState> translatedInfo = convertVmStateReport(hostId, report);
         processReport(hostId, translatedInfo);
     }
 
@@ -66,31 +72,23 @@ public class VirtualMachinePowerStateSyncImpl implements VirtualMachinePowerStat
         if (s_logger.isDebugEnabled())
             s_logger.debug("Process host VM state report from ping process. host: " + hostId);
 
-        Map<Long, VirtualMachine.PowerState> translatedInfo = convertVmStateReport(report);
+        Map<Long, VirtualMachine.PowerState> translatedInfo = convertVmStateReport(hostId, report);
         processReport(hostId, translatedInfo);
     }
 
     private void processReport(long hostId, Map<Long, VirtualMachine.PowerState> translatedInfo) {
 
-        if (s_logger.isDebugEnabled())
+        if (s_logger.isDebugEnabled()) {
             s_logger.debug("Process VM state report. host: " + hostId + ", number of records in report: " + translatedInfo.size());
-
-        for (Map.Entry<Long, VirtualMachine.PowerState> entry : translatedInfo.entrySet()) {
-
-            if (s_logger.isDebugEnabled())
+            for (Map.Entry<Long, VirtualMachine.PowerState> entry : translatedInfo.entrySet()) {
                 s_logger.debug("VM state report. host: " + hostId + ", vm id: " + entry.getKey() + ", power state: " + entry.getValue());
-
-            if (_instanceDao.updatePowerState(entry.getKey(), hostId, entry.getValue())) {
-                if (s_logger.isDebugEnabled())
-                    s_logger.debug("VM state report is updated. host: " + hostId + ", vm id: " + entry.getKey() + ", power state: " + entry.getValue());
-
-                _messageBus.publish(null, VirtualMachineManager.Topics.VM_POWER_STATE, PublishScope.GLOBAL, entry.getKey());
-            } else {
-                if (s_logger.isDebugEnabled())
-                    s_logger.debug("VM power state does not change, skip DB writing. vm id: " + entry.getKey());
             }
         }
 
+        List<Long> updatedVms = new ArrayList<Long>(_instanceDao.updatePowerState(translatedInfo, hostId));
+        if (s_logger.isDebugEnabled())
+            s_logger.debug("VM state report is updated. host: " + hostId + ", vm ids: " + updatedVms);
+
         // for all running/stopping VMs, we provide monitoring of missing report
         List<VMInstanceVO> vmsThatAreMissingReport = _instanceDao.findByHostInStates(hostId, VirtualMachine.State.Running,
                 VirtualMachine.State.Stopping, VirtualMachine.State.Starting);
@@ -109,6 +107,8 @@ public class VirtualMachinePowerStateSyncImpl implements VirtualMachinePowerStat
             // 2 times of sync-update interval for graceful period
             long milliSecondsGracefullPeriod = PingInterval.value() * 2000L;
 
+            Map<Long, VirtualMachine.PowerState> missingVms = new HashMap<Long, VirtualMachine.PowerState>();
+
             for (VMInstanceVO instance : vmsThatAreMissingReport) {
 
                 Date vmStateUpdateTime = instance.getUpdateTime();
@@ -126,21 +126,22 @@ public class VirtualMachinePowerStateSyncImpl implements VirtualMachinePowerStat
                 if (milliSecondsSinceLastStateUpdate > milliSecondsGracefullPeriod) {
                     s_logger.debug("vm id: " + instance.getId() + " - time since last state update(" + milliSecondsSinceLastStateUpdate + "ms) has passed graceful period");
 
-                    if (_instanceDao.updatePowerState(instance.getId(), hostId, VirtualMachine.PowerState.PowerReportMissing)) {
-                        if (s_logger.isDebugEnabled())
-                            s_logger.debug("VM state report is updated. host: " + hostId + ", vm id: " + instance.getId() + ", power state: PowerReportMissing ");
-
-                        _messageBus.publish(null, VirtualMachineManager.Topics.VM_POWER_STATE, PublishScope.GLOBAL, instance.getId());
-                    } else {
-                        if (s_logger.isDebugEnabled())
-                            s_logger.debug("VM power state does not change, skip DB writing. vm id: " + instance.getId());
-                    }
+                    missingVms.put(instance.getId(), VirtualMachine.PowerState.PowerReportMissing);
                 } else {
                     s_logger.debug("vm id: " + instance.getId() + " - time since last state update(" + milliSecondsSinceLastStateUpdate + "ms) has not passed graceful period yet");
                 }
             }
+
+            List<Long> updatedMissingVms = _instanceDao.updatePowerState(missingVms, hostId);
+            if (s_logger.isDebugEnabled() && !updatedMissingVms.isEmpty())
+                s_logger.debug("VM state report is updated. host: " + hostId + ", vm ids: " + updatedMissingVms + ", power state: PowerReportMissing ");
+            updatedVms.addAll(updatedMissingVms);
         }
 
+        // one message for all of the VMs of the report whose power state tracking was updated
+        if (!updatedVms.isEmpty())
+            _messageBus.publish(null, VirtualMachineManager.Topics.VM_POWER_STATE, PublishScope.GLOBAL, updatedVms);
+
         if (s_logger.isDebugEnabled())
             s_logger.debug("Done with process of VM state report. host: " + hostId);
     }
@@ -152,19 +153,51 @@ public class VirtualMachinePowerStateSyncImpl implements VirtualMachinePowerStat
             return map;
         }
 
+        resolveVmNames(states, new HashMap<String, Long>(), map);
+        return map;
+    }
+
+    private Map<Long, VirtualMachine.PowerState> convertVmStateReport(long hostId, Map<String, HostVmStateReportEntry> states) {
+        final HashMap<Long, VirtualMachine.PowerState> map = new HashMap<Long, VirtualMachine.PowerState>();
+        if (states == null) {
+            return map;
+        }
+
+        // names that were already resolved for the previous report of the host don't need to be looked up again
+        Map<String, Long> knownNames = _hostVmNames.get(hostId);
+        Map<String, Long> names = new HashMap<String, Long>(states.size());
+        Map<String, HostVmStateReportEntry> unknownStates = new HashMap<String, HostVmStateReportEntry>();
         for (Map.Entry<String, HostVmStateReportEntry> entry : states.entrySet()) {
-            VMInstanceVO vm = findVM(entry.getKey());
-            if (vm != null) {
-                map.put(vm.getId(), entry.getValue().getState());
+            Long vmId = knownNames != null ? knownNames.get(entry.getKey()) : null;
+            if (vmId != null) {
+                names.put(entry.getKey(), vmId);
+                map.put(vmId, entry.getValue().getState());
             } else {
-                s_logger.info("Unable to find matched VM in CloudStack DB. name: " + entry.getKey());
+                unknownStates.put(entry.getKey(), entry.getValue());
             }
         }
 
+        resolveVmNames(unknownStates, names, map);
+        _hostVmNames.put(hostId, names);
         return map;
     }
 
-    private VMInstanceVO findVM(String vmName) {
-        return _instanceDao.findVMByInstanceName(vmName);
+    private void resolveVmNames(Map<String, HostVmStateReportEntry> states, Map<String, Long> names, Map<Long, VirtualMachine.PowerState> map) {
+        if (states.isEmpty()) {
+            return;
+        }
+
+        for (VMInstanceVO vm : _instanceDao.listByInstanceNames(states.keySet())) {
+            if (!names.containsKey(vm.getInstanceName())) {
+                names.put(vm.getInstanceName(), vm.getId());
+                map.put(vm.getId(), states.get(vm.getInstanceName()).getState());
+            }
+        }
+
+        for (String vmName : states.keySet()) {
+            if (!names.containsKey(vmName)) {
+                s_logger.info("Unable to find matched VM in CloudStack DB. name: " + vmName);
+            }
+        }
     }
 }
@@ -0,0 +1,106 @@
+// Licensed to the Apache Software Foundation (ASF) under one
+// or more contributor license agreements.  See the NOTICE file
+// distributed with this work for additional information
+// regarding copyright ownership.  The ASF licenses this file
+// to you under the Apache License, Version 2.0 (the
+// "License"); you may not use this file except in compliance
+// with the License.  You may obtain a copy of the License at
+//
+//   http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing,
+// software distributed under the License is distributed on an
+// "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+// KIND, either express or implied.  See the License for the
+// specific language governing permissions and limitations
+// under the License.
+package com.cloud.agent.manager;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyLong;
+import static org.mockito.Matchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.ArgumentCaptor;
+
+import com.cloud.agent.BulkPingListener;
+import com.cloud.agent.Listener;
+import com.cloud.agent.api.Command;
+import com.cloud.agent.api.PingCommand;
+import com.cloud.host.Host;
+import com.cloud.utils.nio.Link;
+
+public class AgentManagerImplTest {
+
+    private AgentManagerImpl _agentMgr;
+    private ExecutorService _executor;
+
+    @Before
+    public void setUp() {
+        _agentMgr = new AgentManagerImpl();
+        _executor = Executors.newSingleThreadExecutor();
+        _agentMgr._executor = _executor;
+        _agentMgr._pingBatchExecutor = mock(ScheduledExecutorService.class);
+    }
+
+    @After
+    public void tearDown() {
+        _executor.shutdownNow();
+    }
+
+    private AgentAttache connect(long hostId) {
+        AgentAttache attache = new ConnectedAgentAttache(_agentMgr, hostId, "host" + hostId, mock(Link.class), false);
+        _agentMgr._agents.put(hostId, attache);
+        return attache;
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    public void testPingBatch() throws Exception {
+        BulkPingListener bulkListener = mock(BulkPingListener.class);
+        Listener listener = mock(Listener.class);
+        _agentMgr.registerForHostEvents(bulkListener, false, true, false);
+        _agentMgr.registerForHostEvents(listener, false, true, false);
+
+        AgentAttache host1 = connect(1);
+        AgentAttache host2 = connect(2);
+        AgentAttache host3 = connect(3);
+
+        PingCommand stalePing = new PingCommand(Host.Type.Routing, 1);
+        PingCommand latestPing = new PingCommand(Host.Type.Routing, 1);
+        _agentMgr.queuePing(host1, 10, stalePing);
+        _agentMgr.queuePing(host1, 11, latestPing);
+        _agentMgr.queuePing(host2, 20, new PingCommand(Host.Type.Routing, 2));
+        _agentMgr.queuePing(host3, 30, new PingCommand(Host.Type.Routing, 3));
+
+        // host 3 reconnects before the batch is processed
+        connect(3);
+
+        _agentMgr.new PingBatchTask().run();
+        _executor.shutdown();
+        _executor.awaitTermination(10, TimeUnit.SECONDS);
+
+        ArgumentCaptor<Map> pings = ArgumentCaptor.forClass(Map.class);
+        verify(bulkListener).processPingCommands(pings.capture());
+        assertEquals(2, pings.getValue().size());
+        assertSame(latestPing, pings.getValue().get(1L));
+
+        verify(bulkListener, never()).processCommands(anyLong(), anyLong(), any(Command[].class));
+        verify(listener).processCommands(eq(1L), eq(11L), any(Command[].class));
+        verify(listener).processCommands(eq(2L), eq(20L), any(Command[].class));
+        verify(listener, never()).processCommands(eq(3L), anyLong(), any(Command[].class));
+    }
+}
@@ -0,0 +1,134 @@
+// Licensed to the Apache Software Foundation (ASF) under one
+// or more contributor license agreements.  See the NOTICE file
+// distributed with this work for additional information
+// regarding copyright ownership.  The ASF licenses this file
+// to you under the Apache License, Version 2.0 (the
+// "License"); you may not use this file except in compliance
+// with the License.  You may obtain a copy of the License at
+//
+//   http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing,
+// software distributed under the License is distributed on an
+// "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+// KIND, either express or implied.  See the License for the
+// specific language governing permissions and limitations
+// under the License.
+
+package com.cloud.vm;
+
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyCollection;
+import static org.mockito.Matchers.anyMap;
+import static org.mockito.Matchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.ArgumentCaptor;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+
+import org.apache.cloudstack.framework.messagebus.MessageBus;
+import org.apache.cloudstack.framework.messagebus.PublishScope;
+
+import com.cloud.agent.api.HostVmStateReportEntry;
+import com.cloud.vm.VirtualMachine.PowerState;
+import com.cloud.vm.dao.VMInstanceDao;
+
+public class VirtualMachinePowerStateSyncImplTest {
+
+    private VirtualMachinePowerStateSyncImpl _sync;
+    private VMInstanceDao _instanceDao;
+    private MessageBus _messageBus;
+
+    @Before
+    @SuppressWarnings("unchecked")
+    public void setUp() {
+        _instanceDao = mock(VMInstanceDao.class);
+        _messageBus = mock(MessageBus.class);
+        _sync = new VirtualMachinePowerStateSyncImpl();
+        _sync._instanceDao = _instanceDao;
+        _sync._messageBus = _messageBus;
+
+        final List<VMInstanceVO> vms = Arrays.asList(mockVm(1, "i-2-1-VM"), mockVm(2, "i-2-2-VM"));
+        when(_instanceDao.listByInstanceNames(anyCollection())).thenAnswer(new Answer<List<VMInstanceVO>>() {
+            @Override
+            public List<VMInstanceVO> answer(InvocationOnMock invocation) {
+                Collection<String> names = (Collection<String>)invocation.getArguments()[0];
+                List<VMInstanceVO> found = new ArrayList<VMInstanceVO>();
+                for (VMInstanceVO vm : vms) {
+                    if (names.contains(vm.getInstanceName()))
+                        found.add(vm);
+                }
+                return found;
+            }
+        });
+        when(_instanceDao.findByHostInStates(eq(10L), any(VirtualMachine.State[].class))).thenReturn(new ArrayList<VMInstanceVO>());
+    }
+
+    private static VMInstanceVO mockVm(long id, String instanceName) {
+        VMInstanceVO vm = mock(VMInstanceVO.class);
+        when(vm.getId()).thenReturn(id);
+        when(vm.getInstanceName()).thenReturn(instanceName);
+        return vm;
+    }
+
+    private static Map<String, HostVmStateReportEntry> report() {
+        Map<String, HostVmStateReportEntry> report = new HashMap<String, HostVmStateReportEntry>();
+        report.put("i-2-1-VM", new HostVmStateReportEntry(PowerState.PowerOn, "host"));
+        report.put("i-2-2-VM", new HostVmStateReportEntry(PowerState.PowerOff, "host"));
+        report.put("unknown", new HostVmStateReportEntry(PowerState.PowerOn, "host"));
+        return report;
+    }
+
+    @Test
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    public void testPingReportIsReconciledInBulk() {
+        when(_instanceDao.updatePowerState(anyMap(), eq(10L))).thenReturn(Arrays.asList(1L, 2L));
+
+        _sync.processHostVmStatePingReport(10L, report());
+
+        ArgumentCaptor<Map> states = ArgumentCaptor.forClass(Map.class);
+        verify(_instanceDao).updatePowerState(states.capture(), eq(10L));
+        Assert.assertEquals(2, states.getValue().size());
+        Assert.assertEquals(PowerState.PowerOn, states.getValue().get(1L));
+        Assert.assertEquals(PowerState.PowerOff, states.getValue().get(2L));
+
+        verify(_messageBus, times(1)).publish(null, VirtualMachineManager.Topics.VM_POWER_STATE, PublishScope.GLOBAL, Arrays.asList(1L, 2L));
+    }
+
+    @Test
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    public void testResolvedNamesAreReused() {
+        when(_instanceDao.updatePowerState(anyMap(), eq(10L))).thenReturn(new ArrayList<Long>());
+
+        _sync.processHostVmStatePingReport(10L, report());
+        _sync.processHostVmStatePingReport(10L, report());
+
+        // only the name that could not be resolved is looked up again
+        ArgumentCaptor<Collection> names = ArgumentCaptor.forClass(Collection.class);
+        verify(_instanceDao, times(2)).listByInstanceNames(names.capture());
+        Assert.assertEquals(3, names.getAllValues().get(0).size());
+        Assert.assertEquals(Arrays.asList("unknown"), new ArrayList<String>(names.getAllValues().get(1)));
+        verify(_messageBus, never()).publish(any(String.class), any(String.class), any(PublishScope.class), any());
+
+        // all of the names are resolved again once the host sync state is reset
+        _sync.resetHostSyncState(10L);
+        _sync.processHostVmStatePingReport(10L, report());
+        verify(_instanceDao, times(3)).listByInstanceNames(names.capture());
+        Assert.assertEquals(3, names.getValue().size());
+    }
+}
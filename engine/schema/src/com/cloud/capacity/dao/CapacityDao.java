@@ -56,4 +56,10 @@ public interface CapacityDao extends GenericDao<CapacityVO, Long> {
     List<Long> listClustersCrossingThreshold(short capacityType, Long zoneId, String configName, long computeRequested);
 
     float findClusterConsumption(Long clusterId, short capacityType, long computeRequested);
+
+    /**
+     * @return the CPU and memory capacity of every host in an active cluster, each paired with
+     *         the overcommit ratio configured on the host's cluster for that capacity type
+     */
+    List<Pair<CapacityVO, Float>> listHostCapacitiesWithOvercommitRatio();
 }
@@ -532,6 +532,12 @@ public class CapacityDaoImpl extends GenericDaoBase<CapacityVO, Long> implements
         return findOneBy(sc);
     }
 
+    private static final String LIST_HOST_CAPACITIES_WITH_OVERCOMMIT_RATIO =
+        "SELECT capacity.host_id, capacity.data_center_id, capacity.pod_id, capacity.cluster_id, capacity.capacity_type, capacity.total_capacity, capacity.used_capacity, capacity.reserved_capacity, cluster_details.value "
+            + "FROM `cloud`.`op_host_capacity` capacity INNER JOIN `cloud`.`cluster` cluster ON (cluster.id = capacity.cluster_id AND cluster.removed is NULL) "
+            + "INNER JOIN `cloud`.`cluster_details` cluster_details ON (capacity.cluster_id = cluster_details.cluster_id) WHERE capacity.host_id IS NOT NULL "
+            + "AND ((capacity.capacity_type = ? AND cluster_details.name = 'cpuOvercommitRatio') OR (capacity.capacity_type = ? AND cluster_details.name = 'memoryOvercommitRatio'))";
+
     @Override
     public List<Long> listClustersInZoneOrPodByHostCapacities(long id, int requiredCpu, long requiredRam, short capacityTypeForOrdering, boolean isZone) {
         TransactionLegacy txn = TransactionLegacy.currentTxn();
@@ -987,4 +993,28 @@ public class CapacityDaoImpl extends GenericDaoBase<CapacityVO, Long> implements
         return 0;
     }
 
+    @Override
+    public List<Pair<CapacityVO, Float>> listHostCapacitiesWithOvercommitRatio() {
+        TransactionLegacy txn = TransactionLegacy.currentTxn();
+        PreparedStatement pstmt = null;
+        List<Pair<CapacityVO, Float>> result = new ArrayList<Pair<CapacityVO, Float>>();
+
+        try {
+            pstmt = txn.prepareAutoCloseStatement(LIST_HOST_CAPACITIES_WITH_OVERCOMMIT_RATIO);
+            pstmt.setShort(1, Capacity.CAPACITY_TYPE_CPU);
+            pstmt.setShort(2, Capacity.CAPACITY_TYPE_MEMORY);
+
+            ResultSet rs = pstmt.executeQuery();
+            while (rs.next()) {
+                CapacityVO capacity = new CapacityVO(rs.getLong(1), rs.getLong(2), rs.getLong(3), rs.getLong(4), rs.getLong(7), rs.getLong(6), rs.getShort(5));
+                capacity.setReservedCapacity(rs.getLong(8));
+                result.add(new Pair<CapacityVO, Float>(capacity, Float.parseFloat(rs.getString(9))));
+            }
+            return result;
+        } catch (SQLException e) {
+            throw new CloudRuntimeException("DB Exception on: " + LIST_HOST_CAPACITIES_WITH_OVERCOMMIT_RATIO, e);
+        } catch (Throwable e) {
+            throw new CloudRuntimeException("Caught: " + LIST_HOST_CAPACITIES_WITH_OVERCOMMIT_RATIO, e);
+        }
+    }
 }
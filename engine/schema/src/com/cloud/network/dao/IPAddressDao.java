@@ -85,4 +85,10 @@ public interface IPAddressDao extends GenericDao<IPAddressVO, Long> {
     void lockRange(long vlandbId);
 
     List<IPAddressVO> listByAssociatedVmId(long vmId);
+
+    /**
+     * Claims an unallocated address with a conditional update instead of a row lock.
+     * @return true if this caller moved the address to Allocating, false if it was taken in the meantime
+     */
+    boolean claimUnallocated(long ipAddressId);
 }
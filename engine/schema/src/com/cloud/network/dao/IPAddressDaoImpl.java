@@ -54,6 +54,7 @@ public class IPAddressDaoImpl extends GenericDaoBase<IPAddressVO, Long> implemen
 
     protected SearchBuilder<IPAddressVO> AllFieldsSearch;
     protected SearchBuilder<IPAddressVO> VlanDbIdSearchUnallocated;
+    protected SearchBuilder<IPAddressVO> IdSearchUnallocated;
     protected GenericSearchBuilder<IPAddressVO, Integer> AllIpCount;
     protected GenericSearchBuilder<IPAddressVO, Integer> AllocatedIpCount;
     protected GenericSearchBuilder<IPAddressVO, Integer> AllIpCountForDashboard;
@@ -94,6 +95,11 @@ public class IPAddressDaoImpl extends GenericDaoBase<IPAddressVO, Long> implemen
         VlanDbIdSearchUnallocated.and("vlanDbId", VlanDbIdSearchUnallocated.entity().getVlanId(), Op.EQ);
         VlanDbIdSearchUnallocated.done();
 
+        IdSearchUnallocated = createSearchBuilder();
+        IdSearchUnallocated.and("id", IdSearchUnallocated.entity().getId(), Op.EQ);
+        IdSearchUnallocated.and("allocated", IdSearchUnallocated.entity().getAllocatedTime(), Op.NULL);
+        IdSearchUnallocated.done();
+
         AllIpCount = createSearchBuilder(Integer.class);
         AllIpCount.select(null, Func.COUNT, AllIpCount.entity().getAddress());
         AllIpCount.and("dc", AllIpCount.entity().getDataCenterId(), Op.EQ);
@@ -446,4 +452,15 @@ public class IPAddressDaoImpl extends GenericDaoBase<IPAddressVO, Long> implemen
         sc.setParameters("vlan", vlandbId);
         lockRows(sc, null, true);
     }
+
+    @Override
+    public boolean claimUnallocated(long ipAddressId) {
+        SearchCriteria<IPAddressVO> sc = IdSearchUnallocated.create();
+        sc.setParameters("id", ipAddressId);
+
+        IPAddressVO ip = createForUpdate();
+        ip.setAllocatedTime(new Date());
+        ip.setState(State.Allocating);
+        return update(ip, sc) == 1;
+    }
 }
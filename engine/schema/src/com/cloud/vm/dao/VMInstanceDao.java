@@ -16,6 +16,7 @@
 // under the License.
 package com.cloud.vm.dao;
 
+import java.util.Collection;
 import java.util.Date;
 import java.util.HashMap;
 import java.util.List;
@@ -131,6 +132,15 @@ public interface VMInstanceDao extends GenericDao<VMInstanceVO, Long>, StateDao<
 
     boolean updatePowerState(long instanceId, long powerHostId, VirtualMachine.PowerState powerState);
 
+    /**
+     * Bulk version of updatePowerState, the power state tracking of all of the VMs is
+     * read in one query and written with one update per distinct outcome
+     * @return ids of the VMs for which updatePowerState would have returned true
+     */
+    List<Long> updatePowerState(Map<Long, VirtualMachine.PowerState> instancePowerStates, long powerHostId);
+
+    List<VMInstanceVO> listByInstanceNames(Collection<String> names);
+
     void resetVmPowerStateTracking(long instanceId);
 
     void resetHostPowerStateTracking(long hostId);
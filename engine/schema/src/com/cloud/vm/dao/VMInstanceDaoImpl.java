@@ -20,6 +20,7 @@ import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.SQLException;
 import java.util.ArrayList;
+import java.util.Collection;
 import java.util.Date;
 import java.util.HashMap;
 import java.util.List;
@@ -84,6 +85,8 @@ public class VMInstanceDaoImpl extends GenericDaoBase<VMInstanceVO, Long> implem
     protected SearchBuilder<VMInstanceVO> HostIdUpTypesSearch;
     protected SearchBuilder<VMInstanceVO> HostUpSearch;
     protected SearchBuilder<VMInstanceVO> InstanceNameSearch;
+    protected SearchBuilder<VMInstanceVO> InstanceNamesSearch;
+    protected SearchBuilder<VMInstanceVO> IdsSearch;
     protected SearchBuilder<VMInstanceVO> HostNameSearch;
     protected SearchBuilder<VMInstanceVO> HostNameAndZoneSearch;
     protected GenericSearchBuilder<VMInstanceVO, Long> FindIdsOfVirtualRoutersByAccount;
@@ -215,6 +218,14 @@ public class VMInstanceDaoImpl extends GenericDaoBase<VMInstanceVO, Long> implem
         InstanceNameSearch.and("instanceName", InstanceNameSearch.entity().getInstanceName(), Op.EQ);
         InstanceNameSearch.done();
 
+        InstanceNamesSearch = createSearchBuilder();
+        InstanceNamesSearch.and("instanceNames", InstanceNamesSearch.entity().getInstanceName(), Op.IN);
+        InstanceNamesSearch.done();
+
+        IdsSearch = createSearchBuilder();
+        IdsSearch.and("ids", IdsSearch.entity().getId(), Op.IN);
+        IdsSearch.done();
+
         HostNameSearch = createSearchBuilder();
         HostNameSearch.and("hostName", HostNameSearch.entity().getHostName(), Op.EQ);
         HostNameSearch.done();
@@ -413,6 +424,17 @@ public class VMInstanceDaoImpl extends GenericDaoBase<VMInstanceVO, Long> implem
         return findOneBy(sc);
     }
 
+    @Override
+    public List<VMInstanceVO> listByInstanceNames(Collection<String> names) {
+        if (names.isEmpty()) {
+            return new ArrayList<VMInstanceVO>();
+        }
+
+        SearchCriteria<VMInstanceVO> sc = InstanceNamesSearch.create();
+        sc.setParameters("instanceNames", names.toArray());
+        return listBy(sc);
+    }
+
     @Override
     public VMInstanceVO findVMByHostName(String hostName) {
         SearchCriteria<VMInstanceVO> sc = HostNameSearch.create();
@@ -803,6 +825,74 @@ public class VMInstanceDaoImpl extends GenericDaoBase<VMInstanceVO, Long> implem
         });
     }
 
+    @Override
+    public List<Long> updatePowerState(final Map<Long, VirtualMachine.PowerState> instancePowerStates, final long powerHostId) {
+        if (instancePowerStates.isEmpty()) {
+            return new ArrayList<Long>();
+        }
+
+        return Transaction.execute(new TransactionCallback<List<Long>>() {
+            @Override
+            public List<Long> doInTransaction(TransactionStatus status) {
+                SearchCriteria<VMInstanceVO> sc = IdsSearch.create();
+                sc.setParameters("ids", instancePowerStates.keySet().toArray());
+                List<VMInstanceVO> instances = listBy(sc);
+
+                // VMs are grouped by the outcome of the update so that each group is written with a single statement
+                Map<VirtualMachine.PowerState, List<Long>> changedStates = new HashMap<VirtualMachine.PowerState, List<Long>>();
+                Map<Integer, List<Long>> sameStateCounts = new HashMap<Integer, List<Long>>();
+                List<Long> updated = new ArrayList<Long>();
+                for (VMInstanceVO instance : instances) {
+                    VirtualMachine.PowerState powerState = instancePowerStates.get(instance.getId());
+                    Long savedPowerHostId = instance.getPowerHostId();
+                    if (instance.getPowerState() != powerState || savedPowerHostId == null || savedPowerHostId.longValue() != powerHostId) {
+                        List<Long> ids = changedStates.get(powerState);
+                        if (ids == null) {
+                            ids = new ArrayList<Long>();
+                            changedStates.put(powerState, ids);
+                        }
+                        ids.add(instance.getId());
+                        updated.add(instance.getId());
+                    } else if (instance.getPowerStateUpdateCount() < MAX_CONSECUTIVE_SAME_STATE_UPDATE_COUNT) {
+                        // to reduce DB updates, consecutive same state update for more than 3 times
+                        List<Long> ids = sameStateCounts.get(instance.getPowerStateUpdateCount());
+                        if (ids == null) {
+                            ids = new ArrayList<Long>();
+                            sameStateCounts.put(instance.getPowerStateUpdateCount(), ids);
+                        }
+                        ids.add(instance.getId());
+                        updated.add(instance.getId());
+                    }
+                }
+
+                Date now = DateUtil.currentGMTTime();
+                for (Map.Entry<VirtualMachine.PowerState, List<Long>> entry : changedStates.entrySet()) {
+                    VMInstanceVO instance = createForUpdate();
+                    instance.setPowerState(entry.getKey());
+                    instance.setPowerHostId(powerHostId);
+                    instance.setPowerStateUpdateCount(1);
+                    instance.setPowerStateUpdateTime(now);
+
+                    SearchCriteria<VMInstanceVO> updateSc = IdsSearch.create();
+                    updateSc.setParameters("ids", entry.getValue().toArray());
+                    update(instance, updateSc);
+                }
+
+                for (Map.Entry<Integer, List<Long>> entry : sameStateCounts.entrySet()) {
+                    VMInstanceVO instance = createForUpdate();
+                    instance.setPowerStateUpdateCount(entry.getKey() + 1);
+                    instance.setPowerStateUpdateTime(now);
+
+                    SearchCriteria<VMInstanceVO> updateSc = IdsSearch.create();
+                    updateSc.setParameters("ids", entry.getValue().toArray());
+                    update(instance, updateSc);
+                }
+
+                return updated;
+            }
+        });
+    }
+
     @Override
     public void resetVmPowerStateTracking(final long instanceId) {
         Transaction.execute(new TransactionCallbackNoReturn() {
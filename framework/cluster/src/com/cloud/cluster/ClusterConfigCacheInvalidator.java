@@ -0,0 +1,77 @@
+// Licensed to the Apache Software Foundation (ASF) under one
+// or more contributor license agreements.  See the NOTICE file
+// distributed with this work for additional information
+// regarding copyright ownership.  The ASF licenses this file
+// to you under the Apache License, Version 2.0 (the
+// "License"); you may not use this file except in compliance
+// with the License.  You may obtain a copy of the License at
+//
+//   http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing,
+// software distributed under the License is distributed on an
+// "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+// KIND, either express or implied.  See the License for the
+// specific language governing permissions and limitations
+// under the License.
+package com.cloud.cluster;
+
+import java.util.Map;
+
+import javax.inject.Inject;
+import javax.naming.ConfigurationException;
+
+import org.apache.log4j.Logger;
+
+import org.apache.cloudstack.framework.config.ConfigCacheInvalidator;
+import org.apache.cloudstack.framework.config.ConfigDepotAdmin;
+
+import com.cloud.utils.component.ManagerBase;
+
+/**
+ * Relays config value cache invalidations between management servers.
+ */
+public class ClusterConfigCacheInvalidator extends ManagerBase implements ConfigCacheInvalidator, ClusterMessageHandler {
+    private static final Logger s_logger = Logger.getLogger(ClusterConfigCacheInvalidator.class);
+
+    public static final String CONFIG_INVALIDATION_SUBJECT = "config.cache.invalidate";
+
+    // there is no way to send a null message, so this stands for "all keys"
+    private static final String ALL_KEYS = "*";
+
+    @Inject
+    ClusterManager _clusterMgr;
+    @Inject
+    ConfigDepotAdmin _configDepotAdmin;
+
+    @Override
+    public boolean configure(String name, Map<String, Object> params) throws ConfigurationException {
+        _clusterMgr.registerMessageHandler(CONFIG_INVALIDATION_SUBJECT, this);
+        return true;
+    }
+
+    @Override
+    public boolean start() {
+        _configDepotAdmin.setCacheInvalidator(this);
+        return true;
+    }
+
+    @Override
+    public boolean stop() {
+        _configDepotAdmin.setCacheInvalidator(null);
+        return true;
+    }
+
+    @Override
+    public void invalidate(String key) {
+        _clusterMgr.publishMessage(CONFIG_INVALIDATION_SUBJECT, key == null ? ALL_KEYS : key);
+    }
+
+    @Override
+    public void onClusterMessage(String senderPeer, String subject, String message) {
+        if (s_logger.isTraceEnabled()) {
+            s_logger.trace("Invalidating cached value of " + message + " on request from " + senderPeer);
+        }
+        _configDepotAdmin.onRemoteInvalidation(ALL_KEYS.equals(message) ? null : message);
+    }
+}
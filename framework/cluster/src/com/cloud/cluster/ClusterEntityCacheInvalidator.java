@@ -0,0 +1,76 @@
+// Licensed to the Apache Software Foundation (ASF) under one
+// or more contributor license agreements.  See the NOTICE file
+// distributed with this work for additional information
+// regarding copyright ownership.  The ASF licenses this file
+// to you under the Apache License, Version 2.0 (the
+// "License"); you may not use this file except in compliance
+// with the License.  You may obtain a copy of the License at
+//
+//   http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing,
+// software distributed under the License is distributed on an
+// "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+// KIND, either express or implied.  See the License for the
+// specific language governing permissions and limitations
+// under the License.
+package com.cloud.cluster;
+
+import java.io.Serializable;
+import java.util.Map;
+
+import javax.inject.Inject;
+import javax.naming.ConfigurationException;
+
+import org.apache.log4j.Logger;
+
+import com.cloud.utils.component.ManagerBase;
+import com.cloud.utils.db.EntityCacheInvalidator;
+import com.cloud.utils.db.GenericDaoBase;
+
+/**
+ * Relays DAO cache invalidations between management servers.
+ */
+public class ClusterEntityCacheInvalidator extends ManagerBase implements EntityCacheInvalidator, ClusterMessageHandler {
+    private static final Logger s_logger = Logger.getLogger(ClusterEntityCacheInvalidator.class);
+
+    public static final String CACHE_INVALIDATION_SUBJECT = "dao.cache.invalidate";
+
+    @Inject
+    ClusterManager _clusterMgr;
+
+    @Override
+    public boolean configure(String name, Map<String, Object> params) throws ConfigurationException {
+        _clusterMgr.registerMessageHandler(CACHE_INVALIDATION_SUBJECT, this);
+        return true;
+    }
+
+    @Override
+    public boolean start() {
+        GenericDaoBase.setEntityCacheInvalidator(this);
+        return true;
+    }
+
+    @Override
+    public boolean stop() {
+        GenericDaoBase.setEntityCacheInvalidator(null);
+        return true;
+    }
+
+    @Override
+    public void invalidate(String cacheName, Serializable id) {
+        _clusterMgr.publishMessage(CACHE_INVALIDATION_SUBJECT, id == null ? cacheName : cacheName + "\n" + id);
+    }
+
+    @Override
+    public void onClusterMessage(String senderPeer, String subject, String message) {
+        int index = message.indexOf('\n');
+        String cacheName = index < 0 ? message : message.substring(0, index);
+        String id = index < 0 ? null : message.substring(index + 1);
+
+        if (s_logger.isTraceEnabled()) {
+            s_logger.trace("Invalidating " + (id == null ? "all of " : id + " in ") + cacheName + " on request from " + senderPeer);
+        }
+        GenericDaoBase.onRemoteCacheInvalidation(cacheName, id);
+    }
+}
@@ -26,6 +26,8 @@ public interface ClusterManager extends Manager {
         "Interval to check for the heart beat between management server nodes", false);
     final ConfigKey<Integer> HeartbeatThreshold = new ConfigKey<Integer>(Integer.class, "cluster.heartbeat.threshold", "management-server", "150000",
         "Threshold before self-fence the management server", true);
+    final ConfigKey<Integer> MessageBatchSize = new ConfigKey<Integer>(Integer.class, "cluster.message.batch.size", "Advanced", "50",
+        "Maximum number of queued messages to the same management server node that are delivered in a single request", true);
 
     void OnReceiveClusterServicePdu(ClusterServicePdu pdu);
 
@@ -52,6 +54,25 @@ public interface ClusterManager extends Manager {
 
     void registerDispatcher(Dispatcher dispatcher);
 
+    /**
+     * Registers a handler for messages published by peers under the given subject.
+     */
+    void registerMessageHandler(String subject, ClusterMessageHandler handler);
+
+    void unregisterMessageHandler(String subject, ClusterMessageHandler handler);
+
+    /**
+     * Asynchronously sends the message to all of the other active management server nodes.
+     * @param subject subject the receiving handlers are registered under
+     * @param message message content
+     */
+    void publishMessage(String subject, String message);
+
+    /**
+     * Asynchronously sends the message to a single management server node.
+     */
+    void publishMessage(String strPeer, String subject, String message);
+
     ManagementServerHost getPeer(String peerName);
 
     String getSelfPeerName();
@@ -29,6 +29,7 @@ import java.util.ArrayList;
 import java.util.Date;
 import java.util.HashMap;
 import java.util.Iterator;
+import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
 import java.util.Properties;
@@ -78,6 +79,8 @@ public class ClusterManagerImpl extends ManagerBase implements ClusterManager, C
 
     private final List<ClusterManagerListener> _listeners = new ArrayList<ClusterManagerListener>();
     private final Map<Long, ManagementServerHostVO> _activePeers = new HashMap<Long, ManagementServerHostVO>();
+    // peer names as of the last peer scan, lets publishMessage() skip the mshost query
+    private volatile List<String> _activePeerNames;
 
     private final Map<String, ClusterService> _clusterPeers;
 
@@ -102,6 +105,7 @@ public class ClusterManagerImpl extends ManagerBase implements ClusterManager, C
     private ManagementServerHostPeerDao _mshostPeerDao;
 
     protected Dispatcher _dispatcher;
+    private final Map<String, List<ClusterMessageHandler>> _messageHandlers = new HashMap<String, List<ClusterMessageHandler>>();
 
     //
     // pay attention to _mshostId and _msid
@@ -116,7 +120,9 @@ public class ClusterManagerImpl extends ManagerBase implements ClusterManager, C
 
     private String _clusterNodeIP = "127.0.0.1";
 
-    private final List<ClusterServicePdu> _clusterPduOutgoingQueue = new ArrayList<ClusterServicePdu>();
+    // outgoing PDUs are queued per destination peer, a peer channel is handed to at most one sending worker at a time
+    private final Map<String, OutgoingPeerChannel> _outgoingChannels = new HashMap<String, OutgoingPeerChannel>();
+    private final LinkedList<OutgoingPeerChannel> _readyOutgoingChannels = new LinkedList<OutgoingPeerChannel>();
     private final List<ClusterServicePdu> _clusterPduIncomingQueue = new ArrayList<ClusterServicePdu>();
     private final Map<Long, ClusterServiceRequestPdu> _outgoingPdusWaitingForAck = new HashMap<Long, ClusterServiceRequestPdu>();
 
@@ -175,26 +181,67 @@ public class ClusterManagerImpl extends ManagerBase implements ClusterManager, C
     }
 
     private void addOutgoingClusterPdu(ClusterServicePdu pdu) {
-        synchronized (_clusterPduOutgoingQueue) {
-            _clusterPduOutgoingQueue.add(pdu);
-            _clusterPduOutgoingQueue.notifyAll();
+        synchronized (_outgoingChannels) {
+            OutgoingPeerChannel channel = _outgoingChannels.get(pdu.getDestPeer());
+            if (channel == null) {
+                channel = new OutgoingPeerChannel(pdu.getDestPeer());
+                _outgoingChannels.put(pdu.getDestPeer(), channel);
+            }
+
+            channel.queue.add(pdu);
+            if (!channel.scheduled) {
+                channel.scheduled = true;
+                _readyOutgoingChannels.add(channel);
+                _outgoingChannels.notify();
+            }
         }
     }
 
-    private ClusterServicePdu popOutgoingClusterPdu(long timeoutMs) {
-        synchronized (_clusterPduOutgoingQueue) {
-            try {
-                _clusterPduOutgoingQueue.wait(timeoutMs);
-            } catch (InterruptedException e) {
+    private OutgoingPeerChannel popReadyOutgoingChannel(long timeoutMs) {
+        synchronized (_outgoingChannels) {
+            if (_readyOutgoingChannels.isEmpty()) {
+                try {
+                    _outgoingChannels.wait(timeoutMs);
+                } catch (InterruptedException e) {
+                }
             }
 
-            if (_clusterPduOutgoingQueue.size() > 0) {
-                ClusterServicePdu pdu = _clusterPduOutgoingQueue.get(0);
-                _clusterPduOutgoingQueue.remove(0);
-                return pdu;
+            return _readyOutgoingChannels.poll();
+        }
+    }
+
+    private List<ClusterServicePdu> popOutgoingClusterPdus(OutgoingPeerChannel channel, int maxPdus) {
+        synchronized (_outgoingChannels) {
+            List<ClusterServicePdu> pdus = new ArrayList<ClusterServicePdu>(Math.min(maxPdus, channel.queue.size()));
+            while (pdus.size() < maxPdus && !channel.queue.isEmpty()) {
+                pdus.add(channel.queue.poll());
             }
+            return pdus;
+        }
+    }
+
+    private void releaseOutgoingChannel(OutgoingPeerChannel channel) {
+        synchronized (_outgoingChannels) {
+            if (channel.queue.isEmpty()) {
+                channel.scheduled = false;
+            } else {
+                _readyOutgoingChannels.add(channel);
+                _outgoingChannels.notify();
+            }
+        }
+    }
+
+    OutgoingPeerChannel getOutgoingChannel(String strPeer) {
+        synchronized (_outgoingChannels) {
+            return _outgoingChannels.get(strPeer);
+        }
+    }
+
+    int getOutgoingQueueDepth(String strPeer) {
+        synchronized (_outgoingChannels) {
+            OutgoingPeerChannel channel = _outgoingChannels.get(strPeer);
+            return channel != null ? channel.queue.size() : 0;
         }
-        return null;
     }
 
     private void addIncomingClusterPdu(ClusterServicePdu pdu) {
@@ -206,9 +253,11 @@ public class ClusterManagerImpl extends ManagerBase implements ClusterManager, C
 
     private ClusterServicePdu popIncomingClusterPdu(long timeoutMs) {
         synchronized (_clusterPduIncomingQueue) {
-            try {
-                _clusterPduIncomingQueue.wait(timeoutMs);
-            } catch (InterruptedException e) {
+            if (_clusterPduIncomingQueue.isEmpty()) {
+                try {
+                    _clusterPduIncomingQueue.wait(timeoutMs);
+                } catch (InterruptedException e) {
+                }
             }
 
             if (_clusterPduIncomingQueue.size() > 0) {
@@ -241,49 +290,65 @@ public class ClusterManagerImpl extends ManagerBase implements ClusterManager, C
     private void onSendingClusterPdu() {
         while (true) {
             try {
-                ClusterServicePdu pdu = popOutgoingClusterPdu(1000);
-                if (pdu == null)
+                OutgoingPeerChannel channel = popReadyOutgoingChannel(1000);
+                if (channel == null)
                     continue;
 
-                ClusterService peerService = null;
-                for (int i = 0; i < 2; i++) {
-                    try {
-                        peerService = getPeerService(pdu.getDestPeer());
-                    } catch (RemoteException e) {
-                        s_logger.error("Unable to get cluster service on peer : " + pdu.getDestPeer());
-                    }
+                try {
+                    int batchSize = MessageBatchSize.value();
+                    sendClusterPdus(channel, popOutgoingClusterPdus(channel, batchSize > 0 ? batchSize : 1));
+                } finally {
+                    releaseOutgoingChannel(channel);
+                }
+            } catch (Throwable e) {
+                s_logger.error("Unexcpeted exception: ", e);
+            }
+        }
+    }
 
-                    if (peerService != null) {
-                        try {
-                            if (s_logger.isDebugEnabled()) {
-                                s_logger.debug("Cluster PDU " + getSelfPeerName() + " -> " + pdu.getDestPeer() + ". agent: " + pdu.getAgentId() + ", pdu seq: " +
-                                    pdu.getSequenceId() + ", pdu ack seq: " + pdu.getAckSequenceId() + ", json: " + pdu.getJsonPackage());
-                            }
+    private void sendClusterPdus(OutgoingPeerChannel channel, List<ClusterServicePdu> pdus) {
+        int delivered = 0;
+        for (int i = 0; i < 2 && delivered < pdus.size(); i++) {
+            ClusterService peerService = null;
+            try {
+                peerService = getPeerService(channel.peer);
+            } catch (RemoteException e) {
+                s_logger.error("Unable to get cluster service on peer : " + channel.peer);
+            }
 
-                            long startTick = System.currentTimeMillis();
-                            String strResult = peerService.execute(pdu);
-                            if (s_logger.isDebugEnabled()) {
-                                s_logger.debug("Cluster PDU " + getSelfPeerName() + " -> " + pdu.getDestPeer() + " completed. time: " +
-                                    (System.currentTimeMillis() - startTick) + "ms. agent: " + pdu.getAgentId() + ", pdu seq: " + pdu.getSequenceId() +
-                                    ", pdu ack seq: " + pdu.getAckSequenceId() + ", json: " + pdu.getJsonPackage());
-                            }
+            if (peerService != null) {
+                List<ClusterServicePdu> pending = pdus.subList(delivered, pdus.size());
+                try {
+                    if (s_logger.isDebugEnabled()) {
+                        for (ClusterServicePdu pdu : pending) {
+                            s_logger.debug("Cluster PDU " + getSelfPeerName() + " -> " + pdu.getDestPeer() + ". agent: " + pdu.getAgentId() + ", pdu seq: " +
+                                pdu.getSequenceId() + ", pdu ack seq: " + pdu.getAckSequenceId() + ", json: " + pdu.getJsonPackage());
+                        }
+                    }
 
-                            if ("true".equals(strResult))
-                                break;
+                    long startTick = System.currentTimeMillis();
+                    int count = peerService.execute(pending);
+                    long elapsed = System.currentTimeMillis() - startTick;
+                    channel.recordDelivery(count, elapsed);
+                    if (s_logger.isDebugEnabled()) {
+                        s_logger.debug("Cluster PDUs " + getSelfPeerName() + " -> " + channel.peer + " completed. time: " + elapsed + "ms. delivered: " + count +
+                            "/" + pending.size());
+                    }
 
-                        } catch (RemoteException e) {
-                            invalidatePeerService(pdu.getDestPeer());
-                            if (s_logger.isInfoEnabled()) {
-                                s_logger.info("Exception on remote execution, peer: " + pdu.getDestPeer() + ", iteration: " + i + ", exception message :" +
-                                    e.getMessage());
-                            }
-                        }
+                    delivered += count;
+                } catch (RemoteException e) {
+                    invalidatePeerService(channel.peer);
+                    if (s_logger.isInfoEnabled()) {
+                        s_logger.info("Exception on remote execution, peer: " + channel.peer + ", iteration: " + i + ", exception message :" + e.getMessage());
                     }
                 }
-            } catch (Throwable e) {
-                s_logger.error("Unexcpeted exception: ", e);
             }
         }
+
+        if (delivered < pdus.size()) {
+            channel.recordFailure(pdus.size() - delivered);
+            s_logger.warn("Unable to deliver " + (pdus.size() - delivered) + " cluster PDUs to peer " + channel.peer);
+        }
     }
 
     private void onNotifyingClusterPdu() {
@@ -306,6 +371,8 @@ public class ClusterManagerImpl extends ManagerBase implements ClusterManager, C
                             } else {
                                 s_logger.warn("Original request has already been cancelled. pdu: " + pdu.getJsonPackage());
                             }
+                        } else if (pdu.getSubject() != null) {
+                            dispatchMessage(pdu);
                         } else {
                             String result = _dispatcher.dispatch(pdu);
                             if (result == null)
@@ -368,6 +435,91 @@ public class ClusterManagerImpl extends ManagerBase implements ClusterManager, C
         }
     }
 
+    @Override
+    public void registerMessageHandler(String subject, ClusterMessageHandler handler) {
+        synchronized (_messageHandlers) {
+            List<ClusterMessageHandler> handlers = _messageHandlers.get(subject);
+            if (handlers == null) {
+                handlers = new ArrayList<ClusterMessageHandler>();
+                _messageHandlers.put(subject, handlers);
+            }
+            if (!handlers.contains(handler)) {
+                handlers.add(handler);
+            }
+        }
+    }
+
+    @Override
+    public void unregisterMessageHandler(String subject, ClusterMessageHandler handler) {
+        synchronized (_messageHandlers) {
+            List<ClusterMessageHandler> handlers = _messageHandlers.get(subject);
+            if (handlers != null) {
+                handlers.remove(handler);
+                if (handlers.isEmpty()) {
+                    _messageHandlers.remove(subject);
+                }
+            }
+        }
+    }
+
+    @Override
+    public void publishMessage(String subject, String message) {
+        List<String> peerNames = _activePeerNames;
+        if (peerNames == null) {
+            Date cutTime = DateUtil.currentGMTTime();
+            peerNames = new ArrayList<String>();
+            for (ManagementServerHostVO peer : _mshostDao.getActiveList(new Date(cutTime.getTime() - HeartbeatThreshold.value()))) {
+                peerNames.add(Long.toString(peer.getMsid()));
+            }
+        }
+
+        for (String peerName : peerNames) {
+            if (getSelfPeerName().equals(peerName)) {
+                continue; // Skip myself.
+            }
+            publishMessage(peerName, subject, message);
+        }
+    }
+
+    @Override
+    public void publishMessage(String strPeer, String subject, String message) {
+        if (s_logger.isTraceEnabled()) {
+            s_logger.trace("Publishing " + subject + " to " + strPeer + ": " + message);
+        }
+
+        ClusterServicePdu pdu = new ClusterServicePdu();
+        pdu.setSourcePeer(getSelfPeerName());
+        pdu.setDestPeer(strPeer);
+        pdu.setSubject(subject);
+        pdu.setJsonPackage(message);
+        addOutgoingClusterPdu(pdu);
+    }
+
+    private void dispatchMessage(ClusterServicePdu pdu) {
+        List<ClusterMessageHandler> handlers = null;
+        synchronized (_messageHandlers) {
+            List<ClusterMessageHandler> registered = _messageHandlers.get(pdu.getSubject());
+            if (registered != null) {
+                handlers = new ArrayList<ClusterMessageHandler>(registered);
+            }
+        }
+
+        if (handlers == null) {
+            if (s_logger.isDebugEnabled()) {
+                s_logger.debug("No handler for cluster message " + pdu.getSubject() + " from " + pdu.getSourcePeer());
+            }
+            return;
+        }
+
+        for (ClusterMessageHandler handler : handlers) {
+            try {
+                handler.onClusterMessage(pdu.getSourcePeer(), pdu.getSubject(), pdu.getJsonPackage());
+            } catch (Throwable e) {
+                s_logger.warn("Unexpected exception when handling cluster message " + pdu.getSubject() + " from " + pdu.getSourcePeer(), e);
+            }
+        }
+    }
+
     public void executeAsync(String strPeer, long agentId, String cmds, boolean stopOnError) {
         ClusterServicePdu pdu = new ClusterServicePdu();
         pdu.setSourcePeer(getSelfPeerName());
@@ -912,6 +1064,12 @@ public class ClusterManagerImpl extends ManagerBase implements ClusterManager, C
             queueNotification(new ClusterManagerMessage(ClusterManagerMessage.MessageType.nodeAdded, newNodeList));
         }
 
+        List<String> peerNames = new ArrayList<String>();
+        for (ManagementServerHostVO mshost : _activePeers.values()) {
+            peerNames.add(Long.toString(mshost.getMsid()));
+        }
+        _activePeerNames = peerNames;
+
         profiler.stop();
 
         if (profiler.getDuration() >= HeartbeatInterval.value()) {
@@ -1111,7 +1269,7 @@ public class ClusterManagerImpl extends ManagerBase implements ClusterManager, C
 
     @Override
     public ConfigKey<?>[] getConfigKeys() {
-        return new ConfigKey<?>[] {HeartbeatInterval, HeartbeatThreshold};
+        return new ConfigKey<?>[] {HeartbeatInterval, HeartbeatThreshold, MessageBatchSize};
     }
 
     private boolean pingManagementNode(ManagementServerHostVO mshost) {
@@ -1196,4 +1354,51 @@ public class ClusterManagerImpl extends ManagerBase implements ClusterManager, C
         }
     }
 
+
+    static class OutgoingPeerChannel {
+        final String peer;
+        final LinkedList<ClusterServicePdu> queue = new LinkedList<ClusterServicePdu>();
+        boolean scheduled;
+
+        private long _deliveredPdus;
+        private long _failedPdus;
+        private long _requests;
+        private long _totalLatency;
+        private long _lastLatency;
+
+        OutgoingPeerChannel(String peer) {
+            this.peer = peer;
+        }
+
+        synchronized void recordDelivery(int pdus, long latencyMs) {
+            _deliveredPdus += pdus;
+            _requests++;
+            _totalLatency += latencyMs;
+            _lastLatency = latencyMs;
+        }
+
+        synchronized void recordFailure(int pdus) {
+            _failedPdus += pdus;
+        }
+
+        synchronized long getDeliveredPdus() {
+            return _deliveredPdus;
+        }
+
+        synchronized long getFailedPdus() {
+            return _failedPdus;
+        }
+
+        synchronized long getRequests() {
+            return _requests;
+        }
+
+        synchronized long getAverageLatency() {
+            return _requests > 0 ? _totalLatency / _requests : 0;
+        }
+
+        synchronized long getLastLatency() {
+            return _lastLatency;
+        }
+    }
 }
@@ -28,4 +28,16 @@ public interface ClusterManagerMBean {
     public int getHeartbeatInterval();
 
     public int getHeartbeatThreshold();
+
+    public int getOutgoingQueueDepth();
+
+    public long getDeliveredPdus();
+
+    public long getFailedPdus();
+
+    public long getDeliveryRequests();
+
+    public long getAverageDeliveryLatency();
+
+    public long getLastDeliveryLatency();
 }
@@ -64,4 +64,43 @@ public class ClusterManagerMBeanImpl extends StandardMBean implements ClusterMan
     public int getHeartbeatThreshold() {
         return ClusterManager.HeartbeatThreshold.value();
     }
+
+    @Override
+    public int getOutgoingQueueDepth() {
+        return _clusterMgr.getOutgoingQueueDepth(getPeerName());
+    }
+
+    @Override
+    public long getDeliveredPdus() {
+        ClusterManagerImpl.OutgoingPeerChannel channel = _clusterMgr.getOutgoingChannel(getPeerName());
+        return channel != null ? channel.getDeliveredPdus() : 0;
+    }
+
+    @Override
+    public long getFailedPdus() {
+        ClusterManagerImpl.OutgoingPeerChannel channel = _clusterMgr.getOutgoingChannel(getPeerName());
+        return channel != null ? channel.getFailedPdus() : 0;
+    }
+
+    @Override
+    public long getDeliveryRequests() {
+        ClusterManagerImpl.OutgoingPeerChannel channel = _clusterMgr.getOutgoingChannel(getPeerName());
+        return channel != null ? channel.getRequests() : 0;
+    }
+
+    @Override
+    public long getAverageDeliveryLatency() {
+        ClusterManagerImpl.OutgoingPeerChannel channel = _clusterMgr.getOutgoingChannel(getPeerName());
+        return channel != null ? channel.getAverageLatency() : 0;
+    }
+
+    @Override
+    public long getLastDeliveryLatency() {
+        ClusterManagerImpl.OutgoingPeerChannel channel = _clusterMgr.getOutgoingChannel(getPeerName());
+        return channel != null ? channel.getLastLatency() : 0;
+    }
+
+    private String getPeerName() {
+        return Long.toString(_mshostVo.getMsid());
+    }
 }
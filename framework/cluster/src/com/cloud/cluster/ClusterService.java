@@ -18,9 +18,16 @@ package com.cloud.cluster;
 
 import java.rmi.Remote;
 import java.rmi.RemoteException;
+import java.util.List;
 
 public interface ClusterService extends Remote {
     String execute(ClusterServicePdu pdu) throws RemoteException;
 
+    /**
+     * Delivers the PDUs to the peer in order.
+     * @return number of PDUs, counted from the head of the list, accepted by the peer
+     */
+    int execute(List<ClusterServicePdu> pdus) throws RemoteException;
+
     boolean ping(String callingPeer) throws RemoteException;
 }
@@ -30,6 +30,7 @@ public class ClusterServicePdu {
     private long agentId;
     private boolean stopOnError;
     private String jsonPackage;
+    private String subject;
 
     private int pduType = PDU_TYPE_MESSAGE;
 
@@ -102,6 +103,14 @@ public class ClusterServicePdu {
         this.jsonPackage = jsonPackage;
     }
 
+    public String getSubject() {
+        return subject;
+    }
+
+    public void setSubject(String subject) {
+        this.subject = subject;
+    }
+
     public int getPduType() {
         return pduType;
     }
@@ -18,6 +18,7 @@ package com.cloud.cluster;
 
 import java.io.IOException;
 import java.rmi.RemoteException;
+import java.util.List;
 
 import org.apache.commons.httpclient.HttpClient;
 import org.apache.commons.httpclient.HttpException;
@@ -32,6 +33,7 @@ public class ClusterServiceServletImpl implements ClusterService {
     private static final Logger s_logger = Logger.getLogger(ClusterServiceServletImpl.class);
 
     private String _serviceUrl;
+    private volatile boolean _batchSupported = true;
 
     protected static HttpClient s_client = null;
 
@@ -52,18 +54,61 @@ public class ClusterServiceServletImpl implements ClusterService {
         PostMethod method = new PostMethod(_serviceUrl);
 
         method.addParameter("method", Integer.toString(RemoteMethodConstants.METHOD_DELIVER_PDU));
-        method.addParameter("sourcePeer", pdu.getSourcePeer());
-        method.addParameter("destPeer", pdu.getDestPeer());
-        method.addParameter("pduSeq", Long.toString(pdu.getSequenceId()));
-        method.addParameter("pduAckSeq", Long.toString(pdu.getAckSequenceId()));
-        method.addParameter("agentId", Long.toString(pdu.getAgentId()));
-        method.addParameter("gsonPackage", pdu.getJsonPackage());
-        method.addParameter("stopOnError", pdu.isStopOnError() ? "1" : "0");
-        method.addParameter("pduType", Integer.toString(pdu.getPduType()));
+        addPduParameters(method, pdu, "");
 
         return executePostMethod(client, method);
     }
 
+    @Override
+    public int execute(List<ClusterServicePdu> pdus) throws RemoteException {
+        if (pdus.size() > 1 && _batchSupported) {
+            HttpClient client = getHttpClient();
+            PostMethod method = new PostMethod(_serviceUrl);
+
+            method.addParameter("method", Integer.toString(RemoteMethodConstants.METHOD_DELIVER_PDUS));
+            method.addParameter("pduCount", Integer.toString(pdus.size()));
+            for (int i = 0; i < pdus.size(); i++) {
+                addPduParameters(method, pdus.get(i), "." + i);
+            }
+
+            String result = executePostMethod(client, method);
+            if ("true".equals(result)) {
+                return pdus.size();
+            }
+
+            if (method.getStatusLine() == null || method.getStatusCode() != HttpStatus.SC_BAD_REQUEST) {
+                return 0;
+            }
+
+            // peers running an older version reject the batch method, deliver one PDU per request to them
+            s_logger.info("Peer at " + _serviceUrl + " does not accept batched PDUs, falling back to single PDU delivery");
+            _batchSupported = false;
+        }
+
+        int delivered = 0;
+        for (ClusterServicePdu pdu : pdus) {
+            if (!"true".equals(execute(pdu))) {
+                break;
+            }
+            delivered++;
+        }
+        return delivered;
+    }
+
+    private static void addPduParameters(PostMethod method, ClusterServicePdu pdu, String suffix) {
+        method.addParameter("sourcePeer" + suffix, pdu.getSourcePeer());
+        method.addParameter("destPeer" + suffix, pdu.getDestPeer());
+        method.addParameter("pduSeq" + suffix, Long.toString(pdu.getSequenceId()));
+        method.addParameter("pduAckSeq" + suffix, Long.toString(pdu.getAckSequenceId()));
+        method.addParameter("agentId" + suffix, Long.toString(pdu.getAgentId()));
+        method.addParameter("gsonPackage" + suffix, pdu.getJsonPackage());
+        method.addParameter("stopOnError" + suffix, pdu.isStopOnError() ? "1" : "0");
+        method.addParameter("pduType" + suffix, Integer.toString(pdu.getPduType()));
+        if (pdu.getSubject() != null) {
+            method.addParameter("subject" + suffix, pdu.getSubject());
+        }
+    }
+
     @Override
     public boolean ping(String callingPeer) throws RemoteException {
         if (s_logger.isDebugEnabled()) {
@@ -31,4 +31,10 @@ public interface ConfigDepot {
     <T> void set(ConfigKey<T> key, T value);
 
     <T> void createOrUpdateConfigObject(String componentName, ConfigKey<T> key, String value);
+
+    /**
+     * Drops the cached global and scoped values of a key, here and on the other management
+     * servers.  Needs to be called when a value is changed without going through set().
+     */
+    void invalidate(String key);
 }
@@ -35,4 +35,12 @@ public interface ConfigDepotAdmin {
     void populateConfiguration(Configurable configurable);
 
     List<String> getComponentsInDepot();
+
+    void setCacheInvalidator(ConfigCacheInvalidator invalidator);
+
+    /**
+     * Drops the cached values of a key on request of another management server.
+     * @param key name of the key, null to drop all cached values.
+     */
+    void onRemoteInvalidation(String key);
 }
@@ -19,7 +19,6 @@ package org.apache.cloudstack.framework.config;
 import java.sql.Date;
 
 import org.apache.cloudstack.framework.config.impl.ConfigDepotImpl;
-import org.apache.cloudstack.framework.config.impl.ConfigurationVO;
 
 import com.cloud.utils.exception.CloudRuntimeException;
 
@@ -132,8 +131,8 @@ public class ConfigKey<T> {
 
     public T value() {
         if (_value == null || isDynamic()) {
-            ConfigurationVO vo = s_depot != null ? s_depot.global().findById(key()) : null;
-            _value = valueOf((vo != null && vo.getValue() != null) ? vo.getValue() : defaultValue());
+            String value = s_depot != null ? s_depot.getGlobalValue(key()) : null;
+            _value = valueOf(value != null ? value : defaultValue());
         }
 
         return _value;
@@ -144,7 +143,7 @@ public class ConfigKey<T> {
             return value();
         }
 
-        String value = s_depot != null ? s_depot.scoped(this).getConfigValue(id, this) : null;
+        String value = s_depot != null ? s_depot.getScopedValue(this, id) : null;
         if (value == null) {
             return value();
         } else {
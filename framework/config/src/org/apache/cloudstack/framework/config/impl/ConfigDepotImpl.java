@@ -22,11 +22,15 @@ import java.util.Date;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
 
 import javax.annotation.PostConstruct;
 import javax.inject.Inject;
 
+import org.apache.cloudstack.framework.config.ConfigCacheInvalidator;
 import org.apache.cloudstack.framework.config.ConfigDepot;
 import org.apache.cloudstack.framework.config.ConfigDepotAdmin;
 import org.apache.cloudstack.framework.config.ConfigKey;
@@ -49,6 +53,10 @@ import com.cloud.utils.exception.CloudRuntimeException;
  *   - Hide the data source where configs are stored and retrieved.
  *
  * When dealing with this class, we must be very careful on cluster situations.
+ * Values read through ConfigKey are cached here.  Changes made through this
+ * class, or reported through invalidate(), are pushed to the other management
+ * servers through the ConfigCacheInvalidator.  Anything else that writes the
+ * config or details tables directly is picked up once the cached value expires.
  *
  * TODO:
  *   - Move the rest of the changes to the config table to here.
@@ -78,6 +86,14 @@ public class ConfigDepotImpl implements ConfigDepot, ConfigDepotAdmin {
 
     HashMap<ConfigKey.Scope, Set<ConfigKey<?>>> _scopeLevelConfigsMap = new HashMap<ConfigKey.Scope, Set<ConfigKey<?>>>();
 
+    long _cacheExpireMs = 30000;
+    ConfigCacheInvalidator _cacheInvalidator;
+    final ConcurrentHashMap<String, CachedValue> _globalCache = new ConcurrentHashMap<String, CachedValue>();
+    final ConcurrentHashMap<String, ConcurrentHashMap<Long, CachedValue>> _scopedCache = new ConcurrentHashMap<String, ConcurrentHashMap<Long, CachedValue>>();
+    final ConcurrentHashMap<String, CacheStats> _cacheStats = new ConcurrentHashMap<String, CacheStats>();
+    // bumped on every invalidation so that a value loaded before it is not put back into the cache
+    final AtomicLong _cacheGeneration = new AtomicLong();
+
     public ConfigDepotImpl() {
         ConfigKey.init(this);
         _scopeLevelConfigsMap.put(ConfigKey.Scope.Zone, new HashSet<ConfigKey<?>>());
@@ -164,6 +180,122 @@ public class ConfigDepotImpl implements ConfigDepot, ConfigDepotAdmin {
         return _configDao;
     }
 
+    /**
+     * @return the global value of the key, null if it is not set.
+     */
+    public String getGlobalValue(String key) {
+        long now = System.currentTimeMillis();
+        CachedValue cached = _globalCache.get(key);
+        if (cached != null && cached.isValid(now)) {
+            getCacheStats(key).hits.incrementAndGet();
+            return cached.value;
+        }
+
+        getCacheStats(key).misses.incrementAndGet();
+        long generation = _cacheGeneration.get();
+        ConfigurationVO vo = _configDao.findById(key);
+        String value = vo != null ? vo.getValue() : null;
+        if (generation == _cacheGeneration.get()) {
+            _globalCache.put(key, new CachedValue(value, now + _cacheExpireMs));
+        }
+        return value;
+    }
+
+    /**
+     * @return the value of the key for the resource in the key's scope, null if it is not overridden.
+     */
+    public String getScopedValue(ConfigKey<?> config, long id) {
+        long now = System.currentTimeMillis();
+        ConcurrentHashMap<Long, CachedValue> values = _scopedCache.get(config.key());
+        if (values == null) {
+            values = new ConcurrentHashMap<Long, CachedValue>();
+            ConcurrentHashMap<Long, CachedValue> existing = _scopedCache.putIfAbsent(config.key(), values);
+            if (existing != null) {
+                values = existing;
+            }
+        }
+
+        CachedValue cached = values.get(id);
+        if (cached != null && cached.isValid(now)) {
+            getCacheStats(config.key()).hits.incrementAndGet();
+            return cached.value;
+        }
+
+        getCacheStats(config.key()).misses.incrementAndGet();
+        long generation = _cacheGeneration.get();
+        String value = scoped(config).getConfigValue(id, config);
+        if (generation == _cacheGeneration.get()) {
+            values.put(id, new CachedValue(value, now + _cacheExpireMs));
+        }
+        return value;
+    }
+
+    @Override
+    public void invalidate(String key) {
+        invalidateLocally(key);
+
+        ConfigCacheInvalidator invalidator = _cacheInvalidator;
+        if (invalidator != null) {
+            try {
+                invalidator.invalidate(key);
+            } catch (Exception e) {
+                s_logger.warn("Unable to notify other management servers that " + key + " has changed", e);
+            }
+        }
+    }
+
+    @Override
+    public void onRemoteInvalidation(String key) {
+        invalidateLocally(key);
+    }
+
+    protected void invalidateLocally(String key) {
+        _cacheGeneration.incrementAndGet();
+        if (key == null) {
+            _globalCache.clear();
+            _scopedCache.clear();
+        } else {
+            _globalCache.remove(key);
+            _scopedCache.remove(key);
+        }
+    }
+
+    @Override
+    public void setCacheInvalidator(ConfigCacheInvalidator invalidator) {
+        _cacheInvalidator = invalidator;
+    }
+
+    /**
+     * @param cacheExpireMs how long a cached value is used before it is read again, 0 disables the cache.
+     */
+    public void setCacheExpireInterval(long cacheExpireMs) {
+        _cacheExpireMs = cacheExpireMs;
+        invalidateLocally(null);
+    }
+
+    /**
+     * @return cache hits and misses per config key, useful to find out which keys are read the most.
+     */
+    public Map<String, Pair<Long, Long>> getCacheStatistics() {
+        Map<String, Pair<Long, Long>> stats = new HashMap<String, Pair<Long, Long>>();
+        for (Map.Entry<String, CacheStats> entry : _cacheStats.entrySet()) {
+            stats.put(entry.getKey(), new Pair<Long, Long>(entry.getValue().hits.get(), entry.getValue().misses.get()));
+        }
+        return stats;
+    }
+
+    private CacheStats getCacheStats(String key) {
+        CacheStats stats = _cacheStats.get(key);
+        if (stats == null) {
+            stats = new CacheStats();
+            CacheStats existing = _cacheStats.putIfAbsent(key, stats);
+            if (existing != null) {
+                stats = existing;
+            }
+        }
+        return stats;
+    }
+
     public ScopedConfigStorage scoped(ConfigKey<?> config) {
         for (ScopedConfigStorage storage : _scopedStorages) {
             if (storage.getScope() == config.scope()) {
@@ -200,11 +332,31 @@ public class ConfigDepotImpl implements ConfigDepot, ConfigDepotAdmin {
     @Override
     public <T> void set(ConfigKey<T> key, T value) {
         _configDao.update(key.key(), value.toString());
+        invalidate(key.key());
     }
 
     @Override
     public <T> void createOrUpdateConfigObject(String componentName, ConfigKey<T> key, String value) {
         createOrupdateConfigObject(new Date(), componentName, key, value);
+        invalidate(key.key());
+    }
+
+    static class CachedValue {
+        final String value;
+        final long expiresAt;
+
+        CachedValue(String value, long expiresAt) {
+            this.value = value;
+            this.expiresAt = expiresAt;
+        }
+
+        boolean isValid(long now) {
+            return now < expiresAt;
+        }
+    }
 
+    static class CacheStats {
+        final AtomicLong hits = new AtomicLong();
+        final AtomicLong misses = new AtomicLong();
     }
 }
@@ -17,6 +17,7 @@
 package org.apache.cloudstack.framework.config.impl;
 
 import static org.mockito.Matchers.any;
+import static org.mockito.Mockito.mock;
 import static org.mockito.Mockito.times;
 import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
@@ -30,6 +31,7 @@ import org.junit.Test;
 import org.mockito.Mock;
 import org.mockito.MockitoAnnotations;
 
+import org.apache.cloudstack.framework.config.ConfigCacheInvalidator;
 import org.apache.cloudstack.framework.config.ConfigDepot;
 import org.apache.cloudstack.framework.config.ConfigKey;
 import org.apache.cloudstack.framework.config.Configurable;
@@ -98,4 +100,52 @@ public class ConfigDepotAdminTest extends TestCase {
         // This is two because DynamicIntCK also returns null.
         verify(_configDao, times(2)).persist(any(ConfigurationVO.class));
     }
+
+    @Test
+    public void testGlobalValueIsCached() {
+        ConfigurationVO dynamicIntCV = new ConfigurationVO("UnitTestComponent", DynamicIntCK);
+        dynamicIntCV.setValue("100");
+        when(_configDao.findById(DynamicIntCK.key())).thenReturn(dynamicIntCV);
+
+        assertEquals("100", _depotAdmin.getGlobalValue(DynamicIntCK.key()));
+        assertEquals("100", _depotAdmin.getGlobalValue(DynamicIntCK.key()));
+        verify(_configDao, times(1)).findById(DynamicIntCK.key());
+        assertEquals(Long.valueOf(1), _depotAdmin.getCacheStatistics().get(DynamicIntCK.key()).first());
+        assertEquals(Long.valueOf(1), _depotAdmin.getCacheStatistics().get(DynamicIntCK.key()).second());
+    }
+
+    @Test
+    public void testInvalidateReloadsAndNotifiesPeers() {
+        ConfigCacheInvalidator invalidator = mock(ConfigCacheInvalidator.class);
+        _depotAdmin.setCacheInvalidator(invalidator);
+
+        ConfigurationVO dynamicIntCV = new ConfigurationVO("UnitTestComponent", DynamicIntCK);
+        dynamicIntCV.setValue("100");
+        when(_configDao.findById(DynamicIntCK.key())).thenReturn(dynamicIntCV);
+        assertEquals("100", _depotAdmin.getGlobalValue(DynamicIntCK.key()));
+
+        dynamicIntCV.setValue("200");
+        _depotAdmin.invalidate(DynamicIntCK.key());
+        assertEquals("200", _depotAdmin.getGlobalValue(DynamicIntCK.key()));
+        verify(invalidator, times(1)).invalidate(DynamicIntCK.key());
+
+        dynamicIntCV.setValue("300");
+        _depotAdmin.onRemoteInvalidation(null);
+        assertEquals("300", _depotAdmin.getGlobalValue(DynamicIntCK.key()));
+        verify(invalidator, times(1)).invalidate(any(String.class));
+    }
+
+    @Test
+    public void testScopedValueIsCached() {
+        when(_scopedStorage.getConfigValue(1L, DynamicIntCK)).thenReturn("50");
+        when(_scopedStorage.getScope()).thenReturn(DynamicIntCK.scope());
+
+        assertEquals("50", _depotAdmin.getScopedValue(DynamicIntCK, 1L));
+        assertEquals("50", _depotAdmin.getScopedValue(DynamicIntCK, 1L));
+        verify(_scopedStorage, times(1)).getConfigValue(1L, DynamicIntCK);
+
+        _depotAdmin.invalidate(DynamicIntCK.key());
+        assertEquals("50", _depotAdmin.getScopedValue(DynamicIntCK, 1L));
+        verify(_scopedStorage, times(2)).getConfigValue(1L, DynamicIntCK);
+    }
 }
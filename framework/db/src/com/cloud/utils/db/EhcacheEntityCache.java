@@ -0,0 +1,91 @@
+// Licensed to the Apache Software Foundation (ASF) under one
+// or more contributor license agreements.  See the NOTICE file
+// distributed with this work for additional information
+// regarding copyright ownership.  The ASF licenses this file
+// to you under the Apache License, Version 2.0 (the
+// "License"); you may not use this file except in compliance
+// with the License.  You may obtain a copy of the License at
+//
+//   http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing,
+// software distributed under the License is distributed on an
+// "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+// KIND, either express or implied.  See the License for the
+// specific language governing permissions and limitations
+// under the License.
+package com.cloud.utils.db;
+
+import net.sf.ehcache.Cache;
+import net.sf.ehcache.CacheManager;
+import net.sf.ehcache.Element;
+import net.sf.ehcache.store.MemoryStoreEvictionPolicy;
+
+/**
+ * EntityCache backed by a memory only ehcache Cache.
+ */
+public class EhcacheEntityCache implements EntityCache {
+    private final Cache _cache;
+
+    public EhcacheEntityCache(String name, int maxElements, String evictionPolicy, int timeToLive, int timeToIdle) {
+        MemoryStoreEvictionPolicy policy = MemoryStoreEvictionPolicy.fromString(evictionPolicy != null ? evictionPolicy : "LRU");
+        _cache = new Cache(name, maxElements, policy, false, null, timeToLive == -1, timeToLive == -1 ? Integer.MAX_VALUE : timeToLive, timeToIdle, false, 120, null);
+        CacheManager cm = CacheManager.create();
+        if (cm.cacheExists(name)) {
+            cm.removeCache(name);
+        }
+        cm.addCache(_cache);
+        _cache.setStatisticsEnabled(true);
+    }
+
+    @Override
+    public String getName() {
+        return _cache.getName();
+    }
+
+    @Override
+    public Object get(Object key) {
+        Element element = _cache.get(key);
+        return element == null ? null : element.getObjectValue();
+    }
+
+    @Override
+    public void put(Object key, Object value) {
+        _cache.put(new Element(key, value));
+    }
+
+    @Override
+    public void remove(Object key) {
+        _cache.remove(key);
+    }
+
+    @Override
+    public void removeAll() {
+        _cache.removeAll();
+    }
+
+    @Override
+    public int getSize() {
+        return _cache.getSize();
+    }
+
+    @Override
+    public long getHitCount() {
+        return _cache.getStatistics().getCacheHits();
+    }
+
+    @Override
+    public long getMissCount() {
+        return _cache.getStatistics().getCacheMisses();
+    }
+
+    @Override
+    public void destroy() {
+        CacheManager.create().removeCache(_cache.getName());
+    }
+
+    @Override
+    public String toString() {
+        return _cache.toString();
+    }
+}
@@ -269,4 +269,18 @@ public interface GenericDao<T, ID extends Serializable> {
     Pair<List<T>, Integer> searchAndCount(SearchCriteria<T> sc, Filter filter);
 
     Map<String, Attribute> getAllAttributes();
+
+    /**
+     * Evicts the entity from the second level cache of this dao, on this and the
+     * other management servers.  Needed only after changing the row without going
+     * through this dao.
+     * @param id id of the entity.
+     */
+    void evictFromCache(ID id);
+
+    /**
+     * Drops everything in the second level cache of this dao, on this and the
+     * other management servers.
+     */
+    void evictCache();
 }
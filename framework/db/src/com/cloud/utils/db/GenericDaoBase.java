@@ -61,9 +61,6 @@ import net.sf.cglib.proxy.Enhancer;
 import net.sf.cglib.proxy.Factory;
 import net.sf.cglib.proxy.MethodInterceptor;
 import net.sf.cglib.proxy.NoOp;
-import net.sf.ehcache.Cache;
-import net.sf.ehcache.CacheManager;
-import net.sf.ehcache.Element;
 
 import org.apache.log4j.Logger;
 
@@ -160,6 +157,34 @@ public abstract class GenericDaoBase<T, ID extends Serializable> extends Compone
 
     protected static final SequenceFetcher s_seqFetcher = SequenceFetcher.getInstance();
 
+    protected final static Map<String, GenericDaoBase<?, ? extends Serializable>> s_cachedDaos = new ConcurrentHashMap<String, GenericDaoBase<?, ? extends Serializable>>();
+    protected static volatile EntityCacheInvalidator s_cacheInvalidator;
+
+    /**
+     * Sets the invalidator used to tell the other management servers about changes
+     * to entities held in DAO caches.
+     */
+    public static void setEntityCacheInvalidator(EntityCacheInvalidator invalidator) {
+        s_cacheInvalidator = invalidator;
+    }
+
+    /**
+     * Called when another management server changed an entity held in a DAO cache.
+     * @param cacheName name of the DAO cache.
+     * @param id id of the changed entity, null to drop the whole cache.
+     */
+    public static void onRemoteCacheInvalidation(String cacheName, String id) {
+        GenericDaoBase<?, ? extends Serializable> dao = s_cachedDaos.get(cacheName);
+        if (dao == null) {
+            return;
+        }
+        if (id == null) {
+            dao.clearCache();
+        } else {
+            dao.evictIdFromCache(id);
+        }
+    }
+
     public static <J> GenericDao<? extends J, ? extends Serializable> getDao(Class<J> entityType) {
         @SuppressWarnings("unchecked")
         GenericDao<? extends J, ? extends Serializable> dao = (GenericDao<? extends J, ? extends Serializable>)s_daoMaps.get(entityType);
@@ -392,6 +417,17 @@ public abstract class GenericDaoBase<T, ID extends Serializable> extends Compone
 
         final String sql = str.toString();
 
+        // only plain searches go through the query cache, locking, joined or grouped ones always hit the db
+        String queryKey = null;
+        if (_queryCache != null && lock == null && joins == null && groupByValues == null) {
+            queryKey = buildQueryCacheKey(sql, clause != null ? sc.getValues() : null);
+            @SuppressWarnings("unchecked")
+            final List<T> cached = (List<T>)_queryCache.get(queryKey);
+            if (cached != null) {
+                return new ArrayList<T>(cached);
+            }
+        }
+
         PreparedStatement pstmt = null;
         final List<T> result = new ArrayList<T>();
         try {
@@ -420,6 +456,9 @@ public abstract class GenericDaoBase<T, ID extends Serializable> extends Compone
             while (rs.next()) {
                 result.add(toEntityBean(rs, cache));
             }
+            if (queryKey != null) {
+                _queryCache.put(queryKey, Collections.unmodifiableList(new ArrayList<T>(result)));
+            }
             return result;
         } catch (final SQLException e) {
             throw new CloudRuntimeException("DB Exception on: " + pstmt, e);
@@ -785,9 +824,6 @@ public abstract class GenericDaoBase<T, ID extends Serializable> extends Compone
     }
 
     protected int update(ID id, UpdateBuilder ub, T entity) {
-        if (_cache != null) {
-            _cache.remove(id);
-        }
         SearchCriteria<T> sc = createSearchCriteria();
         sc.addAnd(_idAttributes.get(_table)[0], SearchCriteria.Op.EQ, id);
         TransactionLegacy txn = TransactionLegacy.currentTxn();
@@ -801,7 +837,9 @@ public abstract class GenericDaoBase<T, ID extends Serializable> extends Compone
             throw new CloudRuntimeException("Unable to persist element collection", e);
         }
 
-        int rowsUpdated = update(ub, sc, null);
+        // only this row changed, so only its cache entries go
+        int rowsUpdated = executeUpdate(ub, sc, null);
+        evictFromCache(id);
 
         txn.commit();
 
@@ -809,6 +847,14 @@ public abstract class GenericDaoBase<T, ID extends Serializable> extends Compone
     }
 
     public int update(UpdateBuilder ub, final SearchCriteria<?> sc, Integer rows) {
+        int result = executeUpdate(ub, sc, rows);
+        if (result > 0) {
+            evictCache();
+        }
+        return result;
+    }
+
+    private int executeUpdate(UpdateBuilder ub, final SearchCriteria<?> sc, Integer rows) {
         StringBuilder sql = null;
         PreparedStatement pstmt = null;
         final TransactionLegacy txn = TransactionLegacy.currentTxn();
@@ -941,8 +987,8 @@ public abstract class GenericDaoBase<T, ID extends Serializable> extends Compone
     @SuppressWarnings("unchecked")
     public T findById(final ID id) {
         if (_cache != null) {
-            final Element element = _cache.get(id);
-            return element == null ? lockRow(id, null) : (T)element.getObjectValue();
+            final T entity = (T)_cache.get(id);
+            return entity == null ? lockRow(id, null) : entity;
         } else {
             return lockRow(id, null);
         }
@@ -950,10 +996,30 @@ public abstract class GenericDaoBase<T, ID extends Serializable> extends Compone
 
     @Override
     @DB()
+    @SuppressWarnings("unchecked")
     public T findByUuid(final String uuid) {
+        if (_uuidCache != null && uuid != null) {
+            final ID id = (ID)_uuidCache.get(uuid);
+            if (id != null) {
+                final T entity = findById(id);
+                if (entity != null && uuid.equals(getUuid(entity))) {
+                    return entity;
+                }
+                _uuidCache.remove(uuid);
+            }
+        }
+
         SearchCriteria<T> sc = createSearchCriteria();
         sc.addAnd("uuid", SearchCriteria.Op.EQ, uuid);
-        return findOneBy(sc);
+        T entity = findOneBy(sc);
+        if (entity != null && _uuidCache != null) {
+            try {
+                _uuidCache.put(uuid, _idField.get(entity));
+            } catch (final Exception e) {
+                s_logger.debug("Can't put it in the cache", e);
+            }
+        }
+        return entity;
     }
 
     @Override
@@ -1007,7 +1073,7 @@ public abstract class GenericDaoBase<T, ID extends Serializable> extends Compone
             }
 
             ResultSet rs = pstmt.executeQuery();
-            return rs.next() ? toEntityBean(rs, true) : null;
+            return rs.next() ? toEntityBean(rs, !removed || _removed == null) : null;
         } catch (SQLException e) {
             throw new CloudRuntimeException("DB Exception on: " + pstmt, e);
         }
@@ -1170,9 +1236,7 @@ public abstract class GenericDaoBase<T, ID extends Serializable> extends Compone
             }
 
             txn.commit();
-            if (_cache != null) {
-                _cache.remove(id);
-            }
+            evictFromCache(id);
             return true;
         } catch (final SQLException e) {
             throw new CloudRuntimeException("DB Exception on: " + pstmt, e);
@@ -1204,7 +1268,11 @@ public abstract class GenericDaoBase<T, ID extends Serializable> extends Compone
             for (final Pair<Attribute, Object> value : sc.getValues()) {
                 prepareAttribute(++i, pstmt, value.first(), value.second());
             }
-            return pstmt.executeUpdate();
+            int result = pstmt.executeUpdate();
+            if (result > 0) {
+                evictCache();
+            }
+            return result;
         } catch (final SQLException e) {
             throw new CloudRuntimeException("DB Exception on: " + pstmt, e);
         } catch (final Throwable e) {
@@ -1393,6 +1461,11 @@ public abstract class GenericDaoBase<T, ID extends Serializable> extends Compone
                 insertElementCollection(entity, _idAttributes.get(_table)[0], id, ecAttributes);
             }
             txn.commit();
+            if (id != null) {
+                evictFromCache(id);
+            } else {
+                evictCache();
+            }
         } catch (final SQLException e) {
             if (e.getSQLState().equals("23000") && e.getErrorCode() == 1062) {
                 throw new EntityExistsException("Entity already exists: ", e);
@@ -1595,7 +1668,7 @@ public abstract class GenericDaoBase<T, ID extends Serializable> extends Compone
 
         if (cache && _cache != null) {
             try {
-                _cache.put(new Element(_idField.get(entity), entity));
+                _cache.put(_idField.get(entity), entity);
             } catch (final Exception e) {
                 s_logger.debug("Can't put it in the cache", e);
             }
@@ -1617,7 +1690,7 @@ public abstract class GenericDaoBase<T, ID extends Serializable> extends Compone
         toEntityBean(result, entity);
         if (cache && _cache != null) {
             try {
-                _cache.put(new Element(_idField.get(entity), entity));
+                _cache.put(_idField.get(entity), entity);
             } catch (final Exception e) {
                 s_logger.debug("Can't put it in the cache", e);
             }
@@ -1722,7 +1795,9 @@ public abstract class GenericDaoBase<T, ID extends Serializable> extends Compone
             txn.start();
             pstmt = txn.prepareAutoCloseStatement(sql.toString());
 
-            pstmt.executeUpdate();
+            if (pstmt.executeUpdate() > 0) {
+                evictCache();
+            }
             txn.commit();
         } catch (final SQLException e) {
             throw new CloudRuntimeException("DB Exception on " + pstmt, e);
@@ -1763,9 +1838,7 @@ public abstract class GenericDaoBase<T, ID extends Serializable> extends Compone
 
             final int result = pstmt.executeUpdate();
             txn.commit();
-            if (_cache != null) {
-                _cache.remove(id);
-            }
+            evictFromCache(id);
             return result > 0;
         } catch (final SQLException e) {
             throw new CloudRuntimeException("DB Exception on: " + pstmt, e);
@@ -1785,23 +1858,199 @@ public abstract class GenericDaoBase<T, ID extends Serializable> extends Compone
         return update(ub, sc, null);
     }
 
-    protected Cache _cache;
+    // entities by id
+    protected EntityCache _cache;
+    // uuid to id mapping, only present together with _cache
+    protected EntityCache _uuidCache;
+    // results of plain searches, dropped on every change to the table made through this dao
+    protected EntityCache _queryCache;
 
+    /**
+     * Creates the second level caches for this dao.  They are only created when
+     * configured through the dao parameters:
+     *   cache.size - max number of entities cached by id and by uuid.
+     *   cache.query.size - max number of search results cached, 0 or missing to not cache searches.
+     *   cache.time.to.live, cache.time.to.idle - in seconds, defaults to 300.  -1 to never expire.
+     *   cache.eviction.policy - LRU (default), LFU or FIFO.
+     *
+     * Changes made through this dao evict the entries here and, through the
+     * EntityCacheInvalidator, on the other management servers.  Changes made with
+     * hand written sql bypass the cache so only turn it on for daos that don't do that.
+     */
     @DB()
     protected void createCache(final Map<String, ? extends Object> params) {
+        destroyCache();
+
         final String value = (String)params.get("cache.size");
+        if (value == null) {
+            return;
+        }
 
-        if (value != null) {
-            final CacheManager cm = CacheManager.create();
-            final int maxElements = NumbersUtil.parseInt(value, 0);
-            final int live = NumbersUtil.parseInt((String)params.get("cache.time.to.live"), 300);
-            final int idle = NumbersUtil.parseInt((String)params.get("cache.time.to.idle"), 300);
-            _cache = new Cache(getName(), maxElements, false, live == -1, live == -1 ? Integer.MAX_VALUE : live, idle);
-            cm.addCache(_cache);
-            s_logger.info("Cache created: " + _cache.toString());
-        } else {
+        final int maxElements = NumbersUtil.parseInt(value, 0);
+        final int queryElements = NumbersUtil.parseInt((String)params.get("cache.query.size"), 0);
+        final int live = NumbersUtil.parseInt((String)params.get("cache.time.to.live"), 300);
+        final int idle = NumbersUtil.parseInt((String)params.get("cache.time.to.idle"), 300);
+        final String policy = (String)params.get("cache.eviction.policy");
+
+        _cache = createEntityCache(getName(), maxElements, policy, live, idle);
+        if (_idAttributes.get(_table).length > 0 && _allAttributes.containsKey("uuid")) {
+            _uuidCache = createEntityCache(getName() + ".uuid", maxElements, policy, live, idle);
+        }
+        if (queryElements > 0) {
+            _queryCache = createEntityCache(getName() + ".query", queryElements, policy, live, idle);
+        }
+        s_cachedDaos.put(getName(), this);
+        s_logger.info("Cache created: " + _cache.toString());
+    }
+
+    /**
+     * Override to plug in a different cache implementation.
+     */
+    protected EntityCache createEntityCache(final String name, final int maxElements, final String evictionPolicy, final int timeToLive, final int timeToIdle) {
+        return new EhcacheEntityCache(name, maxElements, evictionPolicy, timeToLive, timeToIdle);
+    }
+
+    protected void destroyCache() {
+        if (_cache != null) {
+            s_cachedDaos.remove(_cache.getName());
+            _cache.destroy();
             _cache = null;
         }
+        if (_uuidCache != null) {
+            _uuidCache.destroy();
+            _uuidCache = null;
+        }
+        if (_queryCache != null) {
+            _queryCache.destroy();
+            _queryCache = null;
+        }
+    }
+
+    @Override
+    public void evictFromCache(final ID id) {
+        if (_cache == null) {
+            return;
+        }
+
+        final String cacheName = _cache.getName();
+        evictIdFromCache(id);
+        // Other connections keep reading the old row until the change commits and may put it back in
+        // the cache meanwhile, so evict again and tell the other management servers once it's visible
+        TransactionLegacy.runOnCurrentCompletion(new Runnable() {
+            @Override
+            public void run() {
+                evictIdFromCache(id);
+                EntityCacheInvalidator invalidator = s_cacheInvalidator;
+                if (invalidator != null) {
+                    invalidator.invalidate(cacheName, id);
+                }
+            }
+        });
+    }
+
+    @Override
+    public void evictCache() {
+        if (_cache == null) {
+            return;
+        }
+
+        final String cacheName = _cache.getName();
+        clearCache();
+        TransactionLegacy.runOnCurrentCompletion(new Runnable() {
+            @Override
+            public void run() {
+                clearCache();
+                EntityCacheInvalidator invalidator = s_cacheInvalidator;
+                if (invalidator != null) {
+                    invalidator.invalidate(cacheName, null);
+                }
+            }
+        });
+    }
+
+    protected void evictIdFromCache(final Object id) {
+        EntityCache cache = _cache;
+        if (cache != null) {
+            cache.remove(id instanceof String ? toId((String)id) : id);
+        }
+        // the uuid mapping is verified on use so there's no need to drop it here
+        EntityCache queryCache = _queryCache;
+        if (queryCache != null) {
+            queryCache.removeAll();
+        }
+    }
+
+    protected void clearCache() {
+        EntityCache cache = _cache;
+        if (cache != null) {
+            cache.removeAll();
+        }
+        cache = _uuidCache;
+        if (cache != null) {
+            cache.removeAll();
+        }
+        cache = _queryCache;
+        if (cache != null) {
+            cache.removeAll();
+        }
+    }
+
+    /**
+     * Converts an id received from another management server back to the type of the id field.
+     */
+    protected Object toId(final String id) {
+        final Class<?> type = _idField.getType();
+        if (type == Long.class || type == long.class) {
+            return Long.valueOf(id);
+        } else if (type == Integer.class || type == int.class) {
+            return Integer.valueOf(id);
+        } else if (type == Short.class || type == short.class) {
+            return Short.valueOf(id);
+        }
+        return id;
+    }
+
+    protected String getUuid(final T entity) {
+        final Attribute attr = _allAttributes.get("uuid");
+        try {
+            final Object uuid = attr != null ? attr.field.get(entity) : null;
+            return uuid != null ? uuid.toString() : null;
+        } catch (final IllegalAccessException e) {
+            return null;
+        }
+    }
+
+    protected String buildQueryCacheKey(final String sql, final List<Pair<Attribute, Object>> values) {
+        final StringBuilder key = new StringBuilder(sql);
+        if (values != null) {
+            for (final Pair<Attribute, Object> value : values) {
+                key.append('|');
+                final Object obj = value.second();
+                if (obj instanceof Object[]) {
+                    key.append(Arrays.deepToString((Object[])obj));
+                } else if (obj instanceof Date) {
+                    key.append(((Date)obj).getTime());
+                } else {
+                    key.append(obj);
+                }
+            }
+        }
+        return key.toString();
+    }
+
+    /**
+     * @return hit and miss counts of the caches of this dao, empty if it doesn't cache.
+     */
+    public Map<String, Long> getCacheStatistics() {
+        final Map<String, Long> stats = new HashMap<String, Long>();
+        for (final EntityCache cache : new EntityCache[] {_cache, _uuidCache, _queryCache}) {
+            if (cache != null) {
+                stats.put(cache.getName() + ".size", (long)cache.getSize());
+                stats.put(cache.getName() + ".hits", cache.getHitCount());
+                stats.put(cache.getName() + ".misses", cache.getMissCount());
+            }
+        }
+        return stats;
     }
 
     @Override
@@ -22,10 +22,14 @@ import java.sql.ResultSet;
 import java.sql.SQLException;
 import java.util.Date;
 import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
 import java.util.TimeZone;
+import java.util.concurrent.atomic.AtomicLongArray;
 
 import javax.management.StandardMBean;
 
@@ -60,6 +64,19 @@ public class Merovingian2 extends StandardMBean implements MerovingianMBean {
     private ConnectionConcierge _concierge = null;
     private static ThreadLocal<Count> s_tls = new ThreadLocal<Count>();
 
+    // upper bound of how long a waiter sleeps before re-checking op_lock on its own,
+    // release notifications normally wake it up well before that
+    private static final long POLL_INTERVAL_MS = 5000;
+
+    // upper bounds (in ms) of the wait time histogram buckets, the last bucket takes everything above
+    private static final long[] WAIT_BUCKETS = new long[] {10, 100, 1000, 5000, 30000};
+    private final AtomicLongArray _waitHistogram = new AtomicLongArray(WAIT_BUCKETS.length + 1);
+    private final AtomicLongArray _waitStats = new AtomicLongArray(3); // acquired-after-wait, timed out, total wait ms
+
+    private final Map<String, LockWaiters> _waiters = new HashMap<String, LockWaiters>();
+    private final Map<String, Set<Long>> _remoteWaiters = new HashMap<String, Set<Long>>();
+    private LockNotifier _notifier = null;
+
     private Merovingian2(long msId) {
         super(MerovingianMBean.class, false);
         _msId = msId;
@@ -110,6 +127,15 @@ public class Merovingian2 extends StandardMBean implements MerovingianMBean {
         count.count--;
     }
 
+    /**
+     * Sets the notifier used to exchange lock release notifications with the
+     * other management servers.  Without one, waiters for locks held by other
+     * management servers fall back to polling op_lock.
+     */
+    public void setLockNotifier(LockNotifier notifier) {
+        _notifier = notifier;
+    }
+
     public boolean acquire(String key, int timeInSeconds) {
         Thread th = Thread.currentThread();
         String threadName = th.getName();
@@ -119,31 +145,186 @@ public class Merovingian2 extends StandardMBean implements MerovingianMBean {
             s_logger.trace("Acquiring lck-" + key + " with wait time of " + timeInSeconds);
         }
         long startTime = InaccurateClock.getTime();
+        long timeout = timeInSeconds * 1000l;
 
-        while ((InaccurateClock.getTime() - startTime) < (timeInSeconds * 1000l)) {
-            int count = owns(key);
+        LockWaiters waiters = null;
+        Long notifiedOwner = null;
+        long notifiedGeneration = -1;
+        try {
+            while (true) {
+                long generation = waiters != null ? waiters.getGeneration() : 0;
+                Map<String, String> owner = isLocked(key);
+                if (owner == null) {
+                    if (doAcquire(key, threadName, threadId)) {
+                        recordWait(startTime, waiters != null);
+                        return true;
+                    }
+                } else if (owner.get("mgmt").equals(Long.toString(_msId)) && owner.get("tid").equals(Integer.toString(threadId))) {
+                    return increment(key, threadName, threadId);
+                }
 
-            if (count >= 1) {
-                return increment(key, threadName, threadId);
-            } else if (count == 0) {
-                if (doAcquire(key, threadName, threadId)) {
-                    return true;
+                long remaining = timeout - (InaccurateClock.getTime() - startTime);
+                if (remaining <= 0) {
+                    break;
                 }
-            }
-            try {
+
+                if (waiters == null) {
+                    // register before waiting and check again, so that a release in between is not missed
+                    waiters = addWaiter(key);
+                    continue;
+                }
+
+                if (owner != null && _notifier != null) {
+                    long ownerMsId = Long.parseLong(owner.get("mgmt"));
+                    if (ownerMsId != _msId && (notifiedOwner == null || notifiedOwner != ownerMsId || notifiedGeneration != generation)) {
+                        notifiedOwner = ownerMsId;
+                        notifiedGeneration = generation;
+                        _notifier.waitingFor(key, ownerMsId);
+                    }
+                }
+
                 if (s_logger.isTraceEnabled()) {
-                    s_logger.trace("Sleeping more time while waiting for lck-" + key);
+                    s_logger.trace("Waiting for release of lck-" + key);
                 }
-                Thread.sleep(5000);
-            } catch (InterruptedException e) {
+                try {
+                    waiters.await(generation, Math.min(remaining, POLL_INTERVAL_MS));
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    s_logger.warn("Interrupted while waiting for lck-" + key);
+                    return false;
+                }
+            }
+        } finally {
+            if (waiters != null) {
+                removeWaiter(key, waiters);
             }
         }
+
+        _waitStats.incrementAndGet(1);
         String msg = "Timed out on acquiring lock " + key + " .  Waited for " + ((InaccurateClock.getTime() - startTime)/1000) +  "seconds";
         Exception e = new CloudRuntimeException(msg);
         s_logger.warn(msg, e);
         return false;
     }
 
+    protected void recordWait(long startTime, boolean waited) {
+        if (!waited) {
+            return;
+        }
+
+        long waitTime = InaccurateClock.getTime() - startTime;
+        int bucket = 0;
+        while (bucket < WAIT_BUCKETS.length && waitTime >= WAIT_BUCKETS[bucket]) {
+            bucket++;
+        }
+        _waitHistogram.incrementAndGet(bucket);
+        _waitStats.incrementAndGet(0);
+        _waitStats.addAndGet(2, waitTime);
+    }
+
+    protected LockWaiters addWaiter(String key) {
+        synchronized (_waiters) {
+            LockWaiters waiters = _waiters.get(key);
+            if (waiters == null) {
+                waiters = new LockWaiters();
+                _waiters.put(key, waiters);
+            }
+            waiters.count++;
+            return waiters;
+        }
+    }
+
+    protected void removeWaiter(String key, LockWaiters waiters) {
+        synchronized (_waiters) {
+            waiters.count--;
+            if (waiters.count <= 0) {
+                _waiters.remove(key);
+            }
+        }
+    }
+
+    protected void signalWaiters(String key) {
+        LockWaiters waiters;
+        synchronized (_waiters) {
+            waiters = _waiters.get(key);
+        }
+        if (waiters != null) {
+            waiters.signal();
+        }
+    }
+
+    protected void signalAllWaiters() {
+        List<LockWaiters> all;
+        synchronized (_waiters) {
+            all = new LinkedList<LockWaiters>(_waiters.values());
+        }
+        for (LockWaiters waiters : all) {
+            waiters.signal();
+        }
+    }
+
+    /**
+     * Called when another management server has released a lock that threads
+     * on this management server are waiting for.
+     */
+    public void onRemoteRelease(String key) {
+        if (s_logger.isTraceEnabled()) {
+            s_logger.trace("lck-" + key + " released by a peer");
+        }
+        signalWaiters(key);
+    }
+
+    /**
+     * Called when a thread on another management server is waiting for a lock
+     * held by this management server.  The peer is told when the lock is released.
+     */
+    public void onRemoteWaiter(String key, long msId) {
+        synchronized (_remoteWaiters) {
+            Set<Long> peers = _remoteWaiters.get(key);
+            if (peers == null) {
+                peers = new HashSet<Long>();
+                _remoteWaiters.put(key, peers);
+            }
+            peers.add(msId);
+        }
+
+        // the lock may have gone away before the peer got to tell us
+        Map<String, String> owner = isLocked(key);
+        if (owner == null || !owner.get("mgmt").equals(Long.toString(_msId))) {
+            notifyRemoteWaiters(key);
+        }
+    }
+
+    protected void notifyReleasedRemoteWaiters() {
+        List<String> keys;
+        synchronized (_remoteWaiters) {
+            keys = new LinkedList<String>(_remoteWaiters.keySet());
+        }
+        for (String key : keys) {
+            Map<String, String> owner = isLocked(key);
+            if (owner == null || !owner.get("mgmt").equals(Long.toString(_msId))) {
+                notifyRemoteWaiters(key);
+            }
+        }
+    }
+
+    protected void notifyRemoteWaiters(String key) {
+        Set<Long> peers;
+        synchronized (_remoteWaiters) {
+            peers = _remoteWaiters.remove(key);
+        }
+        if (peers == null || _notifier == null) {
+            return;
+        }
+        for (Long msId : peers) {
+            try {
+                _notifier.released(key, msId);
+            } catch (Exception e) {
+                s_logger.warn("Unable to notify management server " + msId + " of the release of lck-" + key, e);
+            }
+        }
+    }
+
     protected boolean increment(String key, String threadName, int threadId) {
       try (PreparedStatement pstmt = _concierge.conn().prepareStatement(INCREMENT_SQL);){
             pstmt.setString(1, key);
@@ -229,6 +410,9 @@ public class Merovingian2 extends StandardMBean implements MerovingianMBean {
                     pstmt.setLong(1, msId);
                     int rows = pstmt.executeUpdate();
                     s_logger.info("Released " + rows + " locks for " + msId);
+                    if (rows > 0) {
+                        signalAllWaiters();
+                    }
                 }catch (Exception e) {
                     s_logger.error("cleanupForServer:Exception:"+e.getMessage());
                     throw new CloudRuntimeException("cleanupForServer:Exception:"+e.getMessage(), e);
@@ -261,8 +445,12 @@ public class Merovingian2 extends StandardMBean implements MerovingianMBean {
                     rel_sql_pstmt.setString(1, key);
                     rel_sql_pstmt.setLong(2, _msId);
                     int result = rel_sql_pstmt.executeUpdate();
-                    if (result == 1 && s_logger.isTraceEnabled()) {
-                        s_logger.trace("lck-" + key + " removed");
+                    if (result == 1) {
+                        if (s_logger.isTraceEnabled()) {
+                            s_logger.trace("lck-" + key + " removed");
+                        }
+                        signalWaiters(key);
+                        notifyRemoteWaiters(key);
                     }
                     decrCount();
                 }catch (Exception e) {
@@ -378,6 +566,11 @@ public class Merovingian2 extends StandardMBean implements MerovingianMBean {
             pstmt.setString(2, threadName);
             pstmt.setInt(3, threadId);
             int rows = pstmt.executeUpdate();
+            if (rows > 0) {
+                // the released keys are not known here, so wake everyone and let them recheck
+                signalAllWaiters();
+                notifyReleasedRemoteWaiters();
+            }
             assert (false) : "Abandon hope, all ye who enter here....There were still " + rows + ":" + c +
             " locks not released when the transaction ended, check for lock not released or @DB is not added to the code that using the locks!";
         } catch (Exception e) {
@@ -393,6 +586,10 @@ public class Merovingian2 extends StandardMBean implements MerovingianMBean {
         {
             pstmt.setString(1, key);
             int rows = pstmt.executeUpdate();
+            if (rows > 0) {
+                signalWaiters(key);
+                notifyRemoteWaiters(key);
+            }
             return rows > 0;
         } catch (Exception e) {
             s_logger.error("releaseLockAsLastResortAndIReallyKnowWhatIAmDoing : Exception: " +  e.getMessage());
@@ -400,7 +597,96 @@ public class Merovingian2 extends StandardMBean implements MerovingianMBean {
         }
     }
 
+    @Override
+    public Map<String, Long> getLockWaitTimeHistogram() {
+        Map<String, Long> histogram = new LinkedHashMap<String, Long>();
+        for (int i = 0; i < WAIT_BUCKETS.length; i++) {
+            histogram.put("<" + WAIT_BUCKETS[i] + "ms", _waitHistogram.get(i));
+        }
+        histogram.put(">=" + WAIT_BUCKETS[WAIT_BUCKETS.length - 1] + "ms", _waitHistogram.get(WAIT_BUCKETS.length));
+        return histogram;
+    }
+
+    @Override
+    public long getLockWaitCount() {
+        return _waitStats.get(0);
+    }
+
+    @Override
+    public long getLockTimeoutCount() {
+        return _waitStats.get(1);
+    }
+
+    @Override
+    public long getAverageLockWaitTime() {
+        long count = _waitStats.get(0);
+        return count == 0 ? 0 : _waitStats.get(2) / count;
+    }
+
+    @Override
+    public int getLockWaiterCount() {
+        int count = 0;
+        synchronized (_waiters) {
+            for (LockWaiters waiters : _waiters.values()) {
+                count += waiters.count;
+            }
+        }
+        return count;
+    }
+
+    @Override
+    public void resetLockWaitStatistics() {
+        for (int i = 0; i < _waitHistogram.length(); i++) {
+            _waitHistogram.set(i, 0);
+        }
+        for (int i = 0; i < _waitStats.length(); i++) {
+            _waitStats.set(i, 0);
+        }
+    }
+
     protected static class Count {
         public int count = 0;
     }
+
+    /**
+     * Threads on this management server waiting for the same lock.  The generation
+     * is bumped on every release so a waiter can tell whether it missed a signal.
+     */
+    protected static class LockWaiters {
+        int count = 0;
+        private long _generation = 0;
+
+        public synchronized long getGeneration() {
+            return _generation;
+        }
+
+        public synchronized void signal() {
+            _generation++;
+            notifyAll();
+        }
+
+        public synchronized void await(long generation, long timeoutMs) throws InterruptedException {
+            long deadline = System.currentTimeMillis() + timeoutMs;
+            long remaining = timeoutMs;
+            while (_generation == generation && remaining > 0) {
+                wait(remaining);
+                remaining = deadline - System.currentTimeMillis();
+            }
+        }
+    }
+
+    /**
+     * Carries lock notifications between management servers.
+     */
+    public interface LockNotifier {
+        /**
+         * Tells the management server holding the lock that this management server is waiting for it.
+         */
+        void waitingFor(String key, long ownerMsId);
+
+        /**
+         * Tells a waiting management server that the lock has been released.
+         */
+        void released(String key, long waiterMsId);
+    }
 }
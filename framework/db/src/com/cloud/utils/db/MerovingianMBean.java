@@ -28,4 +28,16 @@ public interface MerovingianMBean {
     boolean releaseLockAsLastResortAndIReallyKnowWhatIAmDoing(String key);
 
     void cleanupForServer(long msId);
+
+    Map<String, Long> getLockWaitTimeHistogram();
+
+    long getLockWaitCount();
+
+    long getLockTimeoutCount();
+
+    long getAverageLockWaitTime();
+
+    int getLockWaiterCount();
+
+    void resetLockWaitStatistics();
 }
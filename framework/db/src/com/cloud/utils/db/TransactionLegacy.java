@@ -96,6 +96,8 @@ public class TransactionLegacy implements Closeable {
     private long _id;
 
     private final LinkedList<Pair<String, Long>> _lockTimes = new LinkedList<Pair<String, Long>>();
+    private final List<Runnable> _completionTasks = new LinkedList<Runnable>();
+    private final List<Runnable> _commitTasks = new LinkedList<Runnable>();
 
     private String _name;
     private Connection _conn;
@@ -199,6 +201,75 @@ public class TransactionLegacy implements Closeable {
         return _txn;
     }
 
+    /**
+     * Runs the task once the outermost transaction commits or rolls back, right away if no transaction is open.
+     */
+    public void runOnCompletion(final Runnable task) {
+        if (!_txn) {
+            task.run();
+            return;
+        }
+        _completionTasks.add(task);
+    }
+
+    /**
+     * Runs the task once the current thread's transaction completes, right away if the thread has none.
+     */
+    public static void runOnCurrentCompletion(final Runnable task) {
+        final TransactionLegacy txn = currentTxn(false);
+        if (txn == null) {
+            task.run();
+        } else {
+            txn.runOnCompletion(task);
+        }
+    }
+
+    /**
+     * Runs the task once the outermost transaction commits, right away if no transaction is open.
+     * The task is dropped if the transaction rolls back.
+     */
+    public void runOnCommit(final Runnable task) {
+        if (!_txn) {
+            task.run();
+            return;
+        }
+        _commitTasks.add(task);
+    }
+
+    /**
+     * Runs the task once the current thread's transaction commits, right away if the thread has none.
+     */
+    public static void runOnCurrentCommit(final Runnable task) {
+        final TransactionLegacy txn = currentTxn(false);
+        if (txn == null) {
+            task.run();
+        } else {
+            txn.runOnCommit(task);
+        }
+    }
+
+    protected void runCompletionTasks() {
+        while (!_completionTasks.isEmpty()) {
+            final Runnable task = _completionTasks.remove(0);
+            try {
+                task.run();
+            } catch (final Exception e) {
+                s_logger.warn("Unable to run transaction completion task " + task, e);
+            }
+        }
+    }
+
+    protected void runCommitTasks() {
+        while (!_commitTasks.isEmpty()) {
+            final Runnable task = _commitTasks.remove(0);
+            try {
+                task.run();
+            } catch (final Exception e) {
+                s_logger.warn("Unable to run transaction commit task " + task, e);
+            }
+        }
+    }
+
     public static Connection getStandaloneConnectionWithException() throws SQLException {
         Connection conn = s_ds.getConnection();
         if (s_connLogger.isTraceEnabled()) {
@@ -656,6 +727,8 @@ public class TransactionLegacy implements Closeable {
         _name = null;
 
         closeConnection();
+        _commitTasks.clear();
+        runCompletionTasks();
 
         _stack.clear();
         Merovingian2 lockMaster = Merovingian2.getLockMaster();
@@ -747,6 +820,8 @@ public class TransactionLegacy implements Closeable {
                 clearLockTimes();
                 closeConnection();
             }
+            runCommitTasks();
+            runCompletionTasks();
             return true;
         } catch (final SQLException e) {
             rollbackTransaction();
@@ -868,6 +943,8 @@ public class TransactionLegacy implements Closeable {
         } catch (final SQLException e) {
             s_logger.warn("Unable to rollback", e);
         }
+        _commitTasks.clear();
+        runCompletionTasks();
     }
 
     protected void rollbackSavepoint(Savepoint sp) {
@@ -882,6 +959,8 @@ public class TransactionLegacy implements Closeable {
         if (!hasTxnInStack()) {
             _txn = false;
             closeConnection();
+            _commitTasks.clear();
+            runCompletionTasks();
         }
     }
 
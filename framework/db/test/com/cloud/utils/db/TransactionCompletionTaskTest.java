@@ -0,0 +1,100 @@
+// Licensed to the Apache Software Foundation (ASF) under one
+// or more contributor license agreements.  See the NOTICE file
+// distributed with this work for additional information
+// regarding copyright ownership.  The ASF licenses this file
+// to you under the Apache License, Version 2.0 (the
+// "License"); you may not use this file except in compliance
+// with the License.  You may obtain a copy of the License at
+//
+//   http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing,
+// software distributed under the License is distributed on an
+// "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+// KIND, either express or implied.  See the License for the
+// specific language governing permissions and limitations
+// under the License.
+package com.cloud.utils.db;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class TransactionCompletionTaskTest {
+
+    @Test
+    public void testTaskWaitsForOutermostCommit() {
+        final AtomicInteger runs = new AtomicInteger();
+        Runnable task = new Runnable() {
+            @Override
+            public void run() {
+                runs.incrementAndGet();
+            }
+        };
+
+        TransactionLegacy txn = TransactionLegacy.open("testTaskWaitsForOutermostCommit");
+        try {
+            txn.start();
+            txn.start();
+            txn.runOnCompletion(task);
+            txn.commit();
+            Assert.assertEquals(0, runs.get());
+            txn.commit();
+            Assert.assertEquals(1, runs.get());
+
+            txn.runOnCompletion(task);
+            Assert.assertEquals(2, runs.get());
+        } finally {
+            txn.close();
+        }
+    }
+
+    @Test
+    public void testTaskRunsOnRollback() {
+        final AtomicInteger runs = new AtomicInteger();
+        TransactionLegacy txn = TransactionLegacy.open("testTaskRunsOnRollback");
+        try {
+            txn.start();
+            txn.runOnCompletion(new Runnable() {
+                @Override
+                public void run() {
+                    runs.incrementAndGet();
+                }
+            });
+            txn.rollback();
+            Assert.assertEquals(1, runs.get());
+        } finally {
+            txn.close();
+        }
+    }
+
+    @Test
+    public void testCommitTaskRunsOnlyOnCommit() {
+        final AtomicInteger runs = new AtomicInteger();
+        Runnable task = new Runnable() {
+            @Override
+            public void run() {
+                runs.incrementAndGet();
+            }
+        };
+
+        TransactionLegacy txn = TransactionLegacy.open("testCommitTaskRunsOnlyOnCommit");
+        try {
+            txn.start();
+            txn.runOnCommit(task);
+            txn.rollback();
+            Assert.assertEquals(0, runs.get());
+
+            txn.start();
+            txn.start();
+            txn.runOnCommit(task);
+            txn.commit();
+            Assert.assertEquals(0, runs.get());
+            txn.commit();
+            Assert.assertEquals(1, runs.get());
+        } finally {
+            txn.close();
+        }
+    }
+}
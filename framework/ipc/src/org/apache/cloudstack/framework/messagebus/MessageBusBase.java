@@ -20,33 +20,40 @@
 package org.apache.cloudstack.framework.messagebus;
 
 import java.util.ArrayList;
-import java.util.Arrays;
-import java.util.Collections;
 import java.util.HashMap;
+import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 
 import org.apache.log4j.Logger;
 
 import org.apache.cloudstack.framework.serializer.MessageSerializer;
+import org.apache.cloudstack.managed.context.ManagedContextRunnable;
 
+import com.cloud.utils.concurrency.NamedThreadFactory;
 import com.cloud.utils.db.TransactionLegacy;
 import com.cloud.utils.exception.CloudRuntimeException;
 
 public class MessageBusBase implements MessageBus {
 
-    private final Gate _gate;
-    private final List<ActionRecord> _pendingActions;
-
+    //
+    // publish walks the subscription tree without taking any lock, the tree uses concurrent maps and
+    // copy-on-write subscriber lists. Structural changes (subscribe, unsubscribe, clearAll and prune)
+    // are serialized on the root node
+    //
     private final SubscriptionNode _subscriberRoot;
     private MessageSerializer _messageSerializer;
 
+    private ExecutorService _deliveryExecutor;
+    private final Map<String, SubjectDeliveryQueue> _deliveryQueues = new HashMap<String, SubjectDeliveryQueue>();
+
     private static final Logger s_logger = Logger.getLogger(MessageBusBase.class);
 
     public MessageBusBase() {
-        _gate = new Gate();
-        _pendingActions = new ArrayList<ActionRecord>();
-
         _subscriberRoot = new SubscriptionNode(null, "/", null);
     }
 
@@ -60,86 +67,58 @@ public class MessageBusBase implements MessageBus {
         return _messageSerializer;
     }
 
+    /**
+     * Switches the bus to asynchronous delivery. Published messages are then handed to a pool of delivery
+     * threads, messages under the same subject are still delivered in the order they were published.
+     * @param threads size of the delivery thread pool, 0 (the default) delivers in the publishing thread
+     */
+    public synchronized void setAsyncDeliveryThreads(int threads) {
+        if (_deliveryExecutor != null) {
+            _deliveryExecutor.shutdown();
+            _deliveryExecutor = null;
+        }
+
+        if (threads > 0) {
+            _deliveryExecutor = Executors.newFixedThreadPool(threads, new NamedThreadFactory("MessageBus-Delivery"));
+        }
+    }
+
     @Override
     public void subscribe(String subject, MessageSubscriber subscriber) {
         assert (subject != null);
         assert (subscriber != null);
-        if (_gate.enter()) {
-            if (s_logger.isTraceEnabled()) {
-                s_logger.trace("Enter gate in message bus subscribe");
-            }
-            try {
-                SubscriptionNode current = locate(subject, null, true);
-                assert (current != null);
-                current.addSubscriber(subscriber);
-            } finally {
-                _gate.leave();
-            }
-        } else {
-            synchronized (_pendingActions) {
-                _pendingActions.add(new ActionRecord(ActionType.Subscribe, subject, subscriber));
-            }
+        synchronized (_subscriberRoot) {
+            SubscriptionNode current = locate(subject, null, true);
+            assert (current != null);
+            current.addSubscriber(subscriber);
         }
     }
 
     @Override
     public void unsubscribe(String subject, MessageSubscriber subscriber) {
-        if (_gate.enter()) {
-            if (s_logger.isTraceEnabled()) {
-                s_logger.trace("Enter gate in message bus unsubscribe");
-            }
-            try {
-                if (subject != null) {
-                    SubscriptionNode current = locate(subject, null, false);
-                    if (current != null)
-                        current.removeSubscriber(subscriber, false);
-                } else {
-                    _subscriberRoot.removeSubscriber(subscriber, true);
-                }
-            } finally {
-                _gate.leave();
-            }
-        } else {
-            synchronized (_pendingActions) {
-                _pendingActions.add(new ActionRecord(ActionType.Unsubscribe, subject, subscriber));
+        synchronized (_subscriberRoot) {
+            if (subject != null) {
+                SubscriptionNode current = locate(subject, null, false);
+                if (current != null)
+                    current.removeSubscriber(subscriber, false);
+            } else {
+                _subscriberRoot.removeSubscriber(subscriber, true);
             }
         }
     }
 
     @Override
     public void clearAll() {
-        if (_gate.enter()) {
-            if (s_logger.isTraceEnabled()) {
-                s_logger.trace("Enter gate in message bus clearAll");
-            }
-            try {
-                _subscriberRoot.clearAll();
-                doPrune();
-            } finally {
-                _gate.leave();
-            }
-        } else {
-            synchronized (_pendingActions) {
-                _pendingActions.add(new ActionRecord(ActionType.ClearAll, null, null));
-            }
+        synchronized (_subscriberRoot) {
+            _subscriberRoot.clearAll();
+            doPrune();
         }
     }
 
     @Override
     public void prune() {
-        if (_gate.enter()) {
-            if (s_logger.isTraceEnabled()) {
-                s_logger.trace("Enter gate in message bus prune");
-            }
-            try {
-                doPrune();
-            } finally {
-                _gate.leave();
-            }
-        } else {
-            synchronized (_pendingActions) {
-                _pendingActions.add(new ActionRecord(ActionType.Prune, null, null));
-            }
+        synchronized (_subscriberRoot) {
+            doPrune();
         }
     }
 
@@ -166,63 +145,56 @@ public class MessageBusBase implements MessageBus {
             String errMsg = "NO EVENT PUBLISH CAN BE WRAPPED WITHIN DB TRANSACTION!";
             s_logger.error(errMsg, new CloudRuntimeException(errMsg));
         }
-        if (_gate.enter(true)) {
-            if (s_logger.isTraceEnabled()) {
-                s_logger.trace("Enter gate in message bus publish");
-            }
-            try {
-                List<SubscriptionNode> chainFromTop = new ArrayList<SubscriptionNode>();
-                SubscriptionNode current = locate(subject, chainFromTop, false);
 
-                if (current != null)
-                    current.notifySubscribers(senderAddress, subject, args);
+        List<SubscriptionNode> chainFromTop = new ArrayList<SubscriptionNode>();
+        SubscriptionNode current = locate(subject, chainFromTop, false);
 
-                Collections.reverse(chainFromTop);
-                for (SubscriptionNode node : chainFromTop)
-                    node.notifySubscribers(senderAddress, subject, args);
-            } finally {
-                _gate.leave();
-            }
+        ExecutorService deliveryExecutor = _deliveryExecutor;
+        if (deliveryExecutor != null) {
+            List<MessageSubscriber> subscribers = new ArrayList<MessageSubscriber>();
+            if (current != null)
+                current.collectSubscribers(subscribers);
+            for (int i = chainFromTop.size() - 1; i >= 0; i--)
+                chainFromTop.get(i).collectSubscribers(subscribers);
+
+            if (!subscribers.isEmpty())
+                queueDelivery(deliveryExecutor, new MessageDelivery(senderAddress, subject, args, subscribers));
+            return;
         }
+
+        if (current != null)
+            current.notifySubscribers(senderAddress, subject, args);
+
+        for (int i = chainFromTop.size() - 1; i >= 0; i--)
+            chainFromTop.get(i).notifySubscribers(senderAddress, subject, args);
     }
 
-    private void onGateOpen() {
-        synchronized (_pendingActions) {
-            ActionRecord record = null;
-            while (_pendingActions.size() > 0) {
-                record = _pendingActions.remove(0);
-                switch (record.getType()) {
-                    case Subscribe: {
-                        SubscriptionNode current = locate(record.getSubject(), null, true);
-                        assert (current != null);
-                        current.addSubscriber(record.getSubscriber());
-                    }
-                        break;
-
-                    case Unsubscribe:
-                        if (record.getSubject() != null) {
-                            SubscriptionNode current = locate(record.getSubject(), null, false);
-                            if (current != null)
-                                current.removeSubscriber(record.getSubscriber(), false);
-                        } else {
-                            _subscriberRoot.removeSubscriber(record.getSubscriber(), true);
-                        }
-                        break;
-
-                    case ClearAll:
-                        _subscriberRoot.clearAll();
-                        break;
-
-                    case Prune:
-                        doPrune();
-                        break;
-
-                    default:
-                        assert (false);
-                        break;
+    private void queueDelivery(ExecutorService deliveryExecutor, MessageDelivery delivery) {
+        SubjectDeliveryQueue queue;
+        synchronized (_deliveryQueues) {
+            queue = _deliveryQueues.get(delivery.getSubject());
+            if (queue == null) {
+                queue = new SubjectDeliveryQueue(delivery.getSubject());
+                _deliveryQueues.put(delivery.getSubject(), queue);
+            }
 
-                }
+            queue.add(delivery);
+            if (queue.isScheduled())
+                return;
+            queue.setScheduled(true);
+        }
+
+        deliveryExecutor.execute(queue);
+    }
+
+    private MessageDelivery pollDelivery(SubjectDeliveryQueue queue) {
+        synchronized (_deliveryQueues) {
+            MessageDelivery delivery = queue.poll();
+            if (delivery == null) {
+                queue.setScheduled(false);
+                _deliveryQueues.remove(queue.getSubject());
             }
+            return delivery;
         }
     }
 
@@ -233,128 +205,95 @@ public class MessageBusBase implements MessageBus {
         if (subject.equals("/"))
             return _subscriberRoot;
 
-        String[] subjectPathTokens = subject.split("\\.");
-        return locate(subjectPathTokens, _subscriberRoot, chainFromTop, createPath);
-    }
-
-    private static SubscriptionNode locate(String[] subjectPathTokens, SubscriptionNode current, List<SubscriptionNode> chainFromTop, boolean createPath) {
-
-        assert (current != null);
-        assert (subjectPathTokens != null);
-        assert (subjectPathTokens.length > 0);
-
-        if (chainFromTop != null)
-            chainFromTop.add(current);
+        SubscriptionNode current = _subscriberRoot;
+        for (String token : subject.split("\\.")) {
+            if (chainFromTop != null)
+                chainFromTop.add(current);
 
-        SubscriptionNode next = current.getChild(subjectPathTokens[0]);
-        if (next == null) {
-            if (createPath) {
-                next = new SubscriptionNode(current, subjectPathTokens[0], null);
-                current.addChild(subjectPathTokens[0], next);
-            } else {
-                return null;
+            SubscriptionNode next = current.getChild(token);
+            if (next == null) {
+                if (createPath) {
+                    next = new SubscriptionNode(current, token, null);
+                    current.addChild(token, next);
+                } else {
+                    return null;
+                }
             }
+            current = next;
         }
-
-        if (subjectPathTokens.length > 1) {
-            return locate(Arrays.copyOfRange(subjectPathTokens, 1, subjectPathTokens.length), next, chainFromTop, createPath);
-        } else {
-            return next;
-        }
+        return current;
     }
 
     private boolean noDbTxn() {
         TransactionLegacy txn = TransactionLegacy.currentTxn();
-        return !txn.dbTxnStarted();
+        return txn == null || !txn.dbTxnStarted();
     }
 
     //
     // Support inner classes
     //
-    private static enum ActionType {
-        Subscribe, Unsubscribe, ClearAll, Prune
-    }
-
-    private static class ActionRecord {
-        private final ActionType _type;
+    private static class MessageDelivery {
+        private final String _senderAddress;
         private final String _subject;
-        private final MessageSubscriber _subscriber;
+        private final Object _args;
+        private final List<MessageSubscriber> _subscribers;
 
-        public ActionRecord(ActionType type, String subject, MessageSubscriber subscriber) {
-            _type = type;
+        public MessageDelivery(String senderAddress, String subject, Object args, List<MessageSubscriber> subscribers) {
+            _senderAddress = senderAddress;
             _subject = subject;
-            _subscriber = subscriber;
-        }
-
-        public ActionType getType() {
-            return _type;
+            _args = args;
+            _subscribers = subscribers;
         }
 
         public String getSubject() {
             return _subject;
         }
 
-        public MessageSubscriber getSubscriber() {
-            return _subscriber;
+        public void deliver() {
+            for (MessageSubscriber subscriber : _subscribers) {
+                try {
+                    subscriber.onPublishMessage(_senderAddress, _subject, _args);
+                } catch (Throwable e) {
+                    s_logger.warn("Unexpected exception when delivering message " + _subject + " to " + subscriber, e);
+                }
+            }
         }
     }
 
-    private class Gate {
-        private int _reentranceCount;
-        private Thread _gateOwner;
-
-        public Gate() {
-            _reentranceCount = 0;
-            _gateOwner = null;
-        }
-
-        public boolean enter() {
-            return enter(false);
-        }
-
-        public boolean enter(boolean wait) {
-            while (true) {
-                synchronized (this) {
-                    if (_reentranceCount == 0) {
-                        assert (_gateOwner == null);
-
-                        _reentranceCount++;
-                        _gateOwner = Thread.currentThread();
-                        return true;
-                    } else {
-                        if (wait) {
-                            try {
-                                wait();
-                            } catch (InterruptedException e) {
-                            }
-                        } else {
-                            break;
-                        }
-                    }
-                }
-            }
+    private class SubjectDeliveryQueue extends ManagedContextRunnable {
+        private final String _subject;
+        private final LinkedList<MessageDelivery> _deliveries = new LinkedList<MessageDelivery>();
+        private boolean _scheduled;
 
-            return false;
+        public SubjectDeliveryQueue(String subject) {
+            _subject = subject;
         }
 
-        public void leave() {
-            synchronized (this) {
-                if (_reentranceCount > 0) {
-                    try {
-                        assert (_gateOwner == Thread.currentThread());
+        public String getSubject() {
+            return _subject;
+        }
 
-                        onGateOpen();
-                    } finally {
-                        if (s_logger.isTraceEnabled()) {
-                            s_logger.trace("Open gate of message bus");
-                        }
-                        _reentranceCount--;
-                        assert (_reentranceCount == 0);
-                        _gateOwner = null;
+        public void add(MessageDelivery delivery) {
+            _deliveries.add(delivery);
+        }
 
-                        notifyAll();
-                    }
-                }
+        public MessageDelivery poll() {
+            return _deliveries.poll();
+        }
+
+        public boolean isScheduled() {
+            return _scheduled;
+        }
+
+        public void setScheduled(boolean scheduled) {
+            _scheduled = scheduled;
+        }
+
+        @Override
+        protected void runInContext() {
+            MessageDelivery delivery;
+            while ((delivery = pollDelivery(this)) != null) {
+                delivery.deliver();
             }
         }
     }
@@ -369,12 +308,12 @@ public class MessageBusBase implements MessageBus {
             assert (nodeKey != null);
             _parent = parent;
             _nodeKey = nodeKey;
-            _subscribers = new ArrayList<MessageSubscriber>();
+            _subscribers = new CopyOnWriteArrayList<MessageSubscriber>();
 
             if (subscriber != null)
                 _subscribers.add(subscriber);
 
-            _children = new HashMap<String, SubscriptionNode>();
+            _children = new ConcurrentHashMap<String, SubscriptionNode>();
         }
 
         public SubscriptionNode getParent() {
@@ -435,6 +374,10 @@ public class MessageBusBase implements MessageBus {
                 trimNodes.add(this);
         }
 
+        public void collectSubscribers(List<MessageSubscriber> subscribers) {
+            subscribers.addAll(_subscribers);
+        }
+
         public void notifySubscribers(String senderAddress, String subject, Object args) {
             for (MessageSubscriber subscriber : _subscribers) {
                 subscriber.onPublishMessage(senderAddress, subject, args);
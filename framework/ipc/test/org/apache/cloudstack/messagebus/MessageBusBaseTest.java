@@ -0,0 +1,138 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.cloudstack.messagebus;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import org.apache.cloudstack.framework.messagebus.MessageBusBase;
+import org.apache.cloudstack.framework.messagebus.MessageSubscriber;
+import org.apache.cloudstack.framework.messagebus.PublishScope;
+
+public class MessageBusBaseTest {
+
+    @Test
+    public void testSubscribeFromSubscriber() {
+        final MessageBusBase bus = new MessageBusBase();
+        final AtomicInteger lateCount = new AtomicInteger();
+        final MessageSubscriber late = new MessageSubscriber() {
+            @Override
+            public void onPublishMessage(String senderAddress, String subject, Object args) {
+                lateCount.incrementAndGet();
+            }
+        };
+
+        bus.subscribe("Host", new MessageSubscriber() {
+            @Override
+            public void onPublishMessage(String senderAddress, String subject, Object args) {
+                bus.subscribe("Host", late);
+            }
+        });
+
+        bus.publish(null, "Host", PublishScope.LOCAL, null);
+        Assert.assertEquals(0, lateCount.get());
+
+        bus.publish(null, "Host", PublishScope.LOCAL, null);
+        Assert.assertEquals(1, lateCount.get());
+    }
+
+    @Test
+    public void testConcurrentPublishAndSubscribe() throws InterruptedException {
+        final MessageBusBase bus = new MessageBusBase();
+        final AtomicInteger count = new AtomicInteger();
+        final MessageSubscriber subscriber = new MessageSubscriber() {
+            @Override
+            public void onPublishMessage(String senderAddress, String subject, Object args) {
+                count.incrementAndGet();
+            }
+        };
+        bus.subscribe("VM", subscriber);
+
+        final List<Throwable> errors = Collections.synchronizedList(new ArrayList<Throwable>());
+        Thread churn = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    for (int i = 0; i < 10000; i++) {
+                        MessageSubscriber transient_ = new MessageSubscriber() {
+                            @Override
+                            public void onPublishMessage(String senderAddress, String subject, Object args) {
+                            }
+                        };
+                        bus.subscribe("VM." + (i % 10), transient_);
+                        bus.unsubscribe(null, transient_);
+                        if (i % 100 == 0)
+                            bus.prune();
+                    }
+                } catch (Throwable e) {
+                    errors.add(e);
+                }
+            }
+        });
+        churn.start();
+
+        for (int i = 0; i < 10000; i++) {
+            bus.publish(null, "VM." + (i % 10), PublishScope.LOCAL, null);
+        }
+        churn.join();
+
+        Assert.assertTrue(errors.isEmpty());
+        Assert.assertEquals(10000, count.get());
+    }
+
+    @Test
+    public void testAsyncDeliveryKeepsSubjectOrder() throws InterruptedException {
+        MessageBusBase bus = new MessageBusBase();
+        bus.setAsyncDeliveryThreads(4);
+
+        final int messages = 1000;
+        final CountDownLatch done = new CountDownLatch(2 * messages);
+        final List<Integer> hostOrder = Collections.synchronizedList(new ArrayList<Integer>());
+        final List<Integer> vmOrder = Collections.synchronizedList(new ArrayList<Integer>());
+        bus.subscribe("/", new MessageSubscriber() {
+            @Override
+            public void onPublishMessage(String senderAddress, String subject, Object args) {
+                if (subject.equals("Host"))
+                    hostOrder.add((Integer)args);
+                else
+                    vmOrder.add((Integer)args);
+                done.countDown();
+            }
+        });
+
+        for (int i = 0; i < messages; i++) {
+            bus.publish(null, "Host", PublishScope.LOCAL, i);
+            bus.publish(null, "VM", PublishScope.LOCAL, i);
+        }
+
+        Assert.assertTrue(done.await(30, TimeUnit.SECONDS));
+        for (int i = 0; i < messages; i++) {
+            Assert.assertEquals(i, hostOrder.get(i).intValue());
+            Assert.assertEquals(i, vmOrder.get(i).intValue());
+        }
+        bus.setAsyncDeliveryThreads(0);
+    }
+}
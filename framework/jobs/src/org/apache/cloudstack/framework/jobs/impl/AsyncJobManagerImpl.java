@@ -24,6 +24,8 @@ import java.util.Date;
 import java.util.List;
 import java.util.Map;
 import java.util.Properties;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 import java.util.concurrent.RejectedExecutionException;
@@ -56,7 +58,9 @@ import org.apache.cloudstack.jobs.JobInfo.Status;
 import org.apache.cloudstack.managed.context.ManagedContextRunnable;
 import org.apache.cloudstack.utils.identity.ManagementServerNode;
 
+import com.cloud.cluster.ClusterManager;
 import com.cloud.cluster.ClusterManagerListener;
+import com.cloud.cluster.ClusterMessageHandler;
 import com.cloud.cluster.ManagementServerHost;
 import com.cloud.utils.DateUtil;
 import com.cloud.utils.Pair;
@@ -77,13 +81,14 @@ import com.cloud.utils.db.SearchCriteria.Op;
 import com.cloud.utils.db.Transaction;
 import com.cloud.utils.db.TransactionCallback;
 import com.cloud.utils.db.TransactionCallbackNoReturn;
+import com.cloud.utils.db.TransactionLegacy;
 import com.cloud.utils.db.TransactionStatus;
 import com.cloud.utils.exception.CloudRuntimeException;
 import com.cloud.utils.exception.ExceptionUtil;
 import com.cloud.utils.mgmt.JmxUtil;
 import com.cloud.vm.dao.VMInstanceDao;
 
-public class AsyncJobManagerImpl extends ManagerBase implements AsyncJobManager, ClusterManagerListener, Configurable {
+public class AsyncJobManagerImpl extends ManagerBase implements AsyncJobManager, ClusterManagerListener, ClusterMessageHandler, Configurable {
     // Advanced
     private static final ConfigKey<Long> JobExpireMinutes = new ConfigKey<Long>("Advanced", Long.class, "job.expire.minutes", "1440",
         "Time (in minutes) for async-jobs to be kept in system", true, ConfigKey.Scope.Global);
@@ -92,6 +97,10 @@ public class AsyncJobManagerImpl extends ManagerBase implements AsyncJobManager,
     private static final ConfigKey<Integer> VmJobLockTimeout = new ConfigKey<Integer>("Advanced",
             Integer.class, "vm.job.lock.timeout", "1800",
             "Time in seconds to wait in acquiring lock to submit a vm worker job", false);
+    private static final ConfigKey<Integer> JobQueueSweepInterval = new ConfigKey<Integer>("Advanced", Integer.class, "job.queue.sweep.interval", "2",
+        "Interval (in seconds) at which sync queues are swept for items that missed their dispatch signal", true, ConfigKey.Scope.Global);
+
+    public static final String JOB_QUEUE_READY_SUBJECT = "job.queue.ready";
 
     private static final Logger s_logger = Logger.getLogger(AsyncJobManagerImpl.class);
 
@@ -100,6 +109,7 @@ public class AsyncJobManagerImpl extends ManagerBase implements AsyncJobManager,
     private static final int MAX_ONETIME_SCHEDULE_SIZE = 50;
     private static final int HEARTBEAT_INTERVAL = 2000;
     private static final int GC_INTERVAL = 10000;                // 10 seconds
+    private static final int QUEUE_DISPATCHER_POOL_SIZE = 4;
 
     @Inject
     private SyncQueueItemDao _queueItemDao;
@@ -119,12 +129,19 @@ public class AsyncJobManagerImpl extends ManagerBase implements AsyncJobManager,
     private AsyncJobMonitor _jobMonitor;
     @Inject
     private VMInstanceDao _vmInstanceDao;
+    @Inject
+    private ClusterManager _clusterMgr;
 
     private volatile long _executionRunNumber = 1;
+    private volatile long _lastQueueSweepTime = 0;
+
+    // queues that have been signalled but not yet checked by the dispatcher, used to coalesce signals
+    private final Set<Long> _signalledQueues = Collections.newSetFromMap(new ConcurrentHashMap<Long, Boolean>());
 
     private final ScheduledExecutorService _heartbeatScheduler = Executors.newScheduledThreadPool(1, new NamedThreadFactory("AsyncJobMgr-Heartbeat"));
     private ExecutorService _apiJobExecutor;
     private ExecutorService _workerJobExecutor;
+    private ExecutorService _queueDispatcher;
 
     @Override
     public String getConfigComponentName() {
@@ -133,7 +150,7 @@ public class AsyncJobManagerImpl extends ManagerBase implements AsyncJobManager,
 
     @Override
     public ConfigKey<?>[] getConfigKeys() {
-        return new ConfigKey<?>[] {JobExpireMinutes, JobCancelThresholdMinutes, VmJobLockTimeout};
+        return new ConfigKey<?>[] {JobExpireMinutes, JobCancelThresholdMinutes, VmJobLockTimeout, JobQueueSweepInterval};
     }
 
     @Override
@@ -199,21 +216,25 @@ public class AsyncJobManagerImpl extends ManagerBase implements AsyncJobManager,
                 throw new CloudRuntimeException("Failed to acquire lock in submitting async job: " + job.getCmd() + " with timeout value = " + VmJobLockTimeout.value());
             }
 
+            SyncQueueVO queue;
             try {
                 // lock is acquired
-                return Transaction.execute(new TransactionCallback<Long>() {
+                queue = Transaction.execute(new TransactionCallback<SyncQueueVO>() {
                     @Override
-                    public Long doInTransaction(TransactionStatus status) {
+                    public SyncQueueVO doInTransaction(TransactionStatus status) {
                         job.setInitMsid(getMsid());
                         dao.persist(job);
 
-                        syncAsyncJobExecution(job, syncObjType, syncObjId, 1);
-                        return job.getId();
+                        return queueJob(job, syncObjType, syncObjId, 1);
                     }
                 });
             } finally {
                 _vmInstanceDao.unlockFromLockTable(String.valueOf(syncObjId));
             }
+
+            // the queue item is only visible to the dispatcher once the transaction has been committed
+            signalQueue(queue.getId());
+            return job.getId();
         } catch (Exception e) {
             String errMsg = "Unable to schedule async job for command " + job.getCmd() + ", unexpected exception.";
             s_logger.warn(errMsg, e);
@@ -234,7 +255,7 @@ public class AsyncJobManagerImpl extends ManagerBase implements AsyncJobManager,
                 resultObject);
 
             // still purge item from queue to avoid any blocking
-            _queueMgr.purgeAsyncJobQueueItemId(jobId);
+            signalQueue(_queueMgr.purgeAsyncJobQueueItemId(jobId));
             return;
         }
 
@@ -243,7 +264,7 @@ public class AsyncJobManagerImpl extends ManagerBase implements AsyncJobManager,
                 s_logger.debug("job-" + jobId + " is already completed.");
             }
             // still purge item from queue to avoid any blocking
-            _queueMgr.purgeAsyncJobQueueItemId(jobId);
+            signalQueue(_queueMgr.purgeAsyncJobQueueItemId(jobId));
             return;
         }
 
@@ -258,9 +279,9 @@ public class AsyncJobManagerImpl extends ManagerBase implements AsyncJobManager,
         if (s_logger.isDebugEnabled()) {
             s_logger.debug("Wake up jobs related to job-" + jobId);
         }
-        List<Long> wakeupList = Transaction.execute(new TransactionCallback<List<Long>>() {
+        Pair<List<Long>, Long> wakeupResult = Transaction.execute(new TransactionCallback<Pair<List<Long>, Long>>() {
             @Override
-            public List<Long> doInTransaction(TransactionStatus status) {
+            public Pair<List<Long>, Long> doInTransaction(TransactionStatus status) {
                 if (s_logger.isDebugEnabled()) {
                     s_logger.debug("Update db status for job-" + jobId);
                 }
@@ -285,19 +306,22 @@ public class AsyncJobManagerImpl extends ManagerBase implements AsyncJobManager,
                 _joinMapDao.disjoinAllJobs(jobId);
 
                 // purge the job sync item from queue
-                _queueMgr.purgeAsyncJobQueueItemId(jobId);
+                Long queueId = _queueMgr.purgeAsyncJobQueueItemId(jobId);
 
-                return wakeupList;
+                return new Pair<List<Long>, Long>(wakeupList, queueId);
             }
         });
 
+        // let the next job waiting on the same queue run right away
+        signalQueue(wakeupResult.second());
+
         publishOnEventBus(job, "complete"); // publish before the instance type and ID are wiped out
 
         //
         // disable wakeup scheduling now, since all API jobs are currently using block-waiting for sub-jobs
         //
         /*
-                for (Long id : wakeupList) {
+                for (Long id : wakeupResult.first()) {
                     // TODO, we assume that all jobs in this category is API job only
                     AsyncJobVO jobToWakeup = _jobDao.findById(id);
                     if (jobToWakeup != null && (jobToWakeup.getPendingSignals() & AsyncJob.Constants.SIGNAL_MASK_WAKEUP) != 0)
@@ -408,10 +432,16 @@ public class AsyncJobManagerImpl extends ManagerBase implements AsyncJobManager,
             s_logger.debug("Sync job-" + job.getId() + " execution on object " + syncObjType + "." + syncObjId);
         }
 
+        SyncQueueVO queue = queueJob(job, syncObjType, syncObjId, queueSizeLimit);
+        signalQueue(queue.getId());
+    }
+
+    private SyncQueueVO queueJob(AsyncJob job, String syncObjType, long syncObjId, long queueSizeLimit) {
         SyncQueueVO queue = null;
         queue = _queueMgr.queue(syncObjType, syncObjId, SyncQueueItem.AsyncJobContentType, job.getId(), queueSizeLimit);
         if (queue == null)
             throw new CloudRuntimeException("Unable to insert queue item into database, DB is full?");
+        return queue;
     }
 
     @Override
@@ -551,6 +581,7 @@ public class AsyncJobManagerImpl extends ManagerBase implements AsyncJobManager,
                         if (job.getSyncSource() != null) {
                             // here check queue item one more time to double make sure that queue item is removed in case of any uncaught exception
                             _queueMgr.purgeItem(job.getSyncSource().getId());
+                            signalQueue(job.getSyncSource().getQueueId());
                         }
 
                         try {
@@ -586,7 +617,10 @@ public class AsyncJobManagerImpl extends ManagerBase implements AsyncJobManager,
         return signals;
     }
 
-    private void executeQueueItem(SyncQueueItemVO item, boolean fromPreviousSession) {
+    /**
+     * @return false if the job was rejected by the executor and its item has been returned to the queue
+     */
+    private boolean executeQueueItem(SyncQueueItemVO item, boolean fromPreviousSession) {
         AsyncJobVO job = _jobDao.findById(item.getContentId());
         if (job != null) {
             if (s_logger.isDebugEnabled()) {
@@ -630,6 +664,7 @@ public class AsyncJobManagerImpl extends ManagerBase implements AsyncJobManager,
                 } catch (Exception e3) {
                     s_logger.warn("Unexpected exception while update job-" + item.getContentId() + " msid for bookkeeping");
                 }
+                return false;
             }
 
         } else {
@@ -639,6 +674,7 @@ public class AsyncJobManagerImpl extends ManagerBase implements AsyncJobManager,
 
             _queueMgr.purgeItem(item.getId());
         }
+        return true;
     }
 
     @Override
@@ -709,7 +745,11 @@ public class AsyncJobManagerImpl extends ManagerBase implements AsyncJobManager,
                         s_logger.debug("Executing sync queue item: " + item.toString());
                     }
 
-                    executeQueueItem(item, false);
+                    if (!executeQueueItem(item, false)) {
+                        // we are saturated, let a peer management server pick up the queue
+                        handoffQueue(queueId);
+                        break;
+                    }
                 } else {
                     break;
                 }
@@ -720,6 +760,66 @@ public class AsyncJobManagerImpl extends ManagerBase implements AsyncJobManager,
         }
     }
 
+    /**
+     * Schedules a check of the given sync queue on the dispatcher. Signals for a queue that is
+     * already waiting for the dispatcher are coalesced into the pending check. Inside a transaction
+     * the signal is held back until it completes, so the dispatcher sees the committed queue.
+     */
+    private void signalQueue(final Long queueId) {
+        if (queueId == null) {
+            return;
+        }
+
+        TransactionLegacy.runOnCurrentCompletion(new Runnable() {
+            @Override
+            public void run() {
+                dispatchQueue(queueId);
+            }
+        });
+    }
+
+    private void dispatchQueue(final long queueId) {
+        if (!_signalledQueues.add(queueId)) {
+            return;
+        }
+
+        try {
+            _queueDispatcher.execute(new ManagedContextRunnable() {
+                @Override
+                protected void runInContext() {
+                    // clear the signal first so that a signal arriving while the queue is being checked is not lost
+                    _signalledQueues.remove(queueId);
+                    checkQueue(queueId);
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            _signalledQueues.remove(queueId);
+            if (s_logger.isDebugEnabled()) {
+                s_logger.debug("Dispatcher is shut down, hand off sync queue-" + queueId + " to peers");
+            }
+            handoffQueue(queueId);
+        }
+    }
+
+    private void handoffQueue(long queueId) {
+        try {
+            _clusterMgr.publishMessage(JOB_QUEUE_READY_SUBJECT, Long.toString(queueId));
+        } catch (Throwable e) {
+            s_logger.warn("Unable to hand off sync queue-" + queueId + " to peers, it will be picked up by the next queue sweep", e);
+        }
+    }
+
+    @Override
+    public void onClusterMessage(String senderPeer, String subject, String message) {
+        if (JOB_QUEUE_READY_SUBJECT.equals(subject)) {
+            try {
+                signalQueue(Long.parseLong(message));
+            } catch (NumberFormatException e) {
+                s_logger.warn("Invalid sync queue id " + message + " received from " + senderPeer);
+            }
+        }
+    }
+
     private Runnable getHeartbeatTask() {
         return new ManagedContextRunnable() {
 
@@ -741,13 +841,20 @@ public class AsyncJobManagerImpl extends ManagerBase implements AsyncJobManager,
 
             protected void reallyRun() {
                 try {
-                    List<SyncQueueItemVO> l = _queueMgr.dequeueFromAny(getMsid(), MAX_ONETIME_SCHEDULE_SIZE);
-                    if (l != null && l.size() > 0) {
-                        for (SyncQueueItemVO item : l) {
-                            if (s_logger.isDebugEnabled()) {
-                                s_logger.debug("Execute sync-queue item: " + item.toString());
+                    // queue items are normally dispatched as soon as they are queued or their queue frees up,
+                    // the sweep only recovers items whose signal was lost, e.g. because their owner went down
+                    long now = System.currentTimeMillis();
+                    if (now - _lastQueueSweepTime >= JobQueueSweepInterval.value() * 1000L) {
+                        _lastQueueSweepTime = now;
+
+                        List<SyncQueueItemVO> l = _queueMgr.dequeueFromAny(getMsid(), MAX_ONETIME_SCHEDULE_SIZE);
+                        if (l != null && l.size() > 0) {
+                            for (SyncQueueItemVO item : l) {
+                                if (s_logger.isDebugEnabled()) {
+                                    s_logger.debug("Execute sync-queue item: " + item.toString());
+                                }
+                                executeQueueItem(item, false);
                             }
-                            executeQueueItem(item, false);
                         }
                     }
 
@@ -935,6 +1042,8 @@ public class AsyncJobManagerImpl extends ManagerBase implements AsyncJobManager,
 
             s_logger.info("Start AsyncJobManager Work executor thread pool in size " + workPoolSize);
             _workerJobExecutor = Executors.newFixedThreadPool(workPoolSize, new NamedThreadFactory(AsyncJobManager.WORK_JOB_POOL_THREAD_PREFIX));
+
+            _queueDispatcher = Executors.newFixedThreadPool(QUEUE_DISPATCHER_POOL_SIZE, new NamedThreadFactory("AsyncJobMgr-Dispatcher"));
         } catch (final Exception e) {
             throw new ConfigurationException("Unable to load db.properties to configure AsyncJobManagerImpl");
         }
@@ -967,6 +1076,8 @@ public class AsyncJobManagerImpl extends ManagerBase implements AsyncJobManager,
         AsyncJobExecutionContext.init(this, _joinMapDao);
         OutcomeImpl.init(this);
 
+        _clusterMgr.registerMessageHandler(JOB_QUEUE_READY_SUBJECT, this);
+
         return true;
     }
 
@@ -1027,6 +1138,7 @@ public class AsyncJobManagerImpl extends ManagerBase implements AsyncJobManager,
     @Override
     public boolean stop() {
         _heartbeatScheduler.shutdown();
+        _queueDispatcher.shutdown();
         _apiJobExecutor.shutdown();
         _workerJobExecutor.shutdown();
         return true;
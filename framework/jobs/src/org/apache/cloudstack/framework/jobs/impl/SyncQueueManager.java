@@ -35,7 +35,12 @@ public interface SyncQueueManager extends Manager {
 
     public List<SyncQueueItemVO> getBlockedQueueItems(long thresholdMs, boolean exclusive);
 
-    void purgeAsyncJobQueueItemId(long asyncJobId);
+    /**
+     * Purges the queue item of an async job.
+     *
+     * @return id of the queue the item was in, or null if the job had no queue item
+     */
+    Long purgeAsyncJobQueueItemId(long asyncJobId);
 
     public void cleanupActiveQueueItems(Long msid, boolean exclusive);
 }
@@ -0,0 +1,139 @@
+// Licensed to the Apache Software Foundation (ASF) under one
+// or more contributor license agreements.  See the NOTICE file
+// distributed with this work for additional information
+// regarding copyright ownership.  The ASF licenses this file
+// to you under the Apache License, Version 2.0 (the
+// "License"); you may not use this file except in compliance
+// with the License.  You may obtain a copy of the License at
+//
+//   http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing,
+// software distributed under the License is distributed on an
+// "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+// KIND, either express or implied.  See the License for the
+// specific language governing permissions and limitations
+// under the License.
+package org.apache.cloudstack.framework.jobs.impl;
+
+import static org.mockito.Matchers.anyLong;
+import static org.mockito.Matchers.anyString;
+import static org.mockito.Matchers.eq;
+import static org.mockito.Mockito.doReturn;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.AbstractExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.InjectMocks;
+import org.mockito.Mock;
+import org.mockito.Spy;
+import org.mockito.internal.util.reflection.Whitebox;
+import org.mockito.runners.MockitoJUnitRunner;
+
+import org.apache.cloudstack.framework.jobs.dao.AsyncJobDao;
+import org.apache.cloudstack.framework.jobs.dao.AsyncJobJoinMapDao;
+import org.apache.cloudstack.framework.messagebus.MessageBus;
+import org.apache.cloudstack.jobs.JobInfo;
+
+import com.cloud.utils.db.TransactionLegacy;
+
+@RunWith(MockitoJUnitRunner.class)
+public class AsyncJobManagerImplTest {
+
+    @Mock
+    SyncQueueManager _queueMgr;
+    @Mock
+    AsyncJobDao _jobDao;
+    @Mock
+    AsyncJobJoinMapDao _joinMapDao;
+    @Mock
+    MessageBus _messageBus;
+
+    @Spy
+    @InjectMocks
+    AsyncJobManagerImpl _jobMgr = new AsyncJobManagerImpl();
+
+    @Before
+    public void setUp() {
+        // check signalled queues on the calling thread
+        Whitebox.setInternalState(_jobMgr, "_queueDispatcher", new CallerRunsExecutor());
+
+        SyncQueueVO queue = mock(SyncQueueVO.class);
+        when(queue.getId()).thenReturn(5L);
+        when(_queueMgr.queue(anyString(), anyLong(), anyString(), anyLong(), anyLong())).thenReturn(queue);
+    }
+
+    @Test
+    public void testQueueIsDispatchedOnEnqueue() {
+        _jobMgr.syncAsyncJobExecution(new AsyncJobVO(), "VmWorkJobQueue", 1L, 1);
+
+        verify(_queueMgr).dequeueFromOne(eq(5L), anyLong());
+    }
+
+    @Test
+    public void testQueueIsDispatchedAfterEnclosingTransactionCommits() {
+        TransactionLegacy txn = TransactionLegacy.open("testQueueIsDispatchedAfterEnclosingTransactionCommits");
+        try {
+            txn.start();
+            _jobMgr.syncAsyncJobExecution(new AsyncJobVO(), "VmWorkJobQueue", 1L, 1);
+            verify(_queueMgr, never()).dequeueFromOne(anyLong(), anyLong());
+
+            txn.commit();
+            verify(_queueMgr).dequeueFromOne(eq(5L), anyLong());
+        } finally {
+            txn.close();
+        }
+    }
+
+    @Test
+    public void testQueueIsDispatchedOnCompletion() {
+        AsyncJobVO job = new AsyncJobVO();
+        when(_jobDao.findById(7L)).thenReturn(job);
+        when(_queueMgr.purgeAsyncJobQueueItemId(7L)).thenReturn(5L);
+        doReturn(new ArrayList<Long>()).when(_jobMgr).wakeupByJoinedJobCompletion(7L);
+
+        _jobMgr.completeAsyncJob(7L, JobInfo.Status.SUCCEEDED, 0, null);
+
+        verify(_queueMgr).dequeueFromOne(eq(5L), anyLong());
+    }
+
+    private static class CallerRunsExecutor extends AbstractExecutorService {
+        @Override
+        public void execute(Runnable command) {
+            command.run();
+        }
+
+        @Override
+        public void shutdown() {
+        }
+
+        @Override
+        public List<Runnable> shutdownNow() {
+            return new ArrayList<Runnable>();
+        }
+
+        @Override
+        public boolean isShutdown() {
+            return false;
+        }
+
+        @Override
+        public boolean isTerminated() {
+            return false;
+        }
+
+        @Override
+        public boolean awaitTermination(long timeout, TimeUnit unit) {
+            return true;
+        }
+    }
+}
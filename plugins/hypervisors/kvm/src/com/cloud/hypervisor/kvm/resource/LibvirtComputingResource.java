@@ -36,7 +36,6 @@ import java.text.MessageFormat;
 import java.text.SimpleDateFormat;
 import java.util.ArrayList;
 import java.util.Arrays;
-import java.util.Calendar;
 import java.util.Collections;
 import java.util.Comparator;
 import java.util.Date;
@@ -460,6 +459,7 @@ public class LibvirtComputingResource extends ServerResourceBase implements Serv
     protected Pair<Integer,Integer> hostOsVersion;
     private final Map <String, String> _pifs = new HashMap<String, String>();
     private final Map<String, VmStats> _vmStats = new ConcurrentHashMap<String, VmStats>();
+    private final Map<String, DomainDeviceLayout> _domainDeviceLayouts = new ConcurrentHashMap<String, DomainDeviceLayout>();
 
     protected boolean _disconnected = true;
     protected int _timeout;
@@ -2046,6 +2046,7 @@ public class LibvirtComputingResource extends ServerResourceBase implements Serv
 
         Domain vm = getDomain(conn, vmName);
         vm.attachDevice(getVifDriver(nicTO.getType()).plug(nicTO, "Other PV", "").toString());
+        _domainDeviceLayouts.remove(vmName);
     }
 
 
@@ -2057,6 +2058,7 @@ public class LibvirtComputingResource extends ServerResourceBase implements Serv
         for (InterfaceDef pluggedNic : pluggedNics) {
             if (pluggedNic.getMacAddress().equalsIgnoreCase(macAddr)) {
                 vm.detachDevice(pluggedNic.toString());
+                _domainDeviceLayouts.remove(vmName);
                 // We don't know which "traffic type" is associated with
                 // each interface at this point, so inform all vif drivers
                 for (VifDriver vifDriver : getAllVifDrivers()) {
@@ -2083,6 +2085,7 @@ public class LibvirtComputingResource extends ServerResourceBase implements Serv
                 nicnum++;
             }
             vm.attachDevice(getVifDriver(nic.getType()).plug(nic, "Other PV", "").toString());
+            _domainDeviceLayouts.remove(vmName);
             return new PlugNicAnswer(cmd, true, "success");
         } catch (LibvirtException e) {
             String msg = " Plug Nic failed due to " + e.toString();
@@ -2115,6 +2118,7 @@ public class LibvirtComputingResource extends ServerResourceBase implements Serv
             for (InterfaceDef pluggedNic : pluggedNics) {
                 if (pluggedNic.getMacAddress().equalsIgnoreCase(nic.getMac())) {
                     vm.detachDevice(pluggedNic.toString());
+                    _domainDeviceLayouts.remove(vmName);
                     // We don't know which "traffic type" is associated with
                     // each interface at this point, so inform all vif drivers
                     for (VifDriver vifDriver : getAllVifDrivers()) {
@@ -3446,9 +3450,16 @@ public class LibvirtComputingResource extends ServerResourceBase implements Serv
         List<String> vmNames = cmd.getVmNames();
         try {
             HashMap<String, VmStatsEntry> vmStatsNameMap = new HashMap<String, VmStatsEntry>();
+            // node info is the same for every vm on a connection, only ask libvirt once per command
+            Map<Connect, Integer> hostCpusByConn = new HashMap<Connect, Integer>();
             for (String vmName : vmNames) {
                 Connect conn = LibvirtConnection.getConnectionByVmName(vmName);
-                VmStatsEntry statEntry = getVmStat(conn, vmName);
+                Integer hostCpus = hostCpusByConn.get(conn);
+                if (hostCpus == null) {
+                    hostCpus = conn.nodeInfo().cpus;
+                    hostCpusByConn.put(conn, hostCpus);
+                }
+                VmStatsEntry statEntry = getVmStat(conn, vmName, hostCpus);
                 if (statEntry == null) {
                     continue;
                 }
@@ -4183,6 +4194,7 @@ public class LibvirtComputingResource extends ServerResourceBase implements Serv
                 s_logger.debug("Detaching device: " + xml);
                 dm.detachDevice(xml);
             }
+            _domainDeviceLayouts.remove(vmName);
         } catch (LibvirtException e) {
             if (attach) {
                 s_logger.warn("Failed to attach device to " + vmName + ": " + e.getMessage());
@@ -4866,7 +4878,7 @@ public class LibvirtComputingResource extends ServerResourceBase implements Serv
         }
     }
 
-    private class VmStats {
+    private static class VmStats {
         long _usedTime;
         long _tx;
         long _rx;
@@ -4874,10 +4886,46 @@ public class LibvirtComputingResource extends ServerResourceBase implements Serv
         long _ioWrote;
         long _bytesRead;
         long _bytesWrote;
-        Calendar _timestamp;
+        long _timestamp;
+    }
+
+    /**
+     * The devices of a domain whose counters make up its stats, as parsed from the domain xml.
+     * Kept until a device is attached or detached, or the domain is started again with a new id.
+     */
+    private static class DomainDeviceLayout {
+        final int _domainId;
+        final String[] _vifDevNames;
+        final String[] _diskLabels;
+
+        DomainDeviceLayout(int domainId, List<InterfaceDef> vifs, List<DiskDef> disks) {
+            _domainId = domainId;
+            _vifDevNames = new String[vifs.size()];
+            for (int i = 0; i < _vifDevNames.length; i++) {
+                _vifDevNames[i] = vifs.get(i).getDevName();
+            }
+            _diskLabels = new String[disks.size()];
+            for (int i = 0; i < _diskLabels.length; i++) {
+                _diskLabels[i] = disks.get(i).getDiskLabel();
+            }
+        }
+    }
+
+    private DomainDeviceLayout getDomainDeviceLayout(Connect conn, Domain dm, String vmName) throws LibvirtException {
+        int domainId = dm.getID();
+        DomainDeviceLayout layout = _domainDeviceLayouts.get(vmName);
+        if (layout == null || layout._domainId != domainId) {
+            layout = new DomainDeviceLayout(domainId, getInterfaces(conn, vmName), getDisks(conn, vmName));
+            _domainDeviceLayouts.put(vmName, layout);
+        }
+        return layout;
     }
 
     VmStatsEntry getVmStat(Connect conn, String vmName) throws LibvirtException {
+        return getVmStat(conn, vmName, conn.nodeInfo().cpus);
+    }
+
+    VmStatsEntry getVmStat(Connect conn, String vmName, int hostCpus) throws LibvirtException {
         Domain dm = null;
         try {
             dm = getDomain(conn, vmName);
@@ -4888,33 +4936,48 @@ public class LibvirtComputingResource extends ServerResourceBase implements Serv
             stats.setEntityType("vm");
 
             /* get cpu utilization */
-            VmStats oldStats = null;
+            VmStats oldStats = _vmStats.get(vmName);
 
-            Calendar now = Calendar.getInstance();
-
-            oldStats = _vmStats.get(vmName);
+            long now = System.currentTimeMillis();
 
             long elapsedTime = 0;
             if (oldStats != null) {
-                elapsedTime = now.getTimeInMillis() - oldStats._timestamp.getTimeInMillis();
+                elapsedTime = now - oldStats._timestamp;
                 double utilization = (info.cpuTime - oldStats._usedTime) / ((double)elapsedTime * 1000000);
 
-                NodeInfo node = conn.nodeInfo();
-                utilization = utilization / node.cpus;
+                utilization = utilization / hostCpus;
                 if (utilization > 0) {
                     stats.setCPUUtilization(utilization * 100);
                 }
             }
 
-            /* get network stats */
-
-            List<InterfaceDef> vifs = getInterfaces(conn, vmName);
+            DomainDeviceLayout layout = getDomainDeviceLayout(conn, dm, vmName);
             long rx = 0;
             long tx = 0;
-            for (InterfaceDef vif : vifs) {
-                DomainInterfaceStats ifStats = dm.interfaceStats(vif.getDevName());
-                rx += ifStats.rx_bytes;
-                tx += ifStats.tx_bytes;
+            long io_rd = 0;
+            long io_wr = 0;
+            long bytes_rd = 0;
+            long bytes_wr = 0;
+            try {
+                /* get network stats */
+                for (String vifDevName : layout._vifDevNames) {
+                    DomainInterfaceStats ifStats = dm.interfaceStats(vifDevName);
+                    rx += ifStats.rx_bytes;
+                    tx += ifStats.tx_bytes;
+                }
+
+                /* get disk stats */
+                for (String diskLabel : layout._diskLabels) {
+                    DomainBlockStats blockStats = dm.blockStats(diskLabel);
+                    io_rd += blockStats.rd_req;
+                    io_wr += blockStats.wr_req;
+                    bytes_rd += blockStats.rd_bytes;
+                    bytes_wr += blockStats.wr_bytes;
+                }
+            } catch (LibvirtException e) {
+                // a device went away without us noticing, read the devices again on the next collection
+                _domainDeviceLayouts.remove(vmName);
+                throw e;
             }
 
             if (oldStats != null) {
@@ -4926,20 +4989,6 @@ public class LibvirtComputingResource extends ServerResourceBase implements Serv
                     stats.setNetworkWriteKBs(deltatx / 1024);
             }
 
-            /* get disk stats */
-            List<DiskDef> disks = getDisks(conn, vmName);
-            long io_rd = 0;
-            long io_wr = 0;
-            long bytes_rd = 0;
-            long bytes_wr = 0;
-            for (DiskDef disk : disks) {
-                DomainBlockStats blockStats = dm.blockStats(disk.getDiskLabel());
-                io_rd += blockStats.rd_req;
-                io_wr += blockStats.wr_req;
-                bytes_rd += blockStats.rd_bytes;
-                bytes_wr += blockStats.wr_bytes;
-            }
-
             if (oldStats != null) {
                 long deltaiord = io_rd - oldStats._ioRead;
                 if (deltaiord > 0)
@@ -4955,8 +5004,8 @@ public class LibvirtComputingResource extends ServerResourceBase implements Serv
                     stats.setDiskWriteKBs(deltabyteswr / 1024);
             }
 
-            /* save to Hashmap */
-            VmStats newStat = new VmStats();
+            /* save to Hashmap, reusing the previous sample */
+            VmStats newStat = oldStats != null ? oldStats : new VmStats();
             newStat._usedTime = info.cpuTime;
             newStat._rx = rx;
             newStat._tx = tx;
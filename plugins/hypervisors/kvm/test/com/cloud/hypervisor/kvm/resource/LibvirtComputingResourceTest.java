@@ -448,6 +448,39 @@ public class LibvirtComputingResourceTest {
         Assert.assertTrue(vmStat.getDiskWriteKBs() > 0);
     }
 
+    @Test
+    public void testGetVmStatCachesDeviceLayout() throws LibvirtException {
+        Connect connect = Mockito.mock(Connect.class);
+        Domain domain = Mockito.mock(Domain.class);
+        Mockito.when(domain.getInfo()).thenReturn(new DomainInfo());
+        Mockito.when(domain.getID()).thenReturn(1);
+        Mockito.when(domain.interfaceStats(Matchers.anyString())).thenReturn(new DomainInterfaceStats());
+        Mockito.when(domain.blockStats(Matchers.anyString())).thenReturn(new DomainBlockStats());
+        Mockito.when(connect.domainLookupByName(VMNAME)).thenReturn(domain);
+
+        final int[] layoutReads = new int[1];
+        LibvirtComputingResource libvirtComputingResource = new LibvirtComputingResource() {
+            @Override
+            protected List<InterfaceDef> getInterfaces(Connect conn, String vmName) {
+                layoutReads[0]++;
+                return Arrays.asList(new InterfaceDef());
+            }
+
+            @Override
+            public List<DiskDef> getDisks(Connect conn, String vmName) {
+                return Arrays.asList(new DiskDef());
+            }
+        };
+        libvirtComputingResource.getVmStat(connect, VMNAME, 8);
+        libvirtComputingResource.getVmStat(connect, VMNAME, 8);
+        Assert.assertEquals(1, layoutReads[0]);
+
+        // a restarted domain gets a new id, and possibly new devices
+        Mockito.when(domain.getID()).thenReturn(2);
+        libvirtComputingResource.getVmStat(connect, VMNAME, 8);
+        Assert.assertEquals(2, layoutReads[0]);
+    }
+
     @Test
     public void getCpuSpeed() {
         Assume.assumeTrue(SystemUtils.IS_OS_LINUX);
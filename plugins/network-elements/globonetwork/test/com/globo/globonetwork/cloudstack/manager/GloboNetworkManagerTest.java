@@ -92,7 +92,6 @@ import org.apache.cloudstack.context.CallContext;
 import org.apache.cloudstack.framework.config.ConfigKey;
 import org.apache.cloudstack.framework.config.dao.ConfigurationDao;
 import org.apache.cloudstack.framework.config.impl.ConfigDepotImpl;
-import org.apache.cloudstack.framework.config.impl.ConfigurationVO;
 import org.apache.cloudstack.globoconfig.GloboResourceConfigurationDao;
 import org.apache.cloudstack.globoconfig.GloboResourceConfigurationVO;
 import org.apache.cloudstack.globoconfig.GloboResourceKey;
@@ -1282,9 +1281,7 @@ public class GloboNetworkManagerTest {
 
     private void registerConfigKey(String key, String valueMock) {
         ConfigDepotImpl mock = mock(ConfigDepotImpl.class);
-        ConfigurationDao mockDAo = mock(ConfigurationDao.class);
-        when(mock.global()).thenReturn(mockDAo);
-        when(mockDAo.findById(key)).thenReturn(new ConfigurationVO("Network", "String", null, key, valueMock, null));
+        when(mock.getGlobalValue(key)).thenReturn(valueMock);
         ConfigKey.init(mock);
     }
 }
\ No newline at end of file
@@ -19,6 +19,7 @@ package com.cloud.agent.manager.allocator.impl;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
 
@@ -55,6 +56,7 @@ import com.cloud.storage.VMTemplateVO;
 import com.cloud.storage.dao.GuestOSCategoryDao;
 import com.cloud.storage.dao.GuestOSDao;
 import com.cloud.user.Account;
+import com.cloud.utils.Pair;
 import com.cloud.utils.component.AdapterBase;
 import com.cloud.vm.VirtualMachine;
 import com.cloud.vm.VirtualMachineProfile;
@@ -155,8 +157,7 @@ public class FirstFitAllocator extends AdapterBase implements HostAllocator {
                 }
 
                 if (hasSvcOfferingTag && hasTemplateTag) {
-                    hostsMatchingOfferingTag.retainAll(hostsMatchingTemplateTag);
-                    clusterHosts = _hostDao.listByHostTag(type, clusterId, podId, dcId, hostTagOnTemplate);
+                    hostsMatchingOfferingTag.retainAll(new HashSet<HostVO>(hostsMatchingTemplateTag));
                     if (s_logger.isDebugEnabled()) {
                         s_logger.debug("Found " + hostsMatchingOfferingTag.size() + " Hosts satisfying both tags, host ids are:" + hostsMatchingOfferingTag);
                     }
@@ -174,7 +175,7 @@ public class FirstFitAllocator extends AdapterBase implements HostAllocator {
 
         // add all hosts that we are not considering to the avoid list
         List<HostVO> allhostsInCluster = _hostDao.listAllUpAndEnabledNonHAHosts(type, clusterId, podId, dcId, null);
-        allhostsInCluster.removeAll(clusterHosts);
+        allhostsInCluster.removeAll(new HashSet<HostVO>(clusterHosts));
         for (HostVO host : allhostsInCluster) {
             avoid.addHost(host.getId());
         }
@@ -204,19 +205,20 @@ public class FirstFitAllocator extends AdapterBase implements HostAllocator {
         boolean hasSvcOfferingTag = hostTagOnOffering != null ? true : false;
         boolean hasTemplateTag = hostTagOnTemplate != null ? true : false;
 
+        // retainAll against hash sets, the host lists can be a few thousand entries long
         String haVmTag = (String)vmProfile.getParameter(VirtualMachineProfile.Param.HaTag);
         if (haVmTag != null) {
-            hosts.retainAll(_hostDao.listByHostTag(type, clusterId, podId, dcId, haVmTag));
+            hosts.retainAll(new HashSet<HostVO>(_hostDao.listByHostTag(type, clusterId, podId, dcId, haVmTag)));
         } else {
             if (hostTagOnOffering == null && hostTagOnTemplate == null) {
-                hosts.retainAll(_resourceMgr.listAllUpAndEnabledNonHAHosts(type, clusterId, podId, dcId));
+                hosts.retainAll(new HashSet<HostVO>(_resourceMgr.listAllUpAndEnabledNonHAHosts(type, clusterId, podId, dcId)));
             } else {
                 if (hasSvcOfferingTag) {
-                    hosts.retainAll(_hostDao.listByHostTag(type, clusterId, podId, dcId, hostTagOnOffering));
+                    hosts.retainAll(new HashSet<HostVO>(_hostDao.listByHostTag(type, clusterId, podId, dcId, hostTagOnOffering)));
                 }
 
                 if (hasTemplateTag) {
-                    hosts.retainAll(_hostDao.listByHostTag(type, clusterId, podId, dcId, hostTagOnTemplate));
+                    hosts.retainAll(new HashSet<HostVO>(_hostDao.listByHostTag(type, clusterId, podId, dcId, hostTagOnTemplate)));
                 }
             }
         }
@@ -255,7 +257,16 @@ public class FirstFitAllocator extends AdapterBase implements HostAllocator {
 
         long serviceOfferingId = offering.getId();
         List<Host> suitableHosts = new ArrayList<Host>();
-        ServiceOfferingDetailsVO offeringDetails = null;
+
+        // Everything that only depends on the offering or the cluster is looked up once, not once per host
+        ServiceOfferingDetailsVO offeringDetails = _serviceOfferingDetailsDao.findDetail(serviceOfferingId, GPU.Keys.vgpuType.toString());
+        ServiceOfferingDetailsVO groupName = null;
+        if (offeringDetails != null) {
+            groupName = _serviceOfferingDetailsDao.findDetail(serviceOfferingId, GPU.Keys.pciDevice.toString());
+        }
+        int cpu_requested = offering.getCpu() * offering.getSpeed();
+        long ram_requested = offering.getRamSize() * 1024L * 1024L;
+        Map<Long, Pair<Float, Float>> clusterOvercommitRatios = new HashMap<Long, Pair<Float, Float>>();
 
         for (Host host : hosts) {
             if (suitableHosts.size() == returnUpTo) {
@@ -278,21 +289,23 @@ public class FirstFitAllocator extends AdapterBase implements HostAllocator {
             }
 
             // Check if GPU device is required by offering and host has the availability
-            if ((offeringDetails   = _serviceOfferingDetailsDao.findDetail(serviceOfferingId, GPU.Keys.vgpuType.toString())) != null) {
-                ServiceOfferingDetailsVO groupName = _serviceOfferingDetailsDao.findDetail(serviceOfferingId, GPU.Keys.pciDevice.toString());
+            if (offeringDetails != null) {
                 if(!_resourceMgr.isGPUDeviceAvailable(host.getId(), groupName.getValue(), offeringDetails.getValue())){
                     s_logger.info("Host name: " + host.getName() + ", hostId: "+ host.getId() +" does not have required GPU devices available");
                     continue;
                 }
             }
 
-            int cpu_requested = offering.getCpu() * offering.getSpeed();
-            long ram_requested = offering.getRamSize() * 1024L * 1024L;
-            Cluster cluster = _clusterDao.findById(host.getClusterId());
-            ClusterDetailsVO clusterDetailsCpuOvercommit = _clusterDetailsDao.findDetail(cluster.getId(), "cpuOvercommitRatio");
-            ClusterDetailsVO clusterDetailsRamOvercommmt = _clusterDetailsDao.findDetail(cluster.getId(), "memoryOvercommitRatio");
-            Float cpuOvercommitRatio = Float.parseFloat(clusterDetailsCpuOvercommit.getValue());
-            Float memoryOvercommitRatio = Float.parseFloat(clusterDetailsRamOvercommmt.getValue());
+            Pair<Float, Float> overcommitRatios = clusterOvercommitRatios.get(host.getClusterId());
+            if (overcommitRatios == null) {
+                Cluster cluster = _clusterDao.findById(host.getClusterId());
+                ClusterDetailsVO clusterDetailsCpuOvercommit = _clusterDetailsDao.findDetail(cluster.getId(), "cpuOvercommitRatio");
+                ClusterDetailsVO clusterDetailsRamOvercommmt = _clusterDetailsDao.findDetail(cluster.getId(), "memoryOvercommitRatio");
+                overcommitRatios = new Pair<Float, Float>(Float.parseFloat(clusterDetailsCpuOvercommit.getValue()), Float.parseFloat(clusterDetailsRamOvercommmt.getValue()));
+                clusterOvercommitRatios.put(host.getClusterId(), overcommitRatios);
+            }
+            Float cpuOvercommitRatio = overcommitRatios.first();
+            Float memoryOvercommitRatio = overcommitRatios.second();
 
             boolean hostHasCpuCapability = _capacityMgr.checkIfHostHasCpuCapability(host.getId(), offering.getCpu(), offering.getSpeed());
             boolean hostHasCapacity = _capacityMgr.checkIfHostHasCapacity(host.getId(), cpu_requested, ram_requested, false, cpuOvercommitRatio, memoryOvercommitRatio,
@@ -19,6 +19,8 @@ package com.cloud.api;
 import com.cloud.api.dispatch.DispatchChainFactory;
 import com.cloud.api.dispatch.DispatchTask;
 import com.cloud.api.response.ApiResponseSerializer;
+import com.cloud.cluster.ClusterManager;
+import com.cloud.cluster.ClusterMessageHandler;
 import com.cloud.configuration.Config;
 import com.cloud.domain.Domain;
 import com.cloud.domain.DomainVO;
@@ -150,12 +152,14 @@ import javax.servlet.http.HttpSession;
 import java.io.ByteArrayInputStream;
 import java.io.IOException;
 import java.io.InterruptedIOException;
+import java.io.Writer;
 import java.net.InetAddress;
 import java.net.ServerSocket;
 import java.net.Socket;
 import java.net.URI;
 import java.net.URISyntaxException;
 import java.net.URLEncoder;
+import java.security.NoSuchAlgorithmException;
 import java.security.SecureRandom;
 import java.text.DateFormat;
 import java.text.ParseException;
@@ -167,6 +171,7 @@ import java.util.Enumeration;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
@@ -175,17 +180,21 @@ import java.util.concurrent.ExecutorService;
 import java.util.concurrent.LinkedBlockingQueue;
 import java.util.concurrent.ThreadPoolExecutor;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
 @Component
-public class ApiServer extends ManagerBase implements HttpRequestHandler, ApiServerService {
+public class ApiServer extends ManagerBase implements HttpRequestHandler, ApiServerService, ClusterMessageHandler {
     private static final Logger s_logger = Logger.getLogger(ApiServer.class.getName());
     private static final Logger s_accessLogger = Logger.getLogger("apiserver." + ApiServer.class.getName());
 
     public static boolean encodeApiResponse = false;
     public static boolean s_enableSecureCookie = false;
     public static String s_jsonContentType = HttpUtils.JSON_CONTENT_TYPE;
+    private static int s_responseStreamingThreshold = 500;
+    private static int s_apiCredentialsCacheTtl = 60;
+    private static final int s_apiCredentialsCacheSize = 10000;
 
     /**
      * Non-printable ASCII characters - numbers 0 to 31 and 127 decimal
@@ -212,6 +221,8 @@ public class ApiServer extends ManagerBase implements HttpRequestHandler, ApiSer
     private EntityManager _entityMgr;
     @Inject
     APIAuthenticationManager _authManager;
+    @Inject
+    ClusterManager _clusterMgr;
 
     List<PluggableService> _pluggableServices;
     List<APIChecker> _apiAccessCheckers;
@@ -221,6 +232,44 @@ public class ApiServer extends ManagerBase implements HttpRequestHandler, ApiSer
 
     private static int s_workerCount = 0;
     private static final DateFormat DateFormatToUse = new SimpleDateFormat("yyyy-MM-dd'T'HH:mm:ssZ");
+    private static final ThreadLocal<Mac> s_hmacSha1 = new ThreadLocal<Mac>() {
+        @Override
+        protected Mac initialValue() {
+            try {
+                return Mac.getInstance("HmacSHA1");
+            } catch (final NoSuchAlgorithmException e) {
+                throw new CloudRuntimeException("HmacSHA1 is not available", e);
+            }
+        }
+    };
+
+    public static final String API_CREDENTIALS_INVALIDATION_SUBJECT = "api.credentials.invalidate";
+
+    /**
+     * User and account looked up for an api key, reused for api.credentials.cache.ttl seconds so that repeat
+     * callers don't hit the database on every signed request. Entries of an account are evicted on every
+     * management server when its users, keys or state change.
+     */
+    protected static class CachedCredentials {
+        final Pair<User, Account> userAcctPair;
+        final long expires;
+
+        CachedCredentials(final Pair<User, Account> userAcctPair, final long expires) {
+            this.userAcctPair = userAcctPair;
+            this.expires = expires;
+        }
+    }
+
+    private final Map<String, CachedCredentials> _apiCredentialsCache = Collections.synchronizedMap(new LinkedHashMap<String, CachedCredentials>(16, 0.75f, true) {
+        private static final long serialVersionUID = 1L;
+
+        @Override
+        protected boolean removeEldestEntry(final Map.Entry<String, CachedCredentials> eldest) {
+            return size() > s_apiCredentialsCacheSize;
+        }
+    });
+    // bumped on every eviction, so a lookup that raced with one doesn't put a stale entry back
+    private final AtomicLong _apiCredentialsGeneration = new AtomicLong();
     private static Map<String, List<Class<?>>> s_apiNameCmdClassMap = new HashMap<String, List<Class<?>>>();
 
     private static ExecutorService s_executor = new ThreadPoolExecutor(10, 150, 60, TimeUnit.SECONDS, new LinkedBlockingQueue<Runnable>(), new NamedThreadFactory(
@@ -236,9 +285,38 @@ public class ApiServer extends ManagerBase implements HttpRequestHandler, ApiSer
     @Override
     public boolean configure(final String name, final Map<String, Object> params) throws ConfigurationException {
         _messageBus.subscribe(AsyncJob.Topics.JOB_EVENT_PUBLISH, MessageDispatcher.getDispatcher(this));
+        _messageBus.subscribe(AccountManager.MESSAGE_API_CREDENTIALS_CHANGED_EVENT, MessageDispatcher.getDispatcher(this));
+        _clusterMgr.registerMessageHandler(API_CREDENTIALS_INVALIDATION_SUBJECT, this);
         return true;
     }
 
+    @MessageHandler(topic = AccountManager.MESSAGE_API_CREDENTIALS_CHANGED_EVENT)
+    private void handleApiCredentialsChangedEvent(String subject, String senderAddress, Object args) {
+        final Long accountId = (Long)args;
+        evictApiCredentials(accountId);
+        _clusterMgr.publishMessage(API_CREDENTIALS_INVALIDATION_SUBJECT, accountId.toString());
+    }
+
+    @Override
+    public void onClusterMessage(String senderPeer, String subject, String message) {
+        if (s_logger.isTraceEnabled()) {
+            s_logger.trace("Evicting cached api credentials of account " + message + " on request from " + senderPeer);
+        }
+        evictApiCredentials(Long.parseLong(message));
+    }
+
+    protected void evictApiCredentials(final long accountId) {
+        synchronized (_apiCredentialsCache) {
+            _apiCredentialsGeneration.incrementAndGet();
+            final Iterator<CachedCredentials> it = _apiCredentialsCache.values().iterator();
+            while (it.hasNext()) {
+                if (it.next().userAcctPair.second().getId() == accountId) {
+                    it.remove();
+                }
+            }
+        }
+    }
+
     @MessageHandler(topic = AsyncJob.Topics.JOB_EVENT_PUBLISH)
     private void handleAsyncJobPublishEvent(String subject, String senderAddress, Object args) {
         assert (args != null);
@@ -372,6 +450,8 @@ public class ApiServer extends ManagerBase implements HttpRequestHandler, ApiSer
         if (jsonType != null) {
             s_jsonContentType = jsonType;
         }
+        s_responseStreamingThreshold = NumbersUtil.parseInt(_configDao.getValue(Config.ApiResponseStreamingThreshold.key()), s_responseStreamingThreshold);
+        s_apiCredentialsCacheTtl = NumbersUtil.parseInt(_configDao.getValue(Config.ApiCredentialsCacheTtl.key()), s_apiCredentialsCacheTtl);
         final Boolean enableSecureSessionCookie = Boolean.valueOf(_configDao.getValue(Config.EnableSecureSessionCookie.key()));
         if (enableSecureSessionCookie != null) {
             s_enableSecureCookie = enableSecureSessionCookie;
@@ -480,6 +560,23 @@ public class ApiServer extends ManagerBase implements HttpRequestHandler, ApiSer
     @Override
     @SuppressWarnings("rawtypes")
     public String handleRequest(final Map params, final String responseType, final StringBuilder auditTrailSb) throws ServerApiException {
+        return processRequest(params, responseType, auditTrailSb, null);
+    }
+
+    @Override
+    @SuppressWarnings("rawtypes")
+    public void handleRequest(final Map params, final String responseType, final StringBuilder auditTrailSb, final Writer out) throws ServerApiException, IOException {
+        final String response = processRequest(params, responseType, auditTrailSb, out);
+        if (response != null) {
+            out.write(response);
+        }
+    }
+
+    /**
+     * @param out if not null, large list responses are streamed into it and null is returned.
+     */
+    @SuppressWarnings("rawtypes")
+    private String processRequest(final Map params, final String responseType, final StringBuilder auditTrailSb, final Writer out) throws ServerApiException {
         checkCharacterInkParams(params);
 
         String response = null;
@@ -531,7 +628,19 @@ public class ApiServer extends ManagerBase implements HttpRequestHandler, ApiSer
                     cmdObj.setHttpMethod(paramMap.get(ApiConstants.HTTPMETHOD).toString());
 
                     // This is where the command is either serialized, or directly dispatched
-                    response = queueCommand(cmdObj, paramMap);
+                    final ResponseObject responseObject = queueCommand(cmdObj, paramMap);
+                    if (out != null && isStreamable(responseObject)) {
+                        final int count = ((ListResponse<?>)responseObject).getResponses().size();
+                        try {
+                            ApiResponseSerializer.serialize(responseObject, cmdObj.getResponseType(), out);
+                        } catch (final IOException e) {
+                            s_logger.debug("Unable to stream response of " + command[0] + " to the client: " + e);
+                        }
+                        buildAuditTrail(auditTrailSb, command[0], "(" + count + " objects streamed)");
+                        return null;
+                    }
+
+                    response = ApiResponseSerializer.toSerializedString(responseObject, cmdObj.getResponseType());
                     if (annotation.responseHasSensitiveInfo())
                     {
                         buildAuditTrail(auditTrailSb, command[0],
@@ -608,25 +717,33 @@ public class ApiServer extends ManagerBase implements HttpRequestHandler, ApiSer
         return response;
     }
 
-    private String getBaseAsyncResponse(final long jobId, final BaseAsyncCmd cmd) {
+    private static boolean isStreamable(final ResponseObject responseObject) {
+        if (s_responseStreamingThreshold <= 0 || !(responseObject instanceof ListResponse)) {
+            return false;
+        }
+        final List<?> responses = ((ListResponse<?>)responseObject).getResponses();
+        return responses != null && responses.size() >= s_responseStreamingThreshold;
+    }
+
+    private ResponseObject getBaseAsyncResponse(final long jobId, final BaseAsyncCmd cmd) {
         final AsyncJobResponse response = new AsyncJobResponse();
 
         final AsyncJob job = _entityMgr.findById(AsyncJob.class, jobId);
         response.setJobId(job.getUuid());
         response.setResponseName(cmd.getCommandName());
-        return ApiResponseSerializer.toSerializedString(response, cmd.getResponseType());
+        return response;
     }
 
-    private String getBaseAsyncCreateResponse(final long jobId, final BaseAsyncCreateCmd cmd, final String objectUuid) {
+    private ResponseObject getBaseAsyncCreateResponse(final long jobId, final BaseAsyncCreateCmd cmd, final String objectUuid) {
         final CreateCmdResponse response = new CreateCmdResponse();
         final AsyncJob job = _entityMgr.findById(AsyncJob.class, jobId);
         response.setJobId(job.getUuid());
         response.setId(objectUuid);
         response.setResponseName(cmd.getCommandName());
-        return ApiResponseSerializer.toSerializedString(response, cmd.getResponseType());
+        return response;
     }
 
-    private String queueCommand(final BaseCmd cmdObj, final Map<String, String> params) throws Exception {
+    private ResponseObject queueCommand(final BaseCmd cmdObj, final Map<String, String> params) throws Exception {
         final CallContext ctx = CallContext.current();
         final Long callerUserId = ctx.getCallingUserId();
         final Account caller = ctx.getCallingAccount();
@@ -726,7 +843,7 @@ public class ApiServer extends ManagerBase implements HttpRequestHandler, ApiSer
             }
 
             SerializationContext.current().setUuidTranslation(true);
-            return ApiResponseSerializer.toSerializedString((ResponseObject)cmdObj.getResponseObject(), cmdObj.getResponseType());
+            return (ResponseObject)cmdObj.getResponseObject();
         }
     }
 
@@ -885,7 +1002,7 @@ public class ApiServer extends ManagerBase implements HttpRequestHandler, ApiSer
             txn.close();
             User user = null;
             // verify there is a user with this api key
-            final Pair<User, Account> userAcctPair = _accountMgr.findUserByApiKey(apiKey);
+            final Pair<User, Account> userAcctPair = findUserByApiKey(apiKey);
             if (userAcctPair == null) {
                 s_logger.debug("apiKey does not map to a valid user -- ignoring request, apiKey: " + apiKey);
                 return false;
@@ -920,7 +1037,7 @@ public class ApiServer extends ManagerBase implements HttpRequestHandler, ApiSer
 
             unsignedRequest = unsignedRequest.toLowerCase();
 
-            final Mac mac = Mac.getInstance("HmacSHA1");
+            final Mac mac = s_hmacSha1.get();
             final SecretKeySpec keySpec = new SecretKeySpec(secretKey.getBytes(), "HmacSHA1");
             mac.init(keySpec);
             mac.update(unsignedRequest.getBytes());
@@ -943,6 +1060,29 @@ public class ApiServer extends ManagerBase implements HttpRequestHandler, ApiSer
         return false;
     }
 
+    protected Pair<User, Account> findUserByApiKey(final String apiKey) {
+        if (s_apiCredentialsCacheTtl <= 0) {
+            return _accountMgr.findUserByApiKey(apiKey);
+        }
+
+        final long now = System.currentTimeMillis();
+        final CachedCredentials cached = _apiCredentialsCache.get(apiKey);
+        if (cached != null && cached.expires > now) {
+            return cached.userAcctPair;
+        }
+
+        final long generation = _apiCredentialsGeneration.get();
+        final Pair<User, Account> userAcctPair = _accountMgr.findUserByApiKey(apiKey);
+        synchronized (_apiCredentialsCache) {
+            if (userAcctPair == null) {
+                _apiCredentialsCache.remove(apiKey);
+            } else if (generation == _apiCredentialsGeneration.get()) {
+                _apiCredentialsCache.put(apiKey, new CachedCredentials(userAcctPair, now + s_apiCredentialsCacheTtl * 1000L));
+            }
+        }
+        return userAcctPair;
+    }
+
     @Override
     public Long fetchDomainId(final String domainUUID) {
         final Domain domain = _domainMgr.getDomain(domainUUID);
@@ -29,7 +29,9 @@ import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.StringTokenizer;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.regex.Matcher;
+import java.util.regex.Pattern;
 
 import javax.inject.Inject;
 
@@ -67,6 +69,45 @@ public class ParamProcessWorker implements DispatchWorker {
 
     private static final Logger s_logger = Logger.getLogger(ParamProcessWorker.class.getName());
 
+    private static final Pattern s_uuidPattern = Pattern.compile("^[0-9a-f]{8}-[0-9a-f]{4}-[0-9a-f]{4}-[0-9a-f]{4}-[0-9a-f]{12}$");
+
+    /**
+     * Annotation lookups and the accessible flag of a command field only depend on the field,
+     * so they are resolved on the first request of a command and reused for every later one.
+     * Reflection hands out a new, inaccessible copy of a field on every lookup, and the copies
+     * are equal to each other, so the field must always be read and set through {@link #field}.
+     */
+    protected static class ParamMetadata {
+        final Field field;
+        final Parameter parameter;
+        final ACL acl;
+        final Class<?>[] entities;
+
+        ParamMetadata(final Field field) {
+            field.setAccessible(true);
+            this.field = field;
+            parameter = field.getAnnotation(Parameter.class);
+            acl = field.getAnnotation(ACL.class);
+            final Class<?>[] entityType = parameter.entityType();
+            EntityReference reference = null;
+            if (entityType != null && entityType.length > 0) {
+                reference = entityType[0].getAnnotation(EntityReference.class);
+            }
+            entities = reference != null ? reference.value() : null;
+        }
+    }
+
+    private static final Map<Field, ParamMetadata> s_paramMetadata = new ConcurrentHashMap<Field, ParamMetadata>();
+
+    protected static ParamMetadata getParamMetadata(final Field field) {
+        ParamMetadata metadata = s_paramMetadata.get(field);
+        if (metadata == null) {
+            metadata = new ParamMetadata(field);
+            s_paramMetadata.put(field, metadata);
+        }
+        return metadata;
+    }
+
     @Inject
     protected AccountManager _accountMgr;
 
@@ -95,8 +136,10 @@ public class ParamProcessWorker implements DispatchWorker {
 
         final List<Field> cmdFields = cmd.getParamFields();
 
-        for (final Field field : cmdFields) {
-            final Parameter parameterAnnotation = field.getAnnotation(Parameter.class);
+        for (final Field cmdField : cmdFields) {
+            final ParamMetadata metadata = getParamMetadata(cmdField);
+            final Field field = metadata.field;
+            final Parameter parameterAnnotation = metadata.parameter;
             final Object paramObj = params.get(parameterAnnotation.name());
             if (paramObj == null) {
                 if (parameterAnnotation.required()) {
@@ -109,7 +152,7 @@ public class ParamProcessWorker implements DispatchWorker {
 
             // marshall the parameter into the correct type and set the field value
             try {
-                setFieldValue(field, cmd, paramObj, parameterAnnotation);
+                setFieldValue(field, cmd, paramObj, metadata);
             } catch (final IllegalArgumentException argEx) {
                 if (s_logger.isDebugEnabled()) {
                     s_logger.debug("Unable to execute API command " + cmd.getCommandName() + " due to invalid value " + paramObj + " for parameter " +
@@ -139,7 +182,7 @@ public class ParamProcessWorker implements DispatchWorker {
 
             //check access on the resource this field points to
             try {
-                final ACL checkAccess = field.getAnnotation(ACL.class);
+                final ACL checkAccess = metadata.acl;
                 final CommandType fieldType = parameterAnnotation.type();
 
                 if (checkAccess != null) {
@@ -151,9 +194,8 @@ public class ParamProcessWorker implements DispatchWorker {
                     // for maps, specify access to be checkd on key or value.
                     // Find the controlled entity DBid by uuid
 
-                    if (parameterAnnotation.entityType() != null && parameterAnnotation.entityType().length > 0
-                            && parameterAnnotation.entityType()[0].getAnnotation(EntityReference.class) != null) {
-                        final Class<?>[] entityList = parameterAnnotation.entityType()[0].getAnnotation(EntityReference.class).value();
+                    if (metadata.entities != null) {
+                        final Class<?>[] entityList = metadata.entities;
 
                         // Check if the parameter type is a single
                         // Id or list of id's/name's
@@ -244,9 +286,9 @@ public class ParamProcessWorker implements DispatchWorker {
     }
 
     @SuppressWarnings({"unchecked", "rawtypes"})
-    private void setFieldValue(final Field field, final BaseCmd cmdObj, final Object paramObj, final Parameter annotation) throws IllegalArgumentException, ParseException {
+    private void setFieldValue(final Field field, final BaseCmd cmdObj, final Object paramObj, final ParamMetadata metadata) throws IllegalArgumentException, ParseException {
+        final Parameter annotation = metadata.parameter;
         try {
-            field.setAccessible(true);
             final CommandType fieldType = annotation.type();
             switch (fieldType) {
             case BOOLEAN:
@@ -312,7 +354,7 @@ public class ParamProcessWorker implements DispatchWorker {
                     case UUID:
                         if (token.isEmpty())
                             break;
-                        final Long internalId = translateUuidToInternalId(token, annotation);
+                        final Long internalId = translateUuidToInternalId(token, metadata);
                         listParam.add(internalId);
                         break;
                     case LONG: {
@@ -330,7 +372,7 @@ public class ParamProcessWorker implements DispatchWorker {
                 field.set(cmdObj, listParam);
                 break;
             case UUID:
-                final Long internalId = translateUuidToInternalId(paramObj.toString(), annotation);
+                final Long internalId = translateUuidToInternalId(paramObj.toString(), metadata);
                 field.set(cmdObj, internalId);
                 break;
             case LONG:
@@ -378,7 +420,8 @@ public class ParamProcessWorker implements DispatchWorker {
         return cal.getTime();
     }
 
-    private Long translateUuidToInternalId(final String uuid, final Parameter annotation) {
+    private Long translateUuidToInternalId(final String uuid, final ParamMetadata metadata) {
+        final Parameter annotation = metadata.parameter;
         if (uuid.equals("-1")) {
             // FIXME: This is to handle a lot of hardcoded special cases where -1 is sent
             // APITODO: Find and get rid of all hardcoded params in API Cmds and service layer
@@ -388,14 +431,14 @@ public class ParamProcessWorker implements DispatchWorker {
         // If annotation's empty, the cmd existed before 3.x try conversion to long
         final boolean isPre3x = annotation.since().isEmpty();
         // Match against Java's UUID regex to check if input is uuid string
-        final boolean isUuid = uuid.matches("^[0-9a-f]{8}-[0-9a-f]{4}-[0-9a-f]{4}-[0-9a-f]{4}-[0-9a-f]{12}$");
+        final boolean isUuid = s_uuidPattern.matcher(uuid).matches();
         // Enforce that it's uuid for newly added apis from version 3.x
         if (!isPre3x && !isUuid)
             return null;
 
         // There may be multiple entities defined on the @EntityReference of a Response.class
         // UUID CommandType would expect only one entityType, so use the first entityType
-        final Class<?>[] entities = annotation.entityType()[0].getAnnotation(EntityReference.class).value();
+        final Class<?>[] entities = metadata.entities;
 
         // Allow both uuid and internal id for pre3x apis
         if (isPre3x && !isUuid) {
@@ -41,6 +41,9 @@ import org.apache.cloudstack.api.response.SuccessResponse;
 import org.apache.cloudstack.context.CallContext;
 import org.apache.log4j.Logger;
 
+import java.io.IOException;
+import java.io.StringWriter;
+import java.io.Writer;
 import java.lang.reflect.Field;
 import java.lang.reflect.Modifier;
 import java.util.ArrayList;
@@ -63,6 +66,21 @@ public class ApiResponseSerializer {
         }
     }
 
+    /**
+     * Writes the same text as toSerializedString() to the given writer.  The objects of a
+     * ListResponse are serialized one at a time, so the whole response is never held in memory.
+     */
+    public static void serialize(ResponseObject result, String responseType, Writer out) throws IOException {
+        s_logger.trace("===Serializing Response===");
+        if (HttpUtils.RESPONSE_TYPE_JSON.equalsIgnoreCase(responseType)) {
+            if (result != null) {
+                serializeJSON(out, result);
+            }
+        } else {
+            serializeXML(out, result);
+        }
+    }
+
     private static final Pattern s_unicodeEscapePattern = Pattern.compile("\\\\u([0-9A-Fa-f]{4})");
 
     public static String unescape(String escaped) {
@@ -76,72 +94,88 @@ public class ApiResponseSerializer {
 
     public static String toJSONSerializedString(ResponseObject result) {
         if (result != null) {
-            Gson gson = ApiResponseGsonHelper.getBuilder().excludeFieldsWithModifiers(Modifier.TRANSIENT).create();
+            StringWriter sb = new StringWriter();
+            try {
+                serializeJSON(sb, result);
+            } catch (IOException e) {
+                throw new CloudRuntimeException("Unable to serialize " + result.getResponseName(), e);
+            }
+            return sb.toString();
+        }
+        return null;
+    }
 
-            StringBuilder sb = new StringBuilder();
+    private static void serializeJSON(Writer sb, ResponseObject result) throws IOException {
+        Gson gson = ApiResponseGsonHelper.getBuilder().excludeFieldsWithModifiers(Modifier.TRANSIENT).create();
 
-            sb.append("{\"").append(result.getResponseName()).append("\":");
-            if (result instanceof ListResponse) {
-                List<? extends ResponseObject> responses = ((ListResponse)result).getResponses();
-                Integer count = ((ListResponse)result).getCount();
-                String context = ((ListResponse)result).getContext();
-                boolean nonZeroCount = (count != null && count.longValue() != 0);
-                if (nonZeroCount) {
-                    sb.append("{\"").append(ApiConstants.COUNT).append("\":").append(count);
-                    if (context != null) {
-                        sb.append(",\"").append(ApiConstants.CONTEXT).append("\":\"").append(context).append("\"");
-                    }
+        sb.append("{\"").append(result.getResponseName()).append("\":");
+        if (result instanceof ListResponse) {
+            List<? extends ResponseObject> responses = ((ListResponse)result).getResponses();
+            Integer count = ((ListResponse)result).getCount();
+            String context = ((ListResponse)result).getContext();
+            boolean nonZeroCount = (count != null && count.longValue() != 0);
+            if (nonZeroCount) {
+                sb.append("{\"").append(ApiConstants.COUNT).append("\":").append(String.valueOf(count));
+                if (context != null) {
+                    sb.append(",\"").append(ApiConstants.CONTEXT).append("\":\"").append(context).append("\"");
                 }
+            }
 
-                if ((responses != null) && !responses.isEmpty()) {
-                    String jsonStr = gson.toJson(responses.get(0));
-                    jsonStr = unescape(jsonStr);
-
-                    if (nonZeroCount) {
-                        sb.append(",\"").append(responses.get(0).getObjectName()).append("\":[").append(jsonStr);
-                    }
-
-                    for (int i = 1; i < ((ListResponse)result).getResponses().size(); i++) {
-                        jsonStr = gson.toJson(responses.get(i));
-                        jsonStr = unescape(jsonStr);
-                        sb.append(",").append(jsonStr);
-                    }
-                    sb.append("]}");
-                } else  {
-                    if (!nonZeroCount) {
-                        sb.append("{");
-                    }
+            if ((responses != null) && !responses.isEmpty()) {
+                String jsonStr = gson.toJson(responses.get(0));
+                jsonStr = unescape(jsonStr);
 
-                    sb.append("}");
+                if (nonZeroCount) {
+                    sb.append(",\"").append(responses.get(0).getObjectName()).append("\":[").append(jsonStr);
                 }
-            } else if (result instanceof SuccessResponse) {
-                sb.append("{\"success\":\"").append(((SuccessResponse)result).getSuccess()).append("\"}");
-            } else if (result instanceof ExceptionResponse) {
-                String jsonErrorText = gson.toJson(result);
-                jsonErrorText = unescape(jsonErrorText);
-                sb.append(jsonErrorText);
-            } else {
-                ((BaseResponse)result).buildCurrentContext();
-                String jsonStr = gson.toJson(result);
-                if ((jsonStr != null) && !"".equals(jsonStr)) {
+
+                for (int i = 1; i < ((ListResponse)result).getResponses().size(); i++) {
+                    jsonStr = gson.toJson(responses.get(i));
                     jsonStr = unescape(jsonStr);
-                    if (result instanceof AsyncJobResponse || result instanceof CreateCmdResponse || result instanceof AuthenticationCmdResponse) {
-                        sb.append(jsonStr);
-                    } else {
-                        sb.append("{\"").append(result.getObjectName()).append("\":").append(jsonStr).append("}");
-                    }
+                    sb.append(",").append(jsonStr);
+                }
+                sb.append("]}");
+            } else  {
+                if (!nonZeroCount) {
+                    sb.append("{");
+                }
+
+                sb.append("}");
+            }
+        } else if (result instanceof SuccessResponse) {
+            sb.append("{\"success\":\"").append(String.valueOf(((SuccessResponse)result).getSuccess())).append("\"}");
+        } else if (result instanceof ExceptionResponse) {
+            String jsonErrorText = gson.toJson(result);
+            jsonErrorText = unescape(jsonErrorText);
+            sb.append(jsonErrorText);
+        } else {
+            ((BaseResponse)result).buildCurrentContext();
+            String jsonStr = gson.toJson(result);
+            if ((jsonStr != null) && !"".equals(jsonStr)) {
+                jsonStr = unescape(jsonStr);
+                if (result instanceof AsyncJobResponse || result instanceof CreateCmdResponse || result instanceof AuthenticationCmdResponse) {
+                    sb.append(jsonStr);
                 } else {
-                    sb.append("{}");
+                    sb.append("{\"").append(result.getObjectName()).append("\":").append(jsonStr).append("}");
                 }
+            } else {
+                sb.append("{}");
             }
-            sb.append("}");
-            return sb.toString();
         }
-        return null;
+        sb.append("}");
     }
 
     private static String toXMLSerializedString(ResponseObject result) {
-        StringBuilder sb = new StringBuilder();
+        StringWriter sb = new StringWriter();
+        try {
+            serializeXML(sb, result);
+        } catch (IOException e) {
+            throw new CloudRuntimeException("Unable to serialize " + result.getResponseName(), e);
+        }
+        return sb.toString();
+    }
+
+    private static void serializeXML(Writer sb, ResponseObject result) throws IOException {
         sb.append("<?xml version=\"1.0\" encoding=\"UTF-8\"?>");
         sb.append("<").append(result.getResponseName()).append(" cloud-stack-version=\"").append(ApiDBUtils.getVersion()).append("\">");
 
@@ -149,7 +183,7 @@ public class ApiResponseSerializer {
             Integer count = ((ListResponse)result).getCount();
 
             if (count != null && count != 0) {
-                sb.append("<").append(ApiConstants.COUNT).append(">").append(((ListResponse)result).getCount()).append("</").append(ApiConstants.COUNT).append(">");
+                sb.append("<").append(ApiConstants.COUNT).append(">").append(String.valueOf(((ListResponse)result).getCount())).append("</").append(ApiConstants.COUNT).append(">");
             }
             List<? extends ResponseObject> responses = ((ListResponse)result).getResponses();
             if ((responses != null) && !responses.isEmpty()) {
@@ -166,10 +200,9 @@ public class ApiResponseSerializer {
         }
 
         sb.append("</").append(result.getResponseName()).append(">");
-        return sb.toString();
     }
 
-    private static void serializeResponseObjXML(StringBuilder sb, ResponseObject obj) {
+    private static void serializeResponseObjXML(Writer sb, ResponseObject obj) throws IOException {
         if (!(obj instanceof SuccessResponse) && !(obj instanceof ExceptionResponse)) {
             sb.append("<").append(obj.getObjectName()).append(">");
         }
@@ -188,7 +221,7 @@ public class ApiResponseSerializer {
         return fields.toArray(new Field[] {});
     }
 
-    private static void serializeResponseObjFieldsXML(StringBuilder sb, ResponseObject obj) {
+    private static void serializeResponseObjFieldsXML(Writer sb, ResponseObject obj) throws IOException {
         boolean isAsync = false;
         if (obj instanceof AsyncJobResponse)
             isAsync = true;
@@ -271,7 +304,7 @@ public class ApiResponseSerializer {
                                 sb.append("<" + "uuidProperty" + ">" + idFieldName + "</" + "uuidProperty" + ">");
                             }
                         } else if (value instanceof String) {
-                            sb.append("<").append(serializedName.value()).append(">").append(value).append("</").append(serializedName.value()).append(">");
+                            sb.append("<").append(serializedName.value()).append(">").append((String)value).append("</").append(serializedName.value()).append(">");
                         }
                     }
                     if (usedUuidList) {
@@ -22,6 +22,7 @@ import java.util.List;
 import java.util.Map;
 import java.util.concurrent.Executors;
 import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
 
 import javax.ejb.Local;
 import javax.inject.Inject;
@@ -42,6 +43,7 @@ import org.apache.cloudstack.framework.config.Configurable;
 import org.apache.cloudstack.framework.config.dao.ConfigurationDao;
 import org.apache.cloudstack.framework.messagebus.MessageBus;
 import org.apache.cloudstack.framework.messagebus.PublishScope;
+import org.apache.cloudstack.managed.context.ManagedContextRunnable;
 import org.apache.cloudstack.storage.datastore.db.StoragePoolVO;
 
 import com.cloud.agent.AgentManager;
@@ -89,6 +91,7 @@ import com.cloud.utils.db.DB;
 import com.cloud.utils.db.SearchCriteria;
 import com.cloud.utils.db.Transaction;
 import com.cloud.utils.db.TransactionCallbackNoReturn;
+import com.cloud.utils.db.TransactionLegacy;
 import com.cloud.utils.db.TransactionStatus;
 import com.cloud.utils.exception.CloudRuntimeException;
 import com.cloud.utils.fsm.StateListener;
@@ -149,6 +152,8 @@ public class CapacityManagerImpl extends ManagerBase implements CapacityManager,
     private int _vmCapacityReleaseInterval;
     private ScheduledExecutorService _executor;
     long _extraBytesPerVolume = 0;
+    private final HostCapacityIndex _capacityIndex = new HostCapacityIndex();
+    private boolean _capacityIndexEnabled;
 
     @Inject
     MessageBus _messageBus;
@@ -171,6 +176,12 @@ public class CapacityManagerImpl extends ManagerBase implements CapacityManager,
     public boolean start() {
         _resourceMgr.registerResourceEvent(ResourceListener.EVENT_PREPARE_MAINTENANCE_AFTER, this);
         _resourceMgr.registerResourceEvent(ResourceListener.EVENT_CANCEL_MAINTENANCE_AFTER, this);
+
+        int refreshInterval = CapacityIndexRefreshInterval.value();
+        _capacityIndexEnabled = refreshInterval > 0;
+        if (_capacityIndexEnabled) {
+            _executor.scheduleWithFixedDelay(new CapacityIndexRefreshTask(), 0, refreshInterval, TimeUnit.SECONDS);
+        }
         return true;
     }
 
@@ -267,6 +278,7 @@ public class CapacityManagerImpl extends ManagerBase implements CapacityManager,
 
                     _capacityDao.update(capacityCpu.getId(), capacityCpu);
                     _capacityDao.update(capacityMemory.getId(), capacityMemory);
+                    updateCapacityIndex(capacityCpu, capacityMemory, cpuOvercommitRatio, memoryOvercommitRatio);
                 }
             });
 
@@ -363,6 +375,7 @@ public class CapacityManagerImpl extends ManagerBase implements CapacityManager,
 
                     _capacityDao.update(capacityCpu.getId(), capacityCpu);
                     _capacityDao.update(capacityMem.getId(), capacityMem);
+                    updateCapacityIndex(capacityCpu, capacityMem, cpuOvercommitRatio, memoryOvercommitRatio);
                 }
             });
         } catch (Exception e) {
@@ -744,6 +757,10 @@ public class CapacityManagerImpl extends ManagerBase implements CapacityManager,
             try {
                 _capacityDao.update(cpuCap.getId(), cpuCap);
                 _capacityDao.update(memCap.getId(), memCap);
+                if (host.getClusterId() != null) {
+                    updateCapacityIndex(cpuCap, memCap, getClusterOverProvisioningFactor(host.getClusterId(), Capacity.CAPACITY_TYPE_CPU),
+                        getClusterOverProvisioningFactor(host.getClusterId(), Capacity.CAPACITY_TYPE_MEMORY));
+                }
             } catch (Exception e) {
                 s_logger.error("Caught exception while updating cpu/memory capacity for the host " + host.getId(), e);
             }
@@ -1052,9 +1069,27 @@ public class CapacityManagerImpl extends ManagerBase implements CapacityManager,
     }
 
     @Override
-    public void processPrepareMaintenaceEventAfter(Long hostId) {
+    public void processPrepareMaintenaceEventAfter(final Long hostId) {
         _capacityDao.removeBy(Capacity.CAPACITY_TYPE_MEMORY, null, null, null, hostId);
         _capacityDao.removeBy(Capacity.CAPACITY_TYPE_CPU, null, null, null, hostId);
+        TransactionLegacy.runOnCurrentCommit(new Runnable() {
+            @Override
+            public void run() {
+                _capacityIndex.remove(hostId);
+            }
+        });
+    }
+
+    /**
+     * The index must only describe committed capacity, so it is updated once the capacity rows commit.
+     */
+    private void updateCapacityIndex(final CapacityVO cpu, final CapacityVO memory, final float cpuOvercommitRatio, final float memoryOvercommitRatio) {
+        TransactionLegacy.runOnCurrentCommit(new Runnable() {
+            @Override
+            public void run() {
+                _capacityIndex.update(cpu, memory, cpuOvercommitRatio, memoryOvercommitRatio);
+            }
+        });
     }
 
     @Override
@@ -1079,6 +1114,38 @@ public class CapacityManagerImpl extends ManagerBase implements CapacityManager,
         return false;
     }
 
+    @Override
+    public Pair<List<Long>, Map<Long, Double>> orderClustersByHostCapacity(long id, int requiredCpu, long requiredRam, short capacityTypeForOrdering, boolean isZone) {
+        if (!_capacityIndexEnabled || !_capacityIndex.isLoaded()) {
+            return null;
+        }
+        return _capacityIndex.orderClustersByCapacity(id, requiredCpu, requiredRam, capacityTypeForOrdering, isZone);
+    }
+
+    @Override
+    public Pair<List<Long>, Map<Long, Double>> orderPodsByHostCapacity(long zoneId, int requiredCpu, long requiredRam, short capacityTypeForOrdering) {
+        if (!_capacityIndexEnabled || !_capacityIndex.isLoaded()) {
+            return null;
+        }
+        return _capacityIndex.orderPodsByCapacity(zoneId, requiredCpu, requiredRam, capacityTypeForOrdering);
+    }
+
+    protected class CapacityIndexRefreshTask extends ManagedContextRunnable {
+        @Override
+        protected void runInContext() {
+            try {
+                long updateSequence = _capacityIndex.getUpdateSequence();
+                List<Pair<CapacityVO, Float>> capacities = _capacityDao.listHostCapacitiesWithOvercommitRatio();
+                _capacityIndex.reload(capacities, updateSequence);
+                if (s_logger.isTraceEnabled()) {
+                    s_logger.trace("Reconciled host capacity index with the database, " + _capacityIndex.size() + " hosts indexed");
+                }
+            } catch (Throwable e) {
+                s_logger.warn("Unable to reconcile host capacity index with the database", e);
+            }
+        }
+    }
+
     @Override
     public String getConfigComponentName() {
         return CapacityManager.class.getSimpleName();
@@ -1087,6 +1154,6 @@ public class CapacityManagerImpl extends ManagerBase implements CapacityManager,
     @Override
     public ConfigKey<?>[] getConfigKeys() {
         return new ConfigKey<?>[] {CpuOverprovisioningFactor, MemOverprovisioningFactor, StorageCapacityDisableThreshold, StorageOverprovisioningFactor,
-            StorageAllocatedCapacityDisableThreshold};
+            StorageAllocatedCapacityDisableThreshold, CapacityIndexRefreshInterval};
     }
 }
@@ -0,0 +1,330 @@
+// Licensed to the Apache Software Foundation (ASF) under one
+// or more contributor license agreements.  See the NOTICE file
+// distributed with this work for additional information
+// regarding copyright ownership.  The ASF licenses this file
+// to you under the Apache License, Version 2.0 (the
+// "License"); you may not use this file except in compliance
+// with the License.  You may obtain a copy of the License at
+//
+//   http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing,
+// software distributed under the License is distributed on an
+// "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+// KIND, either express or implied.  See the License for the
+// specific language governing permissions and limitations
+// under the License.
+package com.cloud.capacity;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+import com.cloud.utils.Pair;
+
+/**
+ * In-memory copy of the host CPU and memory rows of op_host_capacity, used by the deployment
+ * planners to order pods and clusters without running the aggregate capacity queries for every
+ * VM being deployed.
+ *
+ * Hosts are stored in slots of parallel primitive arrays. Slots are updated in place whenever
+ * a change CapacityManager makes to a host's capacity commits, so the index reflects reservations
+ * made by concurrent deployments as soon as they are committed. The whole index is
+ * periodically rebuilt from the database; hosts updated while the rebuild was reading the
+ * database keep their in-memory values.
+ *
+ * The index is only used to order and prune candidates. Final host capacity checks are still
+ * made against the locked database rows.
+ */
+public class HostCapacityIndex {
+    private static final int CPU = 0;
+    private static final int MEMORY = 1;
+
+    private final ReentrantReadWriteLock _lock = new ReentrantReadWriteLock();
+
+    private boolean _loaded;
+    private long _updateSequence;
+
+    private final Map<Long, Integer> _slots = new HashMap<Long, Integer>();
+    private int _size;
+    private long[] _hostIds;
+    private long[] _zoneIds;
+    private long[] _podIds;
+    private long[] _clusterIds;
+    private long[][] _total;
+    private long[][] _used;
+    private long[][] _reserved;
+    private float[][] _overcommitRatio;
+    private boolean[][] _present;
+    private long[] _lastUpdated;
+
+    public HostCapacityIndex() {
+        allocate(16);
+    }
+
+    public boolean isLoaded() {
+        _lock.readLock().lock();
+        try {
+            return _loaded;
+        } finally {
+            _lock.readLock().unlock();
+        }
+    }
+
+    public int size() {
+        _lock.readLock().lock();
+        try {
+            return _size;
+        } finally {
+            _lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * @return a marker to hand to {@link #reload(List, long)} once the database has been read
+     */
+    public long getUpdateSequence() {
+        _lock.readLock().lock();
+        try {
+            return _updateSequence;
+        } finally {
+            _lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Replaces the content of the index with the given database rows. Hosts updated after
+     * <code>updateSequence</code> was taken are newer than the rows and are kept as they are.
+     */
+    public void reload(List<Pair<CapacityVO, Float>> capacities, long updateSequence) {
+        HostCapacityIndex fresh = new HostCapacityIndex();
+        for (Pair<CapacityVO, Float> capacity : capacities) {
+            fresh.set(capacity.first(), capacity.second());
+        }
+
+        _lock.writeLock().lock();
+        try {
+            for (int slot = 0; slot < _size; slot++) {
+                if (_lastUpdated[slot] > updateSequence) {
+                    int freshSlot = fresh.slotFor(_hostIds[slot], _zoneIds[slot], _podIds[slot], _clusterIds[slot]);
+                    for (int type = CPU; type <= MEMORY; type++) {
+                        fresh._total[type][freshSlot] = _total[type][slot];
+                        fresh._used[type][freshSlot] = _used[type][slot];
+                        fresh._reserved[type][freshSlot] = _reserved[type][slot];
+                        fresh._overcommitRatio[type][freshSlot] = _overcommitRatio[type][slot];
+                        fresh._present[type][freshSlot] = _present[type][slot];
+                    }
+                    fresh._lastUpdated[freshSlot] = _lastUpdated[slot];
+                }
+            }
+
+            _slots.clear();
+            _slots.putAll(fresh._slots);
+            _size = fresh._size;
+            _hostIds = fresh._hostIds;
+            _zoneIds = fresh._zoneIds;
+            _podIds = fresh._podIds;
+            _clusterIds = fresh._clusterIds;
+            _total = fresh._total;
+            _used = fresh._used;
+            _reserved = fresh._reserved;
+            _overcommitRatio = fresh._overcommitRatio;
+            _present = fresh._present;
+            _lastUpdated = fresh._lastUpdated;
+            _loaded = true;
+        } finally {
+            _lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Records the current CPU and memory capacity of a host.
+     */
+    public void update(CapacityVO cpu, CapacityVO memory, float cpuOvercommitRatio, float memoryOvercommitRatio) {
+        _lock.writeLock().lock();
+        try {
+            _updateSequence++;
+            int slot = set(cpu, cpuOvercommitRatio);
+            set(memory, memoryOvercommitRatio);
+            _lastUpdated[slot] = _updateSequence;
+        } finally {
+            _lock.writeLock().unlock();
+        }
+    }
+
+    public void remove(long hostId) {
+        _lock.writeLock().lock();
+        try {
+            _updateSequence++;
+            Integer slot = _slots.remove(hostId);
+            if (slot == null) {
+                return;
+            }
+
+            // move the last slot into the hole to keep the arrays dense
+            int last = --_size;
+            if (slot != last) {
+                _hostIds[slot] = _hostIds[last];
+                _zoneIds[slot] = _zoneIds[last];
+                _podIds[slot] = _podIds[last];
+                _clusterIds[slot] = _clusterIds[last];
+                for (int type = CPU; type <= MEMORY; type++) {
+                    _total[type][slot] = _total[type][last];
+                    _used[type][slot] = _used[type][last];
+                    _reserved[type][slot] = _reserved[type][last];
+                    _overcommitRatio[type][slot] = _overcommitRatio[type][last];
+                    _present[type][slot] = _present[type][last];
+                }
+                _lastUpdated[slot] = _lastUpdated[last];
+                _slots.put(_hostIds[slot], slot);
+            }
+        } finally {
+            _lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Same result as CapacityDao.orderClustersByAggregateCapacity() restricted to the clusters
+     * returned by CapacityDao.listClustersInZoneOrPodByHostCapacities().
+     *
+     * @return the clusters of the zone or pod that have enough CPU and RAM, in ascending order of
+     *         aggregate utilization of <code>capacityType</code>, along with the utilization of
+     *         every cluster of the zone or pod
+     */
+    public Pair<List<Long>, Map<Long, Double>> orderClustersByCapacity(long id, int requiredCpu, long requiredRam, short capacityType, boolean isZone) {
+        _lock.readLock().lock();
+        try {
+            return order(isZone ? _zoneIds : _podIds, id, _clusterIds, requiredCpu, requiredRam, capacityType);
+        } finally {
+            _lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Same result as CapacityDao.orderPodsByAggregateCapacity() restricted to the pods returned by
+     * CapacityDao.listPodsByHostCapacities().
+     */
+    public Pair<List<Long>, Map<Long, Double>> orderPodsByCapacity(long zoneId, int requiredCpu, long requiredRam, short capacityType) {
+        _lock.readLock().lock();
+        try {
+            return order(_zoneIds, zoneId, _podIds, requiredCpu, requiredRam, capacityType);
+        } finally {
+            _lock.readLock().unlock();
+        }
+    }
+
+    private Pair<List<Long>, Map<Long, Double>> order(long[] scopeIds, long scopeId, long[] groupIds, int requiredCpu, long requiredRam, short capacityType) {
+        int orderType = capacityType == Capacity.CAPACITY_TYPE_MEMORY ? MEMORY : CPU;
+
+        // per group: allocated, total with overcommit, has a host with enough cpu, has a host with enough ram
+        Map<Long, double[]> groups = new HashMap<Long, double[]>();
+        for (int slot = 0; slot < _size; slot++) {
+            if (scopeIds[slot] != scopeId) {
+                continue;
+            }
+            double[] group = groups.get(groupIds[slot]);
+            if (group == null) {
+                group = new double[4];
+                groups.put(groupIds[slot], group);
+            }
+            if (_present[orderType][slot]) {
+                group[0] += _used[orderType][slot] + _reserved[orderType][slot];
+                group[1] += _total[orderType][slot] * (double)_overcommitRatio[orderType][slot];
+            }
+            // same (odd) free capacity expression as the DAO queries, to order clusters identically
+            if (_present[CPU][slot] && hasCapacity(CPU, slot, requiredCpu)) {
+                group[2] = 1;
+            }
+            if (_present[MEMORY][slot] && hasCapacity(MEMORY, slot, requiredRam)) {
+                group[3] = 1;
+            }
+        }
+
+        final Map<Long, Double> utilization = new HashMap<Long, Double>();
+        List<Long> result = new ArrayList<Long>();
+        for (Map.Entry<Long, double[]> entry : groups.entrySet()) {
+            double[] group = entry.getValue();
+            utilization.put(entry.getKey(), group[1] == 0 ? 0 : group[0] / group[1]);
+            if (group[2] > 0 && group[3] > 0) {
+                result.add(entry.getKey());
+            }
+        }
+        Collections.sort(result, new Comparator<Long>() {
+            @Override
+            public int compare(Long a, Long b) {
+                int cmp = Double.compare(utilization.get(a), utilization.get(b));
+                return cmp != 0 ? cmp : a.compareTo(b);
+            }
+        });
+        return new Pair<List<Long>, Map<Long, Double>>(result, utilization);
+    }
+
+    private boolean hasCapacity(int type, int slot, long required) {
+        return _total[type][slot] * (double)_overcommitRatio[type][slot] - _used[type][slot] + _reserved[type][slot] >= required;
+    }
+
+    private int set(CapacityVO capacity, float overcommitRatio) {
+        int slot = slotFor(capacity.getHostOrPoolId(), capacity.getDataCenterId(), capacity.getPodId(), capacity.getClusterId());
+        int type = capacity.getCapacityType() == Capacity.CAPACITY_TYPE_MEMORY ? MEMORY : CPU;
+        _total[type][slot] = capacity.getTotalCapacity();
+        _used[type][slot] = capacity.getUsedCapacity();
+        _reserved[type][slot] = capacity.getReservedCapacity();
+        _overcommitRatio[type][slot] = overcommitRatio;
+        _present[type][slot] = true;
+        return slot;
+    }
+
+    private int slotFor(long hostId, Long zoneId, Long podId, Long clusterId) {
+        Integer slot = _slots.get(hostId);
+        if (slot == null) {
+            if (_size == _hostIds.length) {
+                allocate(_hostIds.length * 2);
+            }
+            slot = _size++;
+            _slots.put(hostId, slot);
+            _hostIds[slot] = hostId;
+            for (int type = CPU; type <= MEMORY; type++) {
+                _present[type][slot] = false;
+            }
+            _lastUpdated[slot] = 0;
+        }
+        _zoneIds[slot] = zoneId == null ? -1 : zoneId;
+        _podIds[slot] = podId == null ? -1 : podId;
+        _clusterIds[slot] = clusterId == null ? -1 : clusterId;
+        return slot;
+    }
+
+    private void allocate(int capacity) {
+        if (_hostIds == null) {
+            _hostIds = new long[capacity];
+            _zoneIds = new long[capacity];
+            _podIds = new long[capacity];
+            _clusterIds = new long[capacity];
+            _total = new long[2][capacity];
+            _used = new long[2][capacity];
+            _reserved = new long[2][capacity];
+            _overcommitRatio = new float[2][capacity];
+            _present = new boolean[2][capacity];
+            _lastUpdated = new long[capacity];
+            return;
+        }
+
+        _hostIds = Arrays.copyOf(_hostIds, capacity);
+        _zoneIds = Arrays.copyOf(_zoneIds, capacity);
+        _podIds = Arrays.copyOf(_podIds, capacity);
+        _clusterIds = Arrays.copyOf(_clusterIds, capacity);
+        for (int type = CPU; type <= MEMORY; type++) {
+            _total[type] = Arrays.copyOf(_total[type], capacity);
+            _used[type] = Arrays.copyOf(_used[type], capacity);
+            _reserved[type] = Arrays.copyOf(_reserved[type], capacity);
+            _overcommitRatio[type] = Arrays.copyOf(_overcommitRatio[type], capacity);
+            _present[type] = Arrays.copyOf(_present[type], capacity);
+        }
+        _lastUpdated = Arrays.copyOf(_lastUpdated, capacity);
+    }
+}
@@ -349,6 +349,14 @@ public enum Config {
             "100",
             "The number of outstanding security group work items that can be queued to a host. If exceeded, work items will get dropped to conserve memory. Security Group Sync will take care of ensuring that the host gets updated eventually",
             null),
+    SecurityGroupWorkBatchSize(
+            "Network",
+            ManagementServer.class,
+            Integer.class,
+            "network.securitygroups.work.batch.size",
+            "20",
+            "The number of security group work items a worker thread takes from the queue at once. Rulesets of vms in the same batch that share security groups are computed only once",
+            null),
 
     SecurityGroupDefaultAdding(
             "Network",
@@ -881,6 +889,22 @@ public enum Config {
             "60000",
             "The interval (in milliseconds) when vm stats are retrieved from agents.",
             null),
+    StatsHistorySamples(
+            "Advanced",
+            ManagementServer.class,
+            Integer.class,
+            "stats.history.samples",
+            "60",
+            "The number of host and vm stats samples kept in memory per host and vm, and the number of rollups kept for older samples. 0 disables the history.",
+            null),
+    StatsHistoryRollupFactor(
+            "Advanced",
+            ManagementServer.class,
+            Integer.class,
+            "stats.history.rollup.factor",
+            "15",
+            "The number of consecutive host and vm stats samples averaged into one rollup of the stats history.",
+            null),
     VmDiskStatsInterval("Advanced", ManagementServer.class, Integer.class, "vm.disk.stats.interval", "0", "Interval (in seconds) to report vm disk statistics.", null),
     VmTransitionWaitInterval(
             "Advanced",
@@ -1316,6 +1340,14 @@ public enum Config {
             null,
             "Interval (in days) to check sanity of usage data",
             null),
+    UsageParserThreads(
+            "Usage",
+            ManagementServer.class,
+            Integer.class,
+            "usage.parser.threads",
+            "4",
+            "Number of threads the usage job uses to parse usage of accounts in parallel",
+            null),
     UsageAggregationTimezone("Usage", ManagementServer.class, String.class, "usage.aggregation.timezone", "GMT", "The timezone to use for usage stats aggregation", null),
     TrafficSentinelIncludeZones(
             "Usage",
@@ -1519,6 +1551,24 @@ public enum Config {
             "Http response content type for JSON",
             null),
 
+    ApiResponseStreamingThreshold(
+            "Advanced",
+            ManagementServer.class,
+            Integer.class,
+            "api.response.streaming.threshold",
+            "500",
+            "List responses with at least this many objects are written to the client while they are serialized instead of being built in memory first, such responses are not copied to the access log. 0 disables streaming",
+            null),
+
+    ApiCredentialsCacheTtl(
+            "Advanced",
+            ManagementServer.class,
+            Integer.class,
+            "api.credentials.cache.ttl",
+            "60",
+            "Seconds the user and account found for an api key are reused to verify signed requests. Changes to users, keys or accounts made through the API evict them on all management servers, other changes can take this long to be noticed. 0 disables the cache",
+            null),
+
     EnableSecureSessionCookie(
             "Advanced",
             ManagementServer.class,
@@ -506,6 +506,7 @@ public class ConfigurationManagerImpl extends ManagerBase implements Configurati
             default:
                 throw new InvalidParameterValueException("Scope provided is invalid");
             }
+            _configDepot.invalidate(name);
             return value;
         }
 
@@ -598,6 +599,7 @@ public class ConfigurationManagerImpl extends ManagerBase implements Configurati
         }
 
         txn.commit();
+        _configDepot.invalidate(name);
         return _configDao.getValue(name);
     }
 
@@ -453,6 +453,14 @@ public class FirstFitPlanner extends PlannerBase implements DeploymentClusterPla
             capacityType = Capacity.CAPACITY_TYPE_MEMORY;
         }
 
+        Pair<List<Long>, Map<Long, Double>> indexed = _capacityMgr.orderClustersByHostCapacity(id, requiredCpu, requiredRam, capacityType, isZone);
+        if (indexed != null) {
+            if (s_logger.isTraceEnabled()) {
+                s_logger.trace("ClusterId List having enough CPU and RAM capacity & in order of aggregate capacity: " + indexed.first());
+            }
+            return indexed;
+        }
+
         List<Long> clusterIdswithEnoughCapacity = _capacityDao.listClustersInZoneOrPodByHostCapacities(id, requiredCpu, requiredRam, capacityType, isZone);
         if (s_logger.isTraceEnabled()) {
             s_logger.trace("ClusterId List having enough CPU and RAM capacity: " + clusterIdswithEnoughCapacity);
@@ -487,6 +495,14 @@ public class FirstFitPlanner extends PlannerBase implements DeploymentClusterPla
             capacityType = Capacity.CAPACITY_TYPE_MEMORY;
         }
 
+        Pair<List<Long>, Map<Long, Double>> indexed = _capacityMgr.orderPodsByHostCapacity(zoneId, requiredCpu, requiredRam, capacityType);
+        if (indexed != null) {
+            if (s_logger.isTraceEnabled()) {
+                s_logger.trace("PodId List having enough CPU and RAM capacity & in order of aggregate capacity: " + indexed.first());
+            }
+            return indexed;
+        }
+
         List<Long> podIdswithEnoughCapacity = _capacityDao.listPodsByHostCapacities(zoneId, requiredCpu, requiredRam, capacityType);
         if (s_logger.isTraceEnabled()) {
             s_logger.trace("PodId List having enough CPU and RAM capacity: " + podIdswithEnoughCapacity);
@@ -17,13 +17,19 @@
 package com.cloud.ha;
 
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
 import java.util.Date;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.Executors;
 import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
 
 import javax.ejb.Local;
 import javax.inject.Inject;
@@ -39,7 +45,9 @@ import org.apache.cloudstack.managed.context.ManagedContextRunnable;
 
 import com.cloud.agent.AgentManager;
 import com.cloud.alert.AlertManager;
+import com.cloud.cluster.ClusterManager;
 import com.cloud.cluster.ClusterManagerListener;
+import com.cloud.cluster.ClusterMessageHandler;
 import com.cloud.cluster.ManagementServerHost;
 import com.cloud.configuration.Config;
 import com.cloud.dc.ClusterDetailsDao;
@@ -72,6 +80,7 @@ import com.cloud.utils.NumbersUtil;
 import com.cloud.utils.component.ManagerBase;
 import com.cloud.utils.concurrency.NamedThreadFactory;
 import com.cloud.utils.exception.CloudRuntimeException;
+import com.cloud.utils.mgmt.JmxUtil;
 import com.cloud.vm.VMInstanceVO;
 import com.cloud.vm.VirtualMachine;
 import com.cloud.vm.VirtualMachine.State;
@@ -102,9 +111,20 @@ import com.cloud.vm.dao.VMInstanceDao;
  *         before retrying the stop | seconds | 120 || * }
  **/
 @Local(value = { HighAvailabilityManager.class })
-public class HighAvailabilityManagerImpl extends ManagerBase implements HighAvailabilityManager, ClusterManagerListener {
+public class HighAvailabilityManagerImpl extends ManagerBase implements HighAvailabilityManager, ClusterManagerListener, ClusterMessageHandler {
 
     protected static final Logger s_logger = Logger.getLogger(HighAvailabilityManagerImpl.class);
+
+    public static final String HA_WORK_SCHEDULED_SUBJECT = "ha.work.scheduled";
+
+    // work types in the order workers pick them up
+    @SuppressWarnings("unchecked")
+    private static final List<List<WorkType>> WORK_PRIORITIES = Arrays.asList(Arrays.asList(WorkType.HA), Arrays.asList(WorkType.Migration),
+            Arrays.asList(WorkType.Stop, WorkType.CheckStop, WorkType.ForceStop), Arrays.asList(WorkType.Destroy));
+    // number of ready items of a type looked at to spread the work over hosts
+    private static final int FAIRNESS_WINDOW = 32;
+    private static final long PEER_NOTIFICATION_DELAY = 200; // milliseconds
+
     WorkerThread[] _workers;
     boolean _stopped;
     long _timeToSleep;
@@ -195,6 +215,15 @@ public class HighAvailabilityManagerImpl extends ManagerBase implements HighAvai
     boolean _forceHA;
     String _haTag = null;
 
+    @Inject
+    ClusterManager _clusterMgr;
+
+    private final Map<Long, Long> _hostLastServed = new ConcurrentHashMap<Long, Long>();
+    private final AtomicBoolean _peerNotificationPending = new AtomicBoolean(false);
+    private final AtomicLong _workTaken = new AtomicLong();
+    private final AtomicLong _totalQueueLatency = new AtomicLong();
+    private volatile long _lastQueueLatency;
+
     protected HighAvailabilityManagerImpl() {
     }
 
@@ -296,21 +325,99 @@ public class HighAvailabilityManagerImpl extends ManagerBase implements HighAvai
         if (s_logger.isDebugEnabled()) {
             s_logger.debug("Scheduled " + work);
         }
-        wakeupWorkers();
+        signalWorkScheduled();
     }
 
     protected void wakeupWorkers() {
+        if (_workers == null) {
+            return;
+        }
         for (WorkerThread worker : _workers) {
             worker.wakup();
         }
     }
 
+    /**
+     * Wakes up the local workers and, shortly after, the workers of the other management servers,
+     * so that new work does not wait for the next poll of op_ha_work. Peer notifications of a burst
+     * of scheduled work are coalesced into one message.
+     */
+    protected void signalWorkScheduled() {
+        wakeupWorkers();
+
+        if (_executor != null && _peerNotificationPending.compareAndSet(false, true)) {
+            _executor.schedule(new NotifyPeersTask(), PEER_NOTIFICATION_DELAY, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    @Override
+    public void onClusterMessage(String senderPeer, String subject, String message) {
+        if (HA_WORK_SCHEDULED_SUBJECT.equals(subject)) {
+            wakeupWorkers();
+        }
+    }
+
+    /**
+     * Takes the next work item: HA restarts first, then migrations, stops and destroys. Among the
+     * ready items of a type, the ones on the hosts that were served least recently go first so a
+     * host with many VMs to recover does not hold up the others.
+     */
+    protected HaWorkVO takeWork() {
+        for (List<WorkType> types : WORK_PRIORITIES) {
+            List<HaWorkVO> candidates = _haDao.listAvailableWork(types, FAIRNESS_WINDOW);
+            if (candidates.isEmpty()) {
+                continue;
+            }
+
+            Collections.sort(candidates, new Comparator<HaWorkVO>() {
+                @Override
+                public int compare(HaWorkVO w1, HaWorkVO w2) {
+                    Long served1 = _hostLastServed.get(w1.getHostId());
+                    Long served2 = _hostLastServed.get(w2.getHostId());
+                    return Long.compare(served1 != null ? served1 : 0, served2 != null ? served2 : 0);
+                }
+            });
+
+            for (HaWorkVO candidate : candidates) {
+                HaWorkVO work = _haDao.take(_serverId, candidate.getId());
+                if (work != null) {
+                    long now = System.currentTimeMillis();
+                    _hostLastServed.put(work.getHostId(), now);
+
+                    long readySince = Math.max(work.getCreated() != null ? work.getCreated().getTime() : now, work.getTimeToTry() << 10);
+                    _lastQueueLatency = Math.max(now - readySince, 0);
+                    _totalQueueLatency.addAndGet(_lastQueueLatency);
+                    _workTaken.incrementAndGet();
+                    return work;
+                }
+            }
+        }
+        return null;
+    }
+
+    public int getQueueDepth() {
+        return _haDao.countAvailableWork();
+    }
+
+    public long getWorkTaken() {
+        return _workTaken.get();
+    }
+
+    public long getAverageQueueLatency() {
+        long taken = _workTaken.get();
+        return taken == 0 ? 0 : _totalQueueLatency.get() / taken;
+    }
+
+    public long getLastQueueLatency() {
+        return _lastQueueLatency;
+    }
+
     @Override
     public boolean scheduleMigration(final VMInstanceVO vm) {
         if (vm.getHostId() != null) {
             final HaWorkVO work = new HaWorkVO(vm.getId(), vm.getType(), WorkType.Migration, Step.Scheduled, vm.getHostId(), vm.getState(), 0, vm.getUpdated());
             _haDao.persist(work);
-            wakeupWorkers();
+            signalWorkScheduled();
         }
         return true;
     }
@@ -405,7 +512,7 @@ public class HighAvailabilityManagerImpl extends ManagerBase implements HighAvai
             s_logger.info("Schedule vm for HA:  " + vm);
         }
 
-        wakeupWorkers();
+        signalWorkScheduled();
 
     }
 
@@ -654,7 +761,7 @@ public class HighAvailabilityManagerImpl extends ManagerBase implements HighAvai
         if (s_logger.isDebugEnabled()) {
             s_logger.debug("Scheduled " + work.toString());
         }
-        wakeupWorkers();
+        signalWorkScheduled();
     }
 
     @Override
@@ -831,6 +938,13 @@ public class HighAvailabilityManagerImpl extends ManagerBase implements HighAvai
 
         _executor.scheduleAtFixedRate(new CleanupTask(), _timeBetweenCleanups, _timeBetweenCleanups, TimeUnit.SECONDS);
 
+        _clusterMgr.registerMessageHandler(HA_WORK_SCHEDULED_SUBJECT, this);
+        try {
+            JmxUtil.registerMBean("HighAvailabilityManager", "HighAvailabilityManager", new HighAvailabilityManagerMBeanImpl(this));
+        } catch (Exception e) {
+            s_logger.warn("Unable to register HA manager MBean", e);
+        }
+
         return true;
     }
 
@@ -845,6 +959,18 @@ public class HighAvailabilityManagerImpl extends ManagerBase implements HighAvai
         return true;
     }
 
+    protected class NotifyPeersTask extends ManagedContextRunnable {
+        @Override
+        protected void runInContext() {
+            _peerNotificationPending.set(false);
+            try {
+                _clusterMgr.publishMessage(HA_WORK_SCHEDULED_SUBJECT, Long.toString(_serverId));
+            } catch (Throwable e) {
+                s_logger.warn("Unable to notify peers of scheduled HA work, they will pick it up on their next poll", e);
+            }
+        }
+    }
+
     protected class CleanupTask extends ManagedContextRunnable {
         @Override
         protected void runInContext() {
@@ -859,6 +985,8 @@ public class HighAvailabilityManagerImpl extends ManagerBase implements HighAvai
     }
 
     protected class WorkerThread extends Thread {
+        private boolean _wakeupPending;
+
         public WorkerThread(String name) {
             super(name);
         }
@@ -881,11 +1009,17 @@ public class HighAvailabilityManagerImpl extends ManagerBase implements HighAvai
             HaWorkVO work = null;
             try {
                 s_logger.trace("Checking the database");
-                work = _haDao.take(_serverId);
+                synchronized (this) {
+                    _wakeupPending = false;
+                }
+                work = takeWork();
                 if (work == null) {
                     try {
                         synchronized (this) {
-                            wait(_timeToSleep);
+                            // work scheduled while we were looking is not lost
+                            if (!_wakeupPending) {
+                                wait(_timeToSleep);
+                            }
                         }
                         return;
                     } catch (final InterruptedException e) {
@@ -955,6 +1089,7 @@ public class HighAvailabilityManagerImpl extends ManagerBase implements HighAvai
         }
 
         public synchronized void wakup() {
+            _wakeupPending = true;
             notifyAll();
         }
     }
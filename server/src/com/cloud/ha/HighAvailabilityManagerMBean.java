@@ -0,0 +1,39 @@
+// Licensed to the Apache Software Foundation (ASF) under one
+// or more contributor license agreements.  See the NOTICE file
+// distributed with this work for additional information
+// regarding copyright ownership.  The ASF licenses this file
+// to you under the Apache License, Version 2.0 (the
+// "License"); you may not use this file except in compliance
+// with the License.  You may obtain a copy of the License at
+//
+//   http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing,
+// software distributed under the License is distributed on an
+// "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+// KIND, either express or implied.  See the License for the
+// specific language governing permissions and limitations
+// under the License.
+package com.cloud.ha;
+
+/**
+ * HA work queue statistics of this management server, available over JMX.
+ */
+public interface HighAvailabilityManagerMBean {
+    /**
+     * @return number of work items in op_ha_work that are ready to be taken by any management server
+     */
+    int getQueueDepth();
+
+    /**
+     * @return number of work items taken by the workers of this management server
+     */
+    long getWorkTaken();
+
+    /**
+     * @return average time, in milliseconds, between a work item becoming ready and a worker taking it
+     */
+    long getAverageQueueLatency();
+
+    long getLastQueueLatency();
+}
@@ -32,6 +32,26 @@ public interface HighAvailabilityDao extends GenericDao<HaWorkVO, Long> {
      */
     HaWorkVO take(long serverId);
 
+    /**
+     * Lists the work items of the given types that are ready to be taken, oldest first, without
+     * locking them.
+     */
+    List<HaWorkVO> listAvailableWork(List<WorkType> types, int limit);
+
+    /**
+     * @return number of work items ready to be taken
+     */
+    int countAvailableWork();
+
+    /**
+     * Takes a specific work item if no one has taken it yet.
+     *
+     * @param serverId server that is taking this.
+     * @param workId work item to take.
+     * @return WorkVO if it was still available; null otherwise.
+     */
+    HaWorkVO take(long serverId, long workId);
+
     /**
      * Finds all the work items related to this instance.
      *
@@ -41,6 +41,7 @@ public class HighAvailabilityDaoImpl extends GenericDaoBase<HaWorkVO, Long> impl
     private static final Logger s_logger = Logger.getLogger(HighAvailabilityDaoImpl.class);
 
     private final SearchBuilder<HaWorkVO> TBASearch;
+    private final SearchBuilder<HaWorkVO> AvailableWorkSearch;
     private final SearchBuilder<HaWorkVO> PreviousInstanceSearch;
     private final SearchBuilder<HaWorkVO> UntakenMigrationSearch;
     private final SearchBuilder<HaWorkVO> CleanupSearch;
@@ -66,6 +67,14 @@ public class HighAvailabilityDaoImpl extends GenericDaoBase<HaWorkVO, Long> impl
         TBASearch.and("step", TBASearch.entity().getStep(), Op.NIN);
         TBASearch.done();
 
+        AvailableWorkSearch = createSearchBuilder();
+        AvailableWorkSearch.and("server", AvailableWorkSearch.entity().getServerId(), Op.NULL);
+        AvailableWorkSearch.and("taken", AvailableWorkSearch.entity().getDateTaken(), Op.NULL);
+        AvailableWorkSearch.and("time", AvailableWorkSearch.entity().getTimeToTry(), Op.LTEQ);
+        AvailableWorkSearch.and("step", AvailableWorkSearch.entity().getStep(), Op.NIN);
+        AvailableWorkSearch.and("type", AvailableWorkSearch.entity().getWorkType(), Op.IN);
+        AvailableWorkSearch.done();
+
         PreviousInstanceSearch = createSearchBuilder();
         PreviousInstanceSearch.and("instance", PreviousInstanceSearch.entity().getInstanceId(), Op.EQ);
         PreviousInstanceSearch.done();
@@ -146,6 +155,50 @@ public class HighAvailabilityDaoImpl extends GenericDaoBase<HaWorkVO, Long> impl
         return search(sc, null);
     }
 
+    @Override
+    public List<HaWorkVO> listAvailableWork(final List<WorkType> types, final int limit) {
+        final SearchCriteria<HaWorkVO> sc = AvailableWorkSearch.create();
+        sc.setParameters("time", System.currentTimeMillis() >> 10);
+        sc.setParameters("step", Step.Done, Step.Cancelled);
+        sc.setParameters("type", types.toArray());
+
+        return search(sc, new Filter(HaWorkVO.class, "id", true, 0l, (long)limit));
+    }
+
+    @Override
+    public int countAvailableWork() {
+        final SearchCriteria<HaWorkVO> sc = TBASearch.create();
+        sc.setParameters("time", System.currentTimeMillis() >> 10);
+        sc.setParameters("step", Step.Done, Step.Cancelled);
+
+        return getCount(sc);
+    }
+
+    @Override
+    public HaWorkVO take(final long serverId, final long workId) {
+        final TransactionLegacy txn = TransactionLegacy.currentTxn();
+        try {
+            txn.start();
+            final HaWorkVO work = lockRow(workId, true);
+            if (work == null || work.getServerId() != null || work.getDateTaken() != null || work.getStep() == Step.Done || work.getStep() == Step.Cancelled) {
+                txn.commit();
+                return null;
+            }
+
+            work.setServerId(serverId);
+            work.setDateTaken(new Date());
+
+            update(work.getId(), work);
+
+            txn.commit();
+
+            return work;
+
+        } catch (final Throwable e) {
+            throw new CloudRuntimeException("Unable to execute take", e);
+        }
+    }
+
     @Override
     public HaWorkVO take(final long serverId) {
         final TransactionLegacy txn = TransactionLegacy.currentTxn();
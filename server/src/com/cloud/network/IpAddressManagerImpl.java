@@ -18,6 +18,7 @@ package com.cloud.network;
 
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collections;
 import java.util.Date;
 import java.util.HashMap;
 import java.util.HashSet;
@@ -154,6 +155,7 @@ import com.cloud.utils.db.TransactionStatus;
 import com.cloud.utils.exception.CloudRuntimeException;
 import com.cloud.utils.exception.ExceptionUtil;
 import com.cloud.utils.net.Ip;
+import com.cloud.utils.net.Ip4RangeBitmap;
 import com.cloud.utils.net.NetUtils;
 import com.cloud.vm.Nic;
 import com.cloud.vm.NicProfile;
@@ -727,9 +729,7 @@ public class IpAddressManagerImpl extends ManagerBase implements IpAddressManage
             errorMessage.append(": requested ip " + requestedIp + " is not available");
         }
 
-        Filter filter = new Filter(IPAddressVO.class, "vlanId", true, 0l, 1l);
-
-        List<IPAddressVO> addrs = _ipAddressDao.lockRows(sc, filter, true);
+        List<IPAddressVO> addrs = claimFreeIp(sc);
 
         // If all the dedicated IPs of the owner are in use fetch an IP from the system pool
         if (addrs.size() == 0 && fetchFromDedicatedRange) {
@@ -739,7 +739,7 @@ public class IpAddressManagerImpl extends ManagerBase implements IpAddressManage
                 fetchFromDedicatedRange = false;
                 sc.setParameters("vlanId", nonDedicatedVlanDbIds.toArray());
                         errorMessage.append(", vlanId id=" + Arrays.toString(nonDedicatedVlanDbIds.toArray()));
-                addrs = _ipAddressDao.lockRows(sc, filter, true);
+                addrs = claimFreeIp(sc);
             }
         }
 
@@ -803,6 +803,35 @@ public class IpAddressManagerImpl extends ManagerBase implements IpAddressManage
         return PublicIp.createFromAddrAndVlan(addr, _vlanDao.findById(addr.getVlanId()));
     }
 
+    /**
+     * Claims one of the free addresses matching the criteria. Rather than locking the candidate rows, a few
+     * of them are read and claimed with a conditional update, so concurrent allocations in the same zone
+     * only collide when they pick the same address and then move on to the next candidate.
+     */
+    protected List<IPAddressVO> claimFreeIp(SearchCriteria<IPAddressVO> sc) {
+        Filter filter = new Filter(IPAddressVO.class, "vlanId", true, 0l, (long)s_claimCandidates);
+        for (int attempt = 0; attempt < s_claimAttempts; attempt++) {
+            List<IPAddressVO> candidates = _ipAddressDao.search(sc, filter);
+            if (candidates.isEmpty()) {
+                break;
+            }
+
+            // spread concurrent allocations over different rows
+            Collections.shuffle(candidates, _rand);
+            for (IPAddressVO candidate : candidates) {
+                if (_ipAddressDao.claimUnallocated(candidate.getId())) {
+                    List<IPAddressVO> addrs = new ArrayList<IPAddressVO>();
+                    addrs.add(_ipAddressDao.findById(candidate.getId()));
+                    return addrs;
+                }
+            }
+            if (s_logger.isDebugEnabled()) {
+                s_logger.debug("All " + candidates.size() + " candidate public ips were claimed concurrently, retrying");
+            }
+        }
+        return new ArrayList<IPAddressVO>();
+    }
+
     @DB
     @Override
     public void markPublicIpAsAllocated(final IPAddressVO addr) {
@@ -1684,38 +1713,46 @@ public class IpAddressManagerImpl extends ManagerBase implements IpAddressManage
             return null;
         }
 
-        Set<Long> availableIps = _networkModel.getAvailableIps(network, requestedIp);
-
-        if (availableIps == null || availableIps.isEmpty()) {
-            s_logger.debug("There are no free ips in the  network " + network);
-            return null;
+        // One bit per address of the cidr rather than a boxed set of every candidate, /16 shared networks are common
+        String[] cidr = network.getCidr().split("/");
+        Ip4RangeBitmap bitmap = new Ip4RangeBitmap(cidr[0], Integer.parseInt(cidr[1]));
+        for (String ip : _networkModel.getUsedIpsInNetwork(network)) {
+            if (requestedIp != null && requestedIp.equals(ip)) {
+                s_logger.warn("Requested ip address " + requestedIp + " is already in use in network" + network);
+                return null;
+            }
+            bitmap.markUsed(ip);
         }
-
-        Long[] array = availableIps.toArray(new Long[availableIps.size()]);
+        bitmap.markUsed(network.getGateway());
 
         if (requestedIp != null) {
             // check that requested ip has the same cidr
-            String[] cidr = network.getCidr().split("/");
-            boolean isSameCidr = NetUtils.sameSubnetCIDR(requestedIp, NetUtils.long2Ip(array[0]), Integer.parseInt(cidr[1]));
-            if (!isSameCidr) {
-                s_logger.warn("Requested ip address " + requestedIp + " doesn't belong to the network " + network + " cidr");
-                return null;
-            } else if (NetUtils.IsIpEqualToNetworkOrBroadCastIp(requestedIp, cidr[0], Integer.parseInt(cidr[1]))) {
-                s_logger.warn("Requested ip address " + requestedIp + " is equal to the to the network/broadcast ip of the network" + network);
+            if (!bitmap.contains(NetUtils.ip2Long(requestedIp))) {
+                if (NetUtils.sameSubnetCIDR(requestedIp, cidr[0], Integer.parseInt(cidr[1]))) {
+                    s_logger.warn("Requested ip address " + requestedIp + " is equal to the to the network/broadcast ip of the network" + network);
+                } else {
+                    s_logger.warn("Requested ip address " + requestedIp + " doesn't belong to the network " + network + " cidr");
+                }
                 return null;
             }
             return requestedIp;
         }
 
-        String result;
-        do {
-            result = NetUtils.long2Ip(array[_rand.nextInt(array.length)]);
-        } while (result.split("\\.")[3].equals("1"));
-        return result;
+        // Addresses ending in .1 are left for gateways; pick among the first 255 free ones as before
+        bitmap.markLastOctetUsed(1);
+        long ip = bitmap.randomFree(_rand, 255);
+        if (ip < 0) {
+            s_logger.debug("There are no free ips in the  network " + network);
+            return null;
+        }
+        return NetUtils.long2Ip(ip);
     }
 
     Random _rand = new Random(System.currentTimeMillis());
 
+    private static final int s_claimCandidates = 16;
+    private static final int s_claimAttempts = 5;
+
     @Override
     public boolean applyStaticNats(List<? extends StaticNat> staticNats, boolean continueOnError, boolean forRevoke) throws ResourceUnavailableException {
         Network network = _networksDao.findById(staticNats.get(0).getNetworkId());
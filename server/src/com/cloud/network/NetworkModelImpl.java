@@ -111,6 +111,7 @@ import com.cloud.utils.db.SearchBuilder;
 import com.cloud.utils.db.SearchCriteria;
 import com.cloud.utils.db.SearchCriteria.Op;
 import com.cloud.utils.exception.CloudRuntimeException;
+import com.cloud.utils.net.Ip4RangeBitmap;
 import com.cloud.utils.net.NetUtils;
 import com.cloud.vm.Nic;
 import com.cloud.vm.NicProfile;
@@ -1764,7 +1765,7 @@ public class NetworkModelImpl extends ManagerBase implements NetworkModel {
     public Set<Long> getAvailableIps(Network network, String requestedIp) {
         String[] cidr = network.getCidr().split("/");
         List<String> ips = getUsedIpsInNetwork(network);
-        Set<Long> usedIps = new TreeSet<Long>();
+        Ip4RangeBitmap bitmap = new Ip4RangeBitmap(cidr[0], Integer.parseInt(cidr[1]));
 
         for (String ip : ips) {
             if (requestedIp != null && requestedIp.equals(ip)) {
@@ -1772,14 +1773,17 @@ public class NetworkModelImpl extends ManagerBase implements NetworkModel {
                 return null;
             }
 
-            usedIps.add(NetUtils.ip2Long(ip));
+            bitmap.markUsed(ip);
         }
+        bitmap.markUsed(network.getGateway());
 
-        Set<Long> allPossibleIps = NetUtils.getAllIpsFromCidr(cidr[0], Integer.parseInt(cidr[1]), usedIps);
-
-        String gateway = network.getGateway();
-        if ((gateway != null) && (allPossibleIps.contains(NetUtils.ip2Long(gateway))))
-            allPossibleIps.remove(NetUtils.ip2Long(gateway));
+        // get 255 ips as maximum
+        Set<Long> allPossibleIps = new TreeSet<Long>();
+        for (long ip = bitmap.getFirstIp(); ip <= bitmap.getLastIp() && allPossibleIps.size() < 255; ip++) {
+            if (bitmap.isFree(ip)) {
+                allPossibleIps.add(ip);
+            }
+        }
 
         return allPossibleIps;
     }
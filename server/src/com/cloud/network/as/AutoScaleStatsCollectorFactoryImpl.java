@@ -11,12 +11,15 @@ public class AutoScaleStatsCollectorFactoryImpl implements AutoScaleStatsCollect
     RRDAutoScaleStatsCollector rrdAutoScaleStatsCollector;
     @Inject
     ElasticSearchAutoScaleStatsCollector elasticSearchAutoScaleStatsCollector;
+    @Inject
+    StatsHistoryAutoScaleStatsCollector statsHistoryAutoScaleStatsCollector;
 
     private static final String RRD = "rrd";
     private static final String ELASTIC_SEARCH = "elasticsearch";
+    private static final String STATS_HISTORY = "history";
 
     private static final ConfigKey<String> StatsDataSource = new ConfigKey<String>("Advanced", String.class, "autoscale.stats.datasource", "rrd",
-            "Auto scale VM stats data source (rrd/elasticsearch)", true, ConfigKey.Scope.Global);
+            "Auto scale VM stats data source (rrd/elasticsearch/history)", true, ConfigKey.Scope.Global);
 
     @Override
     public AutoScaleStatsCollector getStatsCollector() {
@@ -24,6 +27,8 @@ public class AutoScaleStatsCollectorFactoryImpl implements AutoScaleStatsCollect
             return rrdAutoScaleStatsCollector;
         }else if(ELASTIC_SEARCH.equals(StatsDataSource.value())){
             return elasticSearchAutoScaleStatsCollector;
+        }else if(STATS_HISTORY.equals(StatsDataSource.value())){
+            return statsHistoryAutoScaleStatsCollector;
         }
         return rrdAutoScaleStatsCollector; //rrd as default option
     }
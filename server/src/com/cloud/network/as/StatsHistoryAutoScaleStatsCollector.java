@@ -0,0 +1,83 @@
+// Licensed to the Apache Software Foundation (ASF) under one
+// or more contributor license agreements.  See the NOTICE file
+// distributed with this work for additional information
+// regarding copyright ownership.  The ASF licenses this file
+// to you under the Apache License, Version 2.0 (the
+// "License"); you may not use this file except in compliance
+// with the License.  You may obtain a copy of the License at
+//
+//   http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing,
+// software distributed under the License is distributed on an
+// "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+// KIND, either express or implied.  See the License for the
+// specific language governing permissions and limitations
+// under the License.
+package com.cloud.network.as;
+
+import com.cloud.server.StatsCollector;
+import com.cloud.server.StatsHistory;
+import com.cloud.utils.Pair;
+import com.cloud.vm.VMInstanceVO;
+import org.apache.log4j.Logger;
+import org.springframework.stereotype.Component;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Evaluates counters over the vm stats history kept by the StatsCollector, so no agent is
+ * queried when a group is checked. Only the cpu counter is collected for vms.
+ */
+@Component
+public class StatsHistoryAutoScaleStatsCollector extends AutoScaleStatsCollector {
+
+    public static final Logger s_logger = Logger.getLogger(StatsHistoryAutoScaleStatsCollector.class.getName());
+
+    @Override
+    public Map<String, Double> retrieveMetrics(AutoScaleVmGroup asGroup, List<VMInstanceVO> vmList) {
+        if (s_logger.isDebugEnabled()) {
+            s_logger.debug("[AutoScale] Collecting stats history data.");
+        }
+
+        if(vmList == null || vmList.size() == 0){
+            return null;
+        }
+
+        Map<String, Double> counterSummary = new HashMap<>();
+        List<Pair<String, Integer>> counterNameAndDuration = this.getPairOfCounterNameAndDuration(asGroup);
+        if (counterNameAndDuration == null) {
+            return null;
+        }
+
+        long now = System.currentTimeMillis();
+        for (Pair<String, Integer> counter : counterNameAndDuration) {
+            String counterName = counter.first().split(",")[0];
+            if (!Counter.Source.cpu.toString().equals(counterName)) {
+                s_logger.debug("[AutoScale] Counter " + counterName + " is not kept in the stats history, skipping it");
+                continue;
+            }
+
+            long since = now - counter.second() * 1000L;
+            double sum = 0;
+            int vmsWithStats = 0;
+            for (VMInstanceVO vm : vmList) {
+                double average = getStatsCollector().getVmStatsAverage(vm.getId(), StatsHistory.CPU_UTILIZATION, since);
+                if (!Double.isNaN(average)) {
+                    sum += average;
+                    vmsWithStats++;
+                }
+            }
+            if (vmsWithStats > 0) {
+                counterSummary.put(counterName, sum / vmsWithStats);
+            }
+        }
+        return counterSummary;
+    }
+
+    protected StatsCollector getStatsCollector() {
+        return StatsCollector.getInstance();
+    }
+}
@@ -16,7 +16,9 @@
 // under the License.
 package com.cloud.network.security;
 
+import java.util.ArrayList;
 import java.util.Collections;
+import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
@@ -58,6 +60,8 @@ public class SecurityGroupManagerImpl2 extends SecurityGroupManagerImpl {
     ManagedContext _managedContext;
 
     WorkerThread[] _workers;
+    int _workBatchSize = WORK_BATCH_SIZE;
+    private static final int WORK_BATCH_SIZE = 20;
     private Set<Long> _disabledVms = Collections.newSetFromMap(new ConcurrentHashMap<Long, Boolean>());
     private boolean _schedulerDisabled = false;
 
@@ -142,7 +146,9 @@ public class SecurityGroupManagerImpl2 extends SecurityGroupManagerImpl {
         s_logger.trace("Checking the work queue");
         List<SecurityGroupWork> workItems;
         try {
-            workItems = _workQueue.getWork(1);
+            workItems = _workQueue.getWork(_workBatchSize);
+            // group rules and member ips are read once per batch and shared by every vm in it
+            RulesetComputation computation = new RulesetComputation();
             for (SecurityGroupWork work : workItems) {
                 if (s_logger.isTraceEnabled()) {
                     s_logger.trace("Processing " + work.getInstanceId());
@@ -155,19 +161,27 @@ public class SecurityGroupManagerImpl2 extends SecurityGroupManagerImpl {
                         continue;
                     }
                     work.setLogsequenceNumber(rulesetLog.getLogsequence());
-                    sendRulesetUpdates(work);
+                    sendRulesetUpdates(work, computation);
                     _mBean.logUpdateDetails(work.getInstanceId(), work.getLogsequenceNumber());
                 } catch (Exception e) {
                     s_logger.error("Problem during SG work " + work, e);
                     work.setStep(Step.Error);
                 }
             }
+            if (s_logger.isTraceEnabled()) {
+                s_logger.trace("SG work: processed " + workItems.size() + " items, " + computation._rulesets.size() + " distinct rulesets computed, " +
+                    computation._hits + " reused");
+            }
         } catch (InterruptedException e1) {
             s_logger.warn("SG work: caught InterruptException", e1);
         }
     }
 
     public void sendRulesetUpdates(SecurityGroupWork work) {
+        sendRulesetUpdates(work, new RulesetComputation());
+    }
+
+    protected void sendRulesetUpdates(SecurityGroupWork work, RulesetComputation computation) {
         Long userVmId = work.getInstanceId();
         UserVm vm = _userVMDao.findById(userVmId);
 
@@ -175,8 +189,8 @@ public class SecurityGroupManagerImpl2 extends SecurityGroupManagerImpl {
             if (s_logger.isTraceEnabled()) {
                 s_logger.trace("SecurityGroupManager v2: found vm, " + userVmId + " state=" + vm.getState());
             }
-            Map<PortAndProto, Set<String>> ingressRules = generateRulesForVM(userVmId, SecurityRuleType.IngressRule);
-            Map<PortAndProto, Set<String>> egressRules = generateRulesForVM(userVmId, SecurityRuleType.EgressRule);
+            Map<PortAndProto, Set<String>> ingressRules = generateRulesForVM(userVmId, SecurityRuleType.IngressRule, computation);
+            Map<PortAndProto, Set<String>> egressRules = generateRulesForVM(userVmId, SecurityRuleType.EgressRule, computation);
             Long agentId = vm.getHostId();
             if (agentId != null) {
                 String privateIp = vm.getPrivateIpAddress();
@@ -232,12 +246,25 @@ public class SecurityGroupManagerImpl2 extends SecurityGroupManagerImpl {
      */
     @Override
     protected Map<PortAndProto, Set<String>> generateRulesForVM(Long userVmId, SecurityRuleType type) {
+        return generateRulesForVM(userVmId, type, new RulesetComputation());
+    }
 
-        Map<PortAndProto, Set<String>> allowed = new TreeMap<PortAndProto, Set<String>>();
+    /*
+     * The ruleset of a vm depends only on the set of groups it belongs to, so vms sharing the same
+     * groups within one computation get the same (read-only) ruleset without going back to the db.
+     */
+    protected Map<PortAndProto, Set<String>> generateRulesForVM(Long userVmId, SecurityRuleType type, RulesetComputation computation) {
+        List<Long> groupIds = computation.getGroupIds(userVmId);
+        String key = type + ":" + groupIds;
+        Map<PortAndProto, Set<String>> allowed = computation._rulesets.get(key);
+        if (allowed != null) {
+            computation._hits++;
+            return allowed;
+        }
 
-        List<SecurityGroupVMMapVO> groupsForVm = _securityGroupVMMapDao.listByInstanceId(userVmId);
-        for (SecurityGroupVMMapVO mapVO : groupsForVm) {
-            List<SecurityGroupRuleVO> rules = _securityGroupRuleDao.listBySecurityGroupId(mapVO.getSecurityGroupId(), type);
+        allowed = new TreeMap<PortAndProto, Set<String>>();
+        for (Long groupId : groupIds) {
+            List<SecurityGroupRuleVO> rules = computation.getRules(groupId, type);
             for (SecurityGroupRuleVO rule : rules) {
                 PortAndProto portAndProto = new PortAndProto(rule.getProtocol(), rule.getStartPort(), rule.getEndPort());
                 Set<String> cidrs = allowed.get(portAndProto);
@@ -245,14 +272,10 @@ public class SecurityGroupManagerImpl2 extends SecurityGroupManagerImpl {
                     cidrs = new TreeSet<String>(new CidrComparator());
                 }
                 if (rule.getAllowedNetworkId() != null) {
-                    List<SecurityGroupVMMapVO> allowedInstances = _securityGroupVMMapDao.listBySecurityGroup(rule.getAllowedNetworkId(), State.Running);
-                    for (SecurityGroupVMMapVO ngmapVO : allowedInstances) {
-                        //here, we differ from the superclass: instead of creating N more queries to the
-                        //nics table, we use what's already there in the VO since the listBySecurityGroup already
-                        //did a join with the nics table
-                        String cidr = ngmapVO.getGuestIpAddress() + "/32";
-                        cidrs.add(cidr);
-                    }
+                    //here, we differ from the superclass: instead of creating N more queries to the
+                    //nics table, we use what's already there in the VO since the listBySecurityGroup already
+                    //did a join with the nics table
+                    cidrs.addAll(computation.getMemberCidrs(rule.getAllowedNetworkId()));
                 } else if (rule.getAllowedSourceIpCidr() != null) {
                     cidrs.add(rule.getAllowedSourceIpCidr());
                 }
@@ -261,10 +284,58 @@ public class SecurityGroupManagerImpl2 extends SecurityGroupManagerImpl {
                 }
             }
         }
-
+        computation._rulesets.put(key, allowed);
         return allowed;
     }
 
+    /**
+     * Memoizes the db reads that go into rulesets for the duration of one batch of work.
+     * It must not outlive the batch: group membership and rules are only as fresh as the
+     * moment they were first read.
+     */
+    protected class RulesetComputation {
+        final Map<Long, List<Long>> _groupsByVm = new HashMap<Long, List<Long>>();
+        final Map<String, List<SecurityGroupRuleVO>> _rulesByGroup = new HashMap<String, List<SecurityGroupRuleVO>>();
+        final Map<Long, Set<String>> _memberCidrs = new HashMap<Long, Set<String>>();
+        final Map<String, Map<PortAndProto, Set<String>>> _rulesets = new HashMap<String, Map<PortAndProto, Set<String>>>();
+        int _hits = 0;
+
+        List<Long> getGroupIds(Long vmId) {
+            List<Long> groupIds = _groupsByVm.get(vmId);
+            if (groupIds == null) {
+                Set<Long> ids = new TreeSet<Long>();
+                for (SecurityGroupVMMapVO mapVO : _securityGroupVMMapDao.listByInstanceId(vmId)) {
+                    ids.add(mapVO.getSecurityGroupId());
+                }
+                groupIds = new ArrayList<Long>(ids);
+                _groupsByVm.put(vmId, groupIds);
+            }
+            return groupIds;
+        }
+
+        List<SecurityGroupRuleVO> getRules(Long groupId, SecurityRuleType type) {
+            String key = type + ":" + groupId;
+            List<SecurityGroupRuleVO> rules = _rulesByGroup.get(key);
+            if (rules == null) {
+                rules = _securityGroupRuleDao.listBySecurityGroupId(groupId, type);
+                _rulesByGroup.put(key, rules);
+            }
+            return rules;
+        }
+
+        Set<String> getMemberCidrs(Long groupId) {
+            Set<String> cidrs = _memberCidrs.get(groupId);
+            if (cidrs == null) {
+                cidrs = new TreeSet<String>(new CidrComparator());
+                for (SecurityGroupVMMapVO ngmapVO : _securityGroupVMMapDao.listBySecurityGroup(groupId, State.Running)) {
+                    cidrs.add(ngmapVO.getGuestIpAddress() + "/32");
+                }
+                _memberCidrs.put(groupId, cidrs);
+            }
+            return cidrs;
+        }
+    }
+
     public int getQueueSize() {
         return _workQueue.size();
     }
@@ -284,6 +355,7 @@ public class SecurityGroupManagerImpl2 extends SecurityGroupManagerImpl {
         boolean result = super.configure(name, params);
         Map<String, String> configs = _configDao.getConfiguration("Network", params);
         int bufferLength = NumbersUtil.parseInt(configs.get(Config.SecurityGroupWorkPerAgentMaxQueueSize.key()), 100);
+        _workBatchSize = NumbersUtil.parseInt(configs.get(Config.SecurityGroupWorkBatchSize.key()), WORK_BATCH_SIZE);
         _workTracker = new SecurityGroupWorkTracker(_agentMgr, _answerListener, bufferLength);
         _answerListener.setWorkDispatcher(_workTracker);
         return result;
@@ -18,21 +18,64 @@ package com.cloud.server;
 
 import java.util.List;
 
+import org.apache.log4j.Logger;
+
+import com.cloud.cluster.ClusterManager;
 import com.cloud.cluster.ClusterManagerListener;
+import com.cloud.cluster.ClusterMessageHandler;
 import com.cloud.cluster.ManagementServerHost;
 import com.cloud.utils.db.Merovingian2;
 
 /**
  * when a management server is down.
  *
+ * Also relays lock release notifications between management servers so that
+ * threads waiting for a lock held by a peer are woken up when it is released.
  */
-public class LockMasterListener implements ClusterManagerListener {
+public class LockMasterListener implements ClusterManagerListener, ClusterMessageHandler, Merovingian2.LockNotifier {
+    private static final Logger s_logger = Logger.getLogger(LockMasterListener.class);
+
+    public static final String LOCK_WAITING_SUBJECT = "lock.waiting";
+    public static final String LOCK_RELEASED_SUBJECT = "lock.released";
+
     Merovingian2 _lockMaster;
+    ClusterManager _clusterMgr;
 
     public LockMasterListener(long msId) {
         _lockMaster = Merovingian2.createLockMaster(msId);
     }
 
+    public void setClusterManager(ClusterManager clusterMgr) {
+        _clusterMgr = clusterMgr;
+        _clusterMgr.registerListener(this);
+        _clusterMgr.registerMessageHandler(LOCK_WAITING_SUBJECT, this);
+        _clusterMgr.registerMessageHandler(LOCK_RELEASED_SUBJECT, this);
+        _lockMaster.setLockNotifier(this);
+    }
+
+    @Override
+    public void waitingFor(String key, long ownerMsId) {
+        _clusterMgr.publishMessage(Long.toString(ownerMsId), LOCK_WAITING_SUBJECT, key);
+    }
+
+    @Override
+    public void released(String key, long waiterMsId) {
+        _clusterMgr.publishMessage(Long.toString(waiterMsId), LOCK_RELEASED_SUBJECT, key);
+    }
+
+    @Override
+    public void onClusterMessage(String senderPeer, String subject, String message) {
+        if (LOCK_WAITING_SUBJECT.equals(subject)) {
+            try {
+                _lockMaster.onRemoteWaiter(message, Long.parseLong(senderPeer));
+            } catch (NumberFormatException e) {
+                s_logger.warn("Invalid peer name " + senderPeer + " for lock waiter of lck-" + message);
+            }
+        } else if (LOCK_RELEASED_SUBJECT.equals(subject)) {
+            _lockMaster.onRemoteRelease(message);
+        }
+    }
+
     @Override
     public void onManagementNodeJoined(List<? extends ManagementServerHost> nodeList, long selfNodeId) {
     }
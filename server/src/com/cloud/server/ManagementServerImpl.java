@@ -147,6 +147,7 @@ import org.apache.cloudstack.api.command.admin.resource.CleanVMReservationsCmd;
 import org.apache.cloudstack.api.command.admin.resource.DeleteAlertsCmd;
 import org.apache.cloudstack.api.command.admin.resource.ListAlertsCmd;
 import org.apache.cloudstack.api.command.admin.resource.ListCapacityCmd;
+import org.apache.cloudstack.api.command.admin.resource.ListStatsHistoryCmd;
 import org.apache.cloudstack.api.command.admin.resource.UploadCustomCertificateCmd;
 import org.apache.cloudstack.api.command.admin.router.ConfigureOvsElementCmd;
 import org.apache.cloudstack.api.command.admin.router.ConfigureVirtualRouterElementCmd;
@@ -888,7 +889,7 @@ public class ManagementServerImpl extends ManagerBase implements ManagementServe
             _lockMasterListener = new LockMasterListener(ManagementServerNode.getManagementServerId());
         }
 
-        _clusterMgr.registerListener(_lockMasterListener);
+        _lockMasterListener.setClusterManager(_clusterMgr);
 
         enableAdminUser("password");
         return true;
@@ -2493,6 +2494,21 @@ public class ManagementServerImpl extends ManagerBase implements ManagementServe
         return null;
     }
 
+    @Override
+    public List<? extends StatsSample> listStatsHistory(ListStatsHistoryCmd cmd) {
+        Long hostId = cmd.getHostId();
+        Long vmId = cmd.getVirtualMachineId();
+        if ((hostId == null) == (vmId == null)) {
+            throw new InvalidParameterValueException("Either hostid or virtualmachineid must be specified");
+        }
+
+        long since = cmd.getStartDate() != null ? cmd.getStartDate().getTime() : 0;
+        if (hostId != null) {
+            return StatsCollector.getInstance().getHostStatsHistory(hostId, since, cmd.isRollup());
+        }
+        return StatsCollector.getInstance().getVmStatsHistory(vmId, since, cmd.isRollup());
+    }
+
     @Override
     public List<CapacityVO> listCapacities(ListCapacityCmd cmd) {
 
@@ -2627,6 +2643,7 @@ public class ManagementServerImpl extends ManagerBase implements ManagementServe
         cmdList.add(UpdateRegionCmd.class);
         cmdList.add(ListAlertsCmd.class);
         cmdList.add(ListCapacityCmd.class);
+        cmdList.add(ListStatsHistoryCmd.class);
         cmdList.add(UploadCustomCertificateCmd.class);
         cmdList.add(ConfigureVirtualRouterElementCmd.class);
         cmdList.add(CreateVirtualRouterElementCmd.class);
@@ -17,6 +17,7 @@
 package com.cloud.server;
 
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Calendar;
 import java.util.Date;
 import java.util.HashMap;
@@ -145,6 +146,8 @@ public class StatsCollector extends ManagerBase implements ComponentMethodInterc
     private final ConcurrentHashMap<Long, VolumeStats> _volumeStats = new ConcurrentHashMap<Long, VolumeStats>();
     private ConcurrentHashMap<Long, StorageStats> _storageStats = new ConcurrentHashMap<Long, StorageStats>();
     private ConcurrentHashMap<Long, StorageStats> _storagePoolStats = new ConcurrentHashMap<Long, StorageStats>();
+    private final ConcurrentHashMap<Long, StatsHistory> _hostStatsHistory = new ConcurrentHashMap<Long, StatsHistory>();
+    private final ConcurrentHashMap<Long, StatsHistory> _vmStatsHistory = new ConcurrentHashMap<Long, StatsHistory>();
 
     long hostStatsInterval = -1L;
     long hostAndVmStatsInterval = -1L;
@@ -153,6 +156,8 @@ public class StatsCollector extends ManagerBase implements ComponentMethodInterc
     long autoScaleStatsInterval = -1L;
     long autoScaleCounterCollectorInterval = -1L;
     int vmDiskStatsInterval = 0;
+    int statsHistorySamples = 60;
+    int statsHistoryRollupFactor = 15;
     List<Long> hostIds = null;
 
     private ScheduledExecutorService _diskStatsUpdateExecutor;
@@ -193,6 +198,8 @@ public class StatsCollector extends ManagerBase implements ComponentMethodInterc
         autoScaleStatsInterval = NumbersUtil.parseLong(configs.get("autoscale.stats.interval"), 60000L);
         autoScaleCounterCollectorInterval = NumbersUtil.parseLong(configs.get("autoscale.reading.interval"), 10000L);
         vmDiskStatsInterval = NumbersUtil.parseInt(configs.get("vm.disk.stats.interval"), 0);
+        statsHistorySamples = NumbersUtil.parseInt(configs.get("stats.history.samples"), 60);
+        statsHistoryRollupFactor = NumbersUtil.parseInt(configs.get("stats.history.rollup.factor"), 15);
 
         if (hostStatsInterval > 0) {
             _executor.scheduleWithFixedDelay(new HostCollector(), 15000L, hostStatsInterval, TimeUnit.MILLISECONDS);
@@ -290,11 +297,13 @@ public class StatsCollector extends ManagerBase implements ComponentMethodInterc
                     HostStatsEntry stats = (HostStatsEntry)_resourceMgr.getHostStatistics(host.getId());
                     if (stats != null) {
                         hostStats.put(host.getId(), stats);
+                        recordHostStats(host.getId(), stats);
                     } else {
                         s_logger.warn("Received invalid host stats for host: " + host.getId());
                     }
                 }
                 _hostStats = hostStats;
+                pruneStatsHistory(_hostStatsHistory, hostStatsInterval);
                 // Get a subset of hosts with GPU support from the list of "hosts"
                 List<HostVO> gpuEnabledHosts = new ArrayList<HostVO>();
                 if (hostIds != null) {
@@ -355,6 +364,7 @@ public class StatsCollector extends ManagerBase implements ComponentMethodInterc
                             for (Long vmId : vmIdSet) {
                                 VmStatsEntry statsForCurrentIteration = vmStatsById.get(vmId);
                                 statsInMemory = (VmStatsEntry)_VmStats.get(vmId);
+                                recordVmStats(vmId, statsForCurrentIteration);
 
                                 if (statsInMemory == null) {
                                     //no stats exist for this vm, directly persist
@@ -381,6 +391,7 @@ public class StatsCollector extends ManagerBase implements ComponentMethodInterc
                     }
                 }
 
+                pruneStatsHistory(_vmStatsHistory, hostAndVmStatsInterval);
             } catch (Throwable t) {
                 s_logger.error("Error trying to retrieve VM stats", t);
             }
@@ -391,6 +402,87 @@ public class StatsCollector extends ManagerBase implements ComponentMethodInterc
         return _VmStats.get(id);
     }
 
+    private StatsHistory getOrCreateStatsHistory(ConcurrentHashMap<Long, StatsHistory> histories, long id) {
+        StatsHistory history = histories.get(id);
+        if (history == null) {
+            histories.putIfAbsent(id, new StatsHistory(statsHistorySamples, statsHistoryRollupFactor));
+            history = histories.get(id);
+        }
+        return history;
+    }
+
+    private void recordHostStats(long hostId, HostStatsEntry stats) {
+        if (statsHistorySamples <= 0) {
+            return;
+        }
+        double[] values = new double[StatsHistory.NUM_METRICS];
+        Arrays.fill(values, Double.NaN);
+        values[StatsHistory.CPU_UTILIZATION] = stats.getCpuUtilization();
+        values[StatsHistory.MEMORY_USED_KBS] = stats.getUsedMemory();
+        values[StatsHistory.NETWORK_READ_KBS] = stats.getNetworkReadKBs();
+        values[StatsHistory.NETWORK_WRITE_KBS] = stats.getNetworkWriteKBs();
+        getOrCreateStatsHistory(_hostStatsHistory, hostId).add(System.currentTimeMillis(), values);
+    }
+
+    private void recordVmStats(long vmId, VmStatsEntry stats) {
+        if (statsHistorySamples <= 0) {
+            return;
+        }
+        double[] values = new double[StatsHistory.NUM_METRICS];
+        Arrays.fill(values, Double.NaN);
+        values[StatsHistory.CPU_UTILIZATION] = stats.getCPUUtilization();
+        values[StatsHistory.NETWORK_READ_KBS] = stats.getNetworkReadKBs();
+        values[StatsHistory.NETWORK_WRITE_KBS] = stats.getNetworkWriteKBs();
+        values[StatsHistory.DISK_READ_KBS] = stats.getDiskReadKBs();
+        values[StatsHistory.DISK_WRITE_KBS] = stats.getDiskWriteKBs();
+        values[StatsHistory.DISK_READ_IOS] = stats.getDiskReadIOs();
+        values[StatsHistory.DISK_WRITE_IOS] = stats.getDiskWriteIOs();
+        getOrCreateStatsHistory(_vmStatsHistory, vmId).add(System.currentTimeMillis(), values);
+    }
+
+    // drop the history of hosts and vms that have not been reported for longer than the rollups cover
+    private void pruneStatsHistory(ConcurrentHashMap<Long, StatsHistory> histories, long interval) {
+        long cutoff = System.currentTimeMillis() - interval * statsHistorySamples * statsHistoryRollupFactor;
+        for (Map.Entry<Long, StatsHistory> entry : histories.entrySet()) {
+            if (entry.getValue().getLastTimestamp() < cutoff) {
+                histories.remove(entry.getKey(), entry.getValue());
+            }
+        }
+    }
+
+    /**
+     * @param rollup true for the downsampled averages, which cover rollupFactor times longer than the samples
+     * @return the samples of the host taken at or after since, oldest first; empty if none were collected
+     */
+    public List<StatsSample> getHostStatsHistory(long hostId, long since, boolean rollup) {
+        return getStatsHistory(_hostStatsHistory, hostId, since, rollup);
+    }
+
+    /**
+     * @param rollup true for the downsampled averages, which cover rollupFactor times longer than the samples
+     * @return the samples of the vm taken at or after since, oldest first; empty if none were collected
+     */
+    public List<StatsSample> getVmStatsHistory(long vmId, long since, boolean rollup) {
+        return getStatsHistory(_vmStatsHistory, vmId, since, rollup);
+    }
+
+    private List<StatsSample> getStatsHistory(ConcurrentHashMap<Long, StatsHistory> histories, long id, long since, boolean rollup) {
+        StatsHistory history = histories.get(id);
+        if (history == null) {
+            return new ArrayList<StatsSample>();
+        }
+        return rollup ? history.listRollups(since) : history.listSamples(since);
+    }
+
+    /**
+     * @param metric one of the StatsHistory metric constants
+     * @return the average of the metric over the vm samples taken at or after since, NaN if there are none
+     */
+    public double getVmStatsAverage(long vmId, int metric, long since) {
+        StatsHistory history = _vmStatsHistory.get(vmId);
+        return history == null ? Double.NaN : history.average(metric, since);
+    }
+
     class VmDiskStatsUpdaterTask extends ManagedContextRunnable {
         @Override
         protected void runInContext() {
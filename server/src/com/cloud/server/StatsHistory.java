@@ -0,0 +1,207 @@
+// Licensed to the Apache Software Foundation (ASF) under one
+// or more contributor license agreements.  See the NOTICE file
+// distributed with this work for additional information
+// regarding copyright ownership.  The ASF licenses this file
+// to you under the Apache License, Version 2.0 (the
+// "License"); you may not use this file except in compliance
+// with the License.  You may obtain a copy of the License at
+//
+//   http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing,
+// software distributed under the License is distributed on an
+// "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+// KIND, either express or implied.  See the License for the
+// specific language governing permissions and limitations
+// under the License.
+package com.cloud.server;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.List;
+
+/**
+ * Fixed size history of the stats collected for one host or vm. The latest samples are kept at
+ * the collection interval; older ones are kept as averages of rollupFactor consecutive samples.
+ * Samples live in preallocated primitive arrays, so adding one never allocates.
+ */
+public class StatsHistory {
+    public static final int CPU_UTILIZATION = 0;
+    public static final int MEMORY_USED_KBS = 1;
+    public static final int NETWORK_READ_KBS = 2;
+    public static final int NETWORK_WRITE_KBS = 3;
+    public static final int DISK_READ_KBS = 4;
+    public static final int DISK_WRITE_KBS = 5;
+    public static final int DISK_READ_IOS = 6;
+    public static final int DISK_WRITE_IOS = 7;
+    public static final int NUM_METRICS = 8;
+
+    private final Ring _samples;
+    private final Ring _rollups;
+    private final int _rollupFactor;
+
+    private final double[] _pendingSums = new double[NUM_METRICS];
+    private long _pendingStart;
+    private int _pendingCount;
+
+    public StatsHistory(int capacity, int rollupFactor) {
+        _samples = new Ring(Math.max(capacity, 1));
+        _rollups = new Ring(Math.max(capacity, 1));
+        _rollupFactor = Math.max(rollupFactor, 1);
+    }
+
+    /**
+     * @param values one value per metric, indexed by the metric constants; NaN for metrics not collected
+     */
+    public synchronized void add(long timestamp, double[] values) {
+        _samples.add(timestamp, values);
+
+        if (_pendingCount == 0) {
+            _pendingStart = timestamp;
+            Arrays.fill(_pendingSums, 0);
+        }
+        for (int i = 0; i < NUM_METRICS; i++) {
+            _pendingSums[i] += values[i];
+        }
+        if (++_pendingCount == _rollupFactor) {
+            for (int i = 0; i < NUM_METRICS; i++) {
+                _pendingSums[i] /= _pendingCount;
+            }
+            _rollups.add(_pendingStart, _pendingSums);
+            _pendingCount = 0;
+        }
+    }
+
+    public synchronized List<StatsSample> listSamples(long since) {
+        return _samples.list(since);
+    }
+
+    public synchronized List<StatsSample> listRollups(long since) {
+        return _rollups.list(since);
+    }
+
+    /**
+     * @return the average of a metric over the samples taken at or after since, NaN if there are none
+     */
+    public synchronized double average(int metric, long since) {
+        return _samples.average(metric, since);
+    }
+
+    public synchronized long getLastTimestamp() {
+        return _samples.lastTimestamp();
+    }
+
+    private static class Ring {
+        private final long[] _timestamps;
+        private final double[] _values;
+        private int _next = 0;
+        private int _size = 0;
+
+        Ring(int capacity) {
+            _timestamps = new long[capacity];
+            _values = new double[capacity * NUM_METRICS];
+        }
+
+        void add(long timestamp, double[] values) {
+            _timestamps[_next] = timestamp;
+            System.arraycopy(values, 0, _values, _next * NUM_METRICS, NUM_METRICS);
+            _next = (_next + 1) % _timestamps.length;
+            if (_size < _timestamps.length) {
+                _size++;
+            }
+        }
+
+        // index of the i-th oldest sample
+        private int slot(int i) {
+            return (_next - _size + i + _timestamps.length) % _timestamps.length;
+        }
+
+        List<StatsSample> list(long since) {
+            List<StatsSample> samples = new ArrayList<StatsSample>(_size);
+            for (int i = 0; i < _size; i++) {
+                int slot = slot(i);
+                if (_timestamps[slot] >= since) {
+                    samples.add(new Sample(_timestamps[slot], Arrays.copyOfRange(_values, slot * NUM_METRICS, (slot + 1) * NUM_METRICS)));
+                }
+            }
+            return samples;
+        }
+
+        double average(int metric, long since) {
+            double sum = 0;
+            int count = 0;
+            for (int i = 0; i < _size; i++) {
+                int slot = slot(i);
+                if (_timestamps[slot] >= since) {
+                    sum += _values[slot * NUM_METRICS + metric];
+                    count++;
+                }
+            }
+            return count == 0 ? Double.NaN : sum / count;
+        }
+
+        long lastTimestamp() {
+            return _size == 0 ? 0 : _timestamps[slot(_size - 1)];
+        }
+    }
+
+    public static class Sample implements StatsSample {
+        private final long _timestamp;
+        private final double[] _values;
+
+        Sample(long timestamp, double[] values) {
+            _timestamp = timestamp;
+            _values = values;
+        }
+
+        private Double value(int metric) {
+            return Double.isNaN(_values[metric]) ? null : _values[metric];
+        }
+
+        @Override
+        public Date getTimestamp() {
+            return new Date(_timestamp);
+        }
+
+        @Override
+        public Double getCpuUtilization() {
+            return value(CPU_UTILIZATION);
+        }
+
+        @Override
+        public Double getMemoryUsedKBs() {
+            return value(MEMORY_USED_KBS);
+        }
+
+        @Override
+        public Double getNetworkReadKBs() {
+            return value(NETWORK_READ_KBS);
+        }
+
+        @Override
+        public Double getNetworkWriteKBs() {
+            return value(NETWORK_WRITE_KBS);
+        }
+
+        @Override
+        public Double getDiskReadKBs() {
+            return value(DISK_READ_KBS);
+        }
+
+        @Override
+        public Double getDiskWriteKBs() {
+            return value(DISK_WRITE_KBS);
+        }
+
+        @Override
+        public Double getDiskReadIOs() {
+            return value(DISK_READ_IOS);
+        }
+
+        @Override
+        public Double getDiskWriteIOs() {
+            return value(DISK_WRITE_IOS);
+        }
+    }
+}
@@ -102,6 +102,7 @@ import com.cloud.utils.db.SearchCriteria;
 import com.cloud.utils.db.Transaction;
 import com.cloud.utils.db.TransactionCallback;
 import com.cloud.utils.db.TransactionCallbackNoReturn;
+import com.cloud.utils.db.TransactionLegacy;
 import com.cloud.utils.db.TransactionStatus;
 import com.cloud.utils.exception.CloudRuntimeException;
 import com.cloud.utils.net.NetUtils;
@@ -646,6 +647,19 @@ public class AccountManagerImpl extends ManagerBase implements AccountManager, M
         return _userDao.update(Long.valueOf(userId), userForUpdate);
     }
 
+    /**
+     * Lets the api server drop the user and account it cached for the account's api keys, once the
+     * current transaction has completed.
+     */
+    protected void publishApiCredentialsChanged(final long accountId) {
+        TransactionLegacy.runOnCurrentCompletion(new Runnable() {
+            @Override
+            public void run() {
+                _messageBus.publish(_name, MESSAGE_API_CREDENTIALS_CHANGED_EVENT, PublishScope.LOCAL, accountId);
+            }
+        });
+    }
+
     @Override
     public boolean enableAccount(long accountId) {
         boolean success = false;
@@ -653,6 +667,9 @@ public class AccountManagerImpl extends ManagerBase implements AccountManager, M
         acctForUpdate.setState(State.enabled);
         acctForUpdate.setNeedsCleanup(false);
         success = _accountDao.update(Long.valueOf(accountId), acctForUpdate);
+        if (success) {
+            publishApiCredentialsChanged(accountId);
+        }
         return success;
     }
 
@@ -666,6 +683,9 @@ public class AccountManagerImpl extends ManagerBase implements AccountManager, M
                 AccountVO acctForUpdate = _accountDao.createForUpdate();
                 acctForUpdate.setState(State.locked);
                 success = _accountDao.update(Long.valueOf(accountId), acctForUpdate);
+                if (success) {
+                    publishApiCredentialsChanged(accountId);
+                }
             } else {
                 if (s_logger.isInfoEnabled()) {
                     s_logger.info("Attempting to lock a non-enabled account, current state is " + account.getState() + " (accountId: " + accountId + "), locking failed.");
@@ -690,6 +710,7 @@ public class AccountManagerImpl extends ManagerBase implements AccountManager, M
         if (s_logger.isDebugEnabled()) {
             s_logger.debug("Removed account " + accountId);
         }
+        publishApiCredentialsChanged(accountId);
 
         return cleanupAccount(account, callerUserId, caller);
     }
@@ -965,6 +986,7 @@ public class AccountManagerImpl extends ManagerBase implements AccountManager, M
             success = _accountDao.update(Long.valueOf(accountId), acctForUpdate);
 
             if (success) {
+                publishApiCredentialsChanged(accountId);
                 boolean disableAccountResult = false;
                 try {
                     disableAccountResult = doDisableAccount(accountId);
@@ -1270,6 +1292,9 @@ public class AccountManagerImpl extends ManagerBase implements AccountManager, M
             s_logger.error("error updating user", th);
             throw new CloudRuntimeException("Unable to update user " + userId);
         }
+        if (apiKey != null || secretKey != null) {
+            publishApiCredentialsChanged(user.getAccountId());
+        }
 
         CallContext.current().putContextParameter(User.class, user.getUuid());
 
@@ -1321,6 +1346,7 @@ public class AccountManagerImpl extends ManagerBase implements AccountManager, M
 
         boolean success = doSetUserStatus(userId, State.disabled);
         if (success) {
+            publishApiCredentialsChanged(user.getAccountId());
 
             CallContext.current().putContextParameter(User.class, user.getUuid());
 
@@ -1375,6 +1401,7 @@ public class AccountManagerImpl extends ManagerBase implements AccountManager, M
         if (success) {
             // whenever the user is successfully enabled, reset the login attempts to zero
             updateLoginAttempts(userId, 0, false);
+            publishApiCredentialsChanged(user.getAccountId());
 
             CallContext.current().putContextParameter(User.class, user.getUuid());
 
@@ -1421,6 +1448,9 @@ public class AccountManagerImpl extends ManagerBase implements AccountManager, M
             return _userAccountDao.findById(userId);
         } else if (user.getState().equals(State.enabled)) {
             success = doSetUserStatus(user.getId(), State.locked);
+            if (success) {
+                publishApiCredentialsChanged(user.getAccountId());
+            }
 
             boolean lockAccount = true;
             List<UserVO> allUsersByAccount = _userDao.listByAccount(user.getAccountId());
@@ -1673,6 +1703,7 @@ public class AccountManagerImpl extends ManagerBase implements AccountManager, M
         });
 
         if (success) {
+            publishApiCredentialsChanged(account.getId());
             CallContext.current().putContextParameter(Account.class, account.getUuid());
             return _accountDao.findById(account.getId());
         } else {
@@ -1705,7 +1736,11 @@ public class AccountManagerImpl extends ManagerBase implements AccountManager, M
 
         checkAccess(CallContext.current().getCallingAccount(), AccessType.OperateEntry, true, account);
         CallContext.current().putContextParameter(User.class, user.getUuid());
-        return _userDao.remove(id);
+        boolean removed = _userDao.remove(id);
+        if (removed) {
+            publishApiCredentialsChanged(user.getAccountId());
+        }
+        return removed;
     }
 
     protected class AccountCleanupTask extends ManagedContextRunnable {
@@ -2272,6 +2307,7 @@ public class AccountManagerImpl extends ManagerBase implements AccountManager, M
         keys[1] = createUserSecretKey(userId);
             }
         });
+        publishApiCredentialsChanged(user.getAccountId());
 
         return keys;
     }
@@ -2291,6 +2327,7 @@ public class AccountManagerImpl extends ManagerBase implements AccountManager, M
                 keys[1] = AccountManagerImpl.this.createUserSecretKey(userId);
             }
         });
+        publishApiCredentialsChanged(user.getAccountId());
         return keys;
     }
 
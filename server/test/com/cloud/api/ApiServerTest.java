@@ -0,0 +1,89 @@
+// Licensed to the Apache Software Foundation (ASF) under one
+// or more contributor license agreements.  See the NOTICE file
+// distributed with this work for additional information
+// regarding copyright ownership.  The ASF licenses this file
+// to you under the Apache License, Version 2.0 (the
+// "License"); you may not use this file except in compliance
+// with the License.  You may obtain a copy of the License at
+//
+//   http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing,
+// software distributed under the License is distributed on an
+// "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+// KIND, either express or implied.  See the License for the
+// specific language governing permissions and limitations
+// under the License.
+package com.cloud.api;
+
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.InjectMocks;
+import org.mockito.Mock;
+import org.mockito.Mockito;
+import org.mockito.runners.MockitoJUnitRunner;
+
+import org.apache.cloudstack.framework.messagebus.MessageDispatcher;
+
+import com.cloud.cluster.ClusterManager;
+import com.cloud.user.Account;
+import com.cloud.user.AccountManager;
+import com.cloud.user.User;
+import com.cloud.utils.Pair;
+
+@RunWith(MockitoJUnitRunner.class)
+public class ApiServerTest {
+
+    @Mock
+    AccountManager accountManager;
+
+    @Mock
+    ClusterManager clusterManager;
+
+    @Mock
+    User user;
+
+    @Mock
+    Account account;
+
+    @InjectMocks
+    ApiServer apiServer = new ApiServer();
+
+    @Before
+    public void setup() {
+        Mockito.when(account.getId()).thenReturn(42L);
+        Mockito.when(accountManager.findUserByApiKey("key")).thenReturn(new Pair<User, Account>(user, account));
+    }
+
+    @Test
+    public void findUserByApiKeyIsCached() {
+        Assert.assertSame(account, apiServer.findUserByApiKey("key").second());
+        Assert.assertSame(account, apiServer.findUserByApiKey("key").second());
+        Mockito.verify(accountManager, Mockito.times(1)).findUserByApiKey("key");
+    }
+
+    @Test
+    public void credentialsChangeEvictsAndNotifiesPeers() {
+        apiServer.findUserByApiKey("key");
+        MessageDispatcher.getDispatcher(apiServer).onPublishMessage("AccountManager", AccountManager.MESSAGE_API_CREDENTIALS_CHANGED_EVENT, 42L);
+        apiServer.findUserByApiKey("key");
+
+        Mockito.verify(accountManager, Mockito.times(2)).findUserByApiKey("key");
+        Mockito.verify(clusterManager).publishMessage(ApiServer.API_CREDENTIALS_INVALIDATION_SUBJECT, "42");
+    }
+
+    @Test
+    public void peerEvictionOnlyDropsThatAccount() {
+        apiServer.findUserByApiKey("key");
+        apiServer.onClusterMessage("1", ApiServer.API_CREDENTIALS_INVALIDATION_SUBJECT, "43");
+        apiServer.findUserByApiKey("key");
+        Mockito.verify(accountManager, Mockito.times(1)).findUserByApiKey("key");
+
+        apiServer.onClusterMessage("1", ApiServer.API_CREDENTIALS_INVALIDATION_SUBJECT, "42");
+        apiServer.findUserByApiKey("key");
+        Mockito.verify(accountManager, Mockito.times(2)).findUserByApiKey("key");
+        Mockito.verify(clusterManager, Mockito.never()).publishMessage(Mockito.anyString(), Mockito.anyString());
+    }
+}
@@ -40,6 +40,7 @@ import java.io.IOException;
 import java.io.PrintWriter;
 import java.io.StringWriter;
 import java.io.UnsupportedEncodingException;
+import java.io.Writer;
 import java.lang.reflect.Field;
 import java.net.URLEncoder;
 import java.util.HashMap;
@@ -166,7 +167,7 @@ public class ApiServletTest {
 
     @SuppressWarnings("unchecked")
     @Test
-    public void processRequestInContextUnauthorizedGET() {
+    public void processRequestInContextUnauthorizedGET() throws IOException {
         Mockito.when(request.getMethod()).thenReturn("GET");
         Mockito.when(
                 apiServer.verifyRequest(Mockito.anyMap(), Mockito.anyLong()))
@@ -176,11 +177,14 @@ public class ApiServletTest {
         Mockito.verify(apiServer, Mockito.never()).handleRequest(
                 Mockito.anyMap(), Mockito.anyString(),
                 Mockito.any(StringBuilder.class));
+        Mockito.verify(apiServer, Mockito.never()).handleRequest(
+                Mockito.anyMap(), Mockito.anyString(),
+                Mockito.any(StringBuilder.class), Mockito.any(Writer.class));
     }
 
     @SuppressWarnings("unchecked")
     @Test
-    public void processRequestInContextAuthorizedGet() {
+    public void processRequestInContextAuthorizedGet() throws IOException {
         Mockito.when(request.getMethod()).thenReturn("GET");
         Mockito.when(
                 apiServer.verifyRequest(Mockito.anyMap(), Mockito.anyLong()))
@@ -189,7 +193,7 @@ public class ApiServletTest {
         Mockito.verify(response).setStatus(HttpServletResponse.SC_OK);
         Mockito.verify(apiServer, Mockito.times(1)).handleRequest(
                 Mockito.anyMap(), Mockito.anyString(),
-                Mockito.any(StringBuilder.class));
+                Mockito.any(StringBuilder.class), Mockito.any(Writer.class));
     }
 
     @Test
@@ -18,6 +18,7 @@
  */
 package com.cloud.api.dispatch;
 
+import java.lang.reflect.Field;
 import java.util.HashMap;
 
 import org.junit.After;
@@ -30,6 +31,7 @@ import org.mockito.Mockito;
 import org.mockito.runners.MockitoJUnitRunner;
 
 import org.apache.cloudstack.api.BaseCmd;
+import org.apache.cloudstack.api.BaseListCmd;
 import org.apache.cloudstack.api.Parameter;
 import org.apache.cloudstack.api.ServerApiException;
 import org.apache.cloudstack.context.CallContext;
@@ -80,6 +82,28 @@ public class ParamProcessWorkerTest {
 
     }
 
+    public static class FirstListCmd extends BaseListCmd {
+        @Override
+        public void execute() {
+        }
+
+        @Override
+        public String getCommandName() {
+            return "firstlist";
+        }
+    }
+
+    public static class SecondListCmd extends BaseListCmd {
+        @Override
+        public void execute() {
+        }
+
+        @Override
+        public String getCommandName() {
+            return "secondlist";
+        }
+    }
+
     @Before
     public void setup() {
         CallContext.register(Mockito.mock(User.class), Mockito.mock(Account.class));
@@ -104,4 +128,38 @@ public class ParamProcessWorkerTest {
         Assert.assertEquals(100, cmd.intparam1);
     }
 
+    @Test
+    public void processParametersReusesFieldMetadata() throws NoSuchFieldException {
+        final HashMap<String, String> params = new HashMap<String, String>();
+        params.put("strparam1", "foo");
+        paramProcessWorker.processParameters(new TestCmd(), params);
+
+        final Field field = TestCmd.class.getDeclaredField("strparam1");
+        final ParamProcessWorker.ParamMetadata metadata = ParamProcessWorker.getParamMetadata(field);
+        Assert.assertSame(metadata, ParamProcessWorker.getParamMetadata(field));
+        Assert.assertEquals("strparam1", metadata.parameter.name());
+        Assert.assertNull(metadata.acl);
+
+        params.put("strparam1", "bar");
+        final TestCmd cmd = new TestCmd();
+        paramProcessWorker.processParameters(cmd, params);
+        Assert.assertEquals("bar", cmd.strparam1);
+    }
+
+    @Test
+    public void processParametersBindsInheritedFieldForEveryCommand() {
+        final HashMap<String, String> params = new HashMap<String, String>();
+        params.put("page", "2");
+
+        // both commands get their own copy of BaseListCmd.page, but share its cached metadata
+        final FirstListCmd first = new FirstListCmd();
+        paramProcessWorker.processParameters(first, params);
+        Assert.assertEquals(Integer.valueOf(2), first.getPage());
+
+        params.put("page", "3");
+        final SecondListCmd second = new SecondListCmd();
+        paramProcessWorker.processParameters(second, params);
+        Assert.assertEquals(Integer.valueOf(3), second.getPage());
+    }
+
 }
@@ -0,0 +1,164 @@
+// Licensed to the Apache Software Foundation (ASF) under one
+// or more contributor license agreements.  See the NOTICE file
+// distributed with this work for additional information
+// regarding copyright ownership.  The ASF licenses this file
+// to you under the Apache License, Version 2.0 (the
+// "License"); you may not use this file except in compliance
+// with the License.  You may obtain a copy of the License at
+//
+//   http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing,
+// software distributed under the License is distributed on an
+// "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+// KIND, either express or implied.  See the License for the
+// specific language governing permissions and limitations
+// under the License.
+package com.cloud.api.response;
+
+import java.io.StringWriter;
+import java.lang.reflect.Field;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.Mock;
+import org.mockito.Mockito;
+import org.mockito.runners.MockitoJUnitRunner;
+
+import org.apache.cloudstack.api.ResponseObject;
+import org.apache.cloudstack.api.response.CapabilityResponse;
+import org.apache.cloudstack.api.response.ConfigurationResponse;
+import org.apache.cloudstack.api.response.ListResponse;
+import org.apache.cloudstack.api.response.ServiceResponse;
+import org.apache.cloudstack.api.response.SuccessResponse;
+
+import com.cloud.api.ApiDBUtils;
+import com.cloud.server.ManagementServer;
+import com.cloud.utils.HttpUtils;
+
+@RunWith(MockitoJUnitRunner.class)
+public class ApiResponseSerializerTest {
+
+    @Mock
+    ManagementServer managementServer;
+
+    @Before
+    public void hackEnvironment() throws Exception {
+        Field smsField = ApiDBUtils.class.getDeclaredField("s_ms");
+        smsField.setAccessible(true);
+        smsField.set(null, managementServer);
+        Mockito.when(managementServer.getVersion()).thenReturn("LATEST-AND-GREATEST");
+    }
+
+    @After
+    public void cleanupEnvironmentHacks() throws Exception {
+        Field smsField = ApiDBUtils.class.getDeclaredField("s_ms");
+        smsField.setAccessible(true);
+        smsField.set(null, null);
+    }
+
+    private ListResponse<ConfigurationResponse> createListResponse(int count) {
+        List<ConfigurationResponse> responses = new ArrayList<ConfigurationResponse>();
+        for (int i = 0; i < count; i++) {
+            ConfigurationResponse response = new ConfigurationResponse();
+            response.setName("config." + i);
+            response.setValue("<value & \"" + i + "\">");
+            response.setCategory("Advanced");
+            response.setObjectName("configuration");
+            responses.add(response);
+        }
+        ListResponse<ConfigurationResponse> listResponse = new ListResponse<ConfigurationResponse>();
+        listResponse.setResponses(responses, count);
+        listResponse.setResponseName("listconfigurationsresponse");
+        listResponse.setContext("ctx-test");
+        return listResponse;
+    }
+
+    private ListResponse<ServiceResponse> createNestedListResponse() {
+        CapabilityResponse capability = new CapabilityResponse();
+        capability.setName("SupportedProtocols");
+        capability.setValue("tcp,udp");
+        capability.setCanChoose(true);
+        capability.setObjectName("capability");
+        List<CapabilityResponse> capabilities = new ArrayList<CapabilityResponse>();
+        capabilities.add(capability);
+
+        ServiceResponse service = new ServiceResponse();
+        service.setName("Lb");
+        service.setCapabilities(capabilities);
+        service.setObjectName("service");
+        List<ServiceResponse> services = new ArrayList<ServiceResponse>();
+        services.add(service);
+
+        ListResponse<ServiceResponse> listResponse = new ListResponse<ServiceResponse>();
+        listResponse.setResponses(services, 1);
+        listResponse.setResponseName("listsupportednetworkservicesresponse");
+        listResponse.setContext("ctx-test");
+        return listResponse;
+    }
+
+    private void assertSerialized(String expected, ResponseObject result, String responseType) throws Exception {
+        StringWriter out = new StringWriter();
+        ApiResponseSerializer.serialize(result, responseType, out);
+        Assert.assertEquals(expected, out.toString());
+        Assert.assertEquals(expected, ApiResponseSerializer.toSerializedString(result, responseType));
+    }
+
+    @Test
+    public void testEmptyListResponse() throws Exception {
+        assertSerialized("{\"listconfigurationsresponse\":{}}", createListResponse(0), HttpUtils.RESPONSE_TYPE_JSON);
+        assertSerialized("<?xml version=\"1.0\" encoding=\"UTF-8\"?><listconfigurationsresponse cloud-stack-version=\"LATEST-AND-GREATEST\"></listconfigurationsresponse>",
+                createListResponse(0), HttpUtils.RESPONSE_TYPE_XML);
+    }
+
+    @Test
+    public void testListResponse() throws Exception {
+        assertSerialized("{\"listconfigurationsresponse\":{\"count\":2,\"context\":\"ctx-test\",\"configuration\":["
+                + "{\"category\":\"Advanced\",\"name\":\"config.0\",\"value\":\"<value & \\\"0\\\">\"},"
+                + "{\"category\":\"Advanced\",\"name\":\"config.1\",\"value\":\"<value & \\\"1\\\">\"}]}}",
+                createListResponse(2), HttpUtils.RESPONSE_TYPE_JSON);
+        assertSerialized("<?xml version=\"1.0\" encoding=\"UTF-8\"?><listconfigurationsresponse cloud-stack-version=\"LATEST-AND-GREATEST\"><count>2</count>"
+                + "<configuration><category>Advanced</category><name>config.0</name><value>&lt;value &amp; &quot;0&quot;&gt;</value></configuration>"
+                + "<configuration><category>Advanced</category><name>config.1</name><value>&lt;value &amp; &quot;1&quot;&gt;</value></configuration>"
+                + "</listconfigurationsresponse>",
+                createListResponse(2), HttpUtils.RESPONSE_TYPE_XML);
+    }
+
+    @Test
+    public void testNestedListResponse() throws Exception {
+        assertSerialized("{\"listsupportednetworkservicesresponse\":{\"count\":1,\"context\":\"ctx-test\",\"service\":[{\"name\":\"Lb\","
+                + "\"capability\":[{\"name\":\"SupportedProtocols\",\"value\":\"tcp,udp\",\"canchooseservicecapability\":true}]}]}}",
+                createNestedListResponse(), HttpUtils.RESPONSE_TYPE_JSON);
+        assertSerialized("<?xml version=\"1.0\" encoding=\"UTF-8\"?><listsupportednetworkservicesresponse cloud-stack-version=\"LATEST-AND-GREATEST\"><count>1</count>"
+                + "<service><name>Lb</name><capability><name>SupportedProtocols</name><value>tcp,udp</value>"
+                + "<canchooseservicecapability>true</canchooseservicecapability></capability></service></listsupportednetworkservicesresponse>",
+                createNestedListResponse(), HttpUtils.RESPONSE_TYPE_XML);
+    }
+
+    @Test
+    public void testEscaping() throws Exception {
+        ListResponse<ConfigurationResponse> listResponse = createListResponse(1);
+        listResponse.getResponses().get(0).setValue("a\\b\n\t'</value>\u00e9");
+
+        assertSerialized("{\"listconfigurationsresponse\":{\"count\":1,\"context\":\"ctx-test\",\"configuration\":["
+                + "{\"category\":\"Advanced\",\"name\":\"config.0\",\"value\":\"a\\\\b\\n\\t'</value>\u00e9\"}]}}",
+                listResponse, HttpUtils.RESPONSE_TYPE_JSON);
+        assertSerialized("<?xml version=\"1.0\" encoding=\"UTF-8\"?><listconfigurationsresponse cloud-stack-version=\"LATEST-AND-GREATEST\"><count>1</count>"
+                + "<configuration><category>Advanced</category><name>config.0</name><value>a\\b\n\t&apos;&lt;/value&gt;\u00e9</value></configuration>"
+                + "</listconfigurationsresponse>",
+                listResponse, HttpUtils.RESPONSE_TYPE_XML);
+    }
+
+    @Test
+    public void testSuccessResponse() throws Exception {
+        SuccessResponse response = new SuccessResponse("deleteconfigurationresponse");
+        assertSerialized("{\"deleteconfigurationresponse\":{\"success\":\"true\"}}", response, HttpUtils.RESPONSE_TYPE_JSON);
+        assertSerialized("<?xml version=\"1.0\" encoding=\"UTF-8\"?><deleteconfigurationresponse cloud-stack-version=\"LATEST-AND-GREATEST\">"
+                + "<success>true</success></deleteconfigurationresponse>", response, HttpUtils.RESPONSE_TYPE_XML);
+    }
+}
@@ -0,0 +1,91 @@
+// Licensed to the Apache Software Foundation (ASF) under one
+// or more contributor license agreements.  See the NOTICE file
+// distributed with this work for additional information
+// regarding copyright ownership.  The ASF licenses this file
+// to you under the Apache License, Version 2.0 (the
+// "License"); you may not use this file except in compliance
+// with the License.  You may obtain a copy of the License at
+//
+//   http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing,
+// software distributed under the License is distributed on an
+// "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+// KIND, either express or implied.  See the License for the
+// specific language governing permissions and limitations
+// under the License.
+package com.cloud.capacity;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import com.cloud.utils.Pair;
+
+public class HostCapacityIndexTest {
+    private static final long ZONE = 1;
+    private static final long POD = 10;
+
+    private static CapacityVO capacity(long hostId, long clusterId, short type, long used, long total) {
+        return new CapacityVO(hostId, ZONE, POD, clusterId, used, total, type);
+    }
+
+    private static List<Pair<CapacityVO, Float>> hosts(long[][] specs) {
+        // hostId, clusterId, usedCpu, totalCpu, usedRam, totalRam
+        List<Pair<CapacityVO, Float>> capacities = new ArrayList<Pair<CapacityVO, Float>>();
+        for (long[] spec : specs) {
+            capacities.add(new Pair<CapacityVO, Float>(capacity(spec[0], spec[1], Capacity.CAPACITY_TYPE_CPU, spec[2], spec[3]), 1.0f));
+            capacities.add(new Pair<CapacityVO, Float>(capacity(spec[0], spec[1], Capacity.CAPACITY_TYPE_MEMORY, spec[4], spec[5]), 1.0f));
+        }
+        return capacities;
+    }
+
+    @Test
+    public void testOrderClustersByUtilization() {
+        HostCapacityIndex index = new HostCapacityIndex();
+        Assert.assertFalse(index.isLoaded());
+
+        index.reload(hosts(new long[][] { {1, 100, 800, 1000, 0, 1000}, {2, 200, 200, 1000, 0, 1000}, {3, 300, 500, 1000, 0, 1000}, {4, 300, 500, 1000, 0, 1000}}),
+            index.getUpdateSequence());
+        Assert.assertTrue(index.isLoaded());
+
+        Pair<List<Long>, Map<Long, Double>> result = index.orderClustersByCapacity(ZONE, 100, 100, Capacity.CAPACITY_TYPE_CPU, true);
+        Assert.assertEquals(Arrays.asList(200L, 300L, 100L), result.first());
+        Assert.assertEquals(0.5, result.second().get(300L), 0.0001);
+
+        // cluster 100 has no host with 300 cpu left
+        result = index.orderClustersByCapacity(POD, 300, 100, Capacity.CAPACITY_TYPE_CPU, false);
+        Assert.assertEquals(Arrays.asList(200L, 300L), result.first());
+        Assert.assertEquals(3, result.second().size());
+
+        Assert.assertEquals(Arrays.asList(POD), index.orderPodsByCapacity(ZONE, 100, 100, Capacity.CAPACITY_TYPE_CPU).first());
+        Assert.assertTrue(index.orderPodsByCapacity(ZONE, 2000, 100, Capacity.CAPACITY_TYPE_CPU).first().isEmpty());
+    }
+
+    @Test
+    public void testUpdatesSurviveStaleReload() {
+        HostCapacityIndex index = new HostCapacityIndex();
+        List<Pair<CapacityVO, Float>> snapshot = hosts(new long[][] { {1, 100, 0, 1000, 0, 1000}, {2, 200, 100, 1000, 0, 1000}});
+        index.reload(snapshot, index.getUpdateSequence());
+
+        // a deployment reserves most of host 1 while a reconcile is reading the database
+        long sequence = index.getUpdateSequence();
+        index.update(capacity(1, 100, Capacity.CAPACITY_TYPE_CPU, 900, 1000), capacity(1, 100, Capacity.CAPACITY_TYPE_MEMORY, 0, 1000), 1.0f, 1.0f);
+        index.reload(snapshot, sequence);
+
+        Pair<List<Long>, Map<Long, Double>> result = index.orderClustersByCapacity(ZONE, 100, 100, Capacity.CAPACITY_TYPE_CPU, true);
+        Assert.assertEquals(Arrays.asList(200L, 100L), result.first());
+
+        // once the database has caught up the reload is authoritative again
+        index.reload(snapshot, index.getUpdateSequence());
+        Assert.assertEquals(Arrays.asList(100L, 200L), index.orderClustersByCapacity(ZONE, 100, 100, Capacity.CAPACITY_TYPE_CPU, true).first());
+
+        index.remove(1);
+        Assert.assertEquals(1, index.size());
+        Assert.assertEquals(Arrays.asList(200L), index.orderClustersByCapacity(ZONE, 100, 100, Capacity.CAPACITY_TYPE_CPU, true).first());
+    }
+}
@@ -17,6 +17,7 @@
 package com.cloud.ha;
 
 import java.lang.reflect.Field;
+import java.util.ArrayList;
 import java.util.Arrays;
 
 import javax.inject.Inject;
@@ -24,6 +25,7 @@ import javax.inject.Inject;
 import org.apache.cloudstack.engine.orchestration.service.VolumeOrchestrationService;
 import org.apache.cloudstack.framework.config.dao.ConfigurationDao;
 import org.apache.cloudstack.managed.context.ManagedContext;
+import org.junit.Assert;
 import org.junit.Before;
 import org.junit.Test;
 import org.junit.runner.RunWith;
@@ -33,11 +35,13 @@ import org.mockito.runners.MockitoJUnitRunner;
 
 import com.cloud.agent.AgentManager;
 import com.cloud.alert.AlertManager;
+import com.cloud.cluster.ClusterManager;
 import com.cloud.dc.ClusterDetailsDao;
 import com.cloud.dc.DataCenterVO;
 import com.cloud.dc.HostPodVO;
 import com.cloud.dc.dao.DataCenterDao;
 import com.cloud.dc.dao.HostPodDao;
+import com.cloud.ha.HighAvailabilityManager.WorkType;
 import com.cloud.ha.dao.HighAvailabilityDao;
 import com.cloud.host.Host;
 import com.cloud.host.HostVO;
@@ -97,6 +101,8 @@ public class HighAvailabilityManagerImplTest {
     ConfigurationDao _configDao;
     @Mock
     VolumeOrchestrationService volumeMgr;
+    @Mock
+    ClusterManager _clusterMgr;
 
     @Mock
     HostVO hostVO;
@@ -127,4 +133,41 @@ public class HighAvailabilityManagerImplTest {
         Mockito.when(_dcDao.findById(Mockito.anyLong())).thenReturn(Mockito.mock(DataCenterVO.class));
         highAvailabilityManager.scheduleRestartForVmsOnHost(hostVO, true);
     }
+
+    private HaWorkVO work(long id, long hostId) {
+        HaWorkVO work = Mockito.mock(HaWorkVO.class);
+        Mockito.when(work.getId()).thenReturn(id);
+        Mockito.when(work.getHostId()).thenReturn(hostId);
+        Mockito.when(_haDao.take(Mockito.anyLong(), Mockito.eq(id))).thenReturn(work);
+        return work;
+    }
+
+    @Test
+    public void takeWorkByPriorityAndHost() {
+        HaWorkVO migration = work(1, 1);
+        HaWorkVO restart1 = work(2, 1);
+        HaWorkVO restart2 = work(3, 1);
+        HaWorkVO restart3 = work(4, 2);
+        Mockito.when(_haDao.listAvailableWork(Mockito.eq(Arrays.asList(WorkType.Migration)), Mockito.anyInt())).thenReturn(Arrays.asList(migration));
+        Mockito.when(_haDao.listAvailableWork(Mockito.eq(Arrays.asList(WorkType.HA)), Mockito.anyInt())).thenReturn(
+                new ArrayList<HaWorkVO>(Arrays.asList(restart1, restart2, restart3)), new ArrayList<HaWorkVO>(Arrays.asList(restart2, restart3)));
+
+        // restarts go before migrations, oldest first
+        Assert.assertSame(restart1, highAvailabilityManager.takeWork());
+        // host 1 was just served, so host 2 gets its turn
+        Assert.assertSame(restart3, highAvailabilityManager.takeWork());
+    }
+
+    @Test
+    public void takeWorkSkipsItemsTakenByOthers() {
+        HaWorkVO restart = work(1, 1);
+        HaWorkVO migration = work(2, 1);
+        Mockito.when(_haDao.take(Mockito.anyLong(), Mockito.eq(1L))).thenReturn(null);
+        Mockito.when(_haDao.listAvailableWork(Mockito.eq(Arrays.asList(WorkType.HA)), Mockito.anyInt())).thenReturn(new ArrayList<HaWorkVO>(Arrays.asList(restart)));
+        Mockito.when(_haDao.listAvailableWork(Mockito.eq(Arrays.asList(WorkType.Migration)), Mockito.anyInt())).thenReturn(
+                new ArrayList<HaWorkVO>(Arrays.asList(migration)));
+
+        Assert.assertSame(migration, highAvailabilityManager.takeWork());
+        Assert.assertEquals(1, highAvailabilityManager.getWorkTaken());
+    }
 }
@@ -0,0 +1,82 @@
+// Licensed to the Apache Software Foundation (ASF) under one
+// or more contributor license agreements.  See the NOTICE file
+// distributed with this work for additional information
+// regarding copyright ownership.  The ASF licenses this file
+// to you under the Apache License, Version 2.0 (the
+// "License"); you may not use this file except in compliance
+// with the License.  You may obtain a copy of the License at
+//
+//   http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing,
+// software distributed under the License is distributed on an
+// "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+// KIND, either express or implied.  See the License for the
+// specific language governing permissions and limitations
+// under the License.
+package com.cloud.network;
+
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyLong;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import junit.framework.Assert;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import com.cloud.network.dao.IPAddressDao;
+import com.cloud.network.dao.IPAddressVO;
+import com.cloud.utils.db.Filter;
+import com.cloud.utils.db.SearchCriteria;
+
+public class IpAddressManagerTest {
+    IpAddressManagerImpl _ipManager;
+    IPAddressDao _ipAddressDao;
+    SearchCriteria<IPAddressVO> _sc;
+
+    @Before
+    @SuppressWarnings("unchecked")
+    public void setUp() {
+        _ipManager = new IpAddressManagerImpl();
+        _ipAddressDao = mock(IPAddressDao.class);
+        _ipManager._ipAddressDao = _ipAddressDao;
+        _sc = mock(SearchCriteria.class);
+    }
+
+    private IPAddressVO mockIp(long id) {
+        IPAddressVO ip = mock(IPAddressVO.class);
+        when(ip.getId()).thenReturn(id);
+        when(_ipAddressDao.findById(id)).thenReturn(ip);
+        return ip;
+    }
+
+    @Test
+    public void testClaimFreeIpSkipsConcurrentlyClaimedIps() {
+        List<IPAddressVO> candidates = new ArrayList<IPAddressVO>();
+        candidates.add(mockIp(1L));
+        IPAddressVO free = mockIp(2L);
+        candidates.add(free);
+        when(_ipAddressDao.search(any(SearchCriteria.class), any(Filter.class))).thenReturn(candidates);
+        when(_ipAddressDao.claimUnallocated(1L)).thenReturn(false);
+        when(_ipAddressDao.claimUnallocated(2L)).thenReturn(true);
+
+        List<IPAddressVO> addrs = _ipManager.claimFreeIp(_sc);
+        Assert.assertEquals(1, addrs.size());
+        Assert.assertSame(free, addrs.get(0));
+    }
+
+    @Test
+    public void testClaimFreeIpWithoutCandidates() {
+        when(_ipAddressDao.search(any(SearchCriteria.class), any(Filter.class))).thenReturn(new ArrayList<IPAddressVO>());
+
+        Assert.assertTrue(_ipManager.claimFreeIp(_sc).isEmpty());
+        verify(_ipAddressDao, never()).claimUnallocated(anyLong());
+    }
+}
@@ -0,0 +1,92 @@
+// Licensed to the Apache Software Foundation (ASF) under one
+// or more contributor license agreements.  See the NOTICE file
+// distributed with this work for additional information
+// regarding copyright ownership.  The ASF licenses this file
+// to you under the Apache License, Version 2.0 (the
+// "License"); you may not use this file except in compliance
+// with the License.  You may obtain a copy of the License at
+//
+//   http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing,
+// software distributed under the License is distributed on an
+// "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+// KIND, either express or implied.  See the License for the
+// specific language governing permissions and limitations
+// under the License.
+package com.cloud.network.security;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import com.cloud.network.security.SecurityGroupManagerImpl.PortAndProto;
+import com.cloud.network.security.SecurityRule.SecurityRuleType;
+import com.cloud.network.security.dao.SecurityGroupRuleDao;
+import com.cloud.network.security.dao.SecurityGroupVMMapDao;
+import com.cloud.vm.VirtualMachine.State;
+
+public class SecurityGroupRulesetComputationTest {
+    SecurityGroupManagerImpl2 _sgMgr;
+    SecurityGroupRuleDao _ruleDao;
+    SecurityGroupVMMapDao _vmMapDao;
+
+    @Before
+    public void setup() {
+        _sgMgr = new SecurityGroupManagerImpl2();
+        _ruleDao = mock(SecurityGroupRuleDao.class);
+        _vmMapDao = mock(SecurityGroupVMMapDao.class);
+        _sgMgr._securityGroupRuleDao = _ruleDao;
+        _sgMgr._securityGroupVMMapDao = _vmMapDao;
+
+        // vms 100 and 101 are in group 1, which allows tcp/22 from the members of group 2
+        when(_vmMapDao.listByInstanceId(100L)).thenReturn(Arrays.asList(new SecurityGroupVMMapVO(1L, 100L)));
+        when(_vmMapDao.listByInstanceId(101L)).thenReturn(Arrays.asList(new SecurityGroupVMMapVO(1L, 101L)));
+        when(_ruleDao.listBySecurityGroupId(1L, SecurityRuleType.IngressRule)).thenReturn(
+            Arrays.asList(new SecurityGroupRuleVO(SecurityRuleType.IngressRule, 1L, 22, 22, "tcp", 2L)));
+        List<SecurityGroupVMMapVO> members = Arrays.asList(member("10.1.1.2"), member("10.1.1.3"));
+        when(_vmMapDao.listBySecurityGroup(2L, State.Running)).thenReturn(members);
+    }
+
+    private SecurityGroupVMMapVO member(String ip) {
+        SecurityGroupVMMapVO vo = mock(SecurityGroupVMMapVO.class);
+        when(vo.getGuestIpAddress()).thenReturn(ip);
+        return vo;
+    }
+
+    @Test
+    public void testRulesetSharedWithinComputation() {
+        SecurityGroupManagerImpl2.RulesetComputation computation = _sgMgr.new RulesetComputation();
+        Map<PortAndProto, Set<String>> first = _sgMgr.generateRulesForVM(100L, SecurityRuleType.IngressRule, computation);
+        Map<PortAndProto, Set<String>> second = _sgMgr.generateRulesForVM(101L, SecurityRuleType.IngressRule, computation);
+
+        assertSame(first, second);
+        assertEquals(1, first.size());
+        Set<String> cidrs = first.values().iterator().next();
+        assertEquals(2, cidrs.size());
+        assertTrue(cidrs.contains("10.1.1.2/32"));
+        assertTrue(cidrs.contains("10.1.1.3/32"));
+        verify(_ruleDao, times(1)).listBySecurityGroupId(1L, SecurityRuleType.IngressRule);
+        verify(_vmMapDao, times(1)).listBySecurityGroup(2L, State.Running);
+    }
+
+    @Test
+    public void testRulesetNotSharedAcrossComputations() {
+        _sgMgr.generateRulesForVM(100L, SecurityRuleType.IngressRule);
+        _sgMgr.generateRulesForVM(101L, SecurityRuleType.IngressRule);
+
+        verify(_vmMapDao, times(2)).listBySecurityGroup(2L, State.Running);
+    }
+}
@@ -0,0 +1,88 @@
+// Licensed to the Apache Software Foundation (ASF) under one
+// or more contributor license agreements.  See the NOTICE file
+// distributed with this work for additional information
+// regarding copyright ownership.  The ASF licenses this file
+// to you under the Apache License, Version 2.0 (the
+// "License"); you may not use this file except in compliance
+// with the License.  You may obtain a copy of the License at
+//
+//   http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing,
+// software distributed under the License is distributed on an
+// "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+// KIND, either express or implied.  See the License for the
+// specific language governing permissions and limitations
+// under the License.
+package com.cloud.server;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.Test;
+
+public class StatsHistoryTest {
+
+    private static double[] sample(double cpu) {
+        double[] values = new double[StatsHistory.NUM_METRICS];
+        Arrays.fill(values, Double.NaN);
+        values[StatsHistory.CPU_UTILIZATION] = cpu;
+        return values;
+    }
+
+    @Test
+    public void testZeroCapacityKeepsLatestSample() {
+        StatsHistory history = new StatsHistory(0, 1);
+        history.add(1000L, sample(10));
+        history.add(2000L, sample(20));
+
+        List<StatsSample> samples = history.listSamples(0);
+        assertEquals(1, samples.size());
+        assertEquals(20.0, samples.get(0).getCpuUtilization(), 0.001);
+    }
+
+    @Test
+    public void testSamplesWrapAround() {
+        StatsHistory history = new StatsHistory(3, 2);
+        for (int i = 1; i <= 5; i++) {
+            history.add(i * 1000L, sample(i * 10));
+        }
+
+        List<StatsSample> samples = history.listSamples(0);
+        assertEquals(3, samples.size());
+        assertEquals(3000L, samples.get(0).getTimestamp().getTime());
+        assertEquals(50.0, samples.get(2).getCpuUtilization(), 0.001);
+        assertNull(samples.get(0).getMemoryUsedKBs());
+        assertEquals(5000L, history.getLastTimestamp());
+    }
+
+    @Test
+    public void testRollupsAverageConsecutiveSamples() {
+        StatsHistory history = new StatsHistory(3, 2);
+        for (int i = 1; i <= 5; i++) {
+            history.add(i * 1000L, sample(i * 10));
+        }
+
+        List<StatsSample> rollups = history.listRollups(0);
+        assertEquals(2, rollups.size());
+        assertEquals(1000L, rollups.get(0).getTimestamp().getTime());
+        assertEquals(15.0, rollups.get(0).getCpuUtilization(), 0.001);
+        assertEquals(35.0, rollups.get(1).getCpuUtilization(), 0.001);
+    }
+
+    @Test
+    public void testAverageOverWindow() {
+        StatsHistory history = new StatsHistory(10, 5);
+        assertTrue(Double.isNaN(history.average(StatsHistory.CPU_UTILIZATION, 0)));
+        for (int i = 1; i <= 4; i++) {
+            history.add(i * 1000L, sample(i * 10));
+        }
+
+        assertEquals(35.0, history.average(StatsHistory.CPU_UTILIZATION, 3000L), 0.001);
+        assertEquals(1, history.listSamples(4000L).size());
+    }
+}
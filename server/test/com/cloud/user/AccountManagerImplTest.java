@@ -27,6 +27,7 @@ import org.junit.Assert;
 import org.junit.Before;
 import org.junit.Test;
 import org.junit.runner.RunWith;
+import org.mockito.InOrder;
 import org.mockito.Mock;
 import org.mockito.Mockito;
 import org.mockito.runners.MockitoJUnitRunner;
@@ -35,10 +36,12 @@ import org.apache.cloudstack.acl.ControlledEntity;
 import org.apache.cloudstack.acl.SecurityChecker;
 import org.apache.cloudstack.acl.SecurityChecker.AccessType;
 import org.apache.cloudstack.affinity.dao.AffinityGroupDao;
+import org.apache.cloudstack.api.command.admin.user.DeleteUserCmd;
 import org.apache.cloudstack.context.CallContext;
 import org.apache.cloudstack.engine.orchestration.service.NetworkOrchestrationService;
 import org.apache.cloudstack.framework.config.dao.ConfigurationDao;
 import org.apache.cloudstack.framework.messagebus.MessageBus;
+import org.apache.cloudstack.framework.messagebus.PublishScope;
 import org.apache.cloudstack.region.gslb.GlobalLoadBalancerRuleDao;
 
 import com.cloud.vm.snapshot.VMSnapshotManager;
@@ -282,6 +285,35 @@ public class AccountManagerImplTest {
                 Mockito.eq(42l));
     }
 
+    @Test
+    public void deleteUserPublishesCredentialsChangeAfterRemove() {
+        AccountVO account = new AccountVO();
+        account.setId(42l);
+        UserVO user = new UserVO(7l);
+        user.setAccountId(42l);
+        DeleteUserCmd cmd = Mockito.mock(DeleteUserCmd.class);
+        Mockito.when(cmd.getId()).thenReturn(7l);
+        Mockito.when(_userDao.findById(7l)).thenReturn(user);
+        Mockito.when(_accountDao.findById(42l)).thenReturn(account);
+        Mockito.when(
+                securityChecker.checkAccess(Mockito.any(Account.class),
+                        Mockito.any(ControlledEntity.class), Mockito.any(AccessType.class),
+                        Mockito.anyString()))
+                .thenReturn(true);
+        Mockito.when(_domainMgr.getDomain(Mockito.anyLong())).thenReturn(new DomainVO());
+        Mockito.when(
+                securityChecker.checkAccess(Mockito.any(Account.class),
+                        Mockito.any(Domain.class)))
+                .thenReturn(true);
+        Mockito.when(_userDao.remove(7l)).thenReturn(true);
+
+        Assert.assertTrue(accountManager.deleteUser(cmd));
+        InOrder inOrder = Mockito.inOrder(_userDao, _messageBus);
+        inOrder.verify(_userDao).remove(7l);
+        inOrder.verify(_messageBus).publish(Mockito.anyString(), Mockito.eq(AccountManager.MESSAGE_API_CREDENTIALS_CHANGED_EVENT),
+                Mockito.any(PublishScope.class), Mockito.eq(42l));
+    }
+
     @Test
     public void deleteUserAccountCleanup() {
         AccountVO account = new AccountVO();
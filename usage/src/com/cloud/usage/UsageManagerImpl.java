@@ -25,10 +25,13 @@ import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.TimeZone;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.Executors;
 import java.util.concurrent.Future;
 import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
 
 import javax.ejb.Local;
 import javax.inject.Inject;
@@ -81,6 +84,7 @@ import com.cloud.user.VmDiskStatisticsVO;
 import com.cloud.user.dao.AccountDao;
 import com.cloud.user.dao.UserStatisticsDao;
 import com.cloud.user.dao.VmDiskStatisticsDao;
+import com.cloud.utils.NumbersUtil;
 import com.cloud.utils.component.ManagerBase;
 import com.cloud.utils.concurrency.NamedThreadFactory;
 import com.cloud.utils.db.DB;
@@ -149,12 +153,14 @@ public class UsageManagerImpl extends ManagerBase implements UsageManager, Runna
     private final Calendar _jobExecTime = Calendar.getInstance();
     private int _aggregationDuration = 0;
     private int _sanityCheckInterval = 0;
+    private int _parserThreads = 4;
     String _hostname = null;
     int _pid = 0;
     TimeZone _usageTimezone = TimeZone.getTimeZone("GMT");;
     private final GlobalLock _heartbeatLock = GlobalLock.getInternLock("usage.job.heartbeat.check");
     private final List<UsageNetworkVO> usageNetworks = new ArrayList<UsageNetworkVO>();
     private final List<UsageVmDiskVO> usageVmDisks = new ArrayList<UsageVmDiskVO>();
+    private final ConcurrentHashMap<String, AtomicLong> _parserTimes = new ConcurrentHashMap<String, AtomicLong>();
 
     private final ScheduledExecutorService _executor = Executors.newSingleThreadScheduledExecutor(new NamedThreadFactory("Usage-Job"));
     private final ScheduledExecutorService _heartbeatExecutor = Executors.newSingleThreadScheduledExecutor(new NamedThreadFactory("Usage-HB"));
@@ -202,6 +208,10 @@ public class UsageManagerImpl extends ManagerBase implements UsageManager, Runna
         if (sanityCheckInterval != null) {
             _sanityCheckInterval = Integer.parseInt(sanityCheckInterval);
         }
+        _parserThreads = NumbersUtil.parseInt(configs.get("usage.parser.threads"), _parserThreads);
+        if (_parserThreads < 1) {
+            _parserThreads = 1;
+        }
 
         if (aggreagationTimeZone != null && !aggreagationTimeZone.isEmpty()) {
             _usageTimezone = TimeZone.getTimeZone(aggreagationTimeZone);
@@ -581,6 +591,7 @@ public class UsageManagerImpl extends ManagerBase implements UsageManager, Runna
             List<UsageEventVO> events = _usageEventDao.getRecentEvents(new Date(endDateMillis));
 
             TransactionLegacy usageTxn = TransactionLegacy.open(TransactionLegacy.USAGE_DB);
+            UsageParserPool parserPool = null;
             try {
                 usageTxn.start();
 
@@ -705,12 +716,23 @@ public class UsageManagerImpl extends ManagerBase implements UsageManager, Runna
                     s_logger.debug("created vm disk stats helper entries for " + numAcctsProcessed + " accts");
                 }
 
+                // the parser workers read on their own connections, so the templates of deleted accounts
+                // are marked deleted with the helper records for the workers to see it
+                markDeletedAccountTemplates(recentlyDeletedDate);
+
                 // commit the helper records, then start a new transaction
                 usageTxn.commit();
                 usageTxn.start();
 
                 boolean parsed = false;
                 numAcctsProcessed = 0;
+                _parserTimes.clear();
+                parserPool = new UsageParserPool(_parserThreads, new UsageParserPool.Parser() {
+                    @Override
+                    public void parse(AccountVO account, Date startDate, Date endDate) {
+                        parseHelperTables(account, startDate, endDate);
+                    }
+                }, _usageDao);
 
                 Date currentStartDate = startDate;
                 Date currentEndDate = endDate;
@@ -734,7 +756,7 @@ public class UsageManagerImpl extends ManagerBase implements UsageManager, Runna
                         accounts = _accountDao.listAll(filter);
                         if ((accounts != null) && !accounts.isEmpty()) {
                             for (AccountVO account : accounts) {
-                                parsed = parseHelperTables(account, currentStartDate, currentEndDate);
+                                parserPool.submit(account, currentStartDate, currentEndDate);
                                 numAcctsProcessed++;
                             }
                         }
@@ -756,23 +778,7 @@ public class UsageManagerImpl extends ManagerBase implements UsageManager, Runna
 
                         if ((accounts != null) && !accounts.isEmpty()) {
                             for (AccountVO account : accounts) {
-                                parsed = parseHelperTables(account, currentStartDate, currentEndDate);
-                                List<Long> publicTemplates = _usageDao.listPublicTemplatesByAccount(account.getId());
-                                for (Long templateId : publicTemplates) {
-                                    //mark public templates owned by deleted accounts as deleted
-                                    List<UsageStorageVO> storageVOs = _usageStorageDao.listById(account.getId(), templateId, StorageTypes.TEMPLATE);
-                                    if (storageVOs.size() > 1) {
-                                        s_logger.warn("More that one usage entry for storage: " + templateId + " assigned to account: " + account.getId() +
-                                                "; marking them all as deleted...");
-                                    }
-                                    for (UsageStorageVO storageVO : storageVOs) {
-                                        if (s_logger.isDebugEnabled()) {
-                                            s_logger.debug("deleting template: " + storageVO.getId() + " from account: " + storageVO.getAccountId());
-                                        }
-                                        storageVO.setDeleted(account.getRemoved());
-                                        _usageStorageDao.update(storageVO);
-                                    }
-                                }
+                                parserPool.submit(account, currentStartDate, currentEndDate);
                                 numAcctsProcessed++;
                             }
                         }
@@ -788,6 +794,16 @@ public class UsageManagerImpl extends ManagerBase implements UsageManager, Runna
                 if (s_logger.isDebugEnabled()) {
                     s_logger.debug("processed Usage for " + numAcctsProcessed + " RECENTLY DELETED accts");
                 }
+                if (parserPool.awaitParsed()) {
+                    // the VM snapshot parser updates its helper table and relies on those updates in the
+                    // following aggregation windows, so it runs here, in order, in the job transaction
+                    for (UsageParserPool.ParseRequest request : parserPool.getRequests()) {
+                        parsed |= parseVMSnapshotUsage(request._account, request._startDate, request._endDate);
+                    }
+                }
+                if (s_logger.isInfoEnabled()) {
+                    s_logger.info("Usage parser timings (ms) for job " + job.getId() + ": " + new TreeMap<String, AtomicLong>(_parserTimes));
+                }
 
                 // FIXME: we don't break the above loop if something fails to parse, so it gets reset every account,
                 //        do we want to break out of processing accounts and rollback if there are errors?
@@ -800,6 +816,9 @@ public class UsageManagerImpl extends ManagerBase implements UsageManager, Runna
                 s_logger.error("Exception in usage manager", ex);
                 usageTxn.rollback();
             } finally {
+                if (parserPool != null) {
+                    parserPool.shutdown();
+                }
                 // everything seemed to work...set endDate as the last success date
                 _usageJobDao.updateJobSuccess(job.getId(), startDateMillis, endDateMillis, System.currentTimeMillis() - timeStart, success);
 
@@ -826,10 +845,43 @@ public class UsageManagerImpl extends ManagerBase implements UsageManager, Runna
         }
     }
 
-    private boolean parseHelperTables(AccountVO account, Date currentStartDate, Date currentEndDate) {
+    private void markDeletedAccountTemplates(Date recentlyDeletedDate) {
+        Long offset = Long.valueOf(0);
+        Long limit = Long.valueOf(500);
+        List<AccountVO> accounts = null;
+        do {
+            Filter filter = new Filter(AccountVO.class, "id", true, offset, limit);
+            accounts = _accountDao.findRecentlyDeletedAccounts(null, recentlyDeletedDate, filter);
+            if ((accounts != null) && !accounts.isEmpty()) {
+                for (AccountVO account : accounts) {
+                    List<Long> publicTemplates = _usageDao.listPublicTemplatesByAccount(account.getId());
+                    for (Long templateId : publicTemplates) {
+                        //mark public templates owned by deleted accounts as deleted
+                        List<UsageStorageVO> storageVOs = _usageStorageDao.listById(account.getId(), templateId, StorageTypes.TEMPLATE);
+                        if (storageVOs.size() > 1) {
+                            s_logger.warn("More that one usage entry for storage: " + templateId + " assigned to account: " + account.getId() +
+                                    "; marking them all as deleted...");
+                        }
+                        for (UsageStorageVO storageVO : storageVOs) {
+                            if (s_logger.isDebugEnabled()) {
+                                s_logger.debug("deleting template: " + storageVO.getId() + " from account: " + storageVO.getAccountId());
+                            }
+                            storageVO.setDeleted(account.getRemoved());
+                            _usageStorageDao.update(storageVO);
+                        }
+                    }
+                }
+            }
+            offset = new Long(offset.longValue() + limit.longValue());
+        } while ((accounts != null) && !accounts.isEmpty());
+    }
+
+    private void parseHelperTables(AccountVO account, Date currentStartDate, Date currentEndDate) {
         boolean parsed = false;
+        long parserStart = System.currentTimeMillis();
 
         parsed = VMInstanceUsageParser.parse(account, currentStartDate, currentEndDate);
+        parserStart = addParserTime("VMInstanceUsageParser", parserStart);
         if (s_logger.isDebugEnabled()) {
             if (!parsed) {
                 s_logger.debug("vm usage instances successfully parsed? " + parsed + " (for account: " + account.getAccountName() + ", id: " + account.getId() + ")");
@@ -837,6 +889,7 @@ public class UsageManagerImpl extends ManagerBase implements UsageManager, Runna
         }
 
         parsed = NetworkUsageParser.parse(account, currentStartDate, currentEndDate);
+        parserStart = addParserTime("NetworkUsageParser", parserStart);
         if (s_logger.isDebugEnabled()) {
             if (!parsed) {
                 s_logger.debug("network usage successfully parsed? " + parsed + " (for account: " + account.getAccountName() + ", id: " + account.getId() + ")");
@@ -844,6 +897,7 @@ public class UsageManagerImpl extends ManagerBase implements UsageManager, Runna
         }
 
         parsed = VmDiskUsageParser.parse(account, currentStartDate, currentEndDate);
+        parserStart = addParserTime("VmDiskUsageParser", parserStart);
         if (s_logger.isDebugEnabled()) {
             if (!parsed) {
                 s_logger.debug("vm disk usage successfully parsed? " + parsed + " (for account: " + account.getAccountName() + ", id: " + account.getId() + ")");
@@ -851,6 +905,7 @@ public class UsageManagerImpl extends ManagerBase implements UsageManager, Runna
         }
 
         parsed = VolumeUsageParser.parse(account, currentStartDate, currentEndDate);
+        parserStart = addParserTime("VolumeUsageParser", parserStart);
         if (s_logger.isDebugEnabled()) {
             if (!parsed) {
                 s_logger.debug("volume usage successfully parsed? " + parsed + " (for account: " + account.getAccountName() + ", id: " + account.getId() + ")");
@@ -858,6 +913,7 @@ public class UsageManagerImpl extends ManagerBase implements UsageManager, Runna
         }
 
         parsed = StorageUsageParser.parse(account, currentStartDate, currentEndDate);
+        parserStart = addParserTime("StorageUsageParser", parserStart);
         if (s_logger.isDebugEnabled()) {
             if (!parsed) {
                 s_logger.debug("storage usage successfully parsed? " + parsed + " (for account: " + account.getAccountName() + ", id: " + account.getId() + ")");
@@ -865,6 +921,7 @@ public class UsageManagerImpl extends ManagerBase implements UsageManager, Runna
         }
 
         parsed = SecurityGroupUsageParser.parse(account, currentStartDate, currentEndDate);
+        parserStart = addParserTime("SecurityGroupUsageParser", parserStart);
         if (s_logger.isDebugEnabled()) {
             if (!parsed) {
                 s_logger.debug("Security Group usage successfully parsed? " + parsed + " (for account: " + account.getAccountName() + ", id: " + account.getId() + ")");
@@ -872,6 +929,7 @@ public class UsageManagerImpl extends ManagerBase implements UsageManager, Runna
         }
 
         parsed = LoadBalancerUsageParser.parse(account, currentStartDate, currentEndDate);
+        parserStart = addParserTime("LoadBalancerUsageParser", parserStart);
         if (s_logger.isDebugEnabled()) {
             if (!parsed) {
                 s_logger.debug("load balancer usage successfully parsed? " + parsed + " (for account: " + account.getAccountName() + ", id: " + account.getId() + ")");
@@ -879,6 +937,7 @@ public class UsageManagerImpl extends ManagerBase implements UsageManager, Runna
         }
 
         parsed = PortForwardingUsageParser.parse(account, currentStartDate, currentEndDate);
+        parserStart = addParserTime("PortForwardingUsageParser", parserStart);
         if (s_logger.isDebugEnabled()) {
             if (!parsed) {
                 s_logger.debug("port forwarding usage successfully parsed? " + parsed + " (for account: " + account.getAccountName() + ", id: " + account.getId() + ")");
@@ -886,6 +945,7 @@ public class UsageManagerImpl extends ManagerBase implements UsageManager, Runna
         }
 
         parsed = NetworkOfferingUsageParser.parse(account, currentStartDate, currentEndDate);
+        parserStart = addParserTime("NetworkOfferingUsageParser", parserStart);
         if (s_logger.isDebugEnabled()) {
             if (!parsed) {
                 s_logger.debug("network offering usage successfully parsed? " + parsed + " (for account: " + account.getAccountName() + ", id: " + account.getId() + ")");
@@ -893,18 +953,25 @@ public class UsageManagerImpl extends ManagerBase implements UsageManager, Runna
         }
 
         parsed = IPAddressUsageParser.parse(account, currentStartDate, currentEndDate);
+        parserStart = addParserTime("IPAddressUsageParser", parserStart);
         if (s_logger.isDebugEnabled()) {
             if (!parsed) {
                 s_logger.debug("IPAddress usage successfully parsed? " + parsed + " (for account: " + account.getAccountName() + ", id: " + account.getId() + ")");
             }
         }
         parsed = VPNUserUsageParser.parse(account, currentStartDate, currentEndDate);
+        parserStart = addParserTime("VPNUserUsageParser", parserStart);
         if (s_logger.isDebugEnabled()) {
             if (!parsed) {
                 s_logger.debug("VPN user usage successfully parsed? " + parsed + " (for account: " + account.getAccountName() + ", id: " + account.getId() + ")");
             }
         }
-        parsed = VMSnapshotUsageParser.parse(account, currentStartDate, currentEndDate);
+    }
+
+    private boolean parseVMSnapshotUsage(AccountVO account, Date currentStartDate, Date currentEndDate) {
+        long parserStart = System.currentTimeMillis();
+        boolean parsed = VMSnapshotUsageParser.parse(account, currentStartDate, currentEndDate);
+        addParserTime("VMSnapshotUsageParser", parserStart);
         if (s_logger.isDebugEnabled()) {
             if (!parsed) {
                 s_logger.debug("VM Snapshot usage successfully parsed? " + parsed + " (for account: " + account.getAccountName() + ", id: " + account.getId() + ")");
@@ -913,6 +980,17 @@ public class UsageManagerImpl extends ManagerBase implements UsageManager, Runna
         return parsed;
     }
 
+    private long addParserTime(String parser, long parserStart) {
+        long now = System.currentTimeMillis();
+        AtomicLong total = _parserTimes.get(parser);
+        if (total == null) {
+            _parserTimes.putIfAbsent(parser, new AtomicLong());
+            total = _parserTimes.get(parser);
+        }
+        total.addAndGet(now - parserStart);
+        return now;
+    }
+
     private void createHelperRecord(UsageEventVO event) {
         String eventType = event.getType();
         if (isVMEvent(eventType)) {
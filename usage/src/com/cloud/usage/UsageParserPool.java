@@ -0,0 +1,179 @@
+// Licensed to the Apache Software Foundation (ASF) under one
+// or more contributor license agreements.  See the NOTICE file
+// distributed with this work for additional information
+// regarding copyright ownership.  The ASF licenses this file
+// to you under the Apache License, Version 2.0 (the
+// "License"); you may not use this file except in compliance
+// with the License.  You may obtain a copy of the License at
+//
+//   http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing,
+// software distributed under the License is distributed on an
+// "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+// KIND, either express or implied.  See the License for the
+// specific language governing permissions and limitations
+// under the License.
+package com.cloud.usage;
+
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.log4j.Logger;
+
+import com.cloud.usage.dao.UsageDao;
+import com.cloud.usage.parser.UsageRecordBuffer;
+import com.cloud.user.AccountVO;
+import com.cloud.utils.concurrency.NamedThreadFactory;
+import com.cloud.utils.db.TransactionLegacy;
+
+/**
+ * Runs the usage parsers for the accounts of a usage job on a fixed number of workers. Accounts are
+ * partitioned by id, so the aggregation windows of one account are still parsed in order. The
+ * workers only compute: the usage records they create are handed back to the thread that submitted
+ * the accounts, which writes them in the usage job transaction. A failed job therefore leaves no
+ * partially parsed usage records behind.
+ */
+class UsageParserPool {
+    private static final Logger s_logger = Logger.getLogger(UsageParserPool.class);
+
+    interface Parser {
+        void parse(AccountVO account, Date startDate, Date endDate);
+    }
+
+    private final Parser _parser;
+    private final UsageDao _usageDao;
+    private final UsageParserWorker[] _workers;
+    private final ExecutorService _pool;
+    private final CountDownLatch _parsedLatch;
+    private final BlockingQueue<UsageRecordBuffer> _results = new LinkedBlockingQueue<UsageRecordBuffer>(1000);
+    private final List<ParseRequest> _requests = new ArrayList<ParseRequest>();
+    private volatile boolean _failed = false;
+
+    UsageParserPool(int threads, Parser parser, UsageDao usageDao) {
+        _parser = parser;
+        _usageDao = usageDao;
+        _workers = new UsageParserWorker[threads];
+        _parsedLatch = new CountDownLatch(threads);
+        _pool = Executors.newFixedThreadPool(threads, new NamedThreadFactory("Usage-Parser"));
+        for (int i = 0; i < threads; i++) {
+            _workers[i] = new UsageParserWorker();
+            _pool.execute(_workers[i]);
+        }
+    }
+
+    void submit(AccountVO account, Date startDate, Date endDate) {
+        ParseRequest request = new ParseRequest(account, startDate, endDate);
+        _requests.add(request);
+        _workers[(int)(account.getId() % _workers.length)]._queue.add(request);
+        flushResults(0);
+    }
+
+    /**
+     * @return the submitted accounts and aggregation windows, in submission order
+     */
+    List<ParseRequest> getRequests() {
+        return _requests;
+    }
+
+    /**
+     * Waits for all submitted accounts to be parsed, writing the usage records of the workers on the
+     * calling thread as they come in.
+     * @return false if a worker failed, in which case the caller must roll back
+     */
+    boolean awaitParsed() throws InterruptedException {
+        for (UsageParserWorker worker : _workers) {
+            worker._queue.add(ParseRequest.END);
+        }
+        boolean done = false;
+        while (!done) {
+            // read before draining, so every result queued before the last worker finished is drained
+            done = _parsedLatch.getCount() == 0;
+            flushResults(done ? 0 : 100);
+        }
+        return !_failed;
+    }
+
+    void shutdown() {
+        _pool.shutdownNow();
+    }
+
+    private void flushResults(long timeoutMs) {
+        try {
+            UsageRecordBuffer records = _results.poll(timeoutMs, TimeUnit.MILLISECONDS);
+            while (records != null) {
+                if (!_failed) {
+                    records.flush(_usageDao);
+                }
+                records = _results.poll();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private class UsageParserWorker implements Runnable {
+        private final BlockingQueue<ParseRequest> _queue = new LinkedBlockingQueue<ParseRequest>();
+
+        @Override
+        public void run() {
+            // the parsers only read from the usage db here, the transaction just keeps their reads
+            // on one connection and is always rolled back
+            TransactionLegacy txn = TransactionLegacy.open(TransactionLegacy.USAGE_DB);
+            try {
+                txn.start();
+                ParseRequest request = _queue.take();
+                while (request != ParseRequest.END) {
+                    if (!_failed) {
+                        parse(request);
+                    }
+                    request = _queue.take();
+                }
+            } catch (InterruptedException e) {
+                s_logger.warn("Usage parser worker interrupted");
+                _failed = true;
+            } finally {
+                txn.rollback();
+                txn.close();
+                _parsedLatch.countDown();
+            }
+        }
+
+        private void parse(ParseRequest request) throws InterruptedException {
+            UsageRecordBuffer.start();
+            UsageRecordBuffer records;
+            try {
+                _parser.parse(request._account, request._startDate, request._endDate);
+            } catch (Exception e) {
+                s_logger.error("Failed to parse usage for account " + request._account.getId(), e);
+                _failed = true;
+            } finally {
+                records = UsageRecordBuffer.stop();
+            }
+            if (!_failed && !records.isEmpty()) {
+                _results.put(records);
+            }
+        }
+    }
+
+    static class ParseRequest {
+        static final ParseRequest END = new ParseRequest(null, null, null);
+
+        final AccountVO _account;
+        final Date _startDate;
+        final Date _endDate;
+
+        ParseRequest(AccountVO account, Date startDate, Date endDate) {
+            _account = account;
+            _startDate = startDate;
+            _endDate = endDate;
+        }
+    }
+}
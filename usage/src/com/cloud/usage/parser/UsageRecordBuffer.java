@@ -0,0 +1,80 @@
+// Licensed to the Apache Software Foundation (ASF) under one
+// or more contributor license agreements.  See the NOTICE file
+// distributed with this work for additional information
+// regarding copyright ownership.  The ASF licenses this file
+// to you under the Apache License, Version 2.0 (the
+// "License"); you may not use this file except in compliance
+// with the License.  You may obtain a copy of the License at
+//
+//   http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing,
+// software distributed under the License is distributed on an
+// "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+// KIND, either express or implied.  See the License for the
+// specific language governing permissions and limitations
+// under the License.
+package com.cloud.usage.parser;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import com.cloud.usage.UsageVO;
+import com.cloud.usage.dao.UsageDao;
+
+/**
+ * Collects the usage records created by the parsers on the current thread instead of writing them,
+ * so the records of parsers running on worker threads can be written by the usage job in its own
+ * transaction. Without an active buffer the records are written right away.
+ */
+public class UsageRecordBuffer {
+    private static final ThreadLocal<UsageRecordBuffer> s_current = new ThreadLocal<UsageRecordBuffer>();
+
+    private final List<UsageVO> _persisted = new ArrayList<UsageVO>();
+    private final List<UsageVO> _saved = new ArrayList<UsageVO>();
+
+    public static void start() {
+        s_current.set(new UsageRecordBuffer());
+    }
+
+    public static UsageRecordBuffer stop() {
+        UsageRecordBuffer buffer = s_current.get();
+        s_current.remove();
+        return buffer;
+    }
+
+    public static void persist(UsageDao usageDao, UsageVO usageRecord) {
+        UsageRecordBuffer buffer = s_current.get();
+        if (buffer != null) {
+            buffer._persisted.add(usageRecord);
+        } else {
+            usageDao.persist(usageRecord);
+        }
+    }
+
+    public static void saveUsageRecords(UsageDao usageDao, List<UsageVO> usageRecords) {
+        UsageRecordBuffer buffer = s_current.get();
+        if (buffer != null) {
+            buffer._saved.addAll(usageRecords);
+        } else {
+            usageDao.saveUsageRecords(usageRecords);
+        }
+    }
+
+    public boolean isEmpty() {
+        return _persisted.isEmpty() && _saved.isEmpty();
+    }
+
+    /**
+     * Writes the collected records. Records the parsers persisted one by one are persisted again one
+     * by one, as saveUsageRecords does not write all of their columns.
+     */
+    public void flush(UsageDao usageDao) {
+        for (UsageVO usageRecord : _persisted) {
+            usageDao.persist(usageRecord);
+        }
+        if (!_saved.isEmpty()) {
+            usageDao.saveUsageRecords(_saved);
+        }
+    }
+}
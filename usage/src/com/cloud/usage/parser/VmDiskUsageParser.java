@@ -164,7 +164,7 @@ public class VmDiskUsageParser {
             }
         }
 
-        s_usageDao.saveUsageRecords(usageRecords);
+        UsageRecordBuffer.saveUsageRecords(s_usageDao, usageRecords);
 
         return true;
     }
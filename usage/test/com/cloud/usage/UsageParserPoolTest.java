@@ -0,0 +1,117 @@
+// Licensed to the Apache Software Foundation (ASF) under one
+// or more contributor license agreements.  See the NOTICE file
+// distributed with this work for additional information
+// regarding copyright ownership.  The ASF licenses this file
+// to you under the Apache License, Version 2.0 (the
+// "License"); you may not use this file except in compliance
+// with the License.  You may obtain a copy of the License at
+//
+//   http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing,
+// software distributed under the License is distributed on an
+// "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+// KIND, either express or implied.  See the License for the
+// specific language governing permissions and limitations
+// under the License.
+package com.cloud.usage;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Collections;
+import java.util.Date;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.Matchers;
+import org.mockito.Mockito;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+
+import com.cloud.usage.dao.UsageDao;
+import com.cloud.usage.parser.UsageRecordBuffer;
+import com.cloud.user.AccountVO;
+
+public class UsageParserPoolTest {
+    private final Date _startDate = new Date(0);
+    private final Date _endDate = new Date(3600000);
+    private final List<Thread> _writers = new CopyOnWriteArrayList<Thread>();
+    private UsageDao _usageDao;
+
+    @Before
+    public void setUp() {
+        _usageDao = Mockito.mock(UsageDao.class);
+        Answer<Object> recordWriter = new Answer<Object>() {
+            @Override
+            public Object answer(InvocationOnMock invocation) {
+                _writers.add(Thread.currentThread());
+                return null;
+            }
+        };
+        Mockito.when(_usageDao.persist(Matchers.any(UsageVO.class))).then(recordWriter);
+        Mockito.doAnswer(recordWriter).when(_usageDao).saveUsageRecords(Matchers.anyListOf(UsageVO.class));
+    }
+
+    @Test
+    public void testRecordsAreWrittenBySubmittingThread() throws Exception {
+        UsageParserPool pool = new UsageParserPool(2, new RecordingParser(-1), _usageDao);
+        try {
+            for (long id = 1; id <= 6; id++) {
+                pool.submit(new AccountVO(id), _startDate, _endDate);
+            }
+            assertTrue(pool.awaitParsed());
+        } finally {
+            pool.shutdown();
+        }
+
+        Mockito.verify(_usageDao, Mockito.times(6)).persist(Matchers.any(UsageVO.class));
+        Mockito.verify(_usageDao, Mockito.times(6)).saveUsageRecords(Matchers.anyListOf(UsageVO.class));
+        assertEquals(12, _writers.size());
+        for (Thread writer : _writers) {
+            assertSame(Thread.currentThread(), writer);
+        }
+        assertEquals(6, pool.getRequests().size());
+        assertEquals(1, pool.getRequests().get(0)._account.getId());
+    }
+
+    @Test
+    public void testWorkerFailureIsReported() throws Exception {
+        UsageParserPool pool = new UsageParserPool(2, new RecordingParser(3), _usageDao);
+        try {
+            for (long id = 1; id <= 6; id++) {
+                pool.submit(new AccountVO(id), _startDate, _endDate);
+            }
+            assertFalse(pool.awaitParsed());
+        } finally {
+            pool.shutdown();
+        }
+
+        // whatever was written before the failure went into the caller's transaction, which it rolls back
+        for (Thread writer : _writers) {
+            assertSame(Thread.currentThread(), writer);
+        }
+    }
+
+    private static class RecordingParser implements UsageParserPool.Parser {
+        private final long _failingAccountId;
+
+        RecordingParser(long failingAccountId) {
+            _failingAccountId = failingAccountId;
+        }
+
+        @Override
+        public void parse(AccountVO account, Date startDate, Date endDate) {
+            if (account.getId() == _failingAccountId) {
+                throw new IllegalStateException("parser failed for account " + account.getId());
+            }
+            UsageVO usageRecord = Mockito.mock(UsageVO.class);
+            UsageRecordBuffer.persist(null, usageRecord);
+            UsageRecordBuffer.saveUsageRecords(null, Collections.singletonList(usageRecord));
+        }
+    }
+}
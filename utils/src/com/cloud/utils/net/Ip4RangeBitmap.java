@@ -0,0 +1,123 @@
+//
+// Licensed to the Apache Software Foundation (ASF) under one
+// or more contributor license agreements.  See the NOTICE file
+// distributed with this work for additional information
+// regarding copyright ownership.  The ASF licenses this file
+// to you under the Apache License, Version 2.0 (the
+// "License"); you may not use this file except in compliance
+// with the License.  You may obtain a copy of the License at
+//
+//   http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing,
+// software distributed under the License is distributed on an
+// "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+// KIND, either express or implied.  See the License for the
+// specific language governing permissions and limitations
+// under the License.
+//
+
+package com.cloud.utils.net;
+
+import java.util.BitSet;
+import java.util.Random;
+
+/**
+ * Compact view of the host addresses of an ipv4 cidr, one bit per address.
+ * The network and broadcast addresses are never part of the range.
+ */
+public class Ip4RangeBitmap {
+
+    private final long _first;
+    private final int _size;
+    private final BitSet _used;
+
+    public Ip4RangeBitmap(String cidrAddress, int cidrSize) {
+        assert (cidrSize < 32) : "You do know this is not for ipv6 right?  Keep it smaller than 32 but you have " + cidrSize;
+        long netmask = NetUtils.ip2Long(NetUtils.getCidrNetmask(cidrSize));
+        long network = NetUtils.ip2Long(cidrAddress) & netmask;
+        long hosts = (1L << (32 - cidrSize)) - 2;
+        _first = network + 1;
+        _size = hosts > 0 ? (int)hosts : 0;
+        _used = new BitSet(_size);
+    }
+
+    public long getFirstIp() {
+        return _first;
+    }
+
+    public long getLastIp() {
+        return _first + _size - 1;
+    }
+
+    public boolean contains(long ip) {
+        return ip >= _first && ip < _first + _size;
+    }
+
+    /**
+     * @return false if the address is outside of the range
+     */
+    public boolean markUsed(long ip) {
+        if (!contains(ip)) {
+            return false;
+        }
+        _used.set((int)(ip - _first));
+        return true;
+    }
+
+    public void markUsed(String ip) {
+        if (ip != null) {
+            markUsed(NetUtils.ip2Long(ip));
+        }
+    }
+
+    /**
+     * Marks every address whose last octet is the given value as used, e.g. 1 to keep x.x.x.1 for gateways.
+     */
+    public void markLastOctetUsed(int octet) {
+        for (long ip = (_first & ~0xffL) | octet; ip <= getLastIp(); ip += 256) {
+            markUsed(ip);
+        }
+    }
+
+    public boolean isFree(long ip) {
+        return contains(ip) && !_used.get((int)(ip - _first));
+    }
+
+    public int getFreeCount() {
+        return _size - _used.cardinality();
+    }
+
+    /**
+     * @return the first free address at or after the given one, wrapping around the range, or -1 if the range is full
+     */
+    public long nextFree(long fromIp) {
+        if (_size == 0) {
+            return -1;
+        }
+        int start = contains(fromIp) ? (int)(fromIp - _first) : 0;
+        int index = _used.nextClearBit(start);
+        if (index >= _size) {
+            index = _used.nextClearBit(0);
+            if (index >= _size) {
+                return -1;
+            }
+        }
+        return _first + index;
+    }
+
+    /**
+     * @return one of the first <code>window</code> free addresses of the range, picked at random, or -1 if the range is full
+     */
+    public long randomFree(Random random, int window) {
+        int candidates = Math.min(window, getFreeCount());
+        if (candidates <= 0) {
+            return -1;
+        }
+        int index = _used.nextClearBit(0);
+        for (int skip = random.nextInt(candidates); skip > 0; skip--) {
+            index = _used.nextClearBit(index + 1);
+        }
+        return _first + index;
+    }
+}
@@ -0,0 +1,132 @@
+//
+// Licensed to the Apache Software Foundation (ASF) under one
+// or more contributor license agreements.  See the NOTICE file
+// distributed with this work for additional information
+// regarding copyright ownership.  The ASF licenses this file
+// to you under the Apache License, Version 2.0 (the
+// "License"); you may not use this file except in compliance
+// with the License.  You may obtain a copy of the License at
+//
+//   http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing,
+// software distributed under the License is distributed on an
+// "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+// KIND, either express or implied.  See the License for the
+// specific language governing permissions and limitations
+// under the License.
+//
+
+package com.cloud.utils.nio;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.log4j.Logger;
+
+/**
+ * ByteBufferPool hands out fixed size direct buffers carved out of larger
+ * slabs so the nio links don't allocate a new buffer for every packet they
+ * read or write.  Slabs are allocated on demand up to a maximum; once the
+ * pool is exhausted, or if the caller asks for more than the buffer size,
+ * a plain heap buffer is returned and counted as a miss.
+ *
+ * Buffers must be given back through release() once the caller is done with
+ * them and must not be used afterwards.  Releasing a buffer that didn't come
+ * from the pool is harmless, it is simply dropped.
+ */
+public class ByteBufferPool {
+    private static final Logger s_logger = Logger.getLogger(ByteBufferPool.class);
+
+    private final int _bufferSize;
+    private final int _buffersPerSlab;
+    private final int _maxSlabs;
+    private final ConcurrentLinkedQueue<ByteBuffer> _free = new ConcurrentLinkedQueue<ByteBuffer>();
+    private final AtomicInteger _slabs = new AtomicInteger(0);
+    private final AtomicInteger _inUse = new AtomicInteger(0);
+    private final AtomicLong _hits = new AtomicLong(0);
+    private final AtomicLong _misses = new AtomicLong(0);
+
+    public ByteBufferPool(int bufferSize, int buffersPerSlab, int maxSlabs) {
+        _bufferSize = bufferSize;
+        _buffersPerSlab = buffersPerSlab;
+        _maxSlabs = maxSlabs;
+    }
+
+    /**
+     * @param size minimum capacity needed.
+     * @return a cleared buffer with at least size bytes of capacity.
+     */
+    public ByteBuffer acquire(int size) {
+        if (size <= _bufferSize) {
+            ByteBuffer buffer = _free.poll();
+            if (buffer == null && allocateSlab()) {
+                buffer = _free.poll();
+            }
+            if (buffer != null) {
+                _hits.incrementAndGet();
+                _inUse.incrementAndGet();
+                buffer.clear();
+                return buffer;
+            }
+        }
+        _misses.incrementAndGet();
+        return ByteBuffer.allocate(size);
+    }
+
+    /**
+     * @return true if the buffer was acquired from the pool and would be returned to it.
+     */
+    public boolean isPooled(ByteBuffer buffer) {
+        return buffer != null && buffer.isDirect() && buffer.capacity() == _bufferSize;
+    }
+
+    public void release(ByteBuffer buffer) {
+        if (isPooled(buffer)) {
+            _inUse.decrementAndGet();
+            _free.offer(buffer);
+        }
+    }
+
+    private boolean allocateSlab() {
+        int slabs;
+        do {
+            slabs = _slabs.get();
+            if (slabs >= _maxSlabs) {
+                return false;
+            }
+        } while (!_slabs.compareAndSet(slabs, slabs + 1));
+
+        if (s_logger.isDebugEnabled()) {
+            s_logger.debug("Allocating slab " + (slabs + 1) + " of " + _buffersPerSlab + " x " + _bufferSize + " bytes");
+        }
+        ByteBuffer slab = ByteBuffer.allocateDirect(_bufferSize * _buffersPerSlab);
+        for (int i = 0; i < _buffersPerSlab; i++) {
+            slab.limit((i + 1) * _bufferSize).position(i * _bufferSize);
+            _free.offer(slab.slice());
+        }
+        return true;
+    }
+
+    public int getBufferSize() {
+        return _bufferSize;
+    }
+
+    public int getSlabCount() {
+        return _slabs.get();
+    }
+
+    public int getInUseCount() {
+        return _inUse.get();
+    }
+
+    public long getHitCount() {
+        return _hits.get();
+    }
+
+    public long getMissCount() {
+        return _misses.get();
+    }
+}
@@ -34,6 +34,7 @@ import java.nio.channels.SocketChannel;
 import java.security.GeneralSecurityException;
 import java.security.KeyStore;
 import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicLong;
 
 import javax.net.ssl.KeyManagerFactory;
 import javax.net.ssl.SSLContext;
@@ -59,8 +60,13 @@ public class Link {
     private final NioConnection _connection;
     private SelectionKey _key;
     private final ConcurrentLinkedQueue<ByteBuffer[]> _writeQueue;
+    private final ByteBuffer _headerBuffer;
     private ByteBuffer _readBuffer;
     private ByteBuffer _plaintextBuffer;
+    private final Object _readLock = new Object();
+    private final AtomicLong _poolHits = new AtomicLong(0);
+    private final AtomicLong _poolMisses = new AtomicLong(0);
+    private final AtomicLong _bytesInFlight = new AtomicLong(0);
     private Object _attach;
     private boolean _readHeader;
     private boolean _gotFollowingPacket;
@@ -71,7 +77,9 @@ public class Link {
     public Link(InetSocketAddress addr, NioConnection connection) {
         _addr = addr;
         _connection = connection;
-        _readBuffer = ByteBuffer.allocate(2048);
+        _headerBuffer = ByteBuffer.allocate(4);
+        _readBuffer = null;
+        _plaintextBuffer = ByteBuffer.allocate(2048);
         _attach = null;
         _key = null;
         _writeQueue = new ConcurrentLinkedQueue<ByteBuffer[]>();
@@ -101,6 +109,43 @@ public class Link {
         _sslEngine = sslEngine;
     }
 
+    public static ByteBufferPool getBufferPool() {
+        return s_bufferPool;
+    }
+
+    /**
+     * @return number of buffers this link got from the buffer pool.
+     */
+    public long getPoolHitCount() {
+        return _poolHits.get();
+    }
+
+    /**
+     * @return number of buffers this link had to allocate because the pool was exhausted.
+     */
+    public long getPoolMissCount() {
+        return _poolMisses.get();
+    }
+
+    /**
+     * @return number of bytes queued on this link that are not written to the socket yet.
+     */
+    public long getBytesInFlight() {
+        return _bytesInFlight.get();
+    }
+
+    private static ByteBuffer acquireBuffer(int size, Link link) {
+        ByteBuffer buffer = s_bufferPool.acquire(size);
+        if (link != null) {
+            if (s_bufferPool.isPooled(buffer)) {
+                link._poolHits.incrementAndGet();
+            } else {
+                link._poolMisses.incrementAndGet();
+            }
+        }
+        return buffer;
+    }
+
     /**
      * No user, so comment it out.
      *
@@ -144,57 +189,54 @@ public class Link {
     }
      */
 
-    private static void doWrite(SocketChannel ch, ByteBuffer[] buffers, SSLEngine sslEngine) throws IOException {
+    /**
+     * Wraps the buffers into ssl packets and writes them out.  Each packet is
+     * preceded by a 4 byte header with its length, which is reserved at the
+     * front of the packet buffer so that header and packet go out in a single
+     * write from a pooled direct buffer.
+     */
+    private static void doWrite(SocketChannel ch, ByteBuffer[] buffers, SSLEngine sslEngine, Link link) throws IOException {
         SSLSession sslSession = sslEngine.getSession();
-        ByteBuffer pkgBuf = ByteBuffer.allocate(sslSession.getPacketBufferSize() + 40);
+        ByteBuffer pkgBuf = acquireBuffer(sslSession.getPacketBufferSize() + 40 + 4, link);
         SSLEngineResult engResult;
 
-        ByteBuffer headBuf = ByteBuffer.allocate(4);
-
-        int totalLen = 0;
-        for (ByteBuffer buffer : buffers) {
-            totalLen += buffer.limit();
-        }
-
-        int processedLen = 0;
-        while (processedLen < totalLen) {
-            headBuf.clear();
-            pkgBuf.clear();
-            engResult = sslEngine.wrap(buffers, pkgBuf);
-            if (engResult.getHandshakeStatus() != HandshakeStatus.FINISHED && engResult.getHandshakeStatus() != HandshakeStatus.NOT_HANDSHAKING &&
-                    engResult.getStatus() != SSLEngineResult.Status.OK) {
-                throw new IOException("SSL: SSLEngine return bad result! " + engResult);
-            }
-
-            processedLen = 0;
+        try {
+            int totalLen = 0;
             for (ByteBuffer buffer : buffers) {
-                processedLen += buffer.position();
+                totalLen += buffer.limit();
             }
 
-            int dataRemaining = pkgBuf.position();
-            int header = dataRemaining;
-            int headRemaining = 4;
-            pkgBuf.flip();
-            if (processedLen < totalLen) {
-                header = header | HEADER_FLAG_FOLLOWING;
-            }
-            headBuf.putInt(header);
-            headBuf.flip();
+            int processedLen = 0;
+            while (processedLen < totalLen) {
+                pkgBuf.clear();
+                pkgBuf.position(4);
+                engResult = sslEngine.wrap(buffers, pkgBuf);
+                if (engResult.getHandshakeStatus() != HandshakeStatus.FINISHED && engResult.getHandshakeStatus() != HandshakeStatus.NOT_HANDSHAKING &&
+                        engResult.getStatus() != SSLEngineResult.Status.OK) {
+                    throw new IOException("SSL: SSLEngine return bad result! " + engResult);
+                }
 
-            while (headRemaining > 0) {
-                if (s_logger.isTraceEnabled()) {
-                    s_logger.trace("Writing Header " + headRemaining);
+                processedLen = 0;
+                for (ByteBuffer buffer : buffers) {
+                    processedLen += buffer.position();
                 }
-                long count = ch.write(headBuf);
-                headRemaining -= count;
-            }
-            while (dataRemaining > 0) {
-                if (s_logger.isTraceEnabled()) {
-                    s_logger.trace("Writing Data " + dataRemaining);
+
+                int header = pkgBuf.position() - 4;
+                if (processedLen < totalLen) {
+                    header = header | HEADER_FLAG_FOLLOWING;
+                }
+                pkgBuf.putInt(0, header);
+                pkgBuf.flip();
+
+                while (pkgBuf.hasRemaining()) {
+                    if (s_logger.isTraceEnabled()) {
+                        s_logger.trace("Writing Data " + pkgBuf.remaining());
+                    }
+                    ch.write(pkgBuf);
                 }
-                long count = ch.write(pkgBuf);
-                dataRemaining -= count;
             }
+        } finally {
+            s_bufferPool.release(pkgBuf);
         }
     }
 
@@ -209,7 +251,7 @@ public class Link {
      */
     public static void write(SocketChannel ch, ByteBuffer[] buffers, SSLEngine sslEngine) throws IOException {
         synchronized (ch) {
-            doWrite(ch, buffers, sslEngine);
+            doWrite(ch, buffers, sslEngine, null);
         }
     }
 
@@ -217,22 +259,35 @@ public class Link {
     protected static final int MAX_SIZE_PER_PACKET = 18000;
     protected static final int HEADER_FLAG_FOLLOWING = 0x10000;
 
+    /* Buffers for the ssl packets and the unwrapped data.  Every packet fits in MAX_SIZE_PER_PACKET. */
+    private static final ByteBufferPool s_bufferPool = new ByteBufferPool(MAX_SIZE_PER_PACKET, 32, 32);
+    /* Plaintext buffers bigger than this are not kept around once the message has been delivered. */
+    private static final int MAX_RETAINED_PLAINTEXT_SIZE = 64 * 1024;
+
     public byte[] read(SocketChannel ch) throws IOException {
-        if (_readHeader) {   // Start of a packet
-            if (_readBuffer.position() == 0) {
-                _readBuffer.limit(4);
+        synchronized (_readLock) {
+            try {
+                return doRead(ch);
+            } catch (IOException e) {
+                releaseReadBuffer();
+                throw e;
             }
+        }
+    }
 
-            if (ch.read(_readBuffer) == -1) {
+    private byte[] doRead(SocketChannel ch) throws IOException {
+        if (_readHeader) {   // Start of a packet
+            if (ch.read(_headerBuffer) == -1) {
                 throw new IOException("Connection closed with -1 on reading size.");
             }
 
-            if (_readBuffer.hasRemaining()) {
+            if (_headerBuffer.hasRemaining()) {
                 s_logger.trace("Need to read the rest of the packet length");
                 return null;
             }
-            _readBuffer.flip();
-            int header = _readBuffer.getInt();
+            _headerBuffer.flip();
+            int header = _headerBuffer.getInt();
+            _headerBuffer.clear();
             int readSize = (short)header;
             if (s_logger.isTraceEnabled()) {
                 s_logger.trace("Packet length is " + readSize);
@@ -243,7 +298,7 @@ public class Link {
             }
 
             if (!_gotFollowingPacket) {
-                _plaintextBuffer = ByteBuffer.allocate(2000);
+                _plaintextBuffer.clear();
             }
 
             if ((header & HEADER_FLAG_FOLLOWING) != 0) {
@@ -252,15 +307,9 @@ public class Link {
                 _gotFollowingPacket = false;
             }
 
-            _readBuffer.clear();
             _readHeader = false;
 
-            if (_readBuffer.capacity() < readSize) {
-                if (s_logger.isTraceEnabled()) {
-                    s_logger.trace("Resizing the byte buffer from " + _readBuffer.capacity());
-                }
-                _readBuffer = ByteBuffer.allocate(readSize);
-            }
+            _readBuffer = acquireBuffer(readSize, this);
             _readBuffer.limit(readSize);
         }
 
@@ -277,45 +326,51 @@ public class Link {
 
         _readBuffer.flip();
 
-        ByteBuffer appBuf;
-
         SSLSession sslSession = _sslEngine.getSession();
         SSLEngineResult engResult;
         int remaining = 0;
 
-        while (_readBuffer.hasRemaining()) {
-            remaining = _readBuffer.remaining();
-            appBuf = ByteBuffer.allocate(sslSession.getApplicationBufferSize() + 40);
-            engResult = _sslEngine.unwrap(_readBuffer, appBuf);
-            if (engResult.getHandshakeStatus() != HandshakeStatus.FINISHED && engResult.getHandshakeStatus() != HandshakeStatus.NOT_HANDSHAKING &&
-                    engResult.getStatus() != SSLEngineResult.Status.OK) {
-                throw new IOException("SSL: SSLEngine return bad result! " + engResult);
-            }
-            if (remaining == _readBuffer.remaining()) {
-                throw new IOException("SSL: Unable to unwrap received data! still remaining " + remaining + "bytes!");
-            }
+        ByteBuffer appBuf = acquireBuffer(sslSession.getApplicationBufferSize() + 40, this);
+        try {
+            while (_readBuffer.hasRemaining()) {
+                remaining = _readBuffer.remaining();
+                appBuf.clear();
+                engResult = _sslEngine.unwrap(_readBuffer, appBuf);
+                if (engResult.getHandshakeStatus() != HandshakeStatus.FINISHED && engResult.getHandshakeStatus() != HandshakeStatus.NOT_HANDSHAKING &&
+                        engResult.getStatus() != SSLEngineResult.Status.OK) {
+                    throw new IOException("SSL: SSLEngine return bad result! " + engResult);
+                }
+                if (remaining == _readBuffer.remaining()) {
+                    throw new IOException("SSL: Unable to unwrap received data! still remaining " + remaining + "bytes!");
+                }
 
-            appBuf.flip();
-            if (_plaintextBuffer.remaining() < appBuf.limit()) {
-                // We need to expand _plaintextBuffer for more data
-                ByteBuffer newBuffer = ByteBuffer.allocate(_plaintextBuffer.capacity() + appBuf.limit() * 5);
-                _plaintextBuffer.flip();
-                newBuffer.put(_plaintextBuffer);
-                _plaintextBuffer = newBuffer;
-            }
-            _plaintextBuffer.put(appBuf);
-            if (s_logger.isTraceEnabled()) {
-                s_logger.trace("Done with packet: " + appBuf.limit());
+                appBuf.flip();
+                if (_plaintextBuffer.remaining() < appBuf.limit()) {
+                    // We need to expand _plaintextBuffer for more data
+                    ByteBuffer newBuffer = ByteBuffer.allocate(_plaintextBuffer.capacity() + appBuf.limit() * 5);
+                    _plaintextBuffer.flip();
+                    newBuffer.put(_plaintextBuffer);
+                    _plaintextBuffer = newBuffer;
+                }
+                _plaintextBuffer.put(appBuf);
+                if (s_logger.isTraceEnabled()) {
+                    s_logger.trace("Done with packet: " + appBuf.limit());
+                }
             }
+        } finally {
+            s_bufferPool.release(appBuf);
         }
 
-        _readBuffer.clear();
+        releaseReadBuffer();
         _readHeader = true;
 
         if (!_gotFollowingPacket) {
             _plaintextBuffer.flip();
             byte[] result = new byte[_plaintextBuffer.limit()];
             _plaintextBuffer.get(result);
+            if (_plaintextBuffer.capacity() > MAX_RETAINED_PLAINTEXT_SIZE) {
+                _plaintextBuffer = ByteBuffer.allocate(2048);
+            }
             return result;
         } else {
             if (s_logger.isTraceEnabled()) {
@@ -325,6 +380,13 @@ public class Link {
         }
     }
 
+    private void releaseReadBuffer() {
+        if (_readBuffer != null) {
+            s_bufferPool.release(_readBuffer);
+            _readBuffer = null;
+        }
+    }
+
     public void send(byte[] data) throws ClosedChannelException {
         send(data, false);
     }
@@ -334,22 +396,18 @@ public class Link {
     }
 
     public void send(ByteBuffer[] data, boolean close) throws ClosedChannelException {
-        ByteBuffer[] item = new ByteBuffer[data.length + 1];
+        // The buffers are queued as they are, doWrite() frames them while wrapping.
         int remaining = 0;
-        for (int i = 0; i < data.length; i++) {
-            remaining += data[i].remaining();
-            item[i + 1] = data[i];
+        for (ByteBuffer buffer : data) {
+            remaining += buffer.remaining();
         }
 
-        item[0] = ByteBuffer.allocate(4);
-        item[0].putInt(remaining);
-        item[0].flip();
-
         if (s_logger.isTraceEnabled()) {
             s_logger.trace("Sending packet of length " + remaining);
         }
 
-        _writeQueue.add(item);
+        _bytesInFlight.addAndGet(remaining);
+        _writeQueue.add(data);
         if (close) {
             _writeQueue.add(new ByteBuffer[0]);
         }
@@ -381,10 +439,15 @@ public class Link {
                 return true;
             }
 
-            ByteBuffer[] raw_data = new ByteBuffer[data.length - 1];
-            System.arraycopy(data, 1, raw_data, 0, data.length - 1);
-
-            doWrite(ch, raw_data, _sslEngine);
+            int remaining = 0;
+            for (ByteBuffer buffer : data) {
+                remaining += buffer.remaining();
+            }
+            try {
+                doWrite(ch, data, _sslEngine, this);
+            } finally {
+                _bytesInFlight.addAndGet(-remaining);
+            }
         }
         return false;
     }
@@ -399,6 +462,9 @@ public class Link {
 
     public synchronized void terminated() {
         _key = null;
+        synchronized (_readLock) {
+            releaseReadBuffer();
+        }
     }
 
     public synchronized void schedule(Task task) throws ClosedChannelException {
@@ -63,6 +63,8 @@ public abstract class NioConnection implements Runnable {
     protected HandlerFactory _factory;
     protected String _name;
     protected ExecutorService _executor;
+    protected int _readPauseThreshold;
+    protected volatile boolean _readsPaused;
 
     public NioConnection(String name, int port, int workers, HandlerFactory factory) {
         _name = name;
@@ -74,6 +76,16 @@ public abstract class NioConnection implements Runnable {
         _executor = new ThreadPoolExecutor(workers, 5 * workers, 1, TimeUnit.DAYS, new LinkedBlockingQueue<Runnable>(), new NamedThreadFactory(name + "-Handler"));
     }
 
+    protected NioConnection(String name, int port, ExecutorService executor, HandlerFactory factory) {
+        _name = name;
+        _isRunning = false;
+        _thread = null;
+        _selector = null;
+        _port = port;
+        _factory = factory;
+        _executor = executor;
+    }
+
     public void start() {
         _todos = new ArrayList<ChangeRequest>();
 
@@ -106,6 +118,38 @@ public abstract class NioConnection implements Runnable {
         return _isStartup;
     }
 
+    public String getName() {
+        return _name;
+    }
+
+    /**
+     * @return number of tasks waiting for a handler thread.
+     */
+    public int getQueueSize() {
+        if (_executor instanceof ThreadPoolExecutor) {
+            return ((ThreadPoolExecutor)_executor).getQueue().size();
+        }
+        return 0;
+    }
+
+    /**
+     * @return number of handler threads busy with a task.
+     */
+    public int getActiveCount() {
+        if (_executor instanceof ThreadPoolExecutor) {
+            return ((ThreadPoolExecutor)_executor).getActiveCount();
+        }
+        return 0;
+    }
+
+    /**
+     * @return number of connections registered with the selector.
+     */
+    public int getKeyCount() {
+        Selector selector = _selector;
+        return selector != null && selector.isOpen() ? selector.keys().size() : 0;
+    }
+
     @Override
     public void run() {
         synchronized (_thread) {
@@ -127,7 +171,15 @@ public abstract class NioConnection implements Runnable {
 
         while (_isRunning) {
             try {
-                _selector.select();
+                if (_readsPaused && getQueueSize() <= _readPauseThreshold / 2) {
+                    resumeReads();
+                }
+                if (_readsPaused) {
+                    // Wake up now and then to see if the handlers caught up.
+                    _selector.select(100);
+                } else {
+                    _selector.select();
+                }
 
                 // Someone is ready for I/O, get the ready keys
                 Set<SelectionKey> readyKeys = _selector.selectedKeys();
@@ -153,6 +205,9 @@ public abstract class NioConnection implements Runnable {
                         }
                     } else if (sk.isReadable()) {
                         read(sk);
+                        if (!_readsPaused && _readPauseThreshold > 0 && getQueueSize() >= _readPauseThreshold) {
+                            pauseReads();
+                        }
                     } else if (sk.isWritable()) {
                         write(sk);
                     } else if (sk.isAcceptable()) {
@@ -184,6 +239,9 @@ public abstract class NioConnection implements Runnable {
         ServerSocketChannel serverSocketChannel = (ServerSocketChannel)key.channel();
 
         SocketChannel socketChannel = serverSocketChannel.accept();
+        if (socketChannel == null) {
+            return;
+        }
         Socket socket = socketChannel.socket();
         socket.setKeepAlive(true);
 
@@ -191,6 +249,31 @@ public abstract class NioConnection implements Runnable {
             s_logger.trace("Connection accepted for " + socket);
         }
 
+        SSLEngine sslEngine = handshake(socketChannel);
+        if (sslEngine == null) {
+            return;
+        }
+
+        socketChannel.configureBlocking(false);
+        InetSocketAddress saddr = (InetSocketAddress)socket.getRemoteSocketAddress();
+        Link link = new Link(saddr, this);
+        link.setSSLEngine(sslEngine);
+        link.setKey(socketChannel.register(key.selector(), SelectionKey.OP_READ, link));
+        Task task = _factory.create(Task.Type.CONNECT, link, null);
+        registerLink(saddr, link);
+        _executor.execute(task);
+    }
+
+    /**
+     * Does the server side of the SSL handshake on an accepted connection.
+     * The handshake is done in blocking mode, the channel is left in
+     * blocking mode on success and closed on failure.
+     *
+     * @return the SSLEngine for the connection or null if the handshake failed.
+     */
+    protected SSLEngine handshake(SocketChannel socketChannel) throws IOException {
+        Socket socket = socketChannel.socket();
+
         // Begin SSL handshake in BLOCKING mode
         socketChannel.configureBlocking(true);
 
@@ -213,20 +296,28 @@ public abstract class NioConnection implements Runnable {
                 socket.close();
             } catch (IOException ignore) {
             }
-            return;
+            return null;
         }
 
         if (s_logger.isTraceEnabled()) {
             s_logger.trace("SSL: Handshake done");
         }
-        socketChannel.configureBlocking(false);
-        InetSocketAddress saddr = (InetSocketAddress)socket.getRemoteSocketAddress();
-        Link link = new Link(saddr, this);
+        return sslEngine;
+    }
+
+    /**
+     * Hands a connection that has finished its SSL handshake over to this
+     * connection's selector.  It's registered by the selector thread, which
+     * then starts the CONNECT task for it.
+     */
+    public void accepted(SocketChannel socketChannel, SSLEngine sslEngine) {
+        Link link = new Link((InetSocketAddress)socketChannel.socket().getRemoteSocketAddress(), this);
         link.setSSLEngine(sslEngine);
-        link.setKey(socketChannel.register(key.selector(), SelectionKey.OP_READ, link));
-        Task task = _factory.create(Task.Type.CONNECT, link, null);
-        registerLink(saddr, link);
-        _executor.execute(task);
+        ChangeRequest todo = new ChangeRequest(socketChannel, ChangeRequest.ACCEPTED, SelectionKey.OP_READ, link);
+        synchronized (this) {
+            _todos.add(todo);
+        }
+        _selector.wakeup();
     }
 
     protected void terminate(SelectionKey key) {
@@ -340,6 +431,24 @@ public abstract class NioConnection implements Runnable {
                         }
                     }
                     break;
+                case ChangeRequest.ACCEPTED:
+                    SocketChannel socketChannel = (SocketChannel)todo.key;
+                    Link accepted = (Link)todo.att;
+                    try {
+                        socketChannel.configureBlocking(false);
+                        accepted.setKey(socketChannel.register(_selector, _readsPaused ? 0 : todo.ops, accepted));
+                    } catch (IOException e) {
+                        s_logger.warn("Couldn't register accepted socket: " + socketChannel.socket());
+                        try {
+                            socketChannel.close();
+                        } catch (IOException ignore) {
+                        }
+                        accepted.terminated();
+                        break;
+                    }
+                    registerLink(accepted.getSocketAddress(), accepted);
+                    _executor.execute(_factory.create(Task.Type.CONNECT, accepted, null));
+                    break;
                 case ChangeRequest.CLOSE:
                     if (s_logger.isTraceEnabled()) {
                         s_logger.trace("Trying to close " + todo.key);
@@ -385,6 +494,48 @@ public abstract class NioConnection implements Runnable {
         }
     }
 
+    /**
+     * Stops reading from the connections of this selector because too many
+     * tasks are waiting for a handler thread.  Reading resumes once the
+     * queue is down to half the threshold, so the selector thread itself
+     * never blocks on, or runs, a handler.
+     */
+    protected void pauseReads() {
+        s_logger.warn(_name + " has " + getQueueSize() + " tasks waiting for a handler, pausing reads");
+        _readsPaused = true;
+        for (SelectionKey key : _selector.keys()) {
+            try {
+                if (key.isValid() && key.channel() instanceof SocketChannel) {
+                    key.interestOps(key.interestOps() & ~SelectionKey.OP_READ);
+                }
+            } catch (CancelledKeyException e) {
+                s_logger.debug("key has been cancelled");
+            }
+        }
+    }
+
+    protected void resumeReads() {
+        s_logger.info(_name + " handlers caught up, resuming reads");
+        _readsPaused = false;
+        for (SelectionKey key : _selector.keys()) {
+            try {
+                // Keys with a pending write get OP_READ back once it's done.
+                if (key.isValid() && key.channel() instanceof SocketChannel && key.interestOps() == 0) {
+                    key.interestOps(SelectionKey.OP_READ);
+                }
+            } catch (CancelledKeyException e) {
+                s_logger.debug("key has been cancelled");
+            }
+        }
+    }
+
+    /**
+     * @return true if reading is paused because the handlers are behind.
+     */
+    public boolean isReadPaused() {
+        return _readsPaused;
+    }
+
     protected void scheduleTask(Task task) {
         _executor.execute(task);
     }
@@ -400,7 +551,7 @@ public abstract class NioConnection implements Runnable {
                 closeConnection(key);
                 link.terminated();
             } else {
-                key.interestOps(SelectionKey.OP_READ);
+                key.interestOps(_readsPaused ? 0 : SelectionKey.OP_READ);
             }
         } catch (Exception e) {
             logDebug(e, key, 3);
@@ -459,6 +610,7 @@ public abstract class NioConnection implements Runnable {
         public static final int REGISTER = 1;
         public static final int CHANGEOPS = 2;
         public static final int CLOSE = 3;
+        public static final int ACCEPTED = 4;
 
         public Object key;
         public int type;
@@ -21,26 +21,90 @@ package com.cloud.utils.nio;
 
 import java.io.IOException;
 import java.net.InetSocketAddress;
+import java.net.Socket;
 import java.nio.channels.ClosedChannelException;
 import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
 import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
 import java.nio.channels.spi.SelectorProvider;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
 import java.util.WeakHashMap;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.net.ssl.SSLEngine;
 
 import org.apache.log4j.Logger;
 
+import com.cloud.utils.concurrency.NamedThreadFactory;
+
+/**
+ * NioServer accepts connections on a port.  The SSL handshake of an accepted
+ * connection is done by a separate handshake pool, after which the connection
+ * is handed over to one of the selectors, round robin.  With a single
+ * selector, the server's own selector thread serves the connections as well;
+ * with more, each selector runs in its own thread and the server's selector
+ * thread only accepts.  All selectors share one handler pool.
+ *
+ * If a queue size is given, a selector stops reading from its connections
+ * once that many tasks wait for a handler, and resumes when the handlers
+ * have caught up.  Handlers never run on a selector thread.
+ */
 public class NioServer extends NioConnection {
     private final static Logger s_logger = Logger.getLogger(NioServer.class);
 
     protected InetSocketAddress _localAddr;
     private ServerSocketChannel _serverSocket;
 
-    protected WeakHashMap<InetSocketAddress, Link> _links;
+    protected Map<InetSocketAddress, Link> _links;
+
+    private final List<NioConnection> _selectors;
+    private final AtomicInteger _nextSelector = new AtomicInteger(0);
+    private final ThreadPoolExecutor _handshakeExecutor;
 
     public NioServer(String name, int port, int workers, HandlerFactory factory) {
+        this(name, port, workers, factory, 1, 0);
+    }
+
+    /**
+     * @param workers number of handler threads, shared by the selectors.
+     * @param selectors number of selector threads serving the connections, 0 for one per core.
+     * @param queueSize number of queued handler tasks at which the selectors stop reading, 0 for no limit.
+     */
+    public NioServer(String name, int port, int workers, HandlerFactory factory, int selectors, int queueSize) {
         super(name, port, workers, factory);
+        _readPauseThreshold = queueSize;
         _localAddr = null;
-        _links = new WeakHashMap<InetSocketAddress, Link>(1024);
+        _links = Collections.synchronizedMap(new WeakHashMap<InetSocketAddress, Link>(1024));
+
+        selectors = getSelectorCount(selectors);
+        _selectors = new ArrayList<NioConnection>(selectors);
+        if (selectors == 1) {
+            _selectors.add(this);
+        } else {
+            for (int i = 0; i < selectors; i++) {
+                SelectorConnection selector = new SelectorConnection(name + "-" + i, port, _executor, factory);
+                selector._readPauseThreshold = queueSize;
+                _selectors.add(selector);
+            }
+        }
+
+        int handshakers = Math.max(2, selectors);
+        _handshakeExecutor = new ThreadPoolExecutor(handshakers, handshakers, 60, TimeUnit.SECONDS, new ArrayBlockingQueue<Runnable>(10000),
+                new NamedThreadFactory(name + "-Handshake"));
+        _handshakeExecutor.allowCoreThreadTimeOut(true);
+    }
+
+    private static int getSelectorCount(int selectors) {
+        return selectors > 0 ? selectors : Runtime.getRuntime().availableProcessors();
     }
 
     @Override
@@ -55,18 +119,102 @@ public class NioServer extends NioConnection {
 
         _serverSocket.register(_selector, SelectionKey.OP_ACCEPT, null);
 
-        s_logger.info("NioConnection started and listening on " + _localAddr.toString());
+        s_logger.info("NioConnection started and listening on " + _localAddr.toString() + " with " + _selectors.size() + " selectors");
+    }
+
+    @Override
+    public void start() {
+        for (NioConnection selector : _selectors) {
+            if (selector != this) {
+                selector.start();
+            }
+        }
+        super.start();
+    }
+
+    @Override
+    public void stop() {
+        super.stop();
+        _handshakeExecutor.shutdown();
+        for (NioConnection selector : _selectors) {
+            if (selector != this) {
+                selector.stop();
+            }
+        }
     }
 
     @Override
     public void cleanUp() throws IOException {
         super.cleanUp();
+        for (NioConnection selector : _selectors) {
+            if (selector != this) {
+                selector.cleanUp();
+            }
+        }
         if (_serverSocket != null) {
             _serverSocket.close();
         }
         s_logger.info("NioConnection stopped on " + _localAddr.toString());
     }
 
+    @Override
+    protected void accept(SelectionKey key) throws IOException {
+        ServerSocketChannel serverSocketChannel = (ServerSocketChannel)key.channel();
+
+        final SocketChannel socketChannel = serverSocketChannel.accept();
+        if (socketChannel == null) {
+            return;
+        }
+        Socket socket = socketChannel.socket();
+        socket.setKeepAlive(true);
+
+        if (s_logger.isTraceEnabled()) {
+            s_logger.trace("Connection accepted for " + socket);
+        }
+
+        try {
+            _handshakeExecutor.execute(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        SSLEngine sslEngine = handshake(socketChannel);
+                        if (sslEngine != null) {
+                            nextSelector().accepted(socketChannel, sslEngine);
+                        }
+                    } catch (IOException e) {
+                        s_logger.debug("Unable to set up connection from " + socketChannel.socket() + ": " + e.getMessage());
+                        try {
+                            socketChannel.close();
+                        } catch (IOException ignore) {
+                        }
+                    }
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            s_logger.warn("Too many connections waiting for the SSL handshake, closing " + socket);
+            socketChannel.close();
+        }
+    }
+
+    protected NioConnection nextSelector() {
+        int index = (_nextSelector.getAndIncrement() & Integer.MAX_VALUE) % _selectors.size();
+        return _selectors.get(index);
+    }
+
+    /**
+     * @return the selectors serving the connections, which is just this server if there's only one.
+     */
+    public List<NioConnection> getSelectors() {
+        return Collections.unmodifiableList(_selectors);
+    }
+
+    /**
+     * @return number of accepted connections waiting for the SSL handshake.
+     */
+    public int getHandshakeQueueSize() {
+        return _handshakeExecutor.getQueue().size();
+    }
+
     @Override
     protected void registerLink(InetSocketAddress addr, Link link) {
         _links.put(addr, link);
@@ -94,4 +242,28 @@ public class NioServer extends NioConnection {
         link.send(data);
         return link.attachment();
     }
+
+    /**
+     * A selector thread serving part of the server's connections.
+     */
+    protected class SelectorConnection extends NioConnection {
+        public SelectorConnection(String name, int port, ExecutorService executor, HandlerFactory factory) {
+            super(name, port, executor, factory);
+        }
+
+        @Override
+        protected void init() throws IOException {
+            _selector = Selector.open();
+        }
+
+        @Override
+        protected void registerLink(InetSocketAddress saddr, Link link) {
+            NioServer.this.registerLink(saddr, link);
+        }
+
+        @Override
+        protected void unregisterLink(InetSocketAddress saddr) {
+            NioServer.this.unregisterLink(saddr);
+        }
+    }
 }
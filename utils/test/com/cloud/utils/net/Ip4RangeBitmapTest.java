@@ -0,0 +1,87 @@
+//
+// Licensed to the Apache Software Foundation (ASF) under one
+// or more contributor license agreements.  See the NOTICE file
+// distributed with this work for additional information
+// regarding copyright ownership.  The ASF licenses this file
+// to you under the Apache License, Version 2.0 (the
+// "License"); you may not use this file except in compliance
+// with the License.  You may obtain a copy of the License at
+//
+//   http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing,
+// software distributed under the License is distributed on an
+// "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+// KIND, either express or implied.  See the License for the
+// specific language governing permissions and limitations
+// under the License.
+//
+
+package com.cloud.utils.net;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Random;
+
+import org.junit.Test;
+
+public class Ip4RangeBitmapTest {
+
+    @Test
+    public void testRangeExcludesNetworkAndBroadcast() {
+        Ip4RangeBitmap bitmap = new Ip4RangeBitmap("10.1.1.0", 24);
+        assertEquals(NetUtils.ip2Long("10.1.1.1"), bitmap.getFirstIp());
+        assertEquals(NetUtils.ip2Long("10.1.1.254"), bitmap.getLastIp());
+        assertEquals(254, bitmap.getFreeCount());
+        assertFalse(bitmap.markUsed(NetUtils.ip2Long("10.1.1.0")));
+        assertFalse(bitmap.markUsed(NetUtils.ip2Long("10.1.1.255")));
+        assertFalse(bitmap.markUsed(NetUtils.ip2Long("10.1.2.1")));
+    }
+
+    @Test
+    public void testNextFreeWrapsAround() {
+        Ip4RangeBitmap bitmap = new Ip4RangeBitmap("192.168.0.0", 30);
+        assertEquals(2, bitmap.getFreeCount());
+        bitmap.markUsed("192.168.0.2");
+        assertEquals(NetUtils.ip2Long("192.168.0.1"), bitmap.nextFree(NetUtils.ip2Long("192.168.0.2")));
+        bitmap.markUsed("192.168.0.1");
+        assertEquals(0, bitmap.getFreeCount());
+        assertEquals(-1, bitmap.nextFree(bitmap.getFirstIp()));
+        assertEquals(-1, bitmap.randomFree(new Random(), 255));
+    }
+
+    @Test
+    public void testMarkLastOctetUsed() {
+        Ip4RangeBitmap bitmap = new Ip4RangeBitmap("172.16.0.0", 16);
+        bitmap.markLastOctetUsed(1);
+        assertEquals(65534 - 256, bitmap.getFreeCount());
+        assertFalse(bitmap.isFree(NetUtils.ip2Long("172.16.0.1")));
+        assertFalse(bitmap.isFree(NetUtils.ip2Long("172.16.255.1")));
+        assertTrue(bitmap.isFree(NetUtils.ip2Long("172.16.255.2")));
+    }
+
+    @Test
+    public void testRandomFreeOnlyReturnsFreeIps() {
+        Ip4RangeBitmap bitmap = new Ip4RangeBitmap("10.0.0.0", 24);
+        for (long ip = bitmap.getFirstIp(); ip < bitmap.getLastIp(); ip++) {
+            bitmap.markUsed(ip);
+        }
+        Random random = new Random();
+        for (int i = 0; i < 10; i++) {
+            assertEquals(bitmap.getLastIp(), bitmap.randomFree(random, 255));
+        }
+    }
+
+    @Test
+    public void testRandomFreeStaysInWindow() {
+        Ip4RangeBitmap bitmap = new Ip4RangeBitmap("172.16.0.0", 16);
+        bitmap.markUsed("172.16.0.2");
+        Random random = new Random();
+        for (int i = 0; i < 1000; i++) {
+            long ip = bitmap.randomFree(random, 3);
+            assertTrue(ip == NetUtils.ip2Long("172.16.0.1") || ip == NetUtils.ip2Long("172.16.0.3") || ip == NetUtils.ip2Long("172.16.0.4"));
+        }
+    }
+}
@@ -0,0 +1,89 @@
+//
+// Licensed to the Apache Software Foundation (ASF) under one
+// or more contributor license agreements.  See the NOTICE file
+// distributed with this work for additional information
+// regarding copyright ownership.  The ASF licenses this file
+// to you under the Apache License, Version 2.0 (the
+// "License"); you may not use this file except in compliance
+// with the License.  You may obtain a copy of the License at
+//
+//   http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing,
+// software distributed under the License is distributed on an
+// "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+// KIND, either express or implied.  See the License for the
+// specific language governing permissions and limitations
+// under the License.
+//
+
+package com.cloud.utils.nio;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.nio.ByteBuffer;
+
+import org.junit.Test;
+
+public class ByteBufferPoolTest {
+
+    @Test
+    public void acquireAndRelease() {
+        ByteBufferPool pool = new ByteBufferPool(1024, 2, 1);
+        ByteBuffer first = pool.acquire(100);
+        assertTrue(first.isDirect());
+        assertEquals(1024, first.capacity());
+        assertEquals(1024, first.remaining());
+        assertEquals(1, pool.getSlabCount());
+        assertEquals(1, pool.getInUseCount());
+
+        first.put((byte)1);
+        pool.release(first);
+        assertEquals(0, pool.getInUseCount());
+
+        ByteBuffer second = pool.acquire(1024);
+        ByteBuffer third = pool.acquire(1024);
+        assertNotSame(second, third);
+        assertEquals(0, second.position());
+        assertEquals(3, pool.getHitCount());
+        assertEquals(0, pool.getMissCount());
+    }
+
+    @Test
+    public void slabsDoNotOverlap() {
+        ByteBufferPool pool = new ByteBufferPool(16, 2, 1);
+        ByteBuffer first = pool.acquire(16);
+        ByteBuffer second = pool.acquire(16);
+        for (int i = 0; i < 16; i++) {
+            first.put((byte)1);
+        }
+        assertEquals(16, second.remaining());
+        assertEquals(0, second.get(0));
+        assertEquals(0, second.get(15));
+    }
+
+    @Test
+    public void missWhenExhaustedOrTooBig() {
+        ByteBufferPool pool = new ByteBufferPool(64, 1, 1);
+        ByteBuffer pooled = pool.acquire(64);
+        assertTrue(pool.isPooled(pooled));
+
+        ByteBuffer exhausted = pool.acquire(64);
+        assertFalse(pool.isPooled(exhausted));
+        ByteBuffer tooBig = pool.acquire(65);
+        assertFalse(pool.isPooled(tooBig));
+        assertEquals(65, tooBig.capacity());
+        assertEquals(2, pool.getMissCount());
+        assertEquals(1, pool.getSlabCount());
+
+        pool.release(exhausted);
+        pool.release(tooBig);
+        assertEquals(1, pool.getInUseCount());
+        pool.release(pooled);
+        assertSame(pooled, pool.acquire(1));
+    }
+}